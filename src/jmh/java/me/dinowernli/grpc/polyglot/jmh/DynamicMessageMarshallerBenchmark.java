@@ -0,0 +1,64 @@
+package me.dinowernli.grpc.polyglot.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import me.dinowernli.grpc.polyglot.protobuf.DynamicMessageMarshaller;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import polyglot.test.TestProto.Tree;
+
+/**
+ * Measures the conversion between dynamic messages and the wire format done by
+ * {@link DynamicMessageMarshaller}, using the same kind of streams as the grpc transports.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DynamicMessageMarshallerBenchmark {
+  @Param({"SMALL", "LARGE"})
+  public Payloads.Size size;
+
+  @Param({"FLAT", "NESTED"})
+  public Payloads.Shape shape;
+
+  private DynamicMessageMarshaller marshaller;
+  private DynamicMessage payload;
+  private byte[] payloadBytes;
+
+  @Setup
+  public void setUp() {
+    marshaller = new DynamicMessageMarshaller(Tree.getDescriptor());
+    payload = Payloads.create(size, shape);
+    payloadBytes = payload.toByteArray();
+  }
+
+  @Benchmark
+  public DynamicMessage parse() {
+    return marshaller.parse(new KnownLengthStream(payloadBytes));
+  }
+
+  @Benchmark
+  public int stream() throws IOException {
+    // The stream is lazy, so drain it the way the transports do to include the serialization.
+    return ((Drainable) marshaller.stream(payload)).drainTo(ByteStreams.nullOutputStream());
+  }
+
+  /** Mimics the streams handed to marshallers by the grpc transports. */
+  private static class KnownLengthStream extends ByteArrayInputStream implements KnownLength {
+    KnownLengthStream(byte[] bytes) {
+      super(bytes);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package me.dinowernli.grpc.polyglot.jmh;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.util.JsonFormat.TypeRegistry;
+import me.dinowernli.grpc.polyglot.io.MessageReader;
+import me.dinowernli.grpc.polyglot.io.MessageWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import polyglot.test.TestProto.Tree;
+
+/**
+ * Measures parsing a stream of json messages with {@link MessageReader#read()}, serially and on
+ * several threads, and the same messages in the length-delimited binary format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageReaderBenchmark {
+  private static final int NUM_MESSAGES = 16;
+  private static final int PARSE_THREADS = 4;
+
+  @Param({"SMALL", "LARGE"})
+  public Payloads.Size size;
+
+  @Param({"FLAT", "NESTED"})
+  public Payloads.Shape shape;
+
+  private Path inputFile;
+  private Path binaryInputFile;
+
+  @Setup
+  public void setUp() throws IOException {
+    DynamicMessage payload = Payloads.create(size, shape);
+    String json = MessageWriter.writeJsonStream(
+        ImmutableList.copyOf(Collections.nCopies(NUM_MESSAGES, payload)));
+    inputFile = Files.createTempFile("polyglot-jmh", ".json");
+    Files.write(inputFile, json.getBytes(StandardCharsets.UTF_8));
+
+    binaryInputFile = Files.createTempFile("polyglot-jmh", ".bin");
+    try (OutputStream output = Files.newOutputStream(binaryInputFile)) {
+      for (int i = 0; i < NUM_MESSAGES; ++i) {
+        payload.writeDelimitedTo(output);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(inputFile);
+    Files.deleteIfExists(binaryInputFile);
+  }
+
+  @Benchmark
+  public ImmutableList<DynamicMessage> read() {
+    return MessageReader.forFile(inputFile, Tree.getDescriptor()).read();
+  }
+
+  @Benchmark
+  public ImmutableList<DynamicMessage> readInParallel() {
+    return MessageReader.forFile(
+        inputFile, Tree.getDescriptor(), TypeRegistry.getEmptyTypeRegistry(), PARSE_THREADS).read();
+  }
+
+  @Benchmark
+  public ImmutableList<DynamicMessage> readDelimited() {
+    return MessageReader.forDelimitedFile(binaryInputFile, Tree.getDescriptor()).read();
+  }
+}
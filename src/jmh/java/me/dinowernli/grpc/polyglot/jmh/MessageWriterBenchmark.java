@@ -0,0 +1,71 @@
+package me.dinowernli.grpc.polyglot.jmh;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.util.JsonFormat.TypeRegistry;
+import me.dinowernli.grpc.polyglot.io.MessageWriter;
+import me.dinowernli.grpc.polyglot.io.Output;
+import me.dinowernli.grpc.polyglot.io.ParallelMessageWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures rendering a single response with {@link MessageWriter#onNext}, and rendering a stream of
+ * responses serially and with a {@link ParallelMessageWriter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageWriterBenchmark {
+  private static final int STREAM_MESSAGES = 256;
+  private static final int PRINT_THREADS = 4;
+
+  @Param({"SMALL", "LARGE"})
+  public Payloads.Size size;
+
+  @Param({"FLAT", "NESTED"})
+  public Payloads.Shape shape;
+
+  private DynamicMessage payload;
+  private Output nullOutput;
+  private MessageWriter<DynamicMessage> writer;
+
+  @Setup
+  public void setUp() {
+    payload = Payloads.create(size, shape);
+    nullOutput = Output.forStream(new PrintStream(ByteStreams.nullOutputStream()));
+    writer = MessageWriter.create(nullOutput, TypeRegistry.getEmptyTypeRegistry());
+  }
+
+  @Benchmark
+  public void onNext() {
+    writer.onNext(payload);
+  }
+
+  @Benchmark
+  public void writeStream() {
+    for (int i = 0; i < STREAM_MESSAGES; ++i) {
+      writer.onNext(payload);
+    }
+    writer.onCompleted();
+  }
+
+  @Benchmark
+  public void writeStreamInParallel() {
+    ParallelMessageWriter<DynamicMessage> parallelWriter = ParallelMessageWriter.create(
+        nullOutput, TypeRegistry.getEmptyTypeRegistry(), PRINT_THREADS);
+    for (int i = 0; i < STREAM_MESSAGES; ++i) {
+      parallelWriter.onNext(payload);
+    }
+    parallelWriter.onCompleted();
+  }
+}
@@ -0,0 +1,78 @@
+package me.dinowernli.grpc.polyglot.jmh;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.google.common.base.Strings;
+import com.google.protobuf.DynamicMessage;
+import polyglot.test.TestProto.Tree;
+
+/** Builds the payloads shared by the benchmarks, based on the "testing" protos. */
+class Payloads {
+  /** The root directory of the "testing" proto files, relative to the workspace root. */
+  static final Path TESTING_PROTO_ROOT = Paths.get("src", "main", "proto", "testing");
+
+  /** Stays well below the recursion limits of the binary and json parsers. */
+  private static final int MAX_DEPTH = 32;
+
+  /** The number of nodes in a payload and the length of the label of each node. */
+  enum Size {
+    SMALL(16, 16),
+    LARGE(4096, 64);
+
+    private final int numNodes;
+    private final int labelLength;
+
+    Size(int numNodes, int labelLength) {
+      this.numNodes = numNodes;
+      this.labelLength = labelLength;
+    }
+  }
+
+  /** How the nodes of a payload are arranged. */
+  enum Shape {
+    /** All nodes are direct children of the root. */
+    FLAT,
+
+    /** The nodes form a chain which is as deep as possible, each level carrying some leaves. */
+    NESTED,
+  }
+
+  /** Returns a payload of the supplied size and shape. */
+  static DynamicMessage create(Size size, Shape shape) {
+    return DynamicMessage.newBuilder(createTree(size, shape)).build();
+  }
+
+  private static Tree createTree(Size size, Shape shape) {
+    String label = Strings.repeat("x", size.labelLength);
+    if (shape == Shape.FLAT) {
+      Tree.Builder root = leaf(label, 0).toBuilder();
+      for (int i = 1; i < size.numNodes; ++i) {
+        root.addChildren(leaf(label, i));
+      }
+      return root.build();
+    }
+
+    int depth = Math.min(size.numNodes, MAX_DEPTH);
+    int nodesPerLevel = size.numNodes / depth;
+    Tree current = null;
+    for (int level = depth - 1; level >= 0; --level) {
+      Tree.Builder node = leaf(label, level).toBuilder();
+      for (int i = 1; i < nodesPerLevel; ++i) {
+        node.addChildren(leaf(label, i));
+      }
+      if (current != null) {
+        node.addChildren(current);
+      }
+      current = node.build();
+    }
+    return current;
+  }
+
+  private static Tree leaf(String label, int number) {
+    return Tree.newBuilder()
+        .setLabel(label)
+        .setNumber(number)
+        .build();
+  }
+}
@@ -0,0 +1,49 @@
+package me.dinowernli.grpc.polyglot.jmh;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import me.dinowernli.grpc.polyglot.protobuf.ProtocInvoker;
+import me.dinowernli.grpc.polyglot.protobuf.ProtocInvoker.ProtocInvocationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import polyglot.ConfigProto.ProtoConfiguration;
+
+/**
+ * Measures resolving the "testing" protos with {@link ProtocInvoker#invoke()}, by compiling them
+ * in-process, by running protoc, and by hitting the descriptor cache in the user's home directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProtocInvokerBenchmark {
+  @Param({"false", "true"})
+  public boolean useDescriptorCache;
+
+  @Param({"false", "true"})
+  public boolean useProtocBinary;
+
+  private ProtocInvoker invoker;
+
+  @Setup
+  public void setUp() {
+    invoker = ProtocInvoker.forConfig(ProtoConfiguration.newBuilder()
+        .setProtoDiscoveryRoot(Payloads.TESTING_PROTO_ROOT.toAbsolutePath().toString())
+        .addIncludePaths(Paths.get(".").toAbsolutePath().toString())
+        .setDisableDescriptorCache(!useDescriptorCache)
+        .setUseProtocBinary(useProtocBinary)
+        .build());
+  }
+
+  @Benchmark
+  public FileDescriptorSet invoke() throws ProtocInvocationException {
+    return invoker.invoke();
+  }
+}
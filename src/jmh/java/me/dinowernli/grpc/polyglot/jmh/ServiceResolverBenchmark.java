@@ -0,0 +1,90 @@
+package me.dinowernli.grpc.polyglot.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import me.dinowernli.grpc.polyglot.protobuf.ProtoMethodName;
+import me.dinowernli.grpc.polyglot.protobuf.ServiceResolver;
+import me.dinowernli.grpc.polyglot.protobuf.WellKnownTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import polyglot.test.TestProto;
+import polyglot.test.foo.FooProto;
+
+/**
+ * Measures building a {@link ServiceResolver} and resolving a single method with it, which is
+ * what every call does. The "testing" protos are padded with unrelated generated files to model
+ * large descriptor sets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ServiceResolverBenchmark {
+  private static final ProtoMethodName METHOD =
+      ProtoMethodName.parseFullGrpcMethodName("polyglot.test.TestService/TestMethod");
+
+  @Param({"0", "1000", "10000"})
+  public int numUnrelatedFiles;
+
+  private FileDescriptorSet descriptorSet;
+
+  @Setup
+  public void setUp() {
+    FileDescriptorProto testProto = TestProto.getDescriptor().toProto();
+    FileDescriptorSet.Builder builder = FileDescriptorSet.newBuilder()
+        .addFile(testProto)
+        .addFile(FooProto.getDescriptor().toProto())
+        .addAllFile(WellKnownTypes.descriptors());
+    for (int i = 0; i < numUnrelatedFiles; ++i) {
+      builder.addFile(createUnrelatedFile(i, testProto.getName()));
+    }
+    descriptorSet = builder.build();
+  }
+
+  @Benchmark
+  public MethodDescriptor resolveMethod() {
+    return ServiceResolver.fromFileDescriptorSet(descriptorSet).resolveServiceMethod(METHOD);
+  }
+
+  /** Returns a file with a message and a service which depend on the "testing" protos. */
+  private static FileDescriptorProto createUnrelatedFile(int index, String testProtoName) {
+    String packageName = "polyglot.jmh.generated" + index;
+    return FileDescriptorProto.newBuilder()
+        .setName("generated/file" + index + ".proto")
+        .setPackage(packageName)
+        .setSyntax("proto3")
+        .addDependency(testProtoName)
+        .addMessageType(DescriptorProto.newBuilder()
+            .setName("Wrapper")
+            .addField(FieldDescriptorProto.newBuilder()
+                .setName("request")
+                .setNumber(1)
+                .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL)
+                .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+                .setTypeName(".polyglot.test.TestRequest"))
+            .addField(FieldDescriptorProto.newBuilder()
+                .setName("tag")
+                .setNumber(2)
+                .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL)
+                .setType(FieldDescriptorProto.Type.TYPE_STRING)))
+        .addService(ServiceDescriptorProto.newBuilder()
+            .setName("GeneratedService")
+            .addMethod(MethodDescriptorProto.newBuilder()
+                .setName("Call")
+                .setInputType("." + packageName + ".Wrapper")
+                .setOutputType(".polyglot.test.TestResponse")))
+        .build();
+  }
+}
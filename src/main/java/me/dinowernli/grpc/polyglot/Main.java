@@ -1,12 +1,24 @@
 package me.dinowernli.grpc.polyglot;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.Optional;
 import java.util.logging.LogManager;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import me.dinowernli.grpc.polyglot.command.CallEnvironment;
+import me.dinowernli.grpc.polyglot.command.MessageConversion;
+import me.dinowernli.grpc.polyglot.command.ServiceBenchmark;
 import me.dinowernli.grpc.polyglot.command.ServiceCall;
 import me.dinowernli.grpc.polyglot.command.ServiceList;
+import me.dinowernli.grpc.polyglot.command.ServiceReplay;
 import me.dinowernli.grpc.polyglot.config.CommandLineArgs;
 import me.dinowernli.grpc.polyglot.config.ConfigurationLoader;
+import me.dinowernli.grpc.polyglot.daemon.DaemonClient;
+import me.dinowernli.grpc.polyglot.daemon.DaemonServer;
 import me.dinowernli.grpc.polyglot.io.Output;
 import me.dinowernli.grpc.polyglot.protobuf.ProtocInvoker;
 import me.dinowernli.grpc.polyglot.protobuf.ProtocInvoker.ProtocInvocationException;
@@ -14,11 +26,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.bridge.SLF4JBridgeHandler;
 import polyglot.ConfigProto.Configuration;
+import polyglot.ConfigProto.OutputConfiguration;
+import polyglot.ConfigProto.OutputConfiguration.Destination;
 import polyglot.ConfigProto.ProtoConfiguration;
 
 public class Main {
   private static final Logger logger = LoggerFactory.getLogger(Main.class);
   private static final String VERSION = "2.0.0+dev";
+  private static final String DAEMON_PORT_FLAG = "--daemon_port";
 
   public static void main(String[] args) {
     // Fix the logging setup.
@@ -42,16 +57,38 @@ public class Main {
     // Check for command
     String command = arguments.command().orElseThrow(() -> new RuntimeException("Missing command"));
 
-    final ConfigurationLoader configLoader = arguments.configSetPath()
-      .map(ConfigurationLoader::forFile).orElseGet(() -> ConfigurationLoader.forDefaultConfigSet())
-      .withOverrides(arguments);
-    Configuration config = arguments.configName()
-      .map(configLoader::getNamedConfiguration).orElseGet(() -> configLoader.getDefaultConfiguration());
-    logger.info("Loaded configuration: " + config.getName());
+    // Calls forwarded to a daemon and the daemon itself don't need a local configuration.
+    try {
+      if (command.equals(CommandLineArgs.CALL_COMMAND) && arguments.daemonPort().isPresent()) {
+        // The daemon has its own working directory, so relative paths are resolved here.
+        ImmutableList<String> forwardedArgs = CommandLineArgs.withAbsolutePaths(
+            withoutDaemonPort(args), Paths.get("").toAbsolutePath());
+        DaemonClient.forPort(arguments.daemonPort().get())
+            .run(forwardedArgs, System.in, System.out);
+        return;
+      }
+      if (command.equals(CommandLineArgs.DAEMON_COMMAND)) {
+        runDaemon(arguments);
+        return;
+      }
+    } catch (Throwable t) {
+      logger.warn("Caught top-level exception during command execution", t);
+      throw new RuntimeException(t);
+    }
+
+    Configuration config = loadConfiguration(arguments);
 
     try(Output commandLineOutput = Output.forConfiguration(config.getOutputConfig())) {
       switch (command) {
         case CommandLineArgs.LIST_SERVICES_COMMAND:
+          if (arguments.listServicesEndpoint().isPresent()) {
+            ServiceList.listRemoteServices(
+                commandLineOutput,
+                arguments.listServicesEndpoint().get(),
+                config.getCallConfig(),
+                arguments.serviceFilter(), arguments.methodFilter(), arguments.withMessage());
+            break;
+          }
           FileDescriptorSet fileDescriptorSet = getFileDescriptorSet(config.getProtoConfig());
           ServiceList.listServices(
               commandLineOutput,
@@ -68,7 +105,39 @@ public class Main {
               arguments.protoDiscoveryRoot(),
               arguments.configSetPath(),
               arguments.additionalProtocIncludes(),
-              config.getCallConfig());
+              config.getCallConfig(),
+              config.getInputConfig(),
+              config.getOutputConfig());
+          break;
+
+        case CommandLineArgs.BENCH_COMMAND:
+          ServiceBenchmark.benchmarkEndpoint(
+              commandLineOutput,
+              config.getProtoConfig(),
+              arguments.endpoint(),
+              arguments.fullMethod(),
+              arguments.protoDiscoveryRoot(),
+              arguments.configSetPath(),
+              arguments.additionalProtocIncludes(),
+              config.getCallConfig(),
+              config.getInputConfig(),
+              config.getBenchConfig());
+          break;
+
+        case CommandLineArgs.REPLAY_COMMAND:
+          ServiceReplay.replayRecording(
+              commandLineOutput,
+              arguments.replayEndpoint(),
+              config.getCallConfig(),
+              config.getReplayConfig());
+          break;
+
+        case CommandLineArgs.CONVERT_COMMAND:
+          MessageConversion.convertToBinary(
+              getFileDescriptorSet(config.getProtoConfig()),
+              arguments.conversionMessageType(),
+              arguments.conversionInputPath(),
+              arguments.conversionOutputPath());
           break;
 
         default:
@@ -80,6 +149,75 @@ public class Main {
     }
   }
 
+  private static Configuration loadConfiguration(CommandLineArgs arguments) {
+    final ConfigurationLoader configLoader = arguments.configSetPath()
+      .map(ConfigurationLoader::forFile).orElseGet(() -> ConfigurationLoader.forDefaultConfigSet())
+      .withOverrides(arguments);
+    Configuration config = arguments.configName()
+      .map(configLoader::getNamedConfiguration).orElseGet(() -> configLoader.getDefaultConfiguration());
+    logger.info("Loaded configuration: " + config.getName());
+    return config;
+  }
+
+  /** Serves forwarded calls until the process is killed. */
+  private static void runDaemon(CommandLineArgs arguments) throws Exception {
+    Preconditions.checkState(arguments.daemonPort().isPresent(), "--daemon_port argument required");
+
+    // Shared by all forwarded calls, this is what keeps channels and descriptors warm.
+    CallEnvironment environment = CallEnvironment.createWarm();
+    DaemonServer server = DaemonServer.create(
+        arguments.daemonPort().get(),
+        (forwardedArgs, stdin, stdout) ->
+            runForwardedCall(forwardedArgs, stdin, stdout, environment));
+    server.start();
+    server.awaitTermination();
+  }
+
+  /** Runs a call command forwarded by a client, using the client's stdin and stdout. */
+  private static void runForwardedCall(
+      ImmutableList<String> forwardedArgs,
+      InputStream stdin,
+      OutputStream stdout,
+      CallEnvironment environment) throws Exception {
+    CommandLineArgs arguments = CommandLineArgs.parse(forwardedArgs.toArray(new String[0]));
+    Preconditions.checkArgument(
+        arguments.command().equals(Optional.of(CommandLineArgs.CALL_COMMAND)),
+        "The daemon only runs the call command");
+
+    Configuration config = loadConfiguration(arguments);
+    OutputConfiguration outputConfig = config.getOutputConfig();
+    try (Output output = outputConfig.getDestination() == Destination.STDOUT
+        ? Output.forStream(stdout, outputConfig)
+        : Output.forConfiguration(outputConfig)) {
+      ServiceCall.callEndpoint(
+          output,
+          stdin,
+          environment,
+          config.getProtoConfig(),
+          arguments.endpoint(),
+          arguments.fullMethod(),
+          arguments.protoDiscoveryRoot(),
+          arguments.configSetPath(),
+          arguments.additionalProtocIncludes(),
+          config.getCallConfig(),
+          config.getInputConfig(),
+          outputConfig);
+    }
+  }
+
+  /** Returns the supplied arguments without the ones selecting a daemon. */
+  private static ImmutableList<String> withoutDaemonPort(String[] args) {
+    ImmutableList.Builder<String> result = ImmutableList.builder();
+    for (int i = 0; i < args.length; ++i) {
+      if (args[i].equals(DAEMON_PORT_FLAG)) {
+        ++i;  // Also skip the value.
+      } else if (!args[i].startsWith(DAEMON_PORT_FLAG + "=")) {
+        result.add(args[i]);
+      }
+    }
+    return result.build();
+  }
+
   /** Invokes protoc and returns a {@link FileDescriptorSet} used for discovery. */
   private static FileDescriptorSet getFileDescriptorSet(ProtoConfiguration protoConfig) {
     try {
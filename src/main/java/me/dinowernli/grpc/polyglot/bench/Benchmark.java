@@ -0,0 +1,12 @@
+package me.dinowernli.grpc.polyglot.bench;
+
+import com.google.common.util.concurrent.AsyncCallable;
+
+/** A strategy for generating load against an rpc and measuring how it holds up. */
+public interface Benchmark {
+  /**
+   * Runs the benchmark, using the supplied callable to start each rpc, and blocks until all rpcs
+   * have completed.
+   */
+  <T> BenchmarkResult run(AsyncCallable<T> rpc) throws InterruptedException;
+}
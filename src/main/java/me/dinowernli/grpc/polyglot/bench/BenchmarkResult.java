@@ -0,0 +1,67 @@
+package me.dinowernli.grpc.polyglot.bench;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMultiset;
+import io.grpc.Status;
+
+/** Holds the outcome of a single benchmark run. */
+public class BenchmarkResult {
+  private final LatencyHistogram latencies;
+  private final ImmutableMultiset<Status.Code> errors;
+  private final long elapsedNanos;
+  private final Optional<LatencyHistogram> scheduleLag;
+
+  BenchmarkResult(
+      LatencyHistogram latencies, ImmutableMultiset<Status.Code> errors, long elapsedNanos) {
+    this(latencies, errors, elapsedNanos, Optional.empty());
+  }
+
+  BenchmarkResult(
+      LatencyHistogram latencies,
+      ImmutableMultiset<Status.Code> errors,
+      long elapsedNanos,
+      Optional<LatencyHistogram> scheduleLag) {
+    this.latencies = latencies;
+    this.errors = errors;
+    this.elapsedNanos = elapsedNanos;
+    this.scheduleLag = scheduleLag;
+  }
+
+  /** Returns the latencies of all the rpcs which completed successfully. */
+  public LatencyHistogram getLatencies() {
+    return latencies;
+  }
+
+  /** Returns the status codes of all the rpcs which failed. */
+  public ImmutableMultiset<Status.Code> getErrors() {
+    return errors;
+  }
+
+  /** Returns the total number of rpcs which completed, successfully or not. */
+  public long getNumRequests() {
+    return latencies.getCount() + errors.size();
+  }
+
+  /** Returns the wall time elapsed between starting the first rpc and completing the last. */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * For benchmarks which send rpcs on a schedule, returns by how much each rpc was sent later than
+   * it was scheduled to be.
+   */
+  public Optional<LatencyHistogram> getScheduleLag() {
+    return scheduleLag;
+  }
+
+  /** Returns the number of completed rpcs per second. */
+  public double getThroughput() {
+    if (elapsedNanos == 0) {
+      return 0;
+    }
+    return getNumRequests() / ((double) elapsedNanos / TimeUnit.SECONDS.toNanos(1));
+  }
+}
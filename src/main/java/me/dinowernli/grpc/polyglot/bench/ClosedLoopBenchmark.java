@@ -0,0 +1,149 @@
+package me.dinowernli.grpc.polyglot.bench;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+/**
+ * Generates load by keeping a fixed number of rpcs in flight, starting a new rpc as soon as a
+ * previous one completes. The benchmark ends once either the request budget or the duration has
+ * been exhausted, whichever happens first.
+ */
+public class ClosedLoopBenchmark implements Benchmark {
+  private static final Logger logger = LoggerFactory.getLogger(ClosedLoopBenchmark.class);
+
+  private final int concurrency;
+  private final long maxRequests;
+  private final Duration duration;
+  private final Duration warmup;
+  private final Ticker ticker;
+
+  /**
+   * Creates a benchmark which keeps {@code concurrency} rpcs in flight. A {@code maxRequests} of
+   * zero or a zero {@code duration} mean that the respective bound is not enforced, but at least
+   * one of them must be set.
+   */
+  public static ClosedLoopBenchmark create(
+      int concurrency, long maxRequests, Duration duration, Duration warmup) {
+    return new ClosedLoopBenchmark(
+        concurrency, maxRequests, duration, warmup, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  ClosedLoopBenchmark(
+      int concurrency, long maxRequests, Duration duration, Duration warmup, Ticker ticker) {
+    Preconditions.checkArgument(concurrency > 0, "Concurrency must be positive: " + concurrency);
+    Preconditions.checkArgument(maxRequests > 0 || !duration.isZero(),
+        "A benchmark needs either a request budget or a duration");
+    this.concurrency = concurrency;
+    this.maxRequests = maxRequests;
+    this.duration = duration;
+    this.warmup = warmup;
+    this.ticker = ticker;
+  }
+
+  /** Rpcs started during warmup are not included in the result. */
+  @Override
+  public <T> BenchmarkResult run(AsyncCallable<T> rpc) throws InterruptedException {
+    if (!warmup.isZero()) {
+      logger.info("Warming up for " + warmup.getSeconds() + "s");
+      new Phase(rpc, 0 /* maxRequests */, warmup).run();
+    }
+    logger.info(String.format("Running benchmark with %d rpc(s) in flight", concurrency));
+    return new Phase(rpc, maxRequests, duration).run();
+  }
+
+  /** Tracks the progress of the workers while generating load for a period of time. */
+  private class Phase {
+    private final AsyncCallable<?> rpc;
+    private final long requestBudget;
+    private final Duration phaseDuration;
+    private final AtomicLong numStarted;
+    private final CountDownLatch workersDone;
+    private final LatencyHistogram latencies;
+    private final ConcurrentHashMultiset<Status.Code> errors;
+    private long startNanos;
+
+    private Phase(AsyncCallable<?> rpc, long requestBudget, Duration phaseDuration) {
+      this.rpc = rpc;
+      this.requestBudget = requestBudget;
+      this.phaseDuration = phaseDuration;
+      this.numStarted = new AtomicLong();
+      this.workersDone = new CountDownLatch(concurrency);
+      this.latencies = new LatencyHistogram();
+      this.errors = ConcurrentHashMultiset.create();
+    }
+
+    BenchmarkResult run() throws InterruptedException {
+      startNanos = ticker.read();
+      for (int i = 0; i < concurrency; ++i) {
+        runWorker();
+      }
+      workersDone.await();
+      long elapsedNanos = ticker.read() - startNanos;
+      return new BenchmarkResult(latencies, ImmutableMultiset.copyOf(errors), elapsedNanos);
+    }
+
+    /**
+     * Starts rpcs one after the other until the phase is over. Returns as soon as an rpc is in
+     * flight, the worker then continues from the completion callback of that rpc.
+     */
+    private void runWorker() {
+      while (tryStartRequest()) {
+        long rpcStartNanos = ticker.read();
+        ListenableFuture<?> future = startRpc();
+        if (!future.isDone()) {
+          future.addListener(() -> {
+            recordCompletion(future, rpcStartNanos);
+            runWorker();
+          }, directExecutor());
+          return;
+        }
+        recordCompletion(future, rpcStartNanos);
+      }
+      workersDone.countDown();
+    }
+
+    private boolean tryStartRequest() {
+      if (!phaseDuration.isZero() && ticker.read() - startNanos >= phaseDuration.toNanos()) {
+        return false;
+      }
+      return requestBudget == 0 || numStarted.incrementAndGet() <= requestBudget;
+    }
+
+    private ListenableFuture<?> startRpc() {
+      try {
+        return rpc.call();
+      } catch (Throwable t) {
+        return Futures.immediateFailedFuture(t);
+      }
+    }
+
+    private void recordCompletion(ListenableFuture<?> future, long rpcStartNanos) {
+      long latencyNanos = ticker.read() - rpcStartNanos;
+      try {
+        Futures.getDone(future);
+        latencies.record(latencyNanos);
+      } catch (ExecutionException e) {
+        errors.add(Status.fromThrowable(e.getCause()).getCode());
+      } catch (RuntimeException e) {
+        errors.add(Status.fromThrowable(e).getCode());
+      }
+    }
+  }
+}
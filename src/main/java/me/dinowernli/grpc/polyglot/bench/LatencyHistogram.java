@@ -0,0 +1,103 @@
+package me.dinowernli.grpc.polyglot.bench;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A thread-safe histogram of latencies which uses a fixed amount of memory regardless of how many
+ * values are recorded. Values are grouped into buckets whose width grows with the magnitude of the
+ * value, such that any reported value is within 1% of the value which was actually recorded.
+ */
+public class LatencyHistogram {
+  /** Each power of two is split into 2^SUB_BUCKET_BITS linear buckets. */
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int NUM_BUCKETS = bucketIndex(Long.MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts;
+  private final AtomicLong totalCount;
+  private final AtomicLong totalNanos;
+  private final AtomicLong minNanos;
+  private final AtomicLong maxNanos;
+
+  public LatencyHistogram() {
+    this.counts = new AtomicLongArray(NUM_BUCKETS);
+    this.totalCount = new AtomicLong();
+    this.totalNanos = new AtomicLong();
+    this.minNanos = new AtomicLong(Long.MAX_VALUE);
+    this.maxNanos = new AtomicLong(0);
+  }
+
+  /** Records a single latency. Negative values are recorded as zero. */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucketIndex(value));
+    totalCount.incrementAndGet();
+    totalNanos.addAndGet(value);
+    minNanos.accumulateAndGet(value, Math::min);
+    maxNanos.accumulateAndGet(value, Math::max);
+  }
+
+  /** Returns the number of recorded values. */
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  /** Returns the smallest recorded value, or zero if nothing has been recorded. */
+  public long getMinNanos() {
+    return getCount() == 0 ? 0 : minNanos.get();
+  }
+
+  /** Returns the largest recorded value, or zero if nothing has been recorded. */
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /** Returns the arithmetic mean of the recorded values, or zero if nothing has been recorded. */
+  public double getMeanNanos() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) totalNanos.get() / count;
+  }
+
+  /**
+   * Returns a value such that the supplied percentage of all recorded values is less than or
+   * equal to it. The percentile must be in the range [0, 100].
+   */
+  public long getValueAtPercentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0 && percentile <= 100,
+        "Percentile must be in [0, 100], but got: " + percentile);
+    long count = getCount();
+    if (count == 0) {
+      return 0;
+    }
+
+    long targetRank = Math.max(1, (long) Math.ceil(percentile * count / 100.0));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      seen += counts.get(i);
+      if (seen >= targetRank) {
+        return Math.max(getMinNanos(), Math.min(highestValueInBucket(i), getMaxNanos()));
+      }
+    }
+    return getMaxNanos();
+  }
+
+  /** Returns the index of the bucket which holds the supplied non-negative value. */
+  private static int bucketIndex(long value) {
+    int highestBit = 63 - Long.numberOfLeadingZeros(value);
+    int shift = Math.max(0, highestBit - SUB_BUCKET_BITS);
+    return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+  }
+
+  /** Returns the largest value which is mapped to the bucket with the supplied index. */
+  private static long highestValueInBucket(int index) {
+    if (index < 2 * SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long subBucket = index - shift * SUB_BUCKET_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,195 @@
+package me.dinowernli.grpc.polyglot.bench;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+/**
+ * Generates load by starting rpcs on a fixed schedule, regardless of how many rpcs are still in
+ * flight. The latency of each rpc is measured from the time it was scheduled to be sent rather
+ * than the time it was actually sent, so that a stalled server (or sender) shows up in the
+ * latency distribution instead of just reducing the number of samples taken.
+ */
+public class OpenLoopBenchmark implements Benchmark {
+  private static final Logger logger = LoggerFactory.getLogger(OpenLoopBenchmark.class);
+
+  private final LongSupplier intervalsNanos;
+  private final long maxRequests;
+  private final Duration duration;
+  private final Duration warmup;
+  private final Ticker ticker;
+  private final Sleeper sleeper;
+
+  /** Creates a benchmark which sends evenly spaced rpcs at the supplied rate. */
+  public static OpenLoopBenchmark constantRate(
+      double rateQps, long maxRequests, Duration duration, Duration warmup) {
+    return new OpenLoopBenchmark(constantIntervals(rateQps), maxRequests, duration, warmup,
+        Ticker.systemTicker(), TimeUnit.NANOSECONDS::sleep);
+  }
+
+  /** Creates a benchmark whose rpcs arrive as a Poisson process with the supplied mean rate. */
+  public static OpenLoopBenchmark poisson(
+      double rateQps, long maxRequests, Duration duration, Duration warmup) {
+    return new OpenLoopBenchmark(poissonIntervals(rateQps, new Random()), maxRequests, duration,
+        warmup, Ticker.systemTicker(), TimeUnit.NANOSECONDS::sleep);
+  }
+
+  @VisibleForTesting
+  OpenLoopBenchmark(
+      LongSupplier intervalsNanos,
+      long maxRequests,
+      Duration duration,
+      Duration warmup,
+      Ticker ticker,
+      Sleeper sleeper) {
+    Preconditions.checkArgument(maxRequests > 0 || !duration.isZero(),
+        "A benchmark needs either a request budget or a duration");
+    this.intervalsNanos = intervalsNanos;
+    this.maxRequests = maxRequests;
+    this.duration = duration;
+    this.warmup = warmup;
+    this.ticker = ticker;
+    this.sleeper = sleeper;
+  }
+
+  /** Rpcs scheduled during warmup are not included in the result. */
+  @Override
+  public <T> BenchmarkResult run(AsyncCallable<T> rpc) throws InterruptedException {
+    if (!warmup.isZero()) {
+      logger.info("Warming up for " + warmup.getSeconds() + "s");
+      new Phase(rpc, 0 /* maxRequests */, warmup).run();
+    }
+    logger.info("Running benchmark with a fixed rpc schedule");
+    return new Phase(rpc, maxRequests, duration).run();
+  }
+
+  @VisibleForTesting
+  static LongSupplier constantIntervals(double rateQps) {
+    checkRate(rateQps);
+    long intervalNanos = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / rateQps));
+    return () -> intervalNanos;
+  }
+
+  @VisibleForTesting
+  static LongSupplier poissonIntervals(double rateQps, Random random) {
+    checkRate(rateQps);
+    double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / rateQps;
+    // Inverse transform sampling of the exponential distribution. Using 1 - u keeps the argument
+    // of the logarithm in (0, 1].
+    return () -> Math.round(-Math.log(1.0 - random.nextDouble()) * meanIntervalNanos);
+  }
+
+  private static void checkRate(double rateQps) {
+    Preconditions.checkArgument(rateQps > 0, "Rate must be positive: " + rateQps);
+  }
+
+  /** Blocks the sending thread until the next rpc is due. */
+  @VisibleForTesting
+  interface Sleeper {
+    void sleepNanos(long nanos) throws InterruptedException;
+  }
+
+  /** Sends rpcs on schedule for a period of time and tracks their outcome. */
+  private class Phase {
+    private final AsyncCallable<?> rpc;
+    private final long requestBudget;
+    private final Duration phaseDuration;
+    private final LatencyHistogram latencies;
+    private final LatencyHistogram scheduleLag;
+    private final ConcurrentHashMultiset<Status.Code> errors;
+
+    /** Counts the rpcs in flight, plus one while the sender is still running. */
+    private final AtomicLong pending;
+    private final CountDownLatch allDone;
+
+    private Phase(AsyncCallable<?> rpc, long requestBudget, Duration phaseDuration) {
+      this.rpc = rpc;
+      this.requestBudget = requestBudget;
+      this.phaseDuration = phaseDuration;
+      this.latencies = new LatencyHistogram();
+      this.scheduleLag = new LatencyHistogram();
+      this.errors = ConcurrentHashMultiset.create();
+      this.pending = new AtomicLong(1);
+      this.allDone = new CountDownLatch(1);
+    }
+
+    BenchmarkResult run() throws InterruptedException {
+      long startNanos = ticker.read();
+      long scheduledNanos = startNanos;
+      long numSent = 0;
+      while (requestBudget == 0 || numSent < requestBudget) {
+        if (!phaseDuration.isZero() && scheduledNanos - startNanos >= phaseDuration.toNanos()) {
+          break;
+        }
+
+        long nowNanos = ticker.read();
+        if (scheduledNanos > nowNanos) {
+          sleeper.sleepNanos(scheduledNanos - nowNanos);
+          nowNanos = ticker.read();
+        }
+        scheduleLag.record(nowNanos - scheduledNanos);
+        send(scheduledNanos);
+        ++numSent;
+        scheduledNanos += intervalsNanos.getAsLong();
+      }
+
+      onRpcDone();
+      allDone.await();
+      long elapsedNanos = ticker.read() - startNanos;
+      return new BenchmarkResult(
+          latencies, ImmutableMultiset.copyOf(errors), elapsedNanos, Optional.of(scheduleLag));
+    }
+
+    private void send(long scheduledNanos) {
+      pending.incrementAndGet();
+      ListenableFuture<?> future;
+      try {
+        future = rpc.call();
+      } catch (Throwable t) {
+        future = Futures.immediateFailedFuture(t);
+      }
+      ListenableFuture<?> finalFuture = future;
+      future.addListener(() -> {
+        recordCompletion(finalFuture, scheduledNanos);
+        onRpcDone();
+      }, directExecutor());
+    }
+
+    private void recordCompletion(ListenableFuture<?> future, long scheduledNanos) {
+      long latencyNanos = ticker.read() - scheduledNanos;
+      try {
+        Futures.getDone(future);
+        latencies.record(latencyNanos);
+      } catch (ExecutionException e) {
+        errors.add(Status.fromThrowable(e.getCause()).getCode());
+      } catch (RuntimeException e) {
+        errors.add(Status.fromThrowable(e).getCode());
+      }
+    }
+
+    private void onRpcDone() {
+      if (pending.decrementAndGet() == 0) {
+        allDone.countDown();
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package me.dinowernli.grpc.polyglot.command;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import io.grpc.Channel;
+import me.dinowernli.grpc.polyglot.grpc.ReflectionCache;
+import me.dinowernli.grpc.polyglot.protobuf.ProtocInvoker;
+import me.dinowernli.grpc.polyglot.protobuf.ServiceResolver;
+import polyglot.ConfigProto.CallConfiguration;
+import polyglot.ConfigProto.ProtoConfiguration;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Provides the expensive resources used by calls: channels, the reflection cache, the compiler of
+ * local protos and service resolvers. A regular environment creates them from scratch for every
+ * call, while a warm one hands the same instances to all calls which can share them.
+ */
+public class CallEnvironment {
+  private static final Duration DEFAULT_REFLECTION_CACHE_TTL = Duration.ofMinutes(5);
+
+  private final boolean warm;
+  private final ConcurrentMap<ImmutableList<Object>, Channel> channels;
+  private final ConcurrentMap<Duration, ReflectionCache> reflectionCaches;
+  private final ConcurrentMap<ProtoConfiguration, ProtocInvoker> protocInvokers;
+  private final ConcurrentMap<ImmutableList<Object>, ResolverEntry> serviceResolvers;
+
+  /** Returns an environment which shares nothing between calls. */
+  public static CallEnvironment create() {
+    return new CallEnvironment(false /* warm */);
+  }
+
+  /**
+   * Returns an environment which keeps channels, cached reflection descriptors and linked
+   * descriptors around for subsequent calls. Intended for long-lived processes.
+   */
+  public static CallEnvironment createWarm() {
+    return new CallEnvironment(true /* warm */);
+  }
+
+  private CallEnvironment(boolean warm) {
+    this.warm = warm;
+    this.channels = new ConcurrentHashMap<>();
+    this.reflectionCaches = new ConcurrentHashMap<>();
+    this.protocInvokers = new ConcurrentHashMap<>();
+    this.serviceResolvers = new ConcurrentHashMap<>();
+  }
+
+  /** Returns a channel to the supplied endpoint, set up as requested by the config. */
+  Channel getChannel(HostAndPort hostAndPort, CallConfiguration callConfig) {
+    if (!warm) {
+      return ServiceCall.createChannel(hostAndPort, callConfig);
+    }
+
+    // Only share channels between calls whose configs differ in per-call settings at most.
+    CallConfiguration channelConfig = callConfig.toBuilder()
+        .clearDeadlineMs()
+        .clearBatchConcurrency()
+        .clearBatchOutputOrder()
+        .clearRecordFilePath()
+        .build();
+    return channels.computeIfAbsent(
+        ImmutableList.of(hostAndPort, channelConfig),
+        key -> ServiceCall.createChannel(hostAndPort, channelConfig));
+  }
+
+  /** Returns the cache to use for descriptors obtained by reflection, if caching is enabled. */
+  Optional<ReflectionCache> getReflectionCache(ProtoConfiguration protoConfig) {
+    if (protoConfig.getDisableDescriptorCache()) {
+      return Optional.empty();
+    }
+
+    Duration ttl = protoConfig.getReflectionCacheTtlSec() > 0
+        ? Duration.ofSeconds(protoConfig.getReflectionCacheTtlSec())
+        : DEFAULT_REFLECTION_CACHE_TTL;
+    if (!warm) {
+      return Optional.of(ReflectionCache.forUserHome(ttl));
+    }
+    return Optional.of(reflectionCaches.computeIfAbsent(ttl, ReflectionCache::forUserHome));
+  }
+
+  /**
+   * Returns the compiler for the local protos described by the config. A warm environment hands
+   * out the same one for equal configs, which then returns the same descriptors for as long as
+   * the protos are unmodified.
+   */
+  ProtocInvoker getProtocInvoker(ProtoConfiguration protoConfig) {
+    if (!warm) {
+      return ProtocInvoker.forConfig(protoConfig);
+    }
+    return protocInvokers.computeIfAbsent(protoConfig, ProtocInvoker::forConfig);
+  }
+
+  /**
+   * Returns a resolver over the supplied descriptors, which were obtained for the supplied service
+   * using the supplied config. A warm environment reuses the resolver of an earlier call for the
+   * same service and config if that call got the very same descriptors.
+   */
+  ServiceResolver getServiceResolver(
+      ProtoConfiguration protoConfig, String serviceName, FileDescriptorSet fileDescriptorSet) {
+    if (!warm) {
+      return ServiceResolver.fromFileDescriptorSet(fileDescriptorSet);
+    }
+    return serviceResolvers.compute(
+        ImmutableList.of(protoConfig, serviceName),
+        (key, entry) -> entry != null && entry.descriptors == fileDescriptorSet
+            ? entry
+            : new ResolverEntry(
+                fileDescriptorSet, ServiceResolver.fromFileDescriptorSet(fileDescriptorSet)))
+        .resolver;
+  }
+
+  /** A resolver along with the descriptors it was built from. */
+  private static class ResolverEntry {
+    private final FileDescriptorSet descriptors;
+    private final ServiceResolver resolver;
+
+    private ResolverEntry(FileDescriptorSet descriptors, ServiceResolver resolver) {
+      this.descriptors = descriptors;
+      this.resolver = resolver;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package me.dinowernli.grpc.polyglot.command;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Optional;
+
+import com.google.common.base.Preconditions;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.util.JsonFormat.TypeRegistry;
+import me.dinowernli.grpc.polyglot.io.MessageReader;
+import me.dinowernli.grpc.polyglot.protobuf.ServiceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts files of json messages, as accepted by the call command, to length-delimited binary
+ * protos, which the call command can read without paying for json parsing.
+ */
+public class MessageConversion {
+  private static final Logger logger = LoggerFactory.getLogger(MessageConversion.class);
+  private static final int OUTPUT_BUFFER_BYTES = 1 << 16;
+
+  /** Converts the messages of the input file and writes them to the output file. */
+  public static void convertToBinary(
+      FileDescriptorSet fileDescriptorSet,
+      Optional<String> messageType,
+      Optional<Path> inputPath,
+      Optional<Path> outputPath) {
+    Preconditions.checkState(messageType.isPresent(), "--message_type argument required");
+    Preconditions.checkState(inputPath.isPresent(), "--input_file_path argument required");
+    Preconditions.checkState(outputPath.isPresent(), "--binary_output_path argument required");
+
+    ServiceResolver serviceResolver = ServiceResolver.fromFileDescriptorSet(fileDescriptorSet);
+    Descriptor descriptor = serviceResolver.resolveMessageType(messageType.get());
+    TypeRegistry registry =
+        ServiceCall.createTypeRegistry(serviceResolver, descriptor.getFile());
+
+    // Messages are streamed through one at a time, so files of any size convert in constant memory.
+    Iterator<DynamicMessage> messages =
+        MessageReader.forFile(inputPath.get(), descriptor, registry).readIncrementally();
+    long numMessages = 0;
+    try (OutputStream output = new BufferedOutputStream(
+        Files.newOutputStream(outputPath.get()), OUTPUT_BUFFER_BYTES)) {
+      while (messages.hasNext()) {
+        messages.next().writeDelimitedTo(output);
+        ++numMessages;
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to write messages to: " + outputPath.get(), e);
+    }
+    logger.info(String.format("Converted %d message(s) of type %s to: %s",
+        numMessages, messageType.get(), outputPath.get()));
+  }
+}
@@ -0,0 +1,186 @@
+package me.dinowernli.grpc.polyglot.command;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multiset;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.util.JsonFormat.TypeRegistry;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import me.dinowernli.grpc.polyglot.bench.Benchmark;
+import me.dinowernli.grpc.polyglot.bench.BenchmarkResult;
+import me.dinowernli.grpc.polyglot.bench.ClosedLoopBenchmark;
+import me.dinowernli.grpc.polyglot.bench.LatencyHistogram;
+import me.dinowernli.grpc.polyglot.bench.OpenLoopBenchmark;
+import me.dinowernli.grpc.polyglot.grpc.DynamicGrpcClient;
+import me.dinowernli.grpc.polyglot.io.Output;
+import me.dinowernli.grpc.polyglot.protobuf.ProtoMethodName;
+import me.dinowernli.grpc.polyglot.protobuf.ServiceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import polyglot.ConfigProto.BenchConfiguration;
+import polyglot.ConfigProto.CallConfiguration;
+import polyglot.ConfigProto.InputConfiguration;
+import polyglot.ConfigProto.ProtoConfiguration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/** Repeatedly calls a method of an endpoint and reports throughput and latency statistics. */
+public class ServiceBenchmark {
+  private static final Logger logger = LoggerFactory.getLogger(ServiceBenchmark.class);
+
+  /** Used if the config bounds the benchmark neither by duration nor by number of requests. */
+  private static final Duration DEFAULT_DURATION = Duration.ofSeconds(10);
+
+  /** The latency percentiles included in the report. */
+  private static final ImmutableList<Double> REPORTED_PERCENTILES =
+      ImmutableList.of(50.0, 90.0, 99.0, 99.9);
+
+  /** Benchmarks the endpoint specified in the arguments, writing a report to the output. */
+  public static void benchmarkEndpoint(
+      Output output,
+      ProtoConfiguration protoConfig,
+      Optional<String> endpoint,
+      Optional<String> fullMethod,
+      Optional<Path> protoDiscoveryRoot,
+      Optional<Path> configSetPath,
+      ImmutableList<Path> additionalProtocIncludes,
+      CallConfiguration callConfig,
+      InputConfiguration inputConfig,
+      BenchConfiguration benchConfig) {
+    Preconditions.checkState(endpoint.isPresent(), "--endpoint argument required");
+    Preconditions.checkState(fullMethod.isPresent(), "--full_method argument required");
+    ServiceCall.validatePath(protoDiscoveryRoot);
+    ServiceCall.validatePath(configSetPath);
+    ServiceCall.validatePaths(additionalProtocIncludes);
+
+    HostAndPort hostAndPort = HostAndPort.fromString(endpoint.get());
+    ProtoMethodName grpcMethodName =
+        ProtoMethodName.parseFullGrpcMethodName(fullMethod.get());
+    CallEnvironment environment = CallEnvironment.create();
+    Channel channel = environment.getChannel(hostAndPort, callConfig);
+
+    ServiceResolver serviceResolver = ServiceCall.resolveServices(
+        channel, hostAndPort, protoConfig, grpcMethodName, environment);
+    MethodDescriptor methodDescriptor = serviceResolver.resolveServiceMethod(grpcMethodName);
+    DynamicGrpcClient dynamicClient = DynamicGrpcClient.create(methodDescriptor, channel);
+    TypeRegistry registry = ServiceCall.createTypeRegistry(serviceResolver, methodDescriptor);
+
+    // The requests are read once and sent again for every rpc of the benchmark.
+    ImmutableList<DynamicMessage> requestMessages = ServiceCall.createRequestReader(
+        inputConfig, System.in, methodDescriptor.getInputType(), registry).read();
+    StreamObserver<DynamicMessage> discardingObserver = new DiscardingObserver();
+
+    Benchmark benchmark = createBenchmark(benchConfig);
+    logger.info(String.format(
+        "Benchmarking %s with %d request(s) per rpc against endpoint [%s]",
+        fullMethod.get(), requestMessages.size(), hostAndPort));
+    AsyncCallable<Void> rpc = () -> dynamicClient.call(
+        requestMessages, discardingObserver, ServiceCall.callOptions(callConfig));
+    BenchmarkResult result;
+    try {
+      result = benchmark.run(rpc);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while running benchmark", e);
+    }
+
+    writeResult(output, fullMethod.get(), result);
+  }
+
+  private static Benchmark createBenchmark(BenchConfiguration benchConfig) {
+    long numRequests = benchConfig.getNumRequests();
+    Duration duration = benchmarkDuration(benchConfig);
+    Duration warmup = Duration.ofSeconds(benchConfig.getWarmupSec());
+    if (benchConfig.getRateQps() <= 0) {
+      return ClosedLoopBenchmark.create(
+          Math.max(1, benchConfig.getConcurrency()), numRequests, duration, warmup);
+    }
+
+    switch (benchConfig.getArrival()) {
+      case POISSON:
+        return OpenLoopBenchmark.poisson(benchConfig.getRateQps(), numRequests, duration, warmup);
+      case CONSTANT:
+        return OpenLoopBenchmark.constantRate(
+            benchConfig.getRateQps(), numRequests, duration, warmup);
+      default:
+        throw new IllegalArgumentException("Unknown arrival: " + benchConfig.getArrival());
+    }
+  }
+
+  private static Duration benchmarkDuration(BenchConfiguration benchConfig) {
+    if (benchConfig.getDurationSec() == 0 && benchConfig.getNumRequests() == 0) {
+      return DEFAULT_DURATION;
+    }
+    return Duration.ofSeconds(benchConfig.getDurationSec());
+  }
+
+  private static void writeResult(Output output, String fullMethod, BenchmarkResult result) {
+    LatencyHistogram latencies = result.getLatencies();
+    output.writeLine("Benchmark results for " + fullMethod);
+    output.writeLine(String.format("  Requests:    %d (%d ok, %d failed)",
+        result.getNumRequests(), latencies.getCount(), result.getErrors().size()));
+    for (Multiset.Entry<Status.Code> error : result.getErrors().entrySet()) {
+      output.writeLine(String.format("    %-24s %d", error.getElement(), error.getCount()));
+    }
+    output.writeLine(String.format("  Duration:    %.3f s",
+        (double) result.getElapsedNanos() / TimeUnit.SECONDS.toNanos(1)));
+    output.writeLine(String.format("  Throughput:  %.1f rpc/s", result.getThroughput()));
+
+    output.writeLine("  Latency (ms):");
+    output.writeLine(formatLatency("min", latencies.getMinNanos()));
+    output.writeLine(formatLatency("mean", (long) latencies.getMeanNanos()));
+    for (double percentile : REPORTED_PERCENTILES) {
+      output.writeLine(formatLatency(
+          "p" + formatPercentile(percentile), latencies.getValueAtPercentile(percentile)));
+    }
+    output.writeLine(formatLatency("max", latencies.getMaxNanos()));
+
+    // Latencies above are measured from the scheduled send time, so the lag tells whether a slow
+    // tail was caused by the server or by the sender falling behind.
+    if (result.getScheduleLag().isPresent()) {
+      LatencyHistogram lag = result.getScheduleLag().get();
+      output.writeLine("  Schedule lag (ms):");
+      output.writeLine(formatLatency("mean", (long) lag.getMeanNanos()));
+      output.writeLine(formatLatency("p99", lag.getValueAtPercentile(99)));
+      output.writeLine(formatLatency("max", lag.getMaxNanos()));
+    }
+  }
+
+  private static String formatLatency(String label, long nanos) {
+    double millis = (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    return String.format("    %-8s %10.3f", label, millis);
+  }
+
+  /** Renders 99.0 as "99" and 99.9 as "99.9". */
+  private static String formatPercentile(double percentile) {
+    return percentile == Math.rint(percentile)
+        ? String.valueOf((long) percentile)
+        : String.valueOf(percentile);
+  }
+
+  /** A {@link StreamObserver} which ignores the responses of the benchmark rpcs. */
+  private static class DiscardingObserver implements StreamObserver<DynamicMessage> {
+    @Override
+    public void onNext(DynamicMessage message) {
+      // Do nothing.
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      // Do nothing, failures are recorded by the benchmark.
+    }
+
+    @Override
+    public void onCompleted() {
+      // Do nothing.
+    }
+  }
+}
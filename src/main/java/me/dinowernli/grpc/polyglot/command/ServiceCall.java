@@ -4,7 +4,10 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.net.HostAndPort;
+import com.google.protobuf.Any;
 import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
 import com.google.protobuf.Descriptors.MethodDescriptor;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.util.JsonFormat.TypeRegistry;
@@ -16,23 +19,35 @@ import io.grpc.stub.StreamObserver;
 import me.dinowernli.grpc.polyglot.grpc.ChannelFactory;
 import me.dinowernli.grpc.polyglot.grpc.CompositeStreamObserver;
 import me.dinowernli.grpc.polyglot.grpc.DynamicGrpcClient;
+import me.dinowernli.grpc.polyglot.grpc.ReflectionCache;
 import me.dinowernli.grpc.polyglot.grpc.ServerReflectionClient;
-import me.dinowernli.grpc.polyglot.io.LoggingStatsWriter;
+import me.dinowernli.grpc.polyglot.io.CallStatsWriter;
+import me.dinowernli.grpc.polyglot.io.MessageCodec;
 import me.dinowernli.grpc.polyglot.io.MessageReader;
 import me.dinowernli.grpc.polyglot.io.MessageWriter;
+import me.dinowernli.grpc.polyglot.io.ParallelMessageWriter;
 import me.dinowernli.grpc.polyglot.io.Output;
 import me.dinowernli.grpc.polyglot.oauth2.OauthCredentialsFactory;
 import me.dinowernli.grpc.polyglot.protobuf.ProtoMethodName;
-import me.dinowernli.grpc.polyglot.protobuf.ProtocInvoker;
 import me.dinowernli.grpc.polyglot.protobuf.ServiceResolver;
+import me.dinowernli.grpc.polyglot.recording.RecordingWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import polyglot.ConfigProto.CallConfiguration;
+import polyglot.ConfigProto.InputConfiguration;
+import polyglot.ConfigProto.OutputConfiguration;
 import polyglot.ConfigProto.ProtoConfiguration;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /** Makes a call to an endpoint, rendering the result */
@@ -48,33 +63,202 @@ public class ServiceCall {
       Optional<Path> protoDiscoveryRoot,
       Optional<Path> configSetPath,
       ImmutableList<Path> additionalProtocIncludes,
-      CallConfiguration callConfig) {
+      CallConfiguration callConfig,
+      InputConfiguration inputConfig,
+      OutputConfiguration outputConfig) {
+    callEndpoint(
+        output,
+        System.in,
+        CallEnvironment.create(),
+        protoConfig,
+        endpoint,
+        fullMethod,
+        protoDiscoveryRoot,
+        configSetPath,
+        additionalProtocIncludes,
+        callConfig,
+        inputConfig,
+        outputConfig);
+  }
+
+  /**
+   * Calls the endpoint specified in the arguments, reading the requests from the supplied stream
+   * unless the input config names a file, and obtaining channels and descriptors from the supplied
+   * environment.
+   */
+  public static void callEndpoint(
+      Output output,
+      InputStream requestInput,
+      CallEnvironment environment,
+      ProtoConfiguration protoConfig,
+      Optional<String> endpoint,
+      Optional<String> fullMethod,
+      Optional<Path> protoDiscoveryRoot,
+      Optional<Path> configSetPath,
+      ImmutableList<Path> additionalProtocIncludes,
+      CallConfiguration callConfig,
+      InputConfiguration inputConfig,
+      OutputConfiguration outputConfig) {
     Preconditions.checkState(endpoint.isPresent(), "--endpoint argument required");
     Preconditions.checkState(fullMethod.isPresent(), "--full_method argument required");
     validatePath(protoDiscoveryRoot);
     validatePath(configSetPath);
     validatePaths(additionalProtocIncludes);
+    Preconditions.checkArgument(
+        outputConfig.getFormat() == OutputConfiguration.Format.JSON
+            || outputConfig.getDestination() != OutputConfiguration.Destination.LOG,
+        "Binary output formats cannot be written to the log");
 
     HostAndPort hostAndPort = HostAndPort.fromString(endpoint.get());
     ProtoMethodName grpcMethodName =
         ProtoMethodName.parseFullGrpcMethodName(fullMethod.get());
+    Channel channel = environment.getChannel(hostAndPort, callConfig);
+
+    // Set up the dynamic client and make the call.
+    ServiceResolver serviceResolver =
+        resolveServices(channel, hostAndPort, protoConfig, grpcMethodName, environment);
+    MethodDescriptor methodDescriptor = serviceResolver.resolveServiceMethod(grpcMethodName);
+
+    logger.info("Creating dynamic grpc client");
+    DynamicGrpcClient dynamicClient =
+        outputConfig.getFormat() == OutputConfiguration.Format.RAW_DELIMITED
+            ? DynamicGrpcClient.createWithRawResponses(methodDescriptor, channel)
+            : DynamicGrpcClient.create(methodDescriptor, channel);
+    TypeRegistry registry = createTypeRegistry(serviceResolver, methodDescriptor);
+
+    // Requests are parsed lazily as the call consumes them, so large request streams never have to
+    // be held in memory.
+    Iterator<DynamicMessage> requestMessages = createRequestReader(
+        inputConfig, requestInput, methodDescriptor.getInputType(), registry).readIncrementally();
+    StreamObserver<DynamicMessage> streamObserver = CompositeStreamObserver.of(
+        CallStatsWriter.create(statsFile(outputConfig)),
+        createResponseWriter(output, registry, outputConfig));
+    Optional<RecordingWriter> recorder =
+        createRecorder(callConfig, fullMethod.get(), methodDescriptor);
+    if (recorder.isPresent()) {
+      logger.info("Recording call to: " + callConfig.getRecordFilePath());
+      requestMessages = recorder.get().recordRequests(requestMessages);
+      streamObserver =
+          CompositeStreamObserver.of(recorder.get().recordResponses(), streamObserver);
+    }
+    try {
+      if (callConfig.getBatchConcurrency() > 0) {
+        logger.info(String.format("Making batch of rpcs to endpoint [%s]", hostAndPort));
+        boolean preserveInputOrder =
+            callConfig.getBatchOutputOrder() != CallConfiguration.BatchOutputOrder.COMPLETION;
+        dynamicClient.callUnaryBatch(
+            requestMessages,
+            streamObserver,
+            () -> callOptions(callConfig),
+            callConfig.getBatchConcurrency(),
+            preserveInputOrder).get();
+      } else {
+        logger.info(String.format("Making rpc to endpoint [%s]", hostAndPort));
+        dynamicClient.call(requestMessages, streamObserver, callOptions(callConfig)).get();
+      }
+    } catch (Throwable t) {
+      throw new RuntimeException("Caught exception while waiting for rpc", t);
+    } finally {
+      if (recorder.isPresent()) {
+        closeRecorder(recorder.get());
+      }
+    }
+  }
+
+  private static Optional<RecordingWriter> createRecorder(
+      CallConfiguration callConfig, String fullMethod, MethodDescriptor methodDescriptor) {
+    if (callConfig.getRecordFilePath().isEmpty()) {
+      return Optional.empty();
+    }
+    Path path = Paths.get(callConfig.getRecordFilePath());
+    try {
+      return Optional.of(RecordingWriter.create(path, fullMethod, methodDescriptor));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to create recording: " + path, e);
+    }
+  }
+
+  private static void closeRecorder(RecordingWriter recorder) {
+    try {
+      recorder.close();
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to write recording", e);
+    }
+  }
+
+  private static Optional<Path> statsFile(OutputConfiguration outputConfig) {
+    return outputConfig.getStatsFilePath().isEmpty()
+        ? Optional.empty()
+        : Optional.of(Paths.get(outputConfig.getStatsFilePath()));
+  }
+
+  /** Returns an observer which writes responses to the output in the configured format. */
+  private static StreamObserver<DynamicMessage> createResponseWriter(
+      Output output, TypeRegistry registry, OutputConfiguration outputConfig) {
+    MessageCodec codec = MessageCodec.forConfiguration(outputConfig.getJsonCodec(), registry);
+    if (outputConfig.getFormat() == OutputConfiguration.Format.JSON
+        && outputConfig.getFormatThreads() > 1) {
+      return ParallelMessageWriter.create(output, codec, outputConfig.getFormatThreads());
+    }
+    return MessageWriter.create(output, codec, outputConfig.getFormat());
+  }
+
+  /**
+   * Returns a reader for the requests in the format given by the input config, which reads from
+   * the configured file if there is one, and from the supplied stream otherwise.
+   */
+  static MessageReader createRequestReader(
+      InputConfiguration inputConfig,
+      InputStream stdin,
+      Descriptor requestType,
+      TypeRegistry registry) {
+    boolean binary = inputConfig.getFormat() == InputConfiguration.Format.BINARY_DELIMITED;
+    MessageCodec codec = MessageCodec.forConfiguration(inputConfig.getJsonCodec(), registry);
+    if (inputConfig.getFilePath().isEmpty()) {
+      return binary
+          ? MessageReader.forDelimitedStream(stdin, requestType, "STDIN")
+          : MessageReader.forStream(
+              stdin, requestType, codec, "STDIN", inputConfig.getParseThreads());
+    }
+
+    Path path = Paths.get(inputConfig.getFilePath());
+    return binary
+        ? MessageReader.forDelimitedFile(path, requestType)
+        : MessageReader.forFile(path, requestType, codec, inputConfig.getParseThreads());
+  }
+
+  /** Creates a channel to the supplied endpoint, authenticated if the config asks for it. */
+  static Channel createChannel(HostAndPort hostAndPort, CallConfiguration callConfig) {
     ChannelFactory channelFactory = ChannelFactory.create(callConfig);
 
     logger.info("Creating channel to: " + hostAndPort.toString());
-    Channel channel;
     if (callConfig.hasOauthConfig()) {
-      channel = channelFactory.createChannelWithCredentials(
+      return channelFactory.createChannelWithCredentials(
           hostAndPort, new OauthCredentialsFactory(callConfig.getOauthConfig()).getCredentials());
     } else {
-      channel = channelFactory.createChannel(hostAndPort);
+      return channelFactory.createChannel(hostAndPort);
     }
+  }
 
+  /**
+   * Returns a {@link ServiceResolver} which knows about the service of the supplied method. Uses
+   * reflection if enabled and supported by the remote server, and falls back to invoking protoc.
+   */
+  static ServiceResolver resolveServices(
+      Channel channel,
+      HostAndPort hostAndPort,
+      ProtoConfiguration protoConfig,
+      ProtoMethodName grpcMethodName,
+      CallEnvironment environment) {
     // Fetch the appropriate file descriptors for the service.
     final FileDescriptorSet fileDescriptorSet;
     Optional<FileDescriptorSet> reflectionDescriptors = Optional.empty();
     if (protoConfig.getUseReflection()) {
-      reflectionDescriptors =
-          resolveServiceByReflection(channel, grpcMethodName.getFullServiceName());
+      reflectionDescriptors = resolveServiceByReflection(
+          channel,
+          hostAndPort.toString(),
+          grpcMethodName.getFullServiceName(),
+          environment.getReflectionCache(protoConfig));
     }
 
     if (reflectionDescriptors.isPresent()) {
@@ -82,36 +266,50 @@ public class ServiceCall {
       fileDescriptorSet = reflectionDescriptors.get();
     } else {
       try {
-        fileDescriptorSet = ProtocInvoker.forConfig(protoConfig).invoke();
+        fileDescriptorSet = environment.getProtocInvoker(protoConfig)
+            .invokeForService(grpcMethodName.getFullServiceName());
         logger.info("Using proto descriptors obtained from protoc");
       } catch (Throwable t) {
         throw new RuntimeException("Unable to resolve service by invoking protoc", t);
       }
     }
+    return environment.getServiceResolver(
+        protoConfig, grpcMethodName.getFullServiceName(), fileDescriptorSet);
+  }
 
-    // Set up the dynamic client and make the call.
-    ServiceResolver serviceResolver = ServiceResolver.fromFileDescriptorSet(fileDescriptorSet);
-    MethodDescriptor methodDescriptor = serviceResolver.resolveServiceMethod(grpcMethodName);
-
-    logger.info("Creating dynamic grpc client");
-    DynamicGrpcClient dynamicClient = DynamicGrpcClient.create(methodDescriptor, channel);
+  /**
+   * Collects all known types into a registry for resolution of potential "Any" types. If the
+   * method's messages cannot contain an "Any", the registry is never consulted, so this returns an
+   * empty one rather than linking every known file.
+   */
+  static TypeRegistry createTypeRegistry(
+      ServiceResolver serviceResolver, MethodDescriptor methodDescriptor) {
+    return createTypeRegistry(serviceResolver, methodDescriptor.getFile());
+  }
 
-    // This collects all known types into a registry for resolution of potential "Any" types.
-    TypeRegistry registry = TypeRegistry.newBuilder()
+  /** Like the above, but for the messages defined in the supplied file. */
+  static TypeRegistry createTypeRegistry(ServiceResolver serviceResolver, FileDescriptor file) {
+    if (!importsAny(file, new HashSet<>())) {
+      return TypeRegistry.getEmptyTypeRegistry();
+    }
+    return TypeRegistry.newBuilder()
         .add(serviceResolver.listMessageTypes())
         .build();
+  }
 
-    ImmutableList<DynamicMessage> requestMessages =
-        MessageReader.forStdin(methodDescriptor.getInputType(), registry).read();
-    StreamObserver<DynamicMessage> streamObserver = CompositeStreamObserver.of(
-        new LoggingStatsWriter(), MessageWriter.create(output, registry));
-    logger.info(String.format(
-        "Making rpc with %d request(s) to endpoint [%s]", requestMessages.size(), hostAndPort));
-    try {
-      dynamicClient.call(requestMessages, streamObserver, callOptions(callConfig)).get();
-    } catch (Throwable t) {
-      throw new RuntimeException("Caught exception while waiting for rpc", t);
+  private static boolean importsAny(FileDescriptor file, Set<String> visited) {
+    if (!visited.add(file.getName())) {
+      return false;
+    }
+    if (file.getName().equals(Any.getDescriptor().getFile().getName())) {
+      return true;
     }
+    for (FileDescriptor dependency : file.getDependencies()) {
+      if (importsAny(dependency, visited)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
@@ -121,42 +319,74 @@ public class ServiceCall {
    * support the requested service (but *does* support the reflection service).
    */
   private static Optional<FileDescriptorSet> resolveServiceByReflection(
-      Channel channel, String serviceName) {
+      Channel channel,
+      String endpoint,
+      String serviceName,
+      Optional<ReflectionCache> reflectionCache) {
     ServerReflectionClient serverReflectionClient = ServerReflectionClient.create(channel);
-    ImmutableList<String> services;
+    if (reflectionCache.isPresent()) {
+      Optional<FileDescriptorSet> cached =
+          reflectionCache.get().get(endpoint, serviceName, serverReflectionClient);
+      if (cached.isPresent()) {
+        logger.info("Using cached reflection descriptors for service: " + serviceName);
+        return cached;
+      }
+    }
+
+    // The service is looked up directly rather than checking the list of services first, which
+    // saves a round trip. A server without the service answers the lookup with NOT_FOUND.
+    FileDescriptorSet result;
     try {
-      services = serverReflectionClient.listServices().get();
-    } catch (Throwable t) {
-      // Listing services failed, try and provide an explanation.
-      Throwable root = Throwables.getRootCause(t);
-      if (root instanceof StatusRuntimeException) {
-        if (((StatusRuntimeException) root).getStatus().getCode() == Status.Code.UNIMPLEMENTED) {
-          logger.warn("Could not list services because the remote host does not support " +
-              "reflection. To disable resolving services by reflection, either pass the flag " +
-              "--use_reflection=false or disable reflection in your config file.");
-        }
+      result = serverReflectionClient.lookupService(serviceName).get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof StatusRuntimeException
+          && ((StatusRuntimeException) cause).getStatus().getCode() == Status.Code.NOT_FOUND) {
+        throw Status.NOT_FOUND
+            .withDescription(String.format("Remote server does not have service %s. Services: %s",
+                serviceName, listServicesForError(serverReflectionClient)))
+            .asRuntimeException();
+      }
+
+      // Lookup failed, try and provide an explanation.
+      Throwable root = Throwables.getRootCause(cause);
+      if (root instanceof StatusRuntimeException
+          && ((StatusRuntimeException) root).getStatus().getCode() == Status.Code.UNIMPLEMENTED) {
+        logger.warn("Could not lookup service because the remote host does not support " +
+            "reflection. To disable resolving services by reflection, either pass the flag " +
+            "--use_reflection=false or disable reflection in your config file.");
+      } else {
+        logger.warn("Unable to lookup service by reflection: " + serviceName, cause);
       }
 
       // In any case, return an empty optional to indicate that this failed.
       return Optional.empty();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while looking up service by reflection", e);
     }
+    reflectionCache.ifPresent(cache -> cache.put(endpoint, serviceName, result));
+    return Optional.of(result);
+  }
 
-    if (!services.contains(serviceName)) {
-      throw Status.NOT_FOUND
-          .withDescription(String.format(
-              "Remote server does not have service %s. Services: %s", serviceName, services))
-          .asRuntimeException();
-    }
-
+  /**
+   * Returns the services of the remote server, for the error message about a missing service.
+   * Only called once the lookup has failed, so it doesn't slow down successful calls.
+   */
+  private static String listServicesForError(ServerReflectionClient serverReflectionClient) {
     try {
-      return Optional.of(serverReflectionClient.lookupService(serviceName).get());
+      return serverReflectionClient.listServices().get().toString();
     } catch (Throwable t) {
-      logger.warn("Unable to lookup service by reflection: " + serviceName, t);
-      return Optional.empty();
+      logger.debug("Unable to list services", t);
+      return "<unknown>";
     }
   }
 
-  private static CallOptions callOptions(CallConfiguration callConfig) {
+  /**
+   * Returns the options to use for a single call. Must be invoked once per call because deadlines
+   * are computed relative to the time at which this is invoked.
+   */
+  static CallOptions callOptions(CallConfiguration callConfig) {
     CallOptions result = CallOptions.DEFAULT;
     if (callConfig.getDeadlineMs() > 0) {
       result = result.withDeadlineAfter(callConfig.getDeadlineMs(), TimeUnit.MILLISECONDS);
@@ -164,13 +394,13 @@ public class ServiceCall {
     return result;
   }
 
-  private static void validatePath(Optional<Path> maybePath) {
+  static void validatePath(Optional<Path> maybePath) {
     if (maybePath.isPresent()) {
       Preconditions.checkArgument(Files.exists(maybePath.get()));
     }
   }
 
-  private static void validatePaths(Iterable<Path> paths) {
+  static void validatePaths(Iterable<Path> paths) {
     for (Path path : paths) {
       Preconditions.checkArgument(Files.exists(path));
     }
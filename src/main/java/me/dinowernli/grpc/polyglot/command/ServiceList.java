@@ -3,17 +3,27 @@ package me.dinowernli.grpc.polyglot.command;
 import java.io.File;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Streams;
+import com.google.common.net.HostAndPort;
 import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
 import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Descriptors.MethodDescriptor;
 import com.google.protobuf.Descriptors.ServiceDescriptor;
 
+import io.grpc.Channel;
+import me.dinowernli.grpc.polyglot.grpc.ServerReflectionClient;
 import me.dinowernli.grpc.polyglot.io.Output;
 import me.dinowernli.grpc.polyglot.protobuf.ServiceResolver;
+import polyglot.ConfigProto.CallConfiguration;
 
 /** Utility to list the services, methods and message definitions for the known GRPC end-points */
 public class ServiceList {
@@ -29,41 +39,114 @@ public class ServiceList {
 
     ServiceResolver serviceResolver = ServiceResolver.fromFileDescriptorSet(fileDescriptorSet);
 
+    // Due to the way the protos are discovered, the leaf directly of the  protoDiscoveryRoot
+    // is the same as the root directory as the proto file
+    File protoDiscoveryDir = new File(protoDiscoveryRoot).getParentFile();
+    Function<ServiceDescriptor, String> location = descriptor ->
+        new File(protoDiscoveryDir, descriptor.getFile().getName()).getAbsolutePath();
+
+    renderServices(
+        output, serviceResolver.listServices(), location, serviceFilter, methodFilter, withMessage);
+  }
+
+  /**
+   * Lists the GRPC services of a remote server, obtained by reflection. The filters are the same as
+   * for {@link #listServices}.
+   */
+  public static void listRemoteServices(
+      Output output,
+      String endpoint,
+      CallConfiguration callConfig,
+      Optional<String> serviceFilter,
+      Optional<String> methodFilter,
+      Optional<Boolean> withMessage) {
+    HostAndPort hostAndPort = HostAndPort.fromString(endpoint);
+    Channel channel = ServiceCall.createChannel(hostAndPort, callConfig);
+    listRemoteServices(
+        output,
+        ServerReflectionClient.create(channel),
+        hostAndPort.toString(),
+        serviceFilter,
+        methodFilter,
+        withMessage);
+  }
+
+  @VisibleForTesting
+  static void listRemoteServices(
+      Output output,
+      ServerReflectionClient reflectionClient,
+      String endpoint,
+      Optional<String> serviceFilter,
+      Optional<String> methodFilter,
+      Optional<Boolean> withMessage) {
+    ImmutableList<String> serviceNames;
+    FileDescriptorSet fileDescriptorSet;
+    try {
+      // The service filter is applied before fetching descriptors, so that only the files of
+      // matching services are transferred. All of them are then fetched on a single stream.
+      serviceNames = reflectionClient.listServices().get().stream()
+          .filter(name -> matchesFilter(name, serviceFilter))
+          .collect(ImmutableList.toImmutableList());
+      fileDescriptorSet = reflectionClient.lookupServices(serviceNames).get();
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Unable to list services of " + endpoint + " by reflection", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while listing services of " + endpoint, e);
+    }
+
+    // The files may define services which the server doesn't expose, so only the listed ones are
+    // rendered.
+    ServiceResolver serviceResolver = ServiceResolver.fromFileDescriptorSet(fileDescriptorSet);
+    ImmutableSet<String> listedServices = ImmutableSet.copyOf(serviceNames);
+    ImmutableList<ServiceDescriptor> services =
+        Streams.stream(serviceResolver.listServices())
+            .filter(descriptor -> listedServices.contains(descriptor.getFullName()))
+            .collect(ImmutableList.toImmutableList());
+    Function<ServiceDescriptor, String> location =
+        descriptor -> endpoint + " (" + descriptor.getFile().getName() + ")";
+
+    renderServices(output, services, location, serviceFilter, methodFilter, withMessage);
+  }
+
+  private static void renderServices(
+      Output output,
+      Iterable<ServiceDescriptor> services,
+      Function<ServiceDescriptor, String> location,
+      Optional<String> serviceFilter,
+      Optional<String> methodFilter,
+      Optional<Boolean> withMessage) {
     // Add white-space before the rendered output
     output.newLine();
 
-    for (ServiceDescriptor descriptor : serviceResolver.listServices()) {
-      boolean matchingDescriptor =
-          !serviceFilter.isPresent()
-          || descriptor.getFullName().toLowerCase().contains(serviceFilter.get().toLowerCase());
-
-      if (matchingDescriptor) {
-        listMethods(output, protoDiscoveryRoot, descriptor, methodFilter, withMessage);
+    for (ServiceDescriptor descriptor : services) {
+      if (matchesFilter(descriptor.getFullName(), serviceFilter)) {
+        listMethods(output, location, descriptor, methodFilter, withMessage);
       }
     }
   }
 
+  private static boolean matchesFilter(String serviceName, Optional<String> serviceFilter) {
+    return !serviceFilter.isPresent()
+        || serviceName.toLowerCase().contains(serviceFilter.get().toLowerCase());
+  }
+
   /** Lists the methods on the service (the methodFilter will be applied if non-empty)  */
   private static void listMethods(
       Output output,
-      String protoDiscoveryRoot,
+      Function<ServiceDescriptor, String> location,
       ServiceDescriptor descriptor,
       Optional<String> methodFilter,
       Optional<Boolean> withMessage) {
 
     boolean printedService = false;
 
-    // Due to the way the protos are discovered, the leaf directly of the  protoDiscoveryRoot
-    // is the same as the root directory as the proto file
-    File protoDiscoveryDir = new File(protoDiscoveryRoot).getParentFile();
-
     for (MethodDescriptor method : descriptor.getMethods()) {
       if (!methodFilter.isPresent() || method.getName().contains(methodFilter.get())) {
 
         // Only print the service name once - and only if a method is going to be printed
         if (!printedService) {
-          File pFile = new File(protoDiscoveryDir, descriptor.getFile().getName());
-          output.writeLine(descriptor.getFullName() + " -> " + pFile.getAbsolutePath());
+          output.writeLine(descriptor.getFullName() + " -> " + location.apply(descriptor));
           printedService = true;
         }
 
@@ -0,0 +1,107 @@
+package me.dinowernli.grpc.polyglot.command;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Multiset;
+import com.google.common.net.HostAndPort;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import io.grpc.Channel;
+import io.grpc.Status;
+import me.dinowernli.grpc.polyglot.bench.LatencyHistogram;
+import me.dinowernli.grpc.polyglot.grpc.DynamicGrpcClient;
+import me.dinowernli.grpc.polyglot.io.Output;
+import me.dinowernli.grpc.polyglot.protobuf.ProtoMethodName;
+import me.dinowernli.grpc.polyglot.protobuf.ServiceResolver;
+import me.dinowernli.grpc.polyglot.recording.RecordingReader;
+import me.dinowernli.grpc.polyglot.recording.Replayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import polyglot.ConfigProto.CallConfiguration;
+import polyglot.ConfigProto.ReplayConfiguration;
+import polyglot.RecordingProto.RecordingHeader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the requests of a call recorded with the call command's --record flag to an endpoint, and
+ * reports how the endpoint kept up. The method and its descriptors are taken from the recording.
+ */
+public class ServiceReplay {
+  private static final Logger logger = LoggerFactory.getLogger(ServiceReplay.class);
+
+  /** Replays the configured recording against the supplied endpoint. */
+  public static void replayRecording(
+      Output output,
+      Optional<String> endpoint,
+      CallConfiguration callConfig,
+      ReplayConfiguration replayConfig) {
+    Preconditions.checkState(endpoint.isPresent(), "--endpoint argument required");
+    Preconditions.checkState(
+        !replayConfig.getRecordingFilePath().isEmpty(), "--recording argument required");
+    Path recordingPath = Paths.get(replayConfig.getRecordingFilePath());
+
+    try (RecordingReader reader = RecordingReader.open(recordingPath)) {
+      RecordingHeader header = reader.getHeader();
+      MethodDescriptor methodDescriptor =
+          ServiceResolver.fromFileDescriptorSet(header.getFileDescriptorSet())
+              .resolveServiceMethod(ProtoMethodName.parseFullGrpcMethodName(
+                  header.getFullMethod()));
+
+      HostAndPort hostAndPort = HostAndPort.fromString(endpoint.get());
+      Channel channel = ServiceCall.createChannel(hostAndPort, callConfig);
+      DynamicGrpcClient dynamicClient = DynamicGrpcClient.createRaw(methodDescriptor, channel);
+      Replayer replayer = Replayer.create(dynamicClient, methodDescriptor, speed(replayConfig));
+
+      logger.info(String.format("Replaying %s from %s against endpoint [%s]",
+          header.getFullMethod(), recordingPath, hostAndPort));
+      Replayer.Result result =
+          replayer.replay(reader.readRequests(), () -> ServiceCall.callOptions(callConfig));
+      writeResult(output, header.getFullMethod(), result);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to read recording: " + recordingPath, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while replaying", e);
+    }
+  }
+
+  private static double speed(ReplayConfiguration replayConfig) {
+    if (replayConfig.getMaxSpeed()) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return replayConfig.getSpeed() > 0 ? replayConfig.getSpeed() : 1.0;
+  }
+
+  private static void writeResult(Output output, String fullMethod, Replayer.Result result) {
+    output.writeLine("Replay results for " + fullMethod);
+    output.writeLine(String.format("  Calls:       %d (%d ok, %d failed)",
+        result.getNumCalls(),
+        result.getNumCalls() - result.getErrors().size(),
+        result.getErrors().size()));
+    for (Multiset.Entry<Status.Code> error : result.getErrors().entrySet()) {
+      output.writeLine(String.format("    %-24s %d", error.getElement(), error.getCount()));
+    }
+    output.writeLine(String.format("  Requests:    %d", result.getNumRequests()));
+    output.writeLine(String.format("  Responses:   %d", result.getNumResponses()));
+    output.writeLine(String.format("  Duration:    %.3f s",
+        (double) result.getElapsedNanos() / TimeUnit.SECONDS.toNanos(1)));
+
+    // A growing lag means the sender could not keep up with the recorded timing, in which case the
+    // replay put less load on the endpoint than the original traffic did.
+    LatencyHistogram lag = result.getScheduleLag();
+    if (lag.getCount() > 0) {
+      output.writeLine("  Schedule lag (ms):");
+      output.writeLine(formatMillis("mean", (long) lag.getMeanNanos()));
+      output.writeLine(formatMillis("p99", lag.getValueAtPercentile(99)));
+      output.writeLine(formatMillis("max", lag.getMaxNanos()));
+    }
+  }
+
+  private static String formatMillis(String label, long nanos) {
+    double millis = (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    return String.format("    %-8s %10.3f", label, millis);
+  }
+}
@@ -15,15 +15,35 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
+import polyglot.ConfigProto.BenchConfiguration;
+import polyglot.ConfigProto.CallConfiguration;
+import polyglot.ConfigProto.InputConfiguration;
+import polyglot.ConfigProto.JsonCodec;
+import polyglot.ConfigProto.OutputConfiguration;
 
 /** Provides easy access to the arguments passed on the command line. */
 @Parameters(separators = "= ")
 public class CommandLineArgs {
+  /** The flags of the call command whose values are paths. */
+  private static final ImmutableSet<String> PATH_FLAGS = ImmutableSet.of(
+      "--config_set_path",
+      "--proto_discovery_root",
+      "--output_file_path",
+      "--tls_ca_cert_path",
+      "--tls_client_cert_path",
+      "--tls_client_key_path",
+      "--input_file_path",
+      "--stats_file",
+      "--record");
+
+  /** The flag of the call command whose value is a comma-separated list of paths. */
+  private static final String PATH_LIST_FLAG = "--add_protoc_includes";
 
   // Options
 
@@ -62,17 +82,41 @@ public class CommandLineArgs {
     order = 5)
   private String useReflection;
 
+  @Parameter(names = "--daemon_port",
+    description ="Local port of a polyglot daemon. Forwards the call command to the daemon, or "
+        + "makes the daemon command listen on this port",
+    order = 6)
+  private Integer daemonPortArg;
+
+  @Parameter(names = "--async_output",
+    description ="If true, output is written by a dedicated thread through a bounded buffer, so "
+        + "slow consumers of stdout or slow disks don't stall the call",
+    order = 7)
+  private String asyncOutputArg;
+
   // Commands
 
   /** Command to make a GRPC call to an endpoint */
   public static final String CALL_COMMAND = "call";
   /** Command to list all known services defined in the proto files*/
   public static final String LIST_SERVICES_COMMAND = "list_services";
+  /** Command to repeatedly call an endpoint and report latency statistics */
+  public static final String BENCH_COMMAND = "bench";
+  /** Command to send the requests of a recorded call again */
+  public static final String REPLAY_COMMAND = "replay";
+  /** Command to serve forwarded call commands from a long-lived process */
+  public static final String DAEMON_COMMAND = "daemon";
+  /** Command to convert json request files to length-delimited binary protos */
+  public static final String CONVERT_COMMAND = "convert";
   /** Captures the command called */
   private String commandArg;
 
   private final CallCommand callCommand = new CallCommand();
   private final ListServicesCommand listServicesCommand = new ListServicesCommand();
+  private final BenchCommand benchCommand = new BenchCommand();
+  private final ReplayCommand replayCommand = new ReplayCommand();
+  private final DaemonCommand daemonCommand = new DaemonCommand();
+  private final ConvertCommand convertCommand = new ConvertCommand();
 
   @Parameters(separators = "= ", commandDescription = "Make a GRPC call to an endpoint")
   private class CallCommand {
@@ -120,10 +164,102 @@ public class CommandLineArgs {
       description ="<host>")
     private String tlsClientOverrideAuthority;
 
+    @Parameter(names = "--batch_concurrency",
+      description = "If set, send each request to a unary method as its own call, with this many "
+          + "calls in flight")
+    private Integer batchConcurrencyArg;
+
+    @Parameter(names = "--batch_output_order",
+      description = "Order of the responses of a batch: input|completion (default: input)")
+    private String batchOutputOrderArg;
+
+    @Parameter(names = "--channel_pool_size",
+      description = "If set, spread calls across this many connections to the server")
+    private Integer channelPoolSizeArg;
+
+    @Parameter(names = "--channel_pool_max_size",
+      description = "Number of connections the pool may grow to once all of them are saturated")
+    private Integer channelPoolMaxSizeArg;
+
+    @Parameter(names = "--channel_pool_policy",
+      description = "How calls are assigned to pooled connections: least_loaded|round_robin "
+          + "(default: least_loaded)")
+    private String channelPoolPolicyArg;
+
+    @Parameter(names = "--use_epoll",
+      description = "Whether to use netty's native epoll transport on Linux")
+    private String useEpollArg;
+
+    @Parameter(names = "--event_loop_threads",
+      description = "Number of event loop threads serving the connections")
+    private Integer eventLoopThreadsArg;
+
+    @Parameter(names = "--flow_control_window",
+      description = "Initial HTTP/2 flow control window in bytes")
+    private Integer flowControlWindowArg;
+
+    @Parameter(names = "--disable_flow_control_auto_tuning",
+      description = "If true, keep the flow control window fixed rather than tuning it to the "
+          + "bandwidth-delay product")
+    private String disableFlowControlAutoTuningArg;
+
+    @Parameter(names = "--max_inbound_message_size",
+      description = "Largest response message accepted, in bytes (default: 4MiB)")
+    private Integer maxInboundMessageSizeArg;
+
+    @Parameter(names = "--keepalive_time_sec",
+      description = "If set, send keepalive pings after this many seconds without reads")
+    private Integer keepaliveTimeSecArg;
+
+    @Parameter(names = "--keepalive_timeout_sec",
+      description = "Seconds to wait for a keepalive ping to be acknowledged")
+    private Integer keepaliveTimeoutSecArg;
+
+    @Parameter(names = "--input_format",
+      description = "Encoding of the requests: json|binary_delimited (default: json)")
+    private String inputFormatArg;
+
+    @Parameter(names = "--input_file_path",
+      description = "If set, read the requests from this file rather than from stdin")
+    private String inputFilePathArg;
+
+    @Parameter(names = "--input_parse_threads",
+      description = "Number of threads parsing json requests, which are still sent in input "
+          + "order (default: 1)")
+    private Integer inputParseThreadsArg;
+
+    @Parameter(names = "--output_format",
+      description = "Encoding of the responses: json|binary_delimited|raw_delimited "
+          + "(default: json)")
+    private String outputFormatArg;
+
+    @Parameter(names = "--json_codec",
+      description = "Implementation used to parse json requests and print json responses: "
+          + "json_format|streaming (default: json_format)")
+    private String jsonCodecArg;
+
+    @Parameter(names = "--output_format_threads",
+      description = "Number of threads printing json responses, which are still written in "
+          + "arrival order (default: 1)")
+    private Integer outputFormatThreadsArg;
+
+    @Parameter(names = "--stats_file",
+      description = "If set, write stats about the responses to this file as json")
+    private String statsFileArg;
+
+    @Parameter(names = "--record",
+      description = "If set, record the requests and responses of the call to this file, for "
+          + "use with the replay command")
+    private String recordArg;
   }
 
   @Parameters(separators = "= ", commandDescription = "List all known services defined in the proto files")
   private class ListServicesCommand {
+    @Parameter(names = "--endpoint",
+      description = "If set, list the services of this endpoint by reflection instead of the "
+          + "services defined in the local proto files: <host>:<port>")
+    private String endpointArg;
+
     @Parameter(names = "--service_filter",
       description = "Filters service names containing this string")
     private String serviceFilterArg;
@@ -137,6 +273,78 @@ public class CommandLineArgs {
     private String withMessageArg;
   }
 
+  /** Accepts all the flags of the call command, plus the ones controlling the generated load. */
+  @Parameters(separators = "= ",
+    commandDescription = "Repeatedly call an endpoint and report throughput and latency")
+  private class BenchCommand extends CallCommand {
+    @Parameter(names = "--num_requests",
+      description = "Total number of rpcs to make (default: unlimited)")
+    private Integer numRequestsArg;
+
+    @Parameter(names = "--concurrency",
+      description = "Number of rpcs to keep in flight at any given time (default: 1)")
+    private Integer concurrencyArg;
+
+    @Parameter(names = "--duration_sec",
+      description = "How long to run the benchmark for (default: 10 if --num_requests is unset)")
+    private Integer durationSecArg;
+
+    @Parameter(names = "--warmup_sec",
+      description = "How long to send rpcs for before starting to measure (default: 0)")
+    private Integer warmupSecArg;
+
+    @Parameter(names = "--rate_qps",
+      description = "If set, send rpcs at this rate instead of keeping --concurrency in flight")
+    private Double rateQpsArg;
+
+    @Parameter(names = "--arrival",
+      description = "How to space rpcs sent at a fixed rate: constant|poisson (default: constant)")
+    private String arrivalArg;
+  }
+
+  @Parameters(separators = "= ",
+    commandDescription = "Send the requests of a recorded call to an endpoint, with their "
+        + "original timing")
+  private class ReplayCommand {
+    @Parameter(names = "--endpoint", required = true,
+      description = "Service endpoint to call: <host>:<port>")
+    private String endpointArg;
+
+    @Parameter(names = "--recording", required = true,
+      description = "File written by the --record flag of the call command")
+    private String recordingArg;
+
+    @Parameter(names = "--speed",
+      description = "How much faster than recorded to send the requests (default: 1)")
+    private Double speedArg;
+
+    @Parameter(names = "--max_speed",
+      description = "If true, send the requests as fast as possible, ignoring their timing")
+    private String maxSpeedArg;
+  }
+
+  @Parameters(separators = "= ",
+    commandDescription = "Serve call commands forwarded over --daemon_port, keeping channels and "
+        + "descriptors warm between calls")
+  private class DaemonCommand {
+  }
+
+  @Parameters(separators = "= ",
+    commandDescription = "Convert a file of json messages to length-delimited binary protos")
+  private class ConvertCommand {
+    @Parameter(names = "--message_type", required = true,
+      description = "Full name of the type of the messages: <some.package.Message>")
+    private String messageTypeArg;
+
+    @Parameter(names = "--input_file_path", required = true,
+      description = "File containing the json messages, separated by empty lines")
+    private String inputFilePathArg;
+
+    @Parameter(names = "--binary_output_path", required = true,
+      description = "File to write the binary messages to")
+    private String binaryOutputPathArg;
+  }
+
   /**
    * Parses the arguments from the supplied array. Throws {@link IllegalArgumentException} if the
    * supplied array is malformed.
@@ -172,6 +380,10 @@ public class CommandLineArgs {
       .addObject(this)
       .addCommand(CALL_COMMAND, callCommand)
       .addCommand(LIST_SERVICES_COMMAND, listServicesCommand)
+      .addCommand(BENCH_COMMAND, benchCommand)
+      .addCommand(REPLAY_COMMAND, replayCommand)
+      .addCommand(DAEMON_COMMAND, daemonCommand)
+      .addCommand(CONVERT_COMMAND, convertCommand)
       .build();
   }
 
@@ -206,6 +418,52 @@ public class CommandLineArgs {
     return useReflection == null || useReflection.equals("true");
   }
 
+  public Optional<Boolean> asyncOutput() {
+    if (asyncOutputArg == null) {
+      return Optional.empty();
+    }
+    return Optional.of(Boolean.parseBoolean(asyncOutputArg));
+  }
+
+  public Optional<Integer> daemonPort() {
+    return Optional.ofNullable(daemonPortArg);
+  }
+
+  /**
+   * Returns the supplied arguments with the values of all path flags resolved against the supplied
+   * working directory, so that they refer to the same files when parsed by another process.
+   */
+  public static ImmutableList<String> withAbsolutePaths(
+      List<String> args, Path workingDirectory) {
+    ImmutableList.Builder<String> result = ImmutableList.builder();
+    for (int i = 0; i < args.size(); ++i) {
+      String arg = args.get(i);
+      int separator = arg.indexOf('=');
+      String flag = separator < 0 ? arg : arg.substring(0, separator);
+      if (!PATH_FLAGS.contains(flag) && !flag.equals(PATH_LIST_FLAG)) {
+        result.add(arg);
+      } else if (separator >= 0) {
+        String value = arg.substring(separator + 1);
+        result.add(flag + "=" + absolutePaths(flag, value, workingDirectory));
+      } else if (i + 1 < args.size()) {
+        result.add(flag);
+        result.add(absolutePaths(flag, args.get(++i), workingDirectory));
+      } else {
+        result.add(arg);
+      }
+    }
+    return result.build();
+  }
+
+  private static String absolutePaths(String flag, String value, Path workingDirectory) {
+    if (!flag.equals(PATH_LIST_FLAG)) {
+      return workingDirectory.resolve(value).toString();
+    }
+    return Splitter.on(',').splitToList(value).stream()
+        .map(path -> workingDirectory.resolve(path).toString())
+        .collect(Collectors.joining(","));
+  }
+
   public ImmutableList<Path> additionalProtocIncludes() {
     if (addProtocIncludesArg == null) {
       return ImmutableList.of();
@@ -220,57 +478,58 @@ public class CommandLineArgs {
     return resultBuilder.build();
   }
 
-  // *************************************
-  // * Flags supporting the call command *
-  // *************************************
+  // ************************************************
+  // * Flags supporting the call and bench commands *
+  // ************************************************
 
   /** Returns the endpoint string */
   public Optional<String> endpoint() {
-    return Optional.ofNullable(callCommand.endpointArg);
+    return Optional.ofNullable(activeCallCommand().endpointArg);
   }
 
   /** Returns the endpoint method */
   public Optional<String> fullMethod() {
-    return Optional.ofNullable(callCommand.fullMethodArg);
+    return Optional.ofNullable(activeCallCommand().fullMethodArg);
   }
 
   public Optional<Boolean> useTls() {
-    if (callCommand.useTlsArg == null) {
+    if (activeCallCommand().useTlsArg == null) {
       return Optional.empty();
     }
-    return Optional.of(Boolean.parseBoolean(callCommand.useTlsArg));
+    return Optional.of(Boolean.parseBoolean(activeCallCommand().useTlsArg));
   }
 
   public Optional<Path> tlsCaCertPath() {
-    return maybeInputPath(callCommand.tlsCaCertPath);
+    return maybeInputPath(activeCallCommand().tlsCaCertPath);
   }
 
   public Optional<Path> tlsClientCertPath() {
-    return maybeInputPath(callCommand.tlsClientCertPath);
+    return maybeInputPath(activeCallCommand().tlsClientCertPath);
   }
 
   public Optional<Path> tlsClientKeyPath() {
-    return maybeInputPath(callCommand.tlsClientKeyPath);
+    return maybeInputPath(activeCallCommand().tlsClientKeyPath);
   }
 
   public Optional<String> tlsClientOverrideAuthority() {
-    return Optional.ofNullable(callCommand.tlsClientOverrideAuthority);
+    return Optional.ofNullable(activeCallCommand().tlsClientOverrideAuthority);
   }
 
   public Optional<ImmutableMultimap<String, String>> metadata() {
-    if (callCommand.metadataArg == null) {
+    String metadataArg = activeCallCommand().metadataArg;
+    if (metadataArg == null) {
       return Optional.empty();
     }
 
     List<Map.Entry<String, String>> parts = Splitter.on(",")
       .omitEmptyStrings()
-      .splitToList(callCommand.metadataArg)
+      .splitToList(metadataArg)
       .stream()
       .map(s -> {
         String[] keyValue = s.split(":", 2);
 
         Preconditions.checkArgument(keyValue.length == 2,
-            "Metadata entry must be defined in key:value format: " + callCommand.metadataArg);
+            "Metadata entry must be defined in key:value format: " + metadataArg);
 
         return Maps.immutableEntry(keyValue[0], keyValue[1]);
       })
@@ -285,12 +544,144 @@ public class CommandLineArgs {
   }
 
   public Optional<Integer> getRpcDeadlineMs() {
-    return Optional.ofNullable(callCommand.deadlineMs);
+    return Optional.ofNullable(activeCallCommand().deadlineMs);
+  }
+
+  public Optional<Integer> batchConcurrency() {
+    return Optional.ofNullable(activeCallCommand().batchConcurrencyArg);
+  }
+
+  public Optional<CallConfiguration.BatchOutputOrder> batchOutputOrder() {
+    String orderArg = activeCallCommand().batchOutputOrderArg;
+    if (orderArg == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(CallConfiguration.BatchOutputOrder.valueOf(orderArg.toUpperCase()));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown batch output order: " + orderArg, e);
+    }
+  }
+
+  public Optional<Integer> channelPoolSize() {
+    return Optional.ofNullable(activeCallCommand().channelPoolSizeArg);
+  }
+
+  public Optional<Integer> channelPoolMaxSize() {
+    return Optional.ofNullable(activeCallCommand().channelPoolMaxSizeArg);
+  }
+
+  public Optional<CallConfiguration.ChannelPoolPolicy> channelPoolPolicy() {
+    String policyArg = activeCallCommand().channelPoolPolicyArg;
+    if (policyArg == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(CallConfiguration.ChannelPoolPolicy.valueOf(policyArg.toUpperCase()));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown channel pool policy: " + policyArg, e);
+    }
+  }
+
+  public Optional<Boolean> useEpoll() {
+    if (activeCallCommand().useEpollArg == null) {
+      return Optional.empty();
+    }
+    return Optional.of(Boolean.parseBoolean(activeCallCommand().useEpollArg));
+  }
+
+  public Optional<Integer> eventLoopThreads() {
+    return Optional.ofNullable(activeCallCommand().eventLoopThreadsArg);
+  }
+
+  public Optional<Integer> flowControlWindow() {
+    return Optional.ofNullable(activeCallCommand().flowControlWindowArg);
+  }
+
+  public Optional<Boolean> disableFlowControlAutoTuning() {
+    if (activeCallCommand().disableFlowControlAutoTuningArg == null) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        Boolean.parseBoolean(activeCallCommand().disableFlowControlAutoTuningArg));
+  }
+
+  public Optional<Integer> maxInboundMessageSize() {
+    return Optional.ofNullable(activeCallCommand().maxInboundMessageSizeArg);
+  }
+
+  public Optional<Integer> keepaliveTimeSec() {
+    return Optional.ofNullable(activeCallCommand().keepaliveTimeSecArg);
   }
 
+  public Optional<Integer> keepaliveTimeoutSec() {
+    return Optional.ofNullable(activeCallCommand().keepaliveTimeoutSecArg);
+  }
+
+  public Optional<InputConfiguration.Format> inputFormat() {
+    String formatArg = activeCallCommand().inputFormatArg;
+    if (formatArg == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(InputConfiguration.Format.valueOf(formatArg.toUpperCase()));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown input format: " + formatArg, e);
+    }
+  }
+
+  public Optional<Path> inputFilePath() {
+    return maybeInputPath(activeCallCommand().inputFilePathArg);
+  }
+
+  public Optional<Integer> inputParseThreads() {
+    return Optional.ofNullable(activeCallCommand().inputParseThreadsArg);
+  }
+
+  public Optional<OutputConfiguration.Format> outputFormat() {
+    String formatArg = activeCallCommand().outputFormatArg;
+    if (formatArg == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(OutputConfiguration.Format.valueOf(formatArg.toUpperCase()));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown output format: " + formatArg, e);
+    }
+  }
+
+  public Optional<Path> statsFile() {
+    return maybeOutputPath(activeCallCommand().statsFileArg);
+  }
+
+  public Optional<Path> recordFilePath() {
+    return maybeOutputPath(activeCallCommand().recordArg);
+  }
+
+  public Optional<JsonCodec> jsonCodec() {
+    String codecArg = activeCallCommand().jsonCodecArg;
+    if (codecArg == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(JsonCodec.valueOf(codecArg.toUpperCase()));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown json codec: " + codecArg, e);
+    }
+  }
+
+  public Optional<Integer> outputFormatThreads() {
+    return Optional.ofNullable(activeCallCommand().outputFormatThreadsArg);
+  }
+
+
   // **********************************************
   // * Flags supporting the list_services command *
   // **********************************************
+  public Optional<String> listServicesEndpoint() {
+    return Optional.ofNullable(listServicesCommand.endpointArg);
+  }
+
   public Optional<String> serviceFilter() {
     return Optional.ofNullable(listServicesCommand.serviceFilterArg);
   }
@@ -306,9 +697,85 @@ public class CommandLineArgs {
     return Optional.of(Boolean.parseBoolean(listServicesCommand.withMessageArg));
   }
 
+  // **************************************
+  // * Flags supporting the bench command *
+  // **************************************
+  public Optional<Integer> benchNumRequests() {
+    return Optional.ofNullable(benchCommand.numRequestsArg);
+  }
+
+  public Optional<Integer> benchConcurrency() {
+    return Optional.ofNullable(benchCommand.concurrencyArg);
+  }
+
+  public Optional<Integer> benchDurationSec() {
+    return Optional.ofNullable(benchCommand.durationSecArg);
+  }
+
+  public Optional<Integer> benchWarmupSec() {
+    return Optional.ofNullable(benchCommand.warmupSecArg);
+  }
+
+  public Optional<Double> benchRateQps() {
+    return Optional.ofNullable(benchCommand.rateQpsArg);
+  }
+
+  public Optional<BenchConfiguration.Arrival> benchArrival() {
+    if (benchCommand.arrivalArg == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(BenchConfiguration.Arrival.valueOf(benchCommand.arrivalArg.toUpperCase()));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown arrival: " + benchCommand.arrivalArg, e);
+    }
+  }
+
+  // ***************************************
+  // * Flags supporting the replay command *
+  // ***************************************
+  public Optional<String> replayEndpoint() {
+    return Optional.ofNullable(replayCommand.endpointArg);
+  }
+
+  public Optional<Path> replayRecordingPath() {
+    return maybeInputPath(replayCommand.recordingArg);
+  }
+
+  public Optional<Double> replaySpeed() {
+    return Optional.ofNullable(replayCommand.speedArg);
+  }
+
+  public Optional<Boolean> replayMaxSpeed() {
+    if (replayCommand.maxSpeedArg == null) {
+      return Optional.empty();
+    }
+    return Optional.of(Boolean.parseBoolean(replayCommand.maxSpeedArg));
+  }
+
+  // ****************************************
+  // * Flags supporting the convert command *
+  // ****************************************
+  public Optional<String> conversionMessageType() {
+    return Optional.ofNullable(convertCommand.messageTypeArg);
+  }
+
+  public Optional<Path> conversionInputPath() {
+    return maybeInputPath(convertCommand.inputFilePathArg);
+  }
+
+  public Optional<Path> conversionOutputPath() {
+    return maybeOutputPath(convertCommand.binaryOutputPathArg);
+  }
+
   // ******************
   // * Helper methods *
   // ******************
+  /** Returns the command object holding the call flags for the command which was parsed. */
+  private CallCommand activeCallCommand() {
+    return BENCH_COMMAND.equals(commandArg) ? benchCommand : callCommand;
+  }
+
   private static Optional<Path> maybeOutputPath(String rawPath) {
     if (rawPath == null) {
       return Optional.empty();
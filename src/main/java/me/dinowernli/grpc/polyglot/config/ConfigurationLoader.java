@@ -138,6 +138,60 @@ public class ConfigurationLoader {
     overrides.tlsClientOverrideAuthority()
         .ifPresent(resultBuilder.getCallConfigBuilder()::setTlsClientOverrideAuthority);
 
+    overrides.batchConcurrency()
+        .ifPresent(resultBuilder.getCallConfigBuilder()::setBatchConcurrency);
+    overrides.batchOutputOrder()
+        .ifPresent(resultBuilder.getCallConfigBuilder()::setBatchOutputOrder);
+    overrides.channelPoolSize()
+        .ifPresent(resultBuilder.getCallConfigBuilder()::setChannelPoolSize);
+    overrides.channelPoolMaxSize()
+        .ifPresent(resultBuilder.getCallConfigBuilder()::setChannelPoolMaxSize);
+    overrides.channelPoolPolicy()
+        .ifPresent(resultBuilder.getCallConfigBuilder()::setChannelPoolPolicy);
+    overrides.useEpoll().ifPresent(resultBuilder.getCallConfigBuilder()::setUseEpoll);
+    overrides.eventLoopThreads()
+        .ifPresent(resultBuilder.getCallConfigBuilder()::setEventLoopThreads);
+    overrides.flowControlWindow()
+        .ifPresent(resultBuilder.getCallConfigBuilder()::setFlowControlWindowBytes);
+    overrides.disableFlowControlAutoTuning()
+        .ifPresent(resultBuilder.getCallConfigBuilder()::setDisableFlowControlAutoTuning);
+    overrides.maxInboundMessageSize()
+        .ifPresent(resultBuilder.getCallConfigBuilder()::setMaxInboundMessageSizeBytes);
+    overrides.keepaliveTimeSec()
+        .ifPresent(resultBuilder.getCallConfigBuilder()::setKeepaliveTimeSec);
+    overrides.keepaliveTimeoutSec()
+        .ifPresent(resultBuilder.getCallConfigBuilder()::setKeepaliveTimeoutSec);
+
+    overrides.inputFormat().ifPresent(resultBuilder.getInputConfigBuilder()::setFormat);
+    overrides.inputFilePath().ifPresent(
+        path -> resultBuilder.getInputConfigBuilder().setFilePath(path.toString()));
+    overrides.inputParseThreads()
+        .ifPresent(resultBuilder.getInputConfigBuilder()::setParseThreads);
+    overrides.outputFormat().ifPresent(resultBuilder.getOutputConfigBuilder()::setFormat);
+    overrides.outputFormatThreads()
+        .ifPresent(resultBuilder.getOutputConfigBuilder()::setFormatThreads);
+    overrides.statsFile().ifPresent(
+        path -> resultBuilder.getOutputConfigBuilder().setStatsFilePath(path.toString()));
+    overrides.recordFilePath().ifPresent(
+        path -> resultBuilder.getCallConfigBuilder().setRecordFilePath(path.toString()));
+    overrides.jsonCodec().ifPresent(codec -> {
+      resultBuilder.getInputConfigBuilder().setJsonCodec(codec);
+      resultBuilder.getOutputConfigBuilder().setJsonCodec(codec);
+    });
+    overrides.asyncOutput().ifPresent(resultBuilder.getOutputConfigBuilder()::setAsyncWrite);
+
+    overrides.benchNumRequests().ifPresent(resultBuilder.getBenchConfigBuilder()::setNumRequests);
+    overrides.benchConcurrency().ifPresent(resultBuilder.getBenchConfigBuilder()::setConcurrency);
+    overrides.benchDurationSec().ifPresent(resultBuilder.getBenchConfigBuilder()::setDurationSec);
+    overrides.benchWarmupSec().ifPresent(resultBuilder.getBenchConfigBuilder()::setWarmupSec);
+    overrides.benchRateQps().ifPresent(resultBuilder.getBenchConfigBuilder()::setRateQps);
+    overrides.benchArrival().ifPresent(resultBuilder.getBenchConfigBuilder()::setArrival);
+
+    overrides.replayRecordingPath().ifPresent(path ->
+        resultBuilder.getReplayConfigBuilder().setRecordingFilePath(path.toString()));
+    overrides.replaySpeed().ifPresent(resultBuilder.getReplayConfigBuilder()::setSpeed);
+    overrides.replayMaxSpeed().ifPresent(resultBuilder.getReplayConfigBuilder()::setMaxSpeed);
+
     overrides.metadata().ifPresent(metadata -> {
       for (Map.Entry<String, String> keyValue : metadata.entries().asList()) {
         resultBuilder.getCallConfigBuilder().addMetadataBuilder()
@@ -0,0 +1,110 @@
+package me.dinowernli.grpc.polyglot.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Forwards a command to a {@link DaemonServer} on the local machine and relays its stdin and
+ * stdout, so that the command behaves as if it had run in the current process.
+ */
+public class DaemonClient {
+  private static final Logger logger = LoggerFactory.getLogger(DaemonClient.class);
+
+  private final int port;
+  private final Path tokenDirectory;
+
+  /** Returns a client for the daemon listening on the supplied local port. */
+  public static DaemonClient forPort(int port) {
+    return new DaemonClient(port, DaemonProtocol.defaultTokenDirectory());
+  }
+
+  @VisibleForTesting
+  DaemonClient(int port, Path tokenDirectory) {
+    this.port = port;
+    this.tokenDirectory = tokenDirectory;
+  }
+
+  /**
+   * Runs the command with the supplied arguments in the daemon, streaming the supplied stdin to
+   * it and its output to the supplied stdout. Throws if the command fails.
+   */
+  public void run(ImmutableList<String> arguments, InputStream stdin, OutputStream stdout)
+      throws IOException {
+    Path tokenFile = DaemonProtocol.tokenFile(tokenDirectory, port);
+    if (!Files.exists(tokenFile)) {
+      throw new IllegalStateException(
+          "No daemon running on port " + port + ", missing token file " + tokenFile);
+    }
+    String token = new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8);
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      output.writeUTF(token);
+      output.writeInt(arguments.size());
+      for (String argument : arguments) {
+        output.writeUTF(argument);
+      }
+      output.flush();
+
+      // Requests are sent as they become available while the responses are being read.
+      Thread stdinPump = new Thread(() -> pumpStdin(stdin, output, socket), "polyglot-stdin-pump");
+      stdinPump.setDaemon(true);
+      stdinPump.start();
+
+      readResponse(new DataInputStream(new BufferedInputStream(socket.getInputStream())), stdout);
+    }
+  }
+
+  private static void pumpStdin(InputStream stdin, DataOutputStream output, Socket socket) {
+    byte[] buffer = new byte[8192];
+    try {
+      int numRead;
+      while ((numRead = stdin.read(buffer)) != -1) {
+        // Flush after every read, so that interactive input doesn't sit in the buffer.
+        output.write(buffer, 0, numRead);
+        output.flush();
+      }
+      socket.shutdownOutput();
+    } catch (IOException e) {
+      // The daemon is allowed to finish without consuming all of stdin.
+      logger.debug("Stopped sending stdin to daemon", e);
+    }
+  }
+
+  private static void readResponse(DataInputStream input, OutputStream stdout)
+      throws IOException {
+    while (true) {
+      byte type = input.readByte();
+      byte[] payload = DaemonProtocol.readFramePayload(input);
+      switch (type) {
+        case DaemonProtocol.OUTPUT_FRAME:
+          stdout.write(payload);
+          stdout.flush();
+          break;
+        case DaemonProtocol.SUCCESS_FRAME:
+          return;
+        case DaemonProtocol.FAILURE_FRAME:
+          throw new RuntimeException(
+              "Command failed in daemon: " + new String(payload, StandardCharsets.UTF_8));
+        default:
+          throw new IOException("Unexpected frame type from daemon: " + type);
+      }
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package me.dinowernli.grpc.polyglot.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The wire format spoken between {@link DaemonClient} and {@link DaemonServer} over a local TCP
+ * connection.
+ *
+ * <p>The client sends the daemon's token, the number of arguments and the arguments (each using
+ * {@link DataOutputStream#writeUTF}), followed by the raw bytes of its stdin until it shuts down
+ * its side of the connection. The daemon answers with a sequence of frames, each consisting of a
+ * type byte, a length and the payload. Output frames carry bytes destined for the client's stdout
+ * and the last frame reports whether the command succeeded.
+ */
+class DaemonProtocol {
+  static final byte OUTPUT_FRAME = 1;
+  static final byte SUCCESS_FRAME = 2;
+  static final byte FAILURE_FRAME = 3;
+
+  /** Generous upper bounds which protect the daemon from garbage sent to its port. */
+  static final int MAX_ARGUMENTS = 1024;
+  static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+  private static final String DEFAULT_LOCATION = ".polyglot";
+  private static final String TOKEN_DIRECTORY = "daemon";
+
+  /** Returns the directory holding the tokens of the daemons run by the current user. */
+  static Path defaultTokenDirectory() {
+    return Paths.get(System.getProperty("user.home"), DEFAULT_LOCATION, TOKEN_DIRECTORY);
+  }
+
+  /** Returns the file holding the token of the daemon listening on the supplied port. */
+  static Path tokenFile(Path tokenDirectory, int port) {
+    return tokenDirectory.resolve(port + ".token");
+  }
+
+  static void writeFrame(DataOutputStream output, byte type, byte[] payload, int offset, int length)
+      throws IOException {
+    output.writeByte(type);
+    output.writeInt(length);
+    output.write(payload, offset, length);
+  }
+
+  static void writeFrame(DataOutputStream output, byte type, String payload) throws IOException {
+    byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+    writeFrame(output, type, bytes, 0, bytes.length);
+  }
+
+  /** Reads the payload of a frame whose type byte has already been consumed. */
+  static byte[] readFramePayload(DataInputStream input) throws IOException {
+    int length = input.readInt();
+    if (length < 0 || length > MAX_FRAME_BYTES) {
+      throw new IOException("Invalid frame length: " + length);
+    }
+    byte[] payload = new byte[length];
+    input.readFully(payload);
+    return payload;
+  }
+
+  /**
+   * An {@link OutputStream} which wraps everything written to it into output frames, splitting
+   * large writes such that no frame exceeds {@link #MAX_FRAME_BYTES}. Closing the stream only
+   * flushes it, the connection stays open for the final status frame.
+   */
+  static class FramingOutputStream extends OutputStream {
+    private final DataOutputStream output;
+
+    FramingOutputStream(DataOutputStream output) {
+      this.output = output;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+      int written = 0;
+      while (written < length) {
+        int frameLength = Math.min(length - written, MAX_FRAME_BYTES);
+        writeFrame(output, OUTPUT_FRAME, bytes, offset + written, frameLength);
+        written += frameLength;
+      }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+      output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
+  private DaemonProtocol() {
+  }
+}
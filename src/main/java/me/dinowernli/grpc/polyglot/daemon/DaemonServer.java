@@ -0,0 +1,220 @@
+package me.dinowernli.grpc.polyglot.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import me.dinowernli.grpc.polyglot.daemon.DaemonProtocol.FramingOutputStream;
+
+/**
+ * Accepts commands forwarded by {@link DaemonClient}s on a local port and runs them inside this
+ * long-lived process, so that they don't have to pay for starting and warming up a JVM.
+ *
+ * <p>The server only listens on the loopback interface. On startup, it writes a random token to a
+ * file only readable by the current user, and rejects clients which don't present that token.
+ */
+public class DaemonServer {
+  private static final Logger logger = LoggerFactory.getLogger(DaemonServer.class);
+
+  private static final int TOKEN_BYTES = 32;
+  private static final long DRAIN_TIMEOUT_MS = 1_000;
+
+  /** Runs a single forwarded command. Failures are reported back to the client. */
+  public interface CommandRunner {
+    void run(ImmutableList<String> arguments, InputStream stdin, OutputStream stdout)
+        throws Exception;
+  }
+
+  private final ServerSocket serverSocket;
+  private final Path tokenFile;
+  private final byte[] token;
+  private final CommandRunner commandRunner;
+  private final ExecutorService connectionExecutor;
+  private final Thread acceptThread;
+
+  /** Creates a server which listens on the supplied local port once started. */
+  public static DaemonServer create(int port, CommandRunner commandRunner) throws IOException {
+    return create(port, DaemonProtocol.defaultTokenDirectory(), commandRunner);
+  }
+
+  @VisibleForTesting
+  static DaemonServer create(int port, Path tokenDirectory, CommandRunner commandRunner)
+      throws IOException {
+    ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    byte[] token = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(token);
+    ExecutorService connectionExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+        .setNameFormat("polyglot-daemon-connection-%d")
+        .setDaemon(true)
+        .build());
+    return new DaemonServer(
+        serverSocket,
+        DaemonProtocol.tokenFile(tokenDirectory, serverSocket.getLocalPort()),
+        BaseEncoding.base16().lowerCase().encode(token).getBytes(StandardCharsets.UTF_8),
+        commandRunner,
+        connectionExecutor);
+  }
+
+  private DaemonServer(
+      ServerSocket serverSocket,
+      Path tokenFile,
+      byte[] token,
+      CommandRunner commandRunner,
+      ExecutorService connectionExecutor) {
+    this.serverSocket = serverSocket;
+    this.tokenFile = tokenFile;
+    this.token = token;
+    this.commandRunner = commandRunner;
+    this.connectionExecutor = connectionExecutor;
+    this.acceptThread = new Thread(this::acceptConnections, "polyglot-daemon-acceptor");
+  }
+
+  /** Returns the local port this server listens on. */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /** Publishes the token for clients and starts accepting connections. */
+  public void start() throws IOException {
+    writeToken();
+    acceptThread.start();
+    logger.info("Daemon listening on port " + getPort() + ", token in " + tokenFile);
+  }
+
+  /** Blocks until the server has been shut down. */
+  public void awaitTermination() throws InterruptedException {
+    acceptThread.join();
+  }
+
+  /** Stops accepting connections and removes the token. Running commands are abandoned. */
+  public void shutdown() {
+    try {
+      serverSocket.close();
+      Files.deleteIfExists(tokenFile);
+    } catch (IOException e) {
+      logger.warn("Error while shutting down daemon", e);
+    }
+    connectionExecutor.shutdownNow();
+  }
+
+  private void writeToken() throws IOException {
+    Path tokenDirectory = tokenFile.getParent();
+    Files.createDirectories(tokenDirectory);
+
+    // Restrict access to the token before it is written, not after.
+    FileAttribute<?>[] ownerOnly = new FileAttribute<?>[0];
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      ownerOnly = new FileAttribute<?>[] {
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")) };
+    }
+    Path tempFile = Files.createTempFile(tokenDirectory, "token", ".tmp", ownerOnly);
+    try {
+      Files.write(tempFile, token);
+      Files.move(tempFile, tokenFile,
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private void acceptConnections() {
+    while (!serverSocket.isClosed()) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (SocketException e) {
+        // The server socket has been closed.
+        break;
+      } catch (IOException e) {
+        logger.warn("Unable to accept daemon connection", e);
+        continue;
+      }
+      connectionExecutor.execute(() -> handleConnection(socket));
+    }
+  }
+
+  private void handleConnection(Socket connection) {
+    try (Socket socket = connection) {
+      DataInputStream input =
+          new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+      byte[] clientToken = input.readUTF().getBytes(StandardCharsets.UTF_8);
+      if (!MessageDigest.isEqual(clientToken, token)) {
+        logger.warn("Rejected daemon client with invalid token");
+        DaemonProtocol.writeFrame(output, DaemonProtocol.FAILURE_FRAME, "Invalid daemon token");
+        output.flush();
+        return;
+      }
+
+      int numArguments = input.readInt();
+      if (numArguments < 0 || numArguments > DaemonProtocol.MAX_ARGUMENTS) {
+        throw new IOException("Invalid number of arguments: " + numArguments);
+      }
+      ImmutableList.Builder<String> arguments = ImmutableList.builder();
+      for (int i = 0; i < numArguments; ++i) {
+        arguments.add(input.readUTF());
+      }
+
+      runCommand(arguments.build(), input, output);
+      output.flush();
+      socket.shutdownOutput();
+
+      // Consume whatever the command didn't read so the client sees our status rather than a
+      // connection reset.
+      socket.setSoTimeout((int) DRAIN_TIMEOUT_MS);
+      ByteStreams.exhaust(input);
+    } catch (IOException e) {
+      logger.debug("Lost connection to daemon client", e);
+    }
+  }
+
+  private void runCommand(
+      ImmutableList<String> arguments, InputStream input, DataOutputStream output)
+      throws IOException {
+    long startNanos = System.nanoTime();
+    FramingOutputStream stdout = new FramingOutputStream(output);
+    try {
+      commandRunner.run(arguments, input, stdout);
+      stdout.flush();
+    } catch (Throwable t) {
+      logger.warn("Forwarded command failed: " + arguments, t);
+      DaemonProtocol.writeFrame(
+          output, DaemonProtocol.FAILURE_FRAME, Throwables.getStackTraceAsString(t));
+      return;
+    }
+    DaemonProtocol.writeFrame(output, DaemonProtocol.SUCCESS_FRAME, "");
+    logger.info(String.format("Forwarded command completed in %d ms",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+  }
+}
@@ -7,6 +7,7 @@ import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLException;
 
@@ -26,17 +27,35 @@ import io.grpc.auth.ClientAuthInterceptor;
 import io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.NegotiationType;
 import io.grpc.netty.NettyChannelBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import polyglot.ConfigProto;
+import polyglot.ConfigProto.CallConfiguration.ChannelPoolPolicy;
 
 import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 
 /** Knows how to construct grpc channels. */
 public class ChannelFactory {
+  private static final Logger logger = LoggerFactory.getLogger(ChannelFactory.class);
+  private static final int DEFAULT_MAX_STREAMS_PER_CONNECTION = 100;
+  private static final String EVENT_LOOP_THREAD_NAME = "polyglot-event-loop";
+
   private final ConfigProto.CallConfiguration callConfiguration;
   private final ListeningExecutorService authExecutor;
 
+  /** Shared by all channels of this factory, created on first use if the config asks for it. */
+  private EventLoopGroup eventLoopGroup;
+  private boolean eventLoopGroupIsEpoll;
+
   public static ChannelFactory create(ConfigProto.CallConfiguration callConfiguration) {
     ListeningExecutorService authExecutor = listeningDecorator(
         Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).build()));
@@ -55,8 +74,22 @@ public class ChannelFactory {
     if (!callConfiguration.getTlsClientOverrideAuthority().isEmpty()) {
       nettyChannelBuilder.overrideAuthority(callConfiguration.getTlsClientOverrideAuthority());
     }
+    configureTransport(nettyChannelBuilder);
+
+    int poolSize = Math.max(1, callConfiguration.getChannelPoolSize());
+    int maxPoolSize = Math.max(poolSize, callConfiguration.getChannelPoolMaxSize());
+    if (maxPoolSize == 1) {
+      return nettyChannelBuilder.build();
+    }
 
-    return nettyChannelBuilder.build();
+    // Each build() call yields a channel with its own connection to the server.
+    int maxStreams = callConfiguration.getMaxStreamsPerConnection() > 0
+        ? callConfiguration.getMaxStreamsPerConnection()
+        : DEFAULT_MAX_STREAMS_PER_CONNECTION;
+    if (callConfiguration.getChannelPoolPolicy() == ChannelPoolPolicy.ROUND_ROBIN) {
+      return ChannelPool.roundRobin(nettyChannelBuilder::build, poolSize, maxPoolSize, maxStreams);
+    }
+    return ChannelPool.leastLoaded(nettyChannelBuilder::build, poolSize, maxPoolSize, maxStreams);
   }
 
   public Channel createChannelWithCredentials(HostAndPort endpoint, Credentials credentials) {
@@ -77,6 +110,58 @@ public class ChannelFactory {
     }
   }
 
+  /** Applies the transport settings of the call config on top of grpc-java's defaults. */
+  private void configureTransport(NettyChannelBuilder builder) {
+    if (callConfiguration.getUseEpoll() || callConfiguration.getEventLoopThreads() > 0) {
+      EventLoopGroup group = getOrCreateEventLoopGroup();
+      builder.eventLoopGroup(group);
+      builder.channelType(eventLoopGroupIsEpoll ? EpollSocketChannel.class : NioSocketChannel.class);
+    }
+
+    int flowControlWindow = callConfiguration.getFlowControlWindowBytes();
+    if (callConfiguration.getDisableFlowControlAutoTuning()) {
+      builder.flowControlWindow(flowControlWindow > 0
+          ? flowControlWindow
+          : NettyChannelBuilder.DEFAULT_FLOW_CONTROL_WINDOW);
+    } else if (flowControlWindow > 0) {
+      builder.initialFlowControlWindow(flowControlWindow);
+    }
+
+    if (callConfiguration.getMaxInboundMessageSizeBytes() > 0) {
+      builder.maxInboundMessageSize(callConfiguration.getMaxInboundMessageSizeBytes());
+    }
+
+    if (callConfiguration.getKeepaliveTimeSec() > 0) {
+      builder.keepAliveTime(callConfiguration.getKeepaliveTimeSec(), TimeUnit.SECONDS);
+      builder.keepAliveWithoutCalls(callConfiguration.getKeepaliveWithoutCalls());
+    }
+    if (callConfiguration.getKeepaliveTimeoutSec() > 0) {
+      builder.keepAliveTimeout(callConfiguration.getKeepaliveTimeoutSec(), TimeUnit.SECONDS);
+    }
+  }
+
+  private synchronized EventLoopGroup getOrCreateEventLoopGroup() {
+    if (eventLoopGroup != null) {
+      return eventLoopGroup;
+    }
+
+    // Zero makes netty pick its default of twice the number of cores.
+    int numThreads = callConfiguration.getEventLoopThreads();
+    DefaultThreadFactory threadFactory =
+        new DefaultThreadFactory(EVENT_LOOP_THREAD_NAME, true /* daemon */);
+    if (callConfiguration.getUseEpoll() && Epoll.isAvailable()) {
+      eventLoopGroup = new EpollEventLoopGroup(numThreads, threadFactory);
+      eventLoopGroupIsEpoll = true;
+    } else {
+      if (callConfiguration.getUseEpoll()) {
+        logger.warn("Epoll transport unavailable, falling back to nio", Epoll.unavailabilityCause());
+      }
+      eventLoopGroup = new NioEventLoopGroup(numThreads, threadFactory);
+      eventLoopGroupIsEpoll = false;
+    }
+    return eventLoopGroup;
+  }
+
   private ClientInterceptor metadataInterceptor() {
     ClientInterceptor interceptor = new ClientInterceptor() {
       @Override
@@ -0,0 +1,191 @@
+package me.dinowernli.grpc.polyglot.grpc;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Channel} which spreads calls across several subchannels, each of which has its own
+ * connection to the server. This lifts the limits a single connection imposes on concurrent
+ * calls, namely the server's MAX_CONCURRENT_STREAMS setting and the throughput of the single
+ * event loop thread serving the connection.
+ *
+ * <p>The pool starts out with a fixed number of subchannels. Whenever every subchannel carries as
+ * many calls as a connection is expected to allow, another subchannel is opened, up to a maximum.
+ */
+public class ChannelPool extends Channel {
+  private static final Logger logger = LoggerFactory.getLogger(ChannelPool.class);
+
+  private final Supplier<Channel> subchannelFactory;
+  private final int maxSize;
+  private final int maxCallsPerSubchannel;
+  private final boolean leastLoaded;
+  private final List<Subchannel> subchannels;
+  private final AtomicLong nextIndex;
+  private final AtomicLong tieBreaker;
+
+  /** Returns a pool which sends each call to the subchannel with the fewest active calls. */
+  public static ChannelPool leastLoaded(
+      Supplier<Channel> subchannelFactory, int size, int maxSize, int maxCallsPerSubchannel) {
+    return new ChannelPool(
+        subchannelFactory, size, maxSize, maxCallsPerSubchannel, true /* leastLoaded */);
+  }
+
+  /** Returns a pool which sends calls to its subchannels in turn. */
+  public static ChannelPool roundRobin(
+      Supplier<Channel> subchannelFactory, int size, int maxSize, int maxCallsPerSubchannel) {
+    return new ChannelPool(
+        subchannelFactory, size, maxSize, maxCallsPerSubchannel, false /* leastLoaded */);
+  }
+
+  private ChannelPool(
+      Supplier<Channel> subchannelFactory,
+      int size,
+      int maxSize,
+      int maxCallsPerSubchannel,
+      boolean leastLoaded) {
+    Preconditions.checkArgument(size > 0, "Need at least one subchannel: " + size);
+    Preconditions.checkArgument(maxSize >= size, "Max size smaller than size: " + maxSize);
+    Preconditions.checkArgument(maxCallsPerSubchannel > 0, "Need to allow at least one call");
+    this.subchannelFactory = subchannelFactory;
+    this.maxSize = maxSize;
+    this.maxCallsPerSubchannel = maxCallsPerSubchannel;
+    this.leastLoaded = leastLoaded;
+    this.subchannels = new CopyOnWriteArrayList<>();
+    this.nextIndex = new AtomicLong();
+    this.tieBreaker = new AtomicLong();
+    for (int i = 0; i < size; ++i) {
+      subchannels.add(new Subchannel(subchannelFactory.get()));
+    }
+  }
+
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+      MethodDescriptor<ReqT, RespT> methodDescriptor, CallOptions callOptions) {
+    Subchannel subchannel = pickSubchannel();
+    return new CountingCall<>(
+        subchannel.channel.newCall(methodDescriptor, callOptions), subchannel.activeCalls);
+  }
+
+  @Override
+  public String authority() {
+    return subchannels.get(0).channel.authority();
+  }
+
+  /** Returns the current number of subchannels. */
+  public int size() {
+    return subchannels.size();
+  }
+
+  @VisibleForTesting
+  int activeCalls(int subchannelIndex) {
+    return subchannels.get(subchannelIndex).activeCalls.get();
+  }
+
+  private Subchannel pickSubchannel() {
+    Subchannel result = leastLoaded
+        ? findLeastLoaded()
+        : subchannels.get((int) (nextIndex.getAndIncrement() % subchannels.size()));
+    if (result.activeCalls.get() < maxCallsPerSubchannel) {
+      return result;
+    }
+
+    // Only grow once all subchannels are saturated, not just the one whose turn it is.
+    if (leastLoaded || findLeastLoaded().activeCalls.get() >= maxCallsPerSubchannel) {
+      Subchannel added = maybeGrow();
+      if (added != null) {
+        return added;
+      }
+    }
+    return result;
+  }
+
+  private Subchannel findLeastLoaded() {
+    // Start at a rotating offset so that ties don't all go to the first subchannel.
+    int size = subchannels.size();
+    int offset = (int) (tieBreaker.getAndIncrement() % size);
+    Subchannel result = null;
+    for (int i = 0; i < size; ++i) {
+      Subchannel candidate = subchannels.get((offset + i) % size);
+      if (result == null || candidate.activeCalls.get() < result.activeCalls.get()) {
+        result = candidate;
+      }
+    }
+    return result;
+  }
+
+  /** Adds a subchannel unless the pool is at its maximum size. Returns the new subchannel. */
+  private synchronized Subchannel maybeGrow() {
+    if (subchannels.size() >= maxSize) {
+      return null;
+    }
+    Subchannel result = new Subchannel(subchannelFactory.get());
+    subchannels.add(result);
+    logger.info(String.format(
+        "All connections carry %d calls, opened connection %d of at most %d",
+        maxCallsPerSubchannel, subchannels.size(), maxSize));
+    return result;
+  }
+
+  /** A channel in the pool along with the number of calls it currently carries. */
+  private static class Subchannel {
+    private final Channel channel;
+    private final AtomicInteger activeCalls;
+
+    private Subchannel(Channel channel) {
+      this.channel = channel;
+      this.activeCalls = new AtomicInteger();
+    }
+  }
+
+  /** Keeps track of the number of active calls of a subchannel. */
+  private static class CountingCall<ReqT, RespT> extends SimpleForwardingClientCall<ReqT, RespT> {
+    private final AtomicInteger activeCalls;
+    private final AtomicBoolean released;
+
+    private CountingCall(ClientCall<ReqT, RespT> delegate, AtomicInteger activeCalls) {
+      super(delegate);
+      this.activeCalls = activeCalls;
+      this.released = new AtomicBoolean();
+    }
+
+    @Override
+    public void start(Listener<RespT> responseListener, Metadata headers) {
+      activeCalls.incrementAndGet();
+      try {
+        super.start(new SimpleForwardingClientCallListener<RespT>(responseListener) {
+          @Override
+          public void onClose(Status status, Metadata trailers) {
+            release();
+            super.onClose(status, trailers);
+          }
+        }, headers);
+      } catch (RuntimeException e) {
+        release();
+        throw e;
+      }
+    }
+
+    private void release() {
+      if (released.compareAndSet(false, true)) {
+        activeCalls.decrementAndGet();
+      }
+    }
+  }
+}
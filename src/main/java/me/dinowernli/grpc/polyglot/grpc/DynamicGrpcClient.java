@@ -9,28 +9,72 @@ import com.google.protobuf.DynamicMessage;
 import io.grpc.CallOptions;
 import io.grpc.Channel;
 import io.grpc.ClientCall;
+import io.grpc.MethodDescriptor.Marshaller;
 import io.grpc.MethodDescriptor.MethodType;
 import io.grpc.stub.ClientCalls;
 import io.grpc.stub.StreamObserver;
 import me.dinowernli.grpc.polyglot.protobuf.DynamicMessageMarshaller;
+import me.dinowernli.grpc.polyglot.protobuf.RawMessages;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Iterator;
+import java.util.function.Supplier;
+
 /** A grpc client which operates on dynamic messages. */
 public class DynamicGrpcClient {
   private static final Logger logger = LoggerFactory.getLogger(DynamicGrpcClient.class);
   private final MethodDescriptor protoMethodDescriptor;
   private final Channel channel;
 
+  /** Built once and shared by all calls, along with the marshallers it holds. */
+  private final io.grpc.MethodDescriptor<DynamicMessage, DynamicMessage> grpcMethodDescriptor;
+
   /** Creates a client for the supplied method, talking to the supplied endpoint. */
   public static DynamicGrpcClient create(MethodDescriptor protoMethod, Channel channel) {
     return new DynamicGrpcClient(protoMethod, channel);
   }
 
+  /**
+   * Creates a client whose responses are not parsed, but handed out as produced by
+   * {@link RawMessages#wrap}, holding the bytes received from the server.
+   */
+  public static DynamicGrpcClient createWithRawResponses(
+      MethodDescriptor protoMethod, Channel channel) {
+    return new DynamicGrpcClient(
+        protoMethod,
+        channel,
+        new DynamicMessageMarshaller(protoMethod.getInputType()),
+        RawMessages.marshaller());
+  }
+
+  /**
+   * Creates a client which neither serializes requests nor parses responses. Requests must be
+   * produced by {@link RawMessages#wrap} and are sent exactly as they are, and responses are handed
+   * out like those of {@link #createWithRawResponses}.
+   */
+  public static DynamicGrpcClient createRaw(MethodDescriptor protoMethod, Channel channel) {
+    return new DynamicGrpcClient(
+        protoMethod, channel, RawMessages.marshaller(), RawMessages.marshaller());
+  }
+
   @VisibleForTesting
   DynamicGrpcClient(MethodDescriptor protoMethodDescriptor, Channel channel) {
+    this(
+        protoMethodDescriptor,
+        channel,
+        new DynamicMessageMarshaller(protoMethodDescriptor.getInputType()),
+        new DynamicMessageMarshaller(protoMethodDescriptor.getOutputType()));
+  }
+
+  private DynamicGrpcClient(
+      MethodDescriptor protoMethodDescriptor,
+      Channel channel,
+      Marshaller<DynamicMessage> requestMarshaller,
+      Marshaller<DynamicMessage> responseMarshaller) {
     this.protoMethodDescriptor = protoMethodDescriptor;
     this.channel = channel;
+    this.grpcMethodDescriptor = createGrpcMethodDescriptor(requestMarshaller, responseMarshaller);
   }
 
   /**
@@ -46,48 +90,99 @@ public class DynamicGrpcClient {
     MethodType methodType = getMethodType();
     long numRequests = requests.size();
     if (methodType == MethodType.UNARY) {
-      logger.info("Making unary call");
       Preconditions.checkArgument(numRequests == 1,
           "Need exactly 1 request for unary call, but got: " + numRequests);
-      return callUnary(requests.get(0), responseObserver, callOptions);
     } else if (methodType == MethodType.SERVER_STREAMING) {
-      logger.info("Making server streaming call");
       Preconditions.checkArgument(numRequests == 1,
           "Need exactly 1 request for server streaming call, but got: " + numRequests);
-      return callServerStreaming(requests.get(0), responseObserver, callOptions);
+    }
+    return call(requests.iterator(), responseObserver, callOptions);
+  }
+
+  /**
+   * Makes an rpc to the remote endpoint, pulling the requests from the supplied iterator as they
+   * are sent. For streaming calls, the first request goes out before the iterator is exhausted
+   * and no more requests are pulled than the call is ready to send. For calls which are
+   * single-request, this throws {@link IllegalArgumentException} if {@code requests} does not
+   * yield exactly one request.
+   */
+  public ListenableFuture<Void> call(
+      Iterator<DynamicMessage> requests,
+      StreamObserver<DynamicMessage> responseObserver,
+      CallOptions callOptions) {
+    Preconditions.checkArgument(requests.hasNext(), "Can't make call without any requests");
+    MethodType methodType = getMethodType();
+    if (methodType == MethodType.UNARY) {
+      logger.debug("Making unary call");
+      return callUnary(
+          getOnlyRequest(requests, "unary"), responseObserver, callOptions);
+    } else if (methodType == MethodType.SERVER_STREAMING) {
+      logger.debug("Making server streaming call");
+      return callServerStreaming(
+          getOnlyRequest(requests, "server streaming"), responseObserver, callOptions);
     } else if (methodType == MethodType.CLIENT_STREAMING) {
-      logger.info("Making client streaming call with " + requests.size() + " requests");
+      logger.debug("Making client streaming call");
       return callClientStreaming(requests, responseObserver, callOptions);
     } else {
       // Bidi streaming.
-      logger.info("Making bidi streaming call with " + requests.size() + " requests");
+      logger.debug("Making bidi streaming call");
       return callBidiStreaming(requests, responseObserver, callOptions);
     }
   }
 
+  /**
+   * Sends each of the supplied requests as its own unary call, keeping at most
+   * {@code maxInFlight} calls outstanding at any time. Blocks until all requests have been sent,
+   * and returns a future which completes once all calls have ended. The future fails if any of
+   * the calls failed, but a failed call does not prevent the remaining requests from being sent.
+   *
+   * @param callOptions invoked once per call, so that deadlines apply to each call separately
+   * @param preserveInputOrder whether the responses are passed to {@code responseObserver} in the
+   *     order of the requests, rather than in the order in which the calls complete
+   */
+  public ListenableFuture<Void> callUnaryBatch(
+      Iterator<DynamicMessage> requests,
+      StreamObserver<DynamicMessage> responseObserver,
+      Supplier<CallOptions> callOptions,
+      int maxInFlight,
+      boolean preserveInputOrder) {
+    Preconditions.checkArgument(getMethodType() == MethodType.UNARY,
+        "Batch calls are only supported for unary methods, but got: " + getMethodType());
+    logger.debug("Making batch of unary calls with up to " + maxInFlight + " in flight");
+    UnaryBatch<DynamicMessage, DynamicMessage> batch =
+        new UnaryBatch<>(responseObserver, maxInFlight, preserveInputOrder);
+    return batch.run(
+        requests, request -> ClientCalls.futureUnaryCall(createCall(callOptions.get()), request));
+  }
+
+  private static DynamicMessage getOnlyRequest(Iterator<DynamicMessage> requests, String callType) {
+    DynamicMessage request = requests.next();
+    Preconditions.checkArgument(!requests.hasNext(),
+        "Need exactly 1 request for " + callType + " call, but got more");
+    return request;
+  }
+
   private ListenableFuture<Void> callBidiStreaming(
-      ImmutableList<DynamicMessage> requests,
+      Iterator<DynamicMessage> requests,
       StreamObserver<DynamicMessage> responseObserver,
       CallOptions callOptions) {
     DoneObserver<DynamicMessage> doneObserver = new DoneObserver<>();
-    StreamObserver<DynamicMessage> requestObserver = ClientCalls.asyncBidiStreamingCall(
-        createCall(callOptions),
-        CompositeStreamObserver.of(responseObserver, doneObserver));
-    requests.forEach(requestObserver::onNext);
-    requestObserver.onCompleted();
+    RequestStreamer<DynamicMessage, DynamicMessage> requestStreamer = new RequestStreamer<>(
+        requests, CompositeStreamObserver.of(responseObserver, doneObserver));
+    ClientCalls.asyncBidiStreamingCall(createCall(callOptions), requestStreamer);
+    requestStreamer.start();
     return doneObserver.getCompletionFuture();
   }
 
   private ListenableFuture<Void> callClientStreaming(
-      ImmutableList<DynamicMessage> requests,
+      Iterator<DynamicMessage> requests,
       StreamObserver<DynamicMessage> responseObserver,
       CallOptions callOptions) {
     DoneObserver<DynamicMessage> doneObserver = new DoneObserver<>();
-    StreamObserver<DynamicMessage> requestObserver = ClientCalls.asyncClientStreamingCall(
-        createCall(callOptions),
-        CompositeStreamObserver.of(responseObserver, doneObserver));
-    requests.forEach(requestObserver::onNext);
-    requestObserver.onCompleted();
+    RequestStreamer<DynamicMessage, DynamicMessage> requestStreamer = new RequestStreamer<>(
+        requests, CompositeStreamObserver.of(responseObserver, doneObserver));
+    ClientCalls.asyncClientStreamingCall(createCall(callOptions), requestStreamer);
+    requestStreamer.start();
     return doneObserver.getCompletionFuture();
   }
 
@@ -116,15 +211,17 @@ public class DynamicGrpcClient {
   }
 
   private ClientCall<DynamicMessage, DynamicMessage> createCall(CallOptions callOptions) {
-    return channel.newCall(createGrpcMethodDescriptor(), callOptions);
+    return channel.newCall(grpcMethodDescriptor, callOptions);
   }
 
-  private io.grpc.MethodDescriptor<DynamicMessage, DynamicMessage> createGrpcMethodDescriptor() {
+  private io.grpc.MethodDescriptor<DynamicMessage, DynamicMessage> createGrpcMethodDescriptor(
+      Marshaller<DynamicMessage> requestMarshaller,
+      Marshaller<DynamicMessage> responseMarshaller) {
     return io.grpc.MethodDescriptor.<DynamicMessage, DynamicMessage>create(
         getMethodType(),
         getFullMethodName(),
-        new DynamicMessageMarshaller(protoMethodDescriptor.getInputType()),
-        new DynamicMessageMarshaller(protoMethodDescriptor.getOutputType()));
+        requestMarshaller,
+        responseMarshaller);
   }
 
   private String getFullMethodName() {
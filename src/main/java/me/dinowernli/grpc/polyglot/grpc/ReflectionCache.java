@@ -0,0 +1,184 @@
+package me.dinowernli.grpc.polyglot.grpc;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Caches the descriptors of services obtained by reflection, both in memory and on disk, keyed by
+ * endpoint and service name.
+ *
+ * <p>Entries younger than the TTL are used without talking to the server at all. Older entries
+ * are revalidated by asking the server for the file which defines the service, which takes a
+ * single round trip. If the server's version of that file (and of any dependencies it sends
+ * along) matches the cached one, the entry is used and its TTL starts over. Otherwise, the entry
+ * is dropped and the caller has to resolve the service from scratch.
+ */
+public class ReflectionCache {
+  private static final Logger logger = LoggerFactory.getLogger(ReflectionCache.class);
+
+  private static final String DEFAULT_LOCATION = ".polyglot";
+  private static final String CACHE_DIRECTORY = "cache";
+  private static final String REFLECTION_DIRECTORY = "reflection";
+  private static final String ENTRY_SUFFIX = ".pb.bin";
+
+  private final Path cacheDirectory;
+  private final Duration ttl;
+  private final Clock clock;
+  private final Map<String, Entry> memoryCache;
+
+  /** Returns a cache which lives in the current user's home directory. */
+  public static ReflectionCache forUserHome(Duration ttl) {
+    String homeDirectory = System.getProperty("user.home");
+    return new ReflectionCache(
+        Paths.get(homeDirectory, DEFAULT_LOCATION, CACHE_DIRECTORY, REFLECTION_DIRECTORY),
+        ttl,
+        Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  ReflectionCache(Path cacheDirectory, Duration ttl, Clock clock) {
+    this.cacheDirectory = cacheDirectory;
+    this.ttl = ttl;
+    this.clock = clock;
+    this.memoryCache = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Returns the cached descriptors for the supplied service, revalidating them using the supplied
+   * client if they are older than the TTL. Returns an empty optional if there is no usable entry.
+   */
+  public Optional<FileDescriptorSet> get(
+      String endpoint, String serviceName, ServerReflectionClient reflectionClient) {
+    String key = computeKey(endpoint, serviceName);
+    Optional<Entry> entry = lookup(key);
+    if (!entry.isPresent()) {
+      return Optional.empty();
+    }
+
+    Instant now = clock.instant();
+    if (entry.get().validatedAt.plus(ttl).isAfter(now)) {
+      return Optional.of(entry.get().descriptors);
+    }
+
+    if (!isCurrent(entry.get().descriptors, serviceName, reflectionClient)) {
+      logger.info("Cached reflection descriptors for " + serviceName + " are out of date");
+      memoryCache.remove(key);
+      return Optional.empty();
+    }
+
+    logger.debug("Revalidated cached reflection descriptors for " + serviceName);
+    memoryCache.put(key, new Entry(entry.get().descriptors, now));
+    try {
+      Files.setLastModifiedTime(entryPath(key), FileTime.from(now));
+    } catch (IOException e) {
+      logger.debug("Unable to refresh cache entry for " + serviceName, e);
+    }
+    return Optional.of(entry.get().descriptors);
+  }
+
+  /** Stores freshly obtained descriptors for the supplied service. */
+  public void put(String endpoint, String serviceName, FileDescriptorSet descriptors) {
+    String key = computeKey(endpoint, serviceName);
+    Instant now = clock.instant();
+    memoryCache.put(key, new Entry(descriptors, now));
+
+    try {
+      Files.createDirectories(cacheDirectory);
+      Path tempFile = Files.createTempFile(cacheDirectory, "entry", ".tmp");
+      try {
+        Files.write(tempFile, descriptors.toByteArray());
+        Files.setLastModifiedTime(tempFile, FileTime.from(now));
+        Files.move(tempFile, entryPath(key),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    } catch (IOException e) {
+      logger.warn("Unable to cache reflection descriptors in: " + cacheDirectory, e);
+    }
+  }
+
+  private Optional<Entry> lookup(String key) {
+    Entry inMemory = memoryCache.get(key);
+    if (inMemory != null) {
+      return Optional.of(inMemory);
+    }
+
+    Path path = entryPath(key);
+    if (!Files.exists(path)) {
+      return Optional.empty();
+    }
+    try {
+      Entry fromDisk = new Entry(
+          FileDescriptorSet.parseFrom(Files.readAllBytes(path)),
+          Files.getLastModifiedTime(path).toInstant());
+      memoryCache.put(key, fromDisk);
+      return Optional.of(fromDisk);
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Unable to read cached reflection descriptors from: " + path, e);
+      return Optional.empty();
+    }
+  }
+
+  /** Returns whether the files the server sends for the service match the cached ones. */
+  private static boolean isCurrent(
+      FileDescriptorSet cached, String serviceName, ServerReflectionClient reflectionClient) {
+    ImmutableList<FileDescriptorProto> serverFiles;
+    try {
+      serverFiles = reflectionClient.lookupFileContainingSymbol(serviceName).get();
+    } catch (Throwable t) {
+      logger.debug("Unable to revalidate reflection descriptors for " + serviceName, t);
+      return false;
+    }
+
+    Map<String, FileDescriptorProto> cachedFiles = cached.getFileList().stream()
+        .collect(Collectors.toMap(FileDescriptorProto::getName, Function.identity(), (a, b) -> a));
+    return !serverFiles.isEmpty()
+        && serverFiles.stream().allMatch(file -> file.equals(cachedFiles.get(file.getName())));
+  }
+
+  private Path entryPath(String key) {
+    return cacheDirectory.resolve(key + ENTRY_SUFFIX);
+  }
+
+  private static String computeKey(String endpoint, String serviceName) {
+    return Hashing.sha256().newHasher()
+        .putString(endpoint, StandardCharsets.UTF_8)
+        .putChar('\0')
+        .putString(serviceName, StandardCharsets.UTF_8)
+        .hash()
+        .toString();
+  }
+
+  /** A set of descriptors along with the time they were last known to be current. */
+  private static class Entry {
+    private final FileDescriptorSet descriptors;
+    private final Instant validatedAt;
+
+    private Entry(FileDescriptorSet descriptors, Instant validatedAt) {
+      this.descriptors = descriptors;
+      this.validatedAt = validatedAt;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package me.dinowernli.grpc.polyglot.grpc;
+
+import java.util.Iterator;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feeds the requests of a client streaming or bidi call from an iterator. Requests are only
+ * pulled from the iterator while the call is ready to accept more messages, so a slow server
+ * exerts backpressure on the source of the requests rather than having them queue up in memory.
+ *
+ * <p>Must be passed as the response observer when starting the call, and then kicked off using
+ * {@link #start()}.
+ */
+class RequestStreamer<T, R> implements ClientResponseObserver<T, R> {
+  private static final Logger logger = LoggerFactory.getLogger(RequestStreamer.class);
+
+  private final Iterator<T> requests;
+  private final StreamObserver<R> responseObserver;
+  private final Object readyLock;
+  private ClientCallStreamObserver<T> requestStream;
+  private boolean callDone;
+
+  RequestStreamer(Iterator<T> requests, StreamObserver<R> responseObserver) {
+    this.requests = requests;
+    this.responseObserver = responseObserver;
+    this.readyLock = new Object();
+    this.callDone = false;
+  }
+
+  @Override
+  public void beforeStart(ClientCallStreamObserver<T> requestStream) {
+    this.requestStream = requestStream;
+    requestStream.setOnReadyHandler(this::signal);
+  }
+
+  @Override
+  public void onNext(R response) {
+    responseObserver.onNext(response);
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    markDone();
+    responseObserver.onError(t);
+  }
+
+  @Override
+  public void onCompleted() {
+    markDone();
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Starts sending requests on a separate thread. Reading the requests may block (e.g., on stdin),
+   * so this must not happen on the thread delivering the responses of the call.
+   */
+  void start() {
+    Thread thread = new Thread(this::sendAll, "polyglot-request-streamer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void sendAll() {
+    try {
+      while (requests.hasNext()) {
+        T request = requests.next();
+        if (!awaitReady()) {
+          logger.debug("Call terminated before all requests were sent");
+          return;
+        }
+        requestStream.onNext(request);
+      }
+      requestStream.onCompleted();
+    } catch (Throwable t) {
+      // Cancels the call, which then fails with the supplied cause.
+      requestStream.onError(t);
+    }
+  }
+
+  /** Blocks until the call can take another request. Returns false if the call has terminated. */
+  private boolean awaitReady() throws InterruptedException {
+    synchronized (readyLock) {
+      while (!callDone && !requestStream.isReady()) {
+        readyLock.wait();
+      }
+      return !callDone;
+    }
+  }
+
+  private void markDone() {
+    synchronized (readyLock) {
+      callDone = true;
+      readyLock.notifyAll();
+    }
+  }
+
+  private void signal() {
+    synchronized (readyLock) {
+      readyLock.notifyAll();
+    }
+  }
+}
@@ -2,6 +2,7 @@ package me.dinowernli.grpc.polyglot.grpc;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.ByteString;
@@ -9,6 +10,8 @@ import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
 import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import io.grpc.reflection.v1alpha.ListServiceResponse;
 import io.grpc.reflection.v1alpha.ServerReflectionGrpc;
 import io.grpc.reflection.v1alpha.ServerReflectionRequest;
@@ -57,13 +60,104 @@ public class ServerReflectionClient {
    * service, as provided by the remote server.
    */
   public ListenableFuture<FileDescriptorSet> lookupService(String serviceName) {
-    LookupServiceHandler rpcHandler = new LookupServiceHandler(serviceName);
+    return lookupServices(ImmutableList.of(serviceName));
+  }
+
+  /**
+   * Returns a {@link FileDescriptorSet} containing all the transitive dependencies of all the
+   * supplied services. The services are looked up concurrently on a single stream, and files
+   * shared between services are only requested once.
+   */
+  public ListenableFuture<FileDescriptorSet> lookupServices(ImmutableList<String> serviceNames) {
+    if (serviceNames.isEmpty()) {
+      return Futures.immediateFuture(FileDescriptorSet.getDefaultInstance());
+    }
+    LookupServiceHandler rpcHandler = new LookupServiceHandler(serviceNames);
     StreamObserver<ServerReflectionRequest> requestStream = ServerReflectionGrpc.newStub(channel)
         .withDeadlineAfter(LOOKUP_RPC_DEADLINE_MS, TimeUnit.MILLISECONDS)
         .serverReflectionInfo(rpcHandler);
     return rpcHandler.start(requestStream);
   }
 
+  /**
+   * Returns the file which defines the supplied symbol, as provided by the remote server. Depending
+   * on the server, the result may also contain some or all of the file's dependencies. This takes
+   * a single round trip, which makes it a cheap way to check whether previously obtained
+   * descriptors are still current.
+   */
+  public ListenableFuture<ImmutableList<FileDescriptorProto>> lookupFileContainingSymbol(
+      String symbol) {
+    SymbolLookupHandler rpcHandler = new SymbolLookupHandler(symbol);
+    StreamObserver<ServerReflectionRequest> requestStream = ServerReflectionGrpc.newStub(channel)
+        .withDeadlineAfter(LIST_RPC_DEADLINE_MS, TimeUnit.MILLISECONDS)
+        .serverReflectionInfo(rpcHandler);
+    return rpcHandler.start(requestStream);
+  }
+
+  /** Handles the rpc life cycle of a single symbol lookup which doesn't chase dependencies. */
+  private static class SymbolLookupHandler implements StreamObserver<ServerReflectionResponse> {
+    private final SettableFuture<ImmutableList<FileDescriptorProto>> resultFuture;
+    private final String symbol;
+    private StreamObserver<ServerReflectionRequest> requestStream;
+
+    private SymbolLookupHandler(String symbol) {
+      this.symbol = symbol;
+      this.resultFuture = SettableFuture.create();
+    }
+
+    ListenableFuture<ImmutableList<FileDescriptorProto>> start(
+        StreamObserver<ServerReflectionRequest> requestStream) {
+      this.requestStream = requestStream;
+      requestStream.onNext(LookupServiceHandler.requestForSymbol(symbol));
+      return resultFuture;
+    }
+
+    @Override
+    public void onNext(ServerReflectionResponse response) {
+      MessageResponseCase responseCase = response.getMessageResponseCase();
+      switch (responseCase) {
+        case FILE_DESCRIPTOR_RESPONSE:
+          ImmutableList.Builder<FileDescriptorProto> files = ImmutableList.builder();
+          for (ByteString fileBytes :
+              response.getFileDescriptorResponse().getFileDescriptorProtoList()) {
+            try {
+              files.add(FileDescriptorProto.parseFrom(fileBytes));
+            } catch (InvalidProtocolBufferException e) {
+              resultFuture.setException(e);
+              requestStream.onCompleted();
+              return;
+            }
+          }
+          resultFuture.set(files.build());
+          break;
+        case ERROR_RESPONSE:
+          resultFuture.setException(Status.fromCodeValue(response.getErrorResponse().getErrorCode())
+              .withDescription(response.getErrorResponse().getErrorMessage())
+              .asRuntimeException());
+          break;
+        default:
+          logger.warn("Got unknown reflection response type: " + responseCase);
+          resultFuture.setException(
+              new RuntimeException("Unexpected reflection response type: " + responseCase));
+          break;
+      }
+      requestStream.onCompleted();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      resultFuture.setException(
+          new RuntimeException("Reflection lookup rpc failed for symbol: " + symbol, t));
+    }
+
+    @Override
+    public void onCompleted() {
+      if (!resultFuture.isDone()) {
+        resultFuture.setException(new RuntimeException("Unexpected end of rpc"));
+      }
+    }
+  }
+
   /** Handles the rpc life cycle of a single list operation. */
   private static class ListServicesHandler implements StreamObserver<ServerReflectionResponse> {
     private final SettableFuture<ImmutableList<String>> resultFuture;
@@ -114,35 +208,58 @@ public class ServerReflectionClient {
     }
   }
 
-  /** Handles the rpc life cycle of a single lookup operation. */
+  /**
+   * Handles the rpc life cycle of a single lookup operation. All requests go over a single stream:
+   * the files containing the services are requested straight away, and each dependency is
+   * requested as soon as a file referencing it arrives, without waiting for the other outstanding
+   * responses.
+   */
   private static class LookupServiceHandler implements StreamObserver<ServerReflectionResponse> {
     private final SettableFuture<FileDescriptorSet> resultFuture;
-    private final String serviceName;
+    private final ImmutableList<String> serviceNames;
     private final HashSet<String> requestedDescriptors;
     private final HashMap<String, FileDescriptorProto> resolvedDescriptors;
     private StreamObserver<ServerReflectionRequest> requestStream;
 
+    // Responses can arrive while the services are still being requested, so the state below and
+    // the request stream are only touched while holding the handler's lock.
+
     // Used to notice when we've received all the files we've asked for and we can end the rpc.
     private int outstandingRequests;
 
-    private LookupServiceHandler(String serviceName) {
-      this.serviceName = serviceName;
+    // Servers answer the requests of a stream in order, and the services are requested before any
+    // dependency, so the first responses are for the services.
+    private int outstandingServiceResponses;
+
+    private LookupServiceHandler(ImmutableList<String> serviceNames) {
+      this.serviceNames = serviceNames;
+      this.outstandingServiceResponses = serviceNames.size();
       this.resultFuture = SettableFuture.create();
       this.resolvedDescriptors = new HashMap<>();
       this.requestedDescriptors = new HashSet<>();
       this.outstandingRequests = 0;
     }
 
-    ListenableFuture<FileDescriptorSet> start(
+    synchronized ListenableFuture<FileDescriptorSet> start(
         StreamObserver<ServerReflectionRequest> requestStream) {
       this.requestStream = requestStream;
-      requestStream.onNext(requestForSymbol(serviceName));
-      ++outstandingRequests;
+      outstandingRequests = serviceNames.size();
+      for (String serviceName : serviceNames) {
+        requestStream.onNext(requestForSymbol(serviceName));
+      }
       return resultFuture;
     }
 
     @Override
-    public void onNext(ServerReflectionResponse response) {
+    public synchronized void onNext(ServerReflectionResponse response) {
+      if (resultFuture.isDone()) {
+        return;
+      }
+      boolean isServiceResponse = outstandingServiceResponses > 0;
+      if (isServiceResponse) {
+        --outstandingServiceResponses;
+      }
+
       MessageResponseCase responseCase = response.getMessageResponseCase();
       switch (responseCase) {
         case FILE_DESCRIPTOR_RESPONSE:
@@ -150,16 +267,24 @@ public class ServerReflectionClient {
               parseDescriptors(response.getFileDescriptorResponse().getFileDescriptorProtoList());
           descriptors.forEach(d -> resolvedDescriptors.put(d.getName(), d));
           descriptors.forEach(d -> processDependencies(d));
+          onResponseProcessed();
+          break;
+        case ERROR_RESPONSE:
+          handleError(response, isServiceResponse);
           break;
         default:
           logger.warn("Got unknown reflection response type: " + responseCase);
+          resultFuture.setException(
+              new RuntimeException("Unexpected reflection response type: " + responseCase));
+          requestStream.onCompleted();
           break;
       }
     }
 
     @Override
     public void onError(Throwable t) {
-      resultFuture.setException(new RuntimeException("Reflection lookup rpc failed for: " + serviceName, t));
+      resultFuture.setException(
+          new RuntimeException("Reflection lookup rpc failed for: " + serviceNames, t));
     }
 
     @Override
@@ -170,6 +295,24 @@ public class ServerReflectionClient {
       }
     }
 
+    /**
+     * Fails the lookup. An error for one of the services is passed on as is, such that callers can
+     * tell a server which doesn't know a service (NOT_FOUND) from other failures.
+     */
+    private void handleError(ServerReflectionResponse response, boolean isServiceResponse) {
+      StatusRuntimeException error =
+          Status.fromCodeValue(response.getErrorResponse().getErrorCode())
+              .withDescription(response.getErrorResponse().getErrorMessage())
+              .asRuntimeException();
+      if (isServiceResponse) {
+        resultFuture.setException(error);
+      } else {
+        resultFuture.setException(new IllegalStateException(
+            "Unable to fetch a dependency of services " + serviceNames + " by reflection", error));
+      }
+      requestStream.onCompleted();
+    }
+
     private ImmutableSet<FileDescriptorProto> parseDescriptors(List<ByteString> descriptorBytes) {
       ImmutableSet.Builder<FileDescriptorProto> resultBuilder = ImmutableSet.builder();
       for (ByteString fileDescriptorBytes : descriptorBytes) {
@@ -191,10 +334,16 @@ public class ServerReflectionClient {
           requestStream.onNext(requestForDescriptor(dep));
         }
       });
+    }
 
+    /**
+     * Completes the lookup once every request has been answered. A single response can carry
+     * several files, so this counts responses rather than files.
+     */
+    private void onResponseProcessed() {
       --outstandingRequests;
       if (outstandingRequests == 0) {
-        logger.debug("Retrieved service definition for [{}] by reflection", serviceName);
+        logger.debug("Retrieved service definitions for {} by reflection", serviceNames);
         resultFuture.set(FileDescriptorSet.newBuilder()
             .addAllFile(resolvedDescriptors.values())
             .build());
@@ -0,0 +1,164 @@
+package me.dinowernli.grpc.polyglot.grpc;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+/**
+ * Sends each of a stream of requests as its own single-request call, keeping at most a fixed
+ * number of calls outstanding. Responses are passed on to an observer either in the order of the
+ * requests or in the order in which the calls complete.
+ *
+ * <p>When preserving the input order, a call counts as outstanding until its response has been
+ * passed on, so a single slow call stalls the batch rather than having an unbounded number of
+ * responses pile up behind it.
+ */
+class UnaryBatch<T, R> {
+  private static final Logger logger = LoggerFactory.getLogger(UnaryBatch.class);
+
+  private final StreamObserver<R> responseObserver;
+  private final boolean preserveInputOrder;
+  private final Semaphore window;
+  private final SettableFuture<Void> doneFuture;
+
+  // All fields below are guarded by "this".
+  private final Map<Long, ListenableFuture<R>> pendingResults;
+  private long numStarted;
+  private long numFinished;
+  private long numFailed;
+  private boolean allStarted;
+  private Throwable firstError;
+
+  UnaryBatch(StreamObserver<R> responseObserver, int maxInFlight, boolean preserveInputOrder) {
+    Preconditions.checkArgument(maxInFlight > 0, "Need at least 1 call in flight: " + maxInFlight);
+    this.responseObserver = responseObserver;
+    this.preserveInputOrder = preserveInputOrder;
+    this.window = new Semaphore(maxInFlight);
+    this.doneFuture = SettableFuture.create();
+    this.pendingResults = new HashMap<>();
+  }
+
+  /**
+   * Pulls all the requests from the supplied iterator and starts a call for each one, blocking
+   * while the window of outstanding calls is full. Returns a future which completes once all calls
+   * have completed and fails if any of them failed.
+   */
+  ListenableFuture<Void> run(Iterator<T> requests, Function<T, ListenableFuture<R>> caller) {
+    try {
+      while (requests.hasNext()) {
+        T request = requests.next();
+        window.acquireUninterruptibly();
+        long index;
+        synchronized (this) {
+          index = numStarted++;
+        }
+        ListenableFuture<R> result = startCall(caller, request);
+        result.addListener(() -> onCallDone(index, result), directExecutor());
+      }
+    } catch (RuntimeException e) {
+      // The remaining requests can't be read, so let the outstanding calls finish and then fail.
+      synchronized (this) {
+        if (firstError == null) {
+          firstError = e;
+        }
+      }
+    }
+
+    synchronized (this) {
+      allStarted = true;
+      maybeFinish();
+    }
+    return doneFuture;
+  }
+
+  private ListenableFuture<R> startCall(Function<T, ListenableFuture<R>> caller, T request) {
+    try {
+      return caller.apply(request);
+    } catch (Throwable t) {
+      return Futures.immediateFailedFuture(t);
+    }
+  }
+
+  private synchronized void onCallDone(long index, ListenableFuture<R> result) {
+    if (!preserveInputOrder) {
+      emit(index, result);
+    } else {
+      pendingResults.put(index, result);
+      long next = numFinished;
+      while (pendingResults.containsKey(next)) {
+        emit(next, pendingResults.remove(next));
+        ++next;
+      }
+    }
+    maybeFinish();
+  }
+
+  private void emit(long index, ListenableFuture<R> result) {
+    ++numFinished;
+    try {
+      R response;
+      try {
+        response = Futures.getDone(result);
+      } catch (ExecutionException e) {
+        recordCallFailure(index, e.getCause());
+        return;
+      } catch (RuntimeException e) {
+        recordCallFailure(index, e);
+        return;
+      }
+
+      // The call itself succeeded, so a failure to pass on its response is not counted as one.
+      try {
+        responseObserver.onNext(response);
+      } catch (RuntimeException e) {
+        logger.warn(String.format("Unable to write the response for request #%d", index), e);
+        recordError(e);
+      }
+    } finally {
+      window.release();
+    }
+  }
+
+  private void recordCallFailure(long index, Throwable t) {
+    ++numFailed;
+    logger.warn(String.format(
+        "Call for request #%d failed with status: %s", index, Status.fromThrowable(t)));
+    recordError(t);
+  }
+
+  private void recordError(Throwable t) {
+    if (firstError == null) {
+      firstError = t;
+    }
+  }
+
+  private void maybeFinish() {
+    if (!allStarted || numFinished < numStarted || doneFuture.isDone()) {
+      return;
+    }
+    if (firstError == null) {
+      responseObserver.onCompleted();
+      doneFuture.set(null);
+    } else {
+      if (numFailed > 0) {
+        logger.warn(String.format("%d of %d call(s) failed", numFailed, numStarted));
+      }
+      responseObserver.onError(firstError);
+      doneFuture.setException(firstError);
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package me.dinowernli.grpc.polyglot.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import polyglot.ConfigProto.OutputConfiguration;
+
+/**
+ * An {@link Output} which hands content to a dedicated writer thread rather than writing it on the
+ * calling thread. The writer thread encodes content into a large reusable buffer and only writes
+ * to the underlying channel once the buffer is full or no more content is pending.
+ *
+ * <p>The amount of content which has been accepted but not yet written is bounded. Once the bound
+ * is reached, writes block until the writer thread catches up, so a slow consumer slows down the
+ * producer instead of exhausting memory.
+ */
+class AsyncOutput implements Output {
+  private static final int DEFAULT_WRITE_BUFFER_BYTES = 1 << 20;
+  private static final int DEFAULT_MAX_PENDING_WRITE_BYTES = 16 << 20;
+  private static final String NEW_LINE = "\n";
+  private static final Object END_OF_OUTPUT = new Object();
+
+  private final WritableByteChannel channel;
+  private final boolean closeChannel;
+  private final int maxPendingBytes;
+  private final BlockingQueue<Object> queue;
+  private final Semaphore pendingBytes;
+  private final Thread writerThread;
+
+  /** Set by the writer thread if writing to the channel fails. */
+  private volatile IOException failure;
+  private volatile boolean closed;
+
+  /**
+   * Creates an instance which writes to the supplied channel, using the buffer sizes of the
+   * supplied config.
+   */
+  static AsyncOutput forConfiguration(
+      WritableByteChannel channel, boolean closeChannel, OutputConfiguration outputConfig) {
+    int bufferBytes = outputConfig.getWriteBufferBytes() > 0
+        ? outputConfig.getWriteBufferBytes()
+        : DEFAULT_WRITE_BUFFER_BYTES;
+    int maxPendingBytes = outputConfig.getMaxPendingWriteBytes() > 0
+        ? outputConfig.getMaxPendingWriteBytes()
+        : DEFAULT_MAX_PENDING_WRITE_BYTES;
+    return create(channel, closeChannel, bufferBytes, maxPendingBytes);
+  }
+
+  /**
+   * Creates an instance which writes to the supplied channel. If {@code closeChannel} is false,
+   * the channel is left open when the returned instance is closed, e.g., for standard output.
+   */
+  static AsyncOutput create(
+      WritableByteChannel channel, boolean closeChannel, int bufferBytes, int maxPendingBytes) {
+    AsyncOutput result = new AsyncOutput(channel, closeChannel, bufferBytes, maxPendingBytes);
+    result.writerThread.start();
+    return result;
+  }
+
+  @VisibleForTesting
+  AsyncOutput(
+      WritableByteChannel channel, boolean closeChannel, int bufferBytes, int maxPendingBytes) {
+    Preconditions.checkArgument(bufferBytes > 0, "Buffer size must be positive");
+    Preconditions.checkArgument(maxPendingBytes > 0, "Max pending bytes must be positive");
+    this.channel = channel;
+    this.closeChannel = closeChannel;
+    this.maxPendingBytes = maxPendingBytes;
+    this.queue = new LinkedBlockingQueue<>();
+    this.pendingBytes = new Semaphore(maxPendingBytes);
+
+    ChannelWriter channelWriter = new ChannelWriter(ByteBuffer.allocateDirect(bufferBytes));
+    this.writerThread = new Thread(channelWriter::run, "polyglot-output-writer");
+    this.writerThread.setDaemon(true);
+  }
+
+  @Override
+  public void write(String content) {
+    enqueue(content, content.length());
+  }
+
+  @Override
+  public void writeLine(String line) {
+    // Enqueued separately to avoid building a concatenated copy of the line.
+    write(line);
+    newLine();
+  }
+
+  @Override
+  public void newLine() {
+    write(NEW_LINE);
+  }
+
+  @Override
+  public void writeBytes(byte[] content) {
+    enqueue(content, content.length);
+  }
+
+  /**
+   * Waits for all pending content to be written, stops the writer thread and closes the channel if
+   * this instance owns it.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    queue.add(END_OF_OUTPUT);
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for pending output", e);
+    } finally {
+      if (closeChannel) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          throwIfFailed();
+          throw new UncheckedIOException("Unable to close output channel", e);
+        }
+      }
+    }
+    throwIfFailed();
+  }
+
+  /**
+   * Blocks until there is room for the supplied content, then hands it to the writer thread. The
+   * size of a string is counted in chars, which is close enough to bound memory use.
+   */
+  private void enqueue(Object content, int size) {
+    throwIfFailed();
+    Preconditions.checkState(!closed, "Output already closed");
+    try {
+      pendingBytes.acquire(permitsFor(size));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for output to drain", e);
+    }
+    queue.add(content);
+  }
+
+  /** Caps the permits for a single piece of content so that it can always be enqueued. */
+  private int permitsFor(int size) {
+    return Math.max(1, Math.min(size, maxPendingBytes));
+  }
+
+  private void throwIfFailed() {
+    if (failure != null) {
+      throw new UncheckedIOException("Unable to write output", failure);
+    }
+  }
+
+  /** Runs on the writer thread, draining the queue into the channel. */
+  private class ChannelWriter {
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder;
+
+    private ChannelWriter(ByteBuffer buffer) {
+      this.buffer = buffer;
+      this.encoder = StandardCharsets.UTF_8.newEncoder();
+    }
+
+    private void run() {
+      while (true) {
+        Object content = queue.poll();
+        if (content == null) {
+          // Nothing else is pending, so write out what we have before blocking.
+          flushBuffer();
+          content = takeUninterruptibly();
+        }
+        if (content == END_OF_OUTPUT) {
+          flushBuffer();
+          return;
+        }
+
+        int size;
+        if (content instanceof String) {
+          String string = (String) content;
+          size = string.length();
+          encode(string);
+        } else {
+          byte[] bytes = (byte[]) content;
+          size = bytes.length;
+          append(bytes);
+        }
+        pendingBytes.release(permitsFor(size));
+      }
+    }
+
+    private Object takeUninterruptibly() {
+      while (true) {
+        try {
+          return queue.take();
+        } catch (InterruptedException e) {
+          // Only close() stops the writer, so that no accepted content is lost.
+        }
+      }
+    }
+
+    private void encode(String content) {
+      if (failure != null) {
+        return;
+      }
+      CharBuffer chars = CharBuffer.wrap(content);
+      encoder.reset();
+      while (true) {
+        CoderResult result = encoder.encode(chars, buffer, true /* endOfInput */);
+        if (result.isUnderflow()) {
+          break;
+        }
+        if (result.isOverflow()) {
+          flushBuffer();
+        } else {
+          // Skip unpaired surrogates and the like.
+          chars.position(chars.position() + result.length());
+        }
+      }
+      while (encoder.flush(buffer).isOverflow()) {
+        flushBuffer();
+      }
+    }
+
+    private void append(byte[] content) {
+      if (failure != null) {
+        return;
+      }
+      if (content.length <= buffer.remaining()) {
+        buffer.put(content);
+        return;
+      }
+      flushBuffer();
+      if (content.length <= buffer.remaining()) {
+        buffer.put(content);
+      } else {
+        // Too large for the buffer, hand it to the channel without copying.
+        writeFully(ByteBuffer.wrap(content));
+      }
+    }
+
+    private void flushBuffer() {
+      buffer.flip();
+      writeFully(buffer);
+      buffer.clear();
+    }
+
+    /**
+     * Writes the supplied bytes to the channel. After the first failure, content is dropped so that
+     * blocked producers keep making progress and find out about the failure.
+     */
+    private void writeFully(ByteBuffer bytes) {
+      if (failure != null) {
+        return;
+      }
+      try {
+        while (bytes.hasRemaining()) {
+          channel.write(bytes);
+        }
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+  }
+}
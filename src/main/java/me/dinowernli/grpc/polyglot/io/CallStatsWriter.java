@@ -0,0 +1,195 @@
+package me.dinowernli.grpc.polyglot.io;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import me.dinowernli.grpc.polyglot.bench.LatencyHistogram;
+import me.dinowernli.grpc.polyglot.protobuf.RawMessages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link StreamObserver} which collects stats about the responses of an rpc, such as the time to
+ * the first response, the gaps between responses and their sizes, and logs a summary once the rpc
+ * has completed. The summary can additionally be written to a file as json. Note that this does
+ * *not* log the contents of the responses.
+ */
+public class CallStatsWriter implements StreamObserver<DynamicMessage> {
+  private static final Logger logger = LoggerFactory.getLogger(CallStatsWriter.class);
+  private static final double[] REPORTED_PERCENTILES = {50, 90, 99};
+
+  private final Ticker ticker;
+  private final Optional<Path> jsonFile;
+  private final long startNanos;
+  private final LatencyHistogram interArrivalNanos;
+
+  private long numResponses;
+  private long totalBytes;
+  private long maxMessageBytes;
+  private long firstMessageBytes;
+  private long firstResponseNanos;
+  private long lastResponseNanos;
+  private long endNanos;
+  private Status.Code status;
+
+  /**
+   * Creates a writer which measures times from now on, and which also writes the stats to the
+   * supplied file if present.
+   */
+  public static CallStatsWriter create(Optional<Path> jsonFile) {
+    return new CallStatsWriter(Ticker.systemTicker(), jsonFile);
+  }
+
+  @VisibleForTesting
+  CallStatsWriter(Ticker ticker, Optional<Path> jsonFile) {
+    this.ticker = ticker;
+    this.jsonFile = jsonFile;
+    this.startNanos = ticker.read();
+    this.interArrivalNanos = new LatencyHistogram();
+  }
+
+  @Override
+  public synchronized void onNext(DynamicMessage message) {
+    long now = ticker.read();
+    long bytes = RawMessages.isRaw(message)
+        ? RawMessages.unwrap(message).size()
+        : message.getSerializedSize();
+    if (numResponses == 0) {
+      firstResponseNanos = now;
+      firstMessageBytes = bytes;
+    } else {
+      interArrivalNanos.record(now - lastResponseNanos);
+    }
+    lastResponseNanos = now;
+
+    ++numResponses;
+    totalBytes += bytes;
+    maxMessageBytes = Math.max(maxMessageBytes, bytes);
+    logger.debug("Got response message of " + bytes + " bytes");
+  }
+
+  @Override
+  public void onCompleted() {
+    finish(Status.Code.OK);
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    logger.error("Aborted rpc due to error", t);
+    finish(Status.fromThrowable(t).getCode());
+  }
+
+  private synchronized void finish(Status.Code finalStatus) {
+    endNanos = ticker.read();
+    status = finalStatus;
+    logger.info(formatSummary());
+    if (jsonFile.isPresent()) {
+      try (Writer writer = Files.newBufferedWriter(jsonFile.get(), StandardCharsets.UTF_8)) {
+        writeJson(writer);
+      } catch (IOException e) {
+        logger.error("Unable to write call stats to " + jsonFile.get(), e);
+      }
+    }
+  }
+
+  /** Returns a human readable summary of the stats, spread over a few lines. */
+  @VisibleForTesting
+  synchronized String formatSummary() {
+    StringBuilder result = new StringBuilder();
+    result.append(String.format(
+        "Completed rpc with status %s: %d response(s), %d bytes in %.3f s",
+        status, numResponses, totalBytes, toSeconds(endNanos - startNanos)));
+    if (numResponses == 0) {
+      return result.toString();
+    }
+
+    result.append(String.format("\n  First response: %.3f ms",
+        toMillis(firstResponseNanos - startNanos)));
+    result.append(String.format("\n  Throughput:     %.1f msg/s, %.1f bytes/s (after first)",
+        messagesPerSecond(), bytesPerSecond()));
+    result.append(String.format("\n  Message size:   mean %.1f, max %d bytes",
+        (double) totalBytes / numResponses, maxMessageBytes));
+    if (interArrivalNanos.getCount() > 0) {
+      result.append("\n  Inter-arrival:  ");
+      for (double percentile : REPORTED_PERCENTILES) {
+        result.append(String.format("p%d %.3f, ", (long) percentile,
+            toMillis(interArrivalNanos.getValueAtPercentile(percentile))));
+      }
+      result.append(String.format("max %.3f ms", toMillis(interArrivalNanos.getMaxNanos())));
+    }
+    return result.toString();
+  }
+
+  /** Writes the stats as a single json object to the supplied writer. */
+  @VisibleForTesting
+  synchronized void writeJson(Writer writer) throws IOException {
+    JsonFactory factory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    try (JsonGenerator json = factory.createGenerator(writer)) {
+      json.useDefaultPrettyPrinter();
+      json.writeStartObject();
+      json.writeStringField("status", status.name());
+      json.writeNumberField("elapsed_ms", toMillis(endNanos - startNanos));
+      json.writeNumberField("responses", numResponses);
+      json.writeNumberField("total_bytes", totalBytes);
+      if (numResponses > 0) {
+        json.writeNumberField(
+            "time_to_first_response_ms", toMillis(firstResponseNanos - startNanos));
+        json.writeNumberField("messages_per_sec", messagesPerSecond());
+        json.writeNumberField("bytes_per_sec", bytesPerSecond());
+        json.writeNumberField("mean_message_bytes", (double) totalBytes / numResponses);
+        json.writeNumberField("max_message_bytes", maxMessageBytes);
+      }
+      if (interArrivalNanos.getCount() > 0) {
+        json.writeObjectFieldStart("inter_arrival_ms");
+        json.writeNumberField("min", toMillis(interArrivalNanos.getMinNanos()));
+        json.writeNumberField("mean", toMillis((long) interArrivalNanos.getMeanNanos()));
+        for (double percentile : REPORTED_PERCENTILES) {
+          json.writeNumberField("p" + (long) percentile,
+              toMillis(interArrivalNanos.getValueAtPercentile(percentile)));
+        }
+        json.writeNumberField("max", toMillis(interArrivalNanos.getMaxNanos()));
+        json.writeEndObject();
+      }
+      json.writeEndObject();
+    }
+    writer.write(System.lineSeparator());
+  }
+
+  /**
+   * Returns the rate at which responses arrived once the first one was received, so that a slow
+   * first response doesn't hide the throughput of the stream.
+   */
+  private double messagesPerSecond() {
+    return ratePerSecond(numResponses - 1);
+  }
+
+  /** Like {@link #messagesPerSecond}, but for the bytes of the responses after the first. */
+  private double bytesPerSecond() {
+    return ratePerSecond(totalBytes - firstMessageBytes);
+  }
+
+  private double ratePerSecond(double amount) {
+    long streamNanos = lastResponseNanos - firstResponseNanos;
+    return streamNanos == 0 ? 0 : amount / toSeconds(streamNanos);
+  }
+
+  private static double toMillis(long nanos) {
+    return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  private static double toSeconds(long nanos) {
+    return (double) nanos / TimeUnit.SECONDS.toNanos(1);
+  }
+}
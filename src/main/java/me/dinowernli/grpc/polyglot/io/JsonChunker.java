@@ -0,0 +1,53 @@
+package me.dinowernli.grpc.polyglot.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Optional;
+
+import com.google.common.base.Strings;
+
+/**
+ * Splits a stream of json messages separated by empty lines into the text of the individual
+ * messages, without parsing them. Two consecutive empty lines mark the end of the stream.
+ */
+class JsonChunker {
+  private final BufferedReader bufferedReader;
+
+  /** Whether the last line consumed from the reader was empty. */
+  private boolean wasLastLineEmpty;
+
+  JsonChunker(Reader reader) {
+    this.bufferedReader = reader instanceof BufferedReader
+        ? (BufferedReader) reader
+        : new BufferedReader(reader);
+  }
+
+  /** Returns the text of the next message, or an empty optional at the end of the stream. */
+  Optional<String> readNext() throws IOException {
+    String line;
+    while (true) {
+      line = bufferedReader.readLine();
+
+      // Two consecutive empty lines mark the end of the stream.
+      if (Strings.isNullOrEmpty(line)) {
+        if (wasLastLineEmpty) {
+          return Optional.empty();
+        }
+        wasLastLineEmpty = true;
+        continue;
+      } else {
+        wasLastLineEmpty = false;
+      }
+
+      // Read the next full message.
+      StringBuilder stringBuilder = new StringBuilder();
+      while (!Strings.isNullOrEmpty(line)) {
+        stringBuilder.append(line);
+        line = bufferedReader.readLine();
+      }
+      wasLastLineEmpty = true;
+      return Optional.of(stringBuilder.toString());
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package me.dinowernli.grpc.polyglot.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Optional;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+
+/** A {@link MessageCodec} backed by protobuf's {@link JsonFormat}. */
+class JsonFormatCodec implements MessageCodec {
+  private final JsonFormat.Parser jsonParser;
+  private final JsonFormat.Printer jsonPrinter;
+
+  JsonFormatCodec(JsonFormat.Parser jsonParser, JsonFormat.Printer jsonPrinter) {
+    this.jsonParser = jsonParser;
+    this.jsonPrinter = jsonPrinter;
+  }
+
+  @Override
+  public Decoder newDecoder(Reader input, Descriptor descriptor) {
+    JsonChunker chunker = new JsonChunker(input);
+    return () -> {
+      Optional<String> json = chunker.readNext();
+      return json.isPresent() ? Optional.of(decode(json.get(), descriptor)) : Optional.empty();
+    };
+  }
+
+  @Override
+  public DynamicMessage decode(String json, Descriptor descriptor) throws IOException {
+    DynamicMessage.Builder result = DynamicMessage.newBuilder(descriptor);
+    jsonParser.merge(json, result);
+    return result.build();
+  }
+
+  @Override
+  public void encode(MessageOrBuilder message, Appendable output) throws IOException {
+    jsonPrinter.appendTo(message, output);
+  }
+}
@@ -0,0 +1,64 @@
+package me.dinowernli.grpc.polyglot.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Optional;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.util.JsonFormat.TypeRegistry;
+import polyglot.ConfigProto.JsonCodec;
+
+/**
+ * Converts messages to and from their json representation. Implementations must produce the
+ * same text as {@link JsonFormat.Printer} and accept the same input as {@link JsonFormat.Parser},
+ * and must be safe to use from multiple threads at once.
+ */
+public interface MessageCodec {
+  /** Reads consecutive messages of a single type from some input. */
+  interface Decoder {
+    /** Returns the next message, or an empty optional if the end of the input was reached. */
+    Optional<DynamicMessage> readNext() throws IOException;
+  }
+
+  /**
+   * Returns a decoder for the messages in the supplied input. Messages are separated by empty
+   * lines, and two consecutive empty lines mark the end of the input.
+   */
+  Decoder newDecoder(Reader input, Descriptor descriptor);
+
+  /** Parses text which holds exactly one message. */
+  DynamicMessage decode(String json, Descriptor descriptor) throws IOException;
+
+  /** Appends the json representation of the supplied message to the supplied output. */
+  void encode(MessageOrBuilder message, Appendable output) throws IOException;
+
+  /** Returns the codec selected in the config. */
+  public static MessageCodec forConfiguration(JsonCodec codec, TypeRegistry registry) {
+    switch (codec) {
+      case JSON_FORMAT:
+        return jsonFormat(registry);
+      case STREAMING:
+        return streaming(registry);
+      default:
+        throw new IllegalArgumentException("Unrecognized json codec " + codec);
+    }
+  }
+
+  /** Returns a codec backed by protobuf's {@link JsonFormat}. */
+  public static MessageCodec jsonFormat(TypeRegistry registry) {
+    return new JsonFormatCodec(
+        JsonFormat.parser().usingTypeRegistry(registry),
+        JsonFormat.printer().usingTypeRegistry(registry));
+  }
+
+  /**
+   * Returns a codec which reads json token by token straight into message builders, and which
+   * writes messages field by field, without building an intermediate tree for either.
+   */
+  public static MessageCodec streaming(TypeRegistry registry) {
+    return StreamingJsonCodec.create(registry);
+  }
+}
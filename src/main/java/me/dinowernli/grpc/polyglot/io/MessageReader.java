@@ -1,8 +1,9 @@
 package me.dinowernli.grpc.polyglot.io;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Strings;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.util.JsonFormat;
@@ -10,25 +11,70 @@ import com.google.protobuf.util.JsonFormat.TypeRegistry;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
-/** A utility class which knows how to read proto files written using {@link MessageWriter}. */
+/**
+ * A utility class which knows how to read proto files written using {@link MessageWriter}. Also
+ * reads binary protos, each preceded by its size as a varint, which is the format produced by
+ * {@link com.google.protobuf.MessageLite#writeDelimitedTo}. Binary input skips the cost of json
+ * parsing entirely.
+ */
 public class MessageReader {
-  private final JsonFormat.Parser jsonParser;
-  private final Descriptor descriptor;
-  private final BufferedReader bufferedReader;
+  private final MessageSource messageSource;
   private final String source;
 
   /** Creates a {@link MessageReader} which reads messages from stdin. */
   public static MessageReader forStdin(Descriptor descriptor, TypeRegistry registry) {
-    BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-    return new MessageReader(
-        JsonFormat.parser().usingTypeRegistry(registry),
-        descriptor,
-        reader,
-        "STDIN");
+    return forStream(System.in, descriptor, registry, "STDIN");
+  }
+
+  /**
+   * Creates a {@link MessageReader} which reads messages from the supplied stream. The source is
+   * only used to describe the stream in error messages.
+   */
+  public static MessageReader forStream(
+      InputStream inputStream, Descriptor descriptor, TypeRegistry registry, String source) {
+    return forStream(inputStream, descriptor, registry, source, 1 /* parseThreads */);
+  }
+
+  /**
+   * Creates a {@link MessageReader} which reads messages from the supplied stream, and which parses
+   * them on the supplied number of threads. Messages are still returned in input order.
+   */
+  public static MessageReader forStream(
+      InputStream inputStream,
+      Descriptor descriptor,
+      TypeRegistry registry,
+      String source,
+      int parseThreads) {
+    return forStream(
+        inputStream, descriptor, MessageCodec.jsonFormat(registry), source, parseThreads);
+  }
+
+  /**
+   * Creates a {@link MessageReader} which reads messages from the supplied stream using the
+   * supplied codec, and which parses them on the supplied number of threads.
+   */
+  public static MessageReader forStream(
+      InputStream inputStream,
+      Descriptor descriptor,
+      MessageCodec codec,
+      String source,
+      int parseThreads) {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+    return new MessageReader(createJsonSource(codec, descriptor, reader, parseThreads), source);
   }
 
   /** Creates a {@link MessageReader} which reads the messages from a file. */
@@ -38,65 +84,297 @@ public class MessageReader {
 
   /** Creates a {@link MessageReader} which reads the messages from a file. */
   public static MessageReader forFile(Path path, Descriptor descriptor, TypeRegistry registry) {
+    return forFile(path, descriptor, registry, 1 /* parseThreads */);
+  }
+
+  /**
+   * Creates a {@link MessageReader} which reads the messages from a file, and which parses them on
+   * the supplied number of threads. Messages are still returned in the order of the file.
+   */
+  public static MessageReader forFile(
+      Path path, Descriptor descriptor, TypeRegistry registry, int parseThreads) {
+    return forFile(path, descriptor, MessageCodec.jsonFormat(registry), parseThreads);
+  }
+
+  /**
+   * Creates a {@link MessageReader} which reads the messages from a file using the supplied codec,
+   * and which parses them on the supplied number of threads.
+   */
+  public static MessageReader forFile(
+      Path path, Descriptor descriptor, MessageCodec codec, int parseThreads) {
     try {
       return new MessageReader(
-          JsonFormat.parser().usingTypeRegistry(registry),
-          descriptor,
-          Files.newBufferedReader(path),
+          createJsonSource(codec, descriptor, Files.newBufferedReader(path), parseThreads),
           path.toString());
     } catch (IOException e) {
       throw new IllegalArgumentException("Unable to read file: " + path.toString(), e);
     }
   }
 
+  /**
+   * Creates a {@link MessageReader} which reads length-delimited binary messages from the supplied
+   * stream. The source is only used to describe the stream in error messages.
+   */
+  public static MessageReader forDelimitedStream(
+      InputStream inputStream, Descriptor descriptor, String source) {
+    return new MessageReader(new DelimitedStreamSource(inputStream, descriptor), source);
+  }
+
+  /**
+   * Creates a {@link MessageReader} which reads length-delimited binary messages from a file. The
+   * file is mapped into memory rather than copied through a stream.
+   */
+  public static MessageReader forDelimitedFile(Path path, Descriptor descriptor) {
+    return forDelimitedFile(path, descriptor, MappedDelimitedSource.WINDOW_BYTES);
+  }
+
+  @VisibleForTesting
+  static MessageReader forDelimitedFile(Path path, Descriptor descriptor, long windowBytes) {
+    if (!Files.isReadable(path)) {
+      throw new IllegalArgumentException("Unable to read file: " + path.toString());
+    }
+    return new MessageReader(
+        new MappedDelimitedSource(path, descriptor, windowBytes), path.toString());
+  }
+
   @VisibleForTesting
   MessageReader(
       JsonFormat.Parser jsonParser,
       Descriptor descriptor,
       BufferedReader bufferedReader,
       String source) {
-    this.jsonParser = jsonParser;
-    this.descriptor = descriptor;
-    this.bufferedReader = bufferedReader;
+    this(
+        new DecoderSource(new JsonFormatCodec(jsonParser, JsonFormat.printer())
+            .newDecoder(bufferedReader, descriptor)),
+        source);
+  }
+
+  private MessageReader(MessageSource messageSource, String source) {
+    this.messageSource = messageSource;
     this.source = source;
   }
 
+  private static MessageSource createJsonSource(
+      MessageCodec codec, Descriptor descriptor, BufferedReader bufferedReader, int parseThreads) {
+    return parseThreads > 1
+        ? new ParallelJsonSource(
+            new JsonChunker(bufferedReader), codec, descriptor, parseThreads)
+        : new DecoderSource(codec.newDecoder(bufferedReader, descriptor));
+  }
+
   /** Parses all the messages and returns them in a list. */
   public ImmutableList<DynamicMessage> read() {
-    ImmutableList.Builder<DynamicMessage> resultBuilder = ImmutableList.builder();
+    return ImmutableList.copyOf(readIncrementally());
+  }
+
+  /**
+   * Returns an iterator which parses the messages one at a time as they are requested, which
+   * means that the input is never held in memory as a whole and that the first message is
+   * available before the end of the input has been reached. The returned iterator throws
+   * {@link IllegalArgumentException} if the input is malformed.
+   */
+  public Iterator<DynamicMessage> readIncrementally() {
+    return new AbstractIterator<DynamicMessage>() {
+      @Override
+      protected DynamicMessage computeNext() {
+        Optional<DynamicMessage> next = readNext();
+        return next.isPresent() ? next.get() : endOfData();
+      }
+    };
+  }
+
+  /** Parses the next message, returning an empty optional if the end of the stream was reached. */
+  private Optional<DynamicMessage> readNext() {
     try {
-      String line;
-      boolean wasLastLineEmpty = false;
-      while (true) {
-        line = bufferedReader.readLine();
-
-        // Two consecutive empty lines mark the end of the stream.
-        if (Strings.isNullOrEmpty(line)) {
-          if (wasLastLineEmpty) {
-            return resultBuilder.build();
+      return messageSource.readNext();
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Unable to read messages from: " + source, e);
+    }
+  }
+
+  /** Knows how to extract messages from some encoded input. */
+  private interface MessageSource {
+    /** Returns the next message, or an empty optional if the end of the input was reached. */
+    Optional<DynamicMessage> readNext() throws Exception;
+  }
+
+  /** Reads json messages with the decoder of a {@link MessageCodec}. */
+  private static class DecoderSource implements MessageSource {
+    private final MessageCodec.Decoder decoder;
+
+    private DecoderSource(MessageCodec.Decoder decoder) {
+      this.decoder = decoder;
+    }
+
+    @Override
+    public Optional<DynamicMessage> readNext() throws IOException {
+      return decoder.readNext();
+    }
+  }
+
+  /**
+   * Reads json messages separated by empty lines, and parses them on a pool of threads. The text of
+   * upcoming messages is read ahead and handed to the pool, and parsed messages are returned in
+   * input order. Only a bounded number of messages is read ahead, so the input is still never held
+   * in memory as a whole.
+   */
+  private static class ParallelJsonSource implements MessageSource {
+    private static final int MESSAGES_IN_FLIGHT_PER_THREAD = 16;
+
+    private final JsonChunker chunker;
+    private final MessageCodec codec;
+    private final Descriptor descriptor;
+    private final ForkJoinPool parsePool;
+    private final int maxInFlight;
+    private final Deque<ForkJoinTask<DynamicMessage>> inFlight;
+    private boolean endOfInput;
+
+    private ParallelJsonSource(
+        JsonChunker chunker, MessageCodec codec, Descriptor descriptor, int parseThreads) {
+      this.chunker = chunker;
+      this.codec = codec;
+      this.descriptor = descriptor;
+      this.parsePool = new ForkJoinPool(parseThreads);
+      this.maxInFlight = parseThreads * MESSAGES_IN_FLIGHT_PER_THREAD;
+      this.inFlight = new ArrayDeque<>();
+    }
+
+    @Override
+    public Optional<DynamicMessage> readNext() throws Exception {
+      try {
+        while (!endOfInput && inFlight.size() < maxInFlight) {
+          Optional<String> json = chunker.readNext();
+          if (json.isPresent()) {
+            inFlight.add(parsePool.submit(() -> codec.decode(json.get(), descriptor)));
+          } else {
+            endOfInput = true;
           }
-          wasLastLineEmpty = true;
-          continue;
-        } else {
-          wasLastLineEmpty = false;
         }
-
-        // Read the next full message.
-        StringBuilder stringBuilder = new StringBuilder();
-        while (!Strings.isNullOrEmpty(line)) {
-          stringBuilder.append(line);
-          line = bufferedReader.readLine();
+        if (inFlight.isEmpty()) {
+          parsePool.shutdown();
+          return Optional.empty();
         }
-        wasLastLineEmpty = true;
+        return Optional.of(inFlight.remove().get());
+      } catch (ExecutionException e) {
+        parsePool.shutdownNow();
+        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      } catch (Exception e) {
+        parsePool.shutdownNow();
+        throw e;
+      }
+    }
+  }
 
-        DynamicMessage.Builder nextMessage = DynamicMessage.newBuilder(descriptor);
-        jsonParser.merge(stringBuilder.toString(), nextMessage);
+  /** Reads binary messages, each preceded by its size as a varint, from a stream. */
+  private static class DelimitedStreamSource implements MessageSource {
+    private final CodedInputStream codedInput;
+    private final Descriptor descriptor;
 
-        // Clean up and prepare for next message.
-        resultBuilder.add(nextMessage.build());
+    private DelimitedStreamSource(InputStream inputStream, Descriptor descriptor) {
+      this.codedInput = CodedInputStream.newInstance(inputStream);
+      this.descriptor = descriptor;
+    }
+
+    @Override
+    public Optional<DynamicMessage> readNext() throws IOException {
+      if (codedInput.isAtEnd()) {
+        return Optional.empty();
       }
-    } catch (Exception e) {
-      throw new IllegalArgumentException("Unable to read messages from: " + source, e);
+      int size = codedInput.readRawVarint32();
+      int oldLimit = codedInput.pushLimit(size);
+      DynamicMessage result = DynamicMessage.newBuilder(descriptor).mergeFrom(codedInput).build();
+      if (!codedInput.isAtEnd()) {
+        throw new IOException("Message ended before its delimited size of " + size + " bytes");
+      }
+      codedInput.popLimit(oldLimit);
+
+      // The size limit guards against single huge messages, not against long streams.
+      codedInput.resetSizeCounter();
+      return Optional.of(result);
+    }
+  }
+
+  /**
+   * Reads binary messages, each preceded by its size as a varint, from a memory-mapped file. Large
+   * files are mapped one window at a time, since a single mapping cannot exceed 2GB.
+   */
+  private static class MappedDelimitedSource implements MessageSource {
+    private static final long WINDOW_BYTES = 1L << 30;
+    private static final int MAX_VARINT32_BYTES = 5;
+
+    private final Path path;
+    private final Descriptor descriptor;
+    private final long windowBytes;
+
+    private long fileSize;
+    private long windowStart;
+    private ByteBuffer window;
+
+    private MappedDelimitedSource(Path path, Descriptor descriptor, long windowBytes) {
+      this.path = path;
+      this.descriptor = descriptor;
+      this.windowBytes = windowBytes;
+    }
+
+    @Override
+    public Optional<DynamicMessage> readNext() throws IOException {
+      if (window == null) {
+        fileSize = Files.size(path);
+        mapWindow(0, 0);
+      }
+      long position = windowStart + window.position();
+      if (position == fileSize) {
+        return Optional.empty();
+      }
+
+      ensureAvailable(Math.min(MAX_VARINT32_BYTES, fileSize - position));
+      int size = readRawVarint32(window);
+      if (size < 0) {
+        throw new IOException("Negative message size at offset " + position);
+      }
+      ensureAvailable(size);
+
+      ByteBuffer messageBytes = window.slice();
+      messageBytes.limit(size);
+      window.position(window.position() + size);
+      return Optional.of(
+          DynamicMessage.parseFrom(descriptor, CodedInputStream.newInstance(messageBytes)));
+    }
+
+    /** Makes sure the current window holds at least the supplied number of unread bytes. */
+    private void ensureAvailable(long numBytes) throws IOException {
+      if (window.remaining() >= numBytes) {
+        return;
+      }
+      long position = windowStart + window.position();
+      if (position + numBytes > fileSize) {
+        throw new IOException("Truncated message at offset " + position);
+      }
+      mapWindow(position, numBytes);
+    }
+
+    private void mapWindow(long start, long minBytes) throws IOException {
+      long length = Math.min(Math.max(minBytes, windowBytes), fileSize - start);
+      // The mapping stays valid after the channel is closed.
+      try (FileChannel channel = FileChannel.open(path)) {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+      }
+      windowStart = start;
+    }
+
+    private static int readRawVarint32(ByteBuffer buffer) throws IOException {
+      int result = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        if (!buffer.hasRemaining()) {
+          throw new IOException("Truncated message size");
+        }
+        byte b = buffer.get();
+        result |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          return result;
+        }
+      }
+      throw new IOException("Malformed message size");
     }
   }
 }
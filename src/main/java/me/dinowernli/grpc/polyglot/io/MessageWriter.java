@@ -1,6 +1,7 @@
 package me.dinowernli.grpc.polyglot.io;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 
 import com.google.protobuf.util.JsonFormat.TypeRegistry;
@@ -9,31 +10,60 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Message;
 import com.google.protobuf.util.JsonFormat;
 
 import io.grpc.stub.StreamObserver;
+import me.dinowernli.grpc.polyglot.protobuf.RawMessages;
+import polyglot.ConfigProto.OutputConfiguration.Format;
 
 /**
  * A {@link StreamObserver} which writes the contents of the received messages to an
- * {@link Output}. The messages are writting in a newline-separated json format.
+ * {@link Output}. By default, the messages are writting in a newline-separated json format. The
+ * binary formats write each message preceded by its size as a varint instead, and skip json
+ * printing entirely.
  */
 public class MessageWriter<T extends Message> implements StreamObserver<T> {
   private static final Logger logger = LoggerFactory.getLogger(MessageWriter.class);
 
   /** Used to separate the individual plaintext json proto messages. */
-  private static final String MESSAGE_SEPARATOR = "\n\n";
+  static final String MESSAGE_SEPARATOR = "\n\n";
 
-  private final JsonFormat.Printer jsonPrinter;
+  /** The most text buffered before handing it to the output, for messages printed as json. */
+  private static final int MAX_BUFFERED_CHARS = 1 << 16;
+
+  private final MessageCodec codec;
   private final Output output;
+  private final Format format;
+  private final OutputBuffer outputBuffer;
 
   /**
    * Creates a new {@link MessageWriter} which writes the messages it sees to the supplied
    * {@link Output}.
    */
   public static <T extends Message> MessageWriter<T> create(Output output, TypeRegistry registry) {
-    return new MessageWriter<>(JsonFormat.printer().usingTypeRegistry(registry), output);
+    return create(output, registry, Format.JSON);
+  }
+
+  /**
+   * Creates a new {@link MessageWriter} which writes the messages it sees to the supplied
+   * {@link Output} in the supplied format. For {@link Format#RAW_DELIMITED}, messages produced by
+   * {@link RawMessages#wrap} are written as the bytes they hold.
+   */
+  public static <T extends Message> MessageWriter<T> create(
+      Output output, TypeRegistry registry, Format format) {
+    return create(output, MessageCodec.jsonFormat(registry), format);
+  }
+
+  /**
+   * Creates a new {@link MessageWriter} which writes the messages it sees to the supplied
+   * {@link Output} in the supplied format, using the supplied codec for json.
+   */
+  public static <T extends Message> MessageWriter<T> create(
+      Output output, MessageCodec codec, Format format) {
+    return new MessageWriter<>(codec, output, format);
   }
 
   /**
@@ -59,8 +89,14 @@ public class MessageWriter<T extends Message> implements StreamObserver<T> {
 
   @VisibleForTesting
   MessageWriter(JsonFormat.Printer jsonPrinter, Output output) {
-    this.jsonPrinter = jsonPrinter;
+    this(new JsonFormatCodec(JsonFormat.parser(), jsonPrinter), output, Format.JSON);
+  }
+
+  private MessageWriter(MessageCodec codec, Output output, Format format) {
+    this.codec = codec;
     this.output = output;
+    this.format = format;
+    this.outputBuffer = new OutputBuffer(output);
   }
 
   @Override
@@ -75,10 +111,98 @@ public class MessageWriter<T extends Message> implements StreamObserver<T> {
 
   @Override
   public void onNext(T message) {
+    switch (format) {
+      case BINARY_DELIMITED:
+        output.writeBytes(delimit(message.toByteString()));
+        break;
+      case RAW_DELIMITED:
+        output.writeBytes(delimit(
+            RawMessages.isRaw(message) ? RawMessages.unwrap(message) : message.toByteString()));
+        break;
+      default:
+        try {
+          codec.encode(message, outputBuffer);
+          outputBuffer.append(MESSAGE_SEPARATOR);
+          outputBuffer.flush();
+        } catch (IOException e) {
+          outputBuffer.discard();
+          logger.error("Skipping invalid response message", e);
+        }
+    }
+  }
+
+  /** Returns the supplied bytes preceded by their size, in a single buffer. */
+  private static byte[] delimit(ByteString messageBytes) {
+    int size = messageBytes.size();
+    byte[] result = new byte[CodedOutputStream.computeUInt32SizeNoTag(size) + size];
+    CodedOutputStream codedOutput = CodedOutputStream.newInstance(result);
     try {
-      output.write(jsonPrinter.print(message) + MESSAGE_SEPARATOR);
-    } catch (InvalidProtocolBufferException e) {
-      logger.error("Skipping invalid response message", e);
+      codedOutput.writeUInt32NoTag(size);
+      codedOutput.writeRawBytes(messageBytes);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write to a correctly sized buffer", e);
+    }
+    return result;
+  }
+
+  /**
+   * Collects printed json and hands it to the output in large pieces, so that the text of a large
+   * message is never held in memory as a whole. Not thread-safe, {@link StreamObserver#onNext} is
+   * never called concurrently.
+   */
+  private static class OutputBuffer implements Appendable {
+    private final Output output;
+    private final StringBuilder buffer;
+
+    private OutputBuffer(Output output) {
+      this.output = output;
+      this.buffer = new StringBuilder();
+    }
+
+    @Override
+    public Appendable append(CharSequence text) {
+      return append(text, 0, text.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence text, int start, int end) {
+      buffer.append(text, start, end);
+      if (buffer.length() >= MAX_BUFFERED_CHARS) {
+        writeBuffered();
+      }
+      return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+      buffer.append(c);
+      if (buffer.length() >= MAX_BUFFERED_CHARS) {
+        writeBuffered();
+      }
+      return this;
+    }
+
+    /** Writes out everything appended so far. */
+    private void flush() {
+      if (buffer.length() > 0) {
+        output.write(buffer.toString());
+        buffer.setLength(0);
+      }
+    }
+
+    /** Drops the text which has not been written out yet. */
+    private void discard() {
+      buffer.setLength(0);
+    }
+
+    /** Writes out the buffered text, except for a trailing half of a surrogate pair. */
+    private void writeBuffered() {
+      int end = buffer.length();
+      if (Character.isHighSurrogate(buffer.charAt(end - 1))) {
+        --end;
+      }
+      output.write(buffer.substring(0, end));
+      buffer.delete(0, end);
     }
   }
 
@@ -1,8 +1,15 @@
 package me.dinowernli.grpc.polyglot.io;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import org.slf4j.LoggerFactory;
 
@@ -24,6 +31,12 @@ public interface Output extends AutoCloseable {
   /** Writes a blank line. */
   void newLine();
 
+  /**
+   * Writes binary content as is. Throws {@link UnsupportedOperationException} for outputs which
+   * can only hold text, such as the log.
+   */
+  void writeBytes(byte[] content);
+
   /**
    * Creates a new {@link OutputImpl} instance for the supplied config. The retruned instance must ]
    * be closed after use or written content could go missing.
@@ -32,9 +45,23 @@ public interface Output extends AutoCloseable {
     Destination destination = outputConfig.getDestination();
     switch(destination) {
       case STDOUT:
+        if (outputConfig.getAsyncWrite()) {
+          FileChannel stdout = new FileOutputStream(FileDescriptor.out).getChannel();
+          return AsyncOutput.forConfiguration(stdout, false /* closeChannel */, outputConfig);
+        }
         return new OutputImpl(PrintStreamWriter.forStdout());
       case FILE:
         Path filePath = Paths.get(outputConfig.getFilePath());
+        if (outputConfig.getAsyncWrite()) {
+          try {
+            FileChannel file = FileChannel.open(filePath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            return AsyncOutput.forConfiguration(file, true /* closeChannel */, outputConfig);
+          } catch (IOException e) {
+            throw new IllegalArgumentException("Could not create writer for file: " + filePath, e);
+          }
+        }
         return new OutputImpl(PrintStreamWriter.forFile(filePath));
       case LOG:
         return new OutputImpl(new LogWriter(LoggerFactory.getLogger("Output")));
@@ -46,4 +73,16 @@ public interface Output extends AutoCloseable {
   public static Output forStream(PrintStream printStream) {
     return new OutputImpl(PrintStreamWriter.forStream(printStream));
   }
+
+  /**
+   * Creates an {@link Output} which writes to the supplied stream, asynchronously if the supplied
+   * config asks for it. The stream is closed along with the returned instance.
+   */
+  public static Output forStream(OutputStream stream, OutputConfiguration outputConfig) {
+    if (outputConfig.getAsyncWrite()) {
+      return AsyncOutput.forConfiguration(
+          Channels.newChannel(stream), true /* closeChannel */, outputConfig);
+    }
+    return forStream(new PrintStream(stream, true /* autoFlush */));
+  }
 }
@@ -33,8 +33,14 @@ class OutputImpl implements Output {
     write("\n");
   }
 
+  @Override
+  public void writeBytes(byte[] content) {
+    writer.writeBytes(content);
+  }
+
   private interface OutputWriter {
     void write(String content);
+    void writeBytes(byte[] content);
     void close();
   }
 
@@ -51,6 +57,11 @@ class OutputImpl implements Output {
       logger.info(content);
     }
 
+    @Override
+    public void writeBytes(byte[] content) {
+      throw new UnsupportedOperationException("Binary content cannot be written to the log");
+    }
+
     @Override
     public void close() {
       // Do nothing.
@@ -86,6 +97,11 @@ class OutputImpl implements Output {
       printStream.print(content);
     }
 
+    @Override
+    public void writeBytes(byte[] content) {
+      printStream.write(content, 0, content.length);
+    }
+
     @Override
     public void close() {
       printStream.close();
@@ -0,0 +1,158 @@
+package me.dinowernli.grpc.polyglot.io;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat.TypeRegistry;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link StreamObserver} which writes messages in the same json format as {@link MessageWriter},
+ * but prints them to json on a pool of threads rather than on the thread delivering them. Printed
+ * messages wait in a reorder buffer until all the messages which arrived before them have been
+ * written, so the output is identical to that of {@link MessageWriter}.
+ *
+ * <p>Only a bounded number of messages can be waiting to be printed or written. Once the bound is
+ * reached, {@link #onNext} blocks until the oldest message has been written.
+ *
+ * <p>If writing to the output fails, later messages are dropped and the failure is rethrown from
+ * the next call to {@link #onNext} or {@link #onCompleted}.
+ */
+public class ParallelMessageWriter<T extends Message> implements StreamObserver<T> {
+  private static final Logger logger = LoggerFactory.getLogger(ParallelMessageWriter.class);
+  private static final int MESSAGES_IN_FLIGHT_PER_THREAD = 16;
+
+  private final MessageCodec codec;
+  private final Output output;
+  private final ExecutorService printExecutor;
+  private final Semaphore inFlightPermits;
+
+  /** Messages in arrival order, which have not yet been written. Guarded by itself. */
+  private final Deque<CompletableFuture<Optional<String>>> pending;
+
+  /** The first failure to write to the output, if any. Guarded by "pending". */
+  private RuntimeException writeFailure;
+
+  /**
+   * Creates a writer which prints messages on the supplied number of threads. The threads are
+   * released once the writer sees {@link #onCompleted} or {@link #onError}.
+   */
+  public static <T extends Message> ParallelMessageWriter<T> create(
+      Output output, TypeRegistry registry, int printThreads) {
+    return create(output, MessageCodec.jsonFormat(registry), printThreads);
+  }
+
+  /** Creates a writer which prints messages with the supplied codec. */
+  public static <T extends Message> ParallelMessageWriter<T> create(
+      Output output, MessageCodec codec, int printThreads) {
+    ExecutorService printExecutor = Executors.newFixedThreadPool(printThreads,
+        new ThreadFactoryBuilder()
+            .setNameFormat("polyglot-json-printer-%d")
+            .setDaemon(true)
+            .build());
+    return new ParallelMessageWriter<>(
+        codec,
+        output,
+        printExecutor,
+        printThreads * MESSAGES_IN_FLIGHT_PER_THREAD);
+  }
+
+  @VisibleForTesting
+  ParallelMessageWriter(
+      MessageCodec codec,
+      Output output,
+      ExecutorService printExecutor,
+      int maxMessagesInFlight) {
+    Preconditions.checkArgument(maxMessagesInFlight > 0, "Must allow messages in flight");
+    this.codec = codec;
+    this.output = output;
+    this.printExecutor = printExecutor;
+    this.inFlightPermits = new Semaphore(maxMessagesInFlight);
+    this.pending = new ArrayDeque<>();
+  }
+
+  @Override
+  public void onNext(T message) {
+    inFlightPermits.acquireUninterruptibly();
+    CompletableFuture<Optional<String>> printed;
+    synchronized (pending) {
+      if (writeFailure != null) {
+        inFlightPermits.release();
+        throw writeFailure;
+      }
+      // Submitting while holding the lock keeps the buffer in arrival order.
+      printed = CompletableFuture.supplyAsync(() -> print(message), printExecutor);
+      pending.add(printed);
+    }
+    printed.whenComplete((result, error) -> writeCompleted());
+  }
+
+  @Override
+  public void onCompleted() {
+    finish();
+    synchronized (pending) {
+      if (writeFailure != null) {
+        throw writeFailure;
+      }
+    }
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    // Messages received before the error are still written, as they are by MessageWriter.
+    finish();
+  }
+
+  /** Waits for all received messages to be written, then releases the printing threads. */
+  private void finish() {
+    CompletableFuture<?>[] unwritten;
+    synchronized (pending) {
+      unwritten = pending.toArray(new CompletableFuture<?>[0]);
+    }
+    CompletableFuture.allOf(unwritten).join();
+    writeCompleted();
+    printExecutor.shutdown();
+  }
+
+  /** Writes the printed messages at the head of the buffer, stopping at the first unprinted one. */
+  private void writeCompleted() {
+    synchronized (pending) {
+      while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+        Optional<String> printed = pending.removeFirst().join();
+        try {
+          if (writeFailure == null) {
+            printed.ifPresent(output::write);
+          }
+        } catch (RuntimeException e) {
+          logger.error("Unable to write response message", e);
+          writeFailure = e;
+        } finally {
+          inFlightPermits.release();
+        }
+      }
+    }
+  }
+
+  private Optional<String> print(T message) {
+    try {
+      StringBuilder result = new StringBuilder();
+      codec.encode(message, result);
+      return Optional.of(result.append(MessageWriter.MESSAGE_SEPARATOR).toString());
+    } catch (IOException | RuntimeException e) {
+      logger.error("Skipping invalid response message", e);
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,779 @@
+package me.dinowernli.grpc.polyglot.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor.Syntax;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.util.JsonFormat.TypeRegistry;
+
+/**
+ * A {@link MessageCodec} which parses json token by token straight into message builders, and
+ * which prints messages field by field straight to the output. Unlike {@link JsonFormat}, it never
+ * holds a tree of the json, nor the text of a whole message, in memory.
+ *
+ * <p>The well-known types with a special json representation, such as {@code Any} or
+ * {@code Timestamp}, are handed to {@link JsonFormat}. They are small in practice, with the
+ * exception of {@code Any} and {@code Struct}, which are rare in bulk data.
+ */
+class StreamingJsonCodec implements MessageCodec {
+  private static final ImmutableSet<String> WELL_KNOWN_TYPES = ImmutableSet.of(
+      "google.protobuf.Any",
+      "google.protobuf.BoolValue",
+      "google.protobuf.BytesValue",
+      "google.protobuf.DoubleValue",
+      "google.protobuf.Duration",
+      "google.protobuf.FieldMask",
+      "google.protobuf.FloatValue",
+      "google.protobuf.Int32Value",
+      "google.protobuf.Int64Value",
+      "google.protobuf.ListValue",
+      "google.protobuf.StringValue",
+      "google.protobuf.Struct",
+      "google.protobuf.Timestamp",
+      "google.protobuf.UInt32Value",
+      "google.protobuf.UInt64Value",
+      "google.protobuf.Value");
+  private static final String VALUE_TYPE = "google.protobuf.Value";
+  private static final String NULL_VALUE_TYPE = "google.protobuf.NullValue";
+
+  private static final BigInteger MAX_UINT32 = new BigInteger("FFFFFFFF", 16);
+  private static final BigInteger MAX_UINT64 = new BigInteger("FFFFFFFFFFFFFFFF", 16);
+  private static final double FLOAT_RANGE_TOLERANCE = 1e-6;
+
+  /** The escape sequences of the ascii characters which are escaped in strings. */
+  private static final String[] ASCII_ESCAPES = createAsciiEscapes();
+
+  private final JsonFactory jsonFactory;
+  private final JsonFormat.Parser jsonParser;
+  private final JsonFormat.Printer jsonPrinter;
+  private final Map<Descriptor, Map<String, FieldDescriptor>> fieldsByName;
+
+  static StreamingJsonCodec create(TypeRegistry registry) {
+    JsonFactory jsonFactory = new JsonFactory()
+        // Matches the leniency of the Gson parser used by JsonFormat.
+        .enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES)
+        .enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES)
+        .enable(JsonParser.Feature.ALLOW_COMMENTS)
+        .enable(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS)
+        .enable(JsonParser.Feature.ALLOW_NUMERIC_LEADING_ZEROS)
+        .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    return new StreamingJsonCodec(
+        jsonFactory,
+        JsonFormat.parser().usingTypeRegistry(registry),
+        JsonFormat.printer().usingTypeRegistry(registry));
+  }
+
+  private StreamingJsonCodec(
+      JsonFactory jsonFactory, JsonFormat.Parser jsonParser, JsonFormat.Printer jsonPrinter) {
+    this.jsonFactory = jsonFactory;
+    this.jsonParser = jsonParser;
+    this.jsonPrinter = jsonPrinter;
+    this.fieldsByName = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public Decoder newDecoder(Reader input, Descriptor descriptor) {
+    return new StreamDecoder(new EndMarkerReader(input), descriptor);
+  }
+
+  @Override
+  public DynamicMessage decode(String json, Descriptor descriptor) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(json)) {
+      if (parser.nextToken() == null) {
+        throw new InvalidProtocolBufferException("Expected a message but got no input");
+      }
+      DynamicMessage.Builder result = DynamicMessage.newBuilder(descriptor);
+      mergeMessage(parser, result);
+      if (parser.nextToken() != null) {
+        throw new InvalidProtocolBufferException("Unexpected content after the message");
+      }
+      return result.build();
+    } catch (JsonProcessingException e) {
+      throw malformedJson(e);
+    }
+  }
+
+  @Override
+  public void encode(MessageOrBuilder message, Appendable output) throws IOException {
+    new Printer(output).printMessage(message);
+  }
+
+  /** Reads consecutive messages, which need not be separated by anything but whitespace. */
+  private class StreamDecoder implements Decoder {
+    private final Reader input;
+    private final Descriptor descriptor;
+    private JsonParser parser;
+
+    private StreamDecoder(Reader input, Descriptor descriptor) {
+      this.input = input;
+      this.descriptor = descriptor;
+    }
+
+    @Override
+    public Optional<DynamicMessage> readNext() throws IOException {
+      if (parser == null) {
+        parser = jsonFactory.createParser(input);
+      }
+      try {
+        if (parser.nextToken() == null) {
+          return Optional.empty();
+        }
+        DynamicMessage.Builder result = DynamicMessage.newBuilder(descriptor);
+        mergeMessage(parser, result);
+        return Optional.of(result.build());
+      } catch (JsonProcessingException e) {
+        throw malformedJson(e);
+      }
+    }
+  }
+
+  /** Reports syntax errors the same way {@link JsonFormat.Parser} does. */
+  private static InvalidProtocolBufferException malformedJson(JsonProcessingException e) {
+    InvalidProtocolBufferException result =
+        new InvalidProtocolBufferException(e.getOriginalMessage());
+    result.initCause(e);
+    return result;
+  }
+
+  /** Merges the message the parser is positioned on into the supplied builder. */
+  private void mergeMessage(JsonParser parser, Message.Builder builder) throws IOException {
+    Descriptor descriptor = builder.getDescriptorForType();
+    if (WELL_KNOWN_TYPES.contains(descriptor.getFullName())) {
+      mergeWithJsonFormat(parser, builder);
+      return;
+    }
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      throw new InvalidProtocolBufferException(
+          "Expect message object but got: " + parser.getText());
+    }
+
+    Map<String, FieldDescriptor> fields = fieldsByName(descriptor);
+    Set<FieldDescriptor> seenFields = new HashSet<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      FieldDescriptor field = fields.get(name);
+      if (field == null) {
+        throw new InvalidProtocolBufferException(
+            "Cannot find field: " + name + " in message " + descriptor.getFullName());
+      }
+      if (!seenFields.add(field)) {
+        throw new InvalidProtocolBufferException(
+            "Field " + field.getFullName() + " has already been set.");
+      }
+      OneofDescriptor oneof = field.getContainingOneof();
+      if (oneof != null && builder.hasOneof(oneof)) {
+        throw new InvalidProtocolBufferException(
+            "Cannot set field " + field.getFullName() + " because another field "
+                + builder.getOneofFieldDescriptor(oneof).getFullName()
+                + " belonging to the same oneof has already been set ");
+      }
+      parser.nextToken();
+      mergeField(parser, field, builder);
+    }
+  }
+
+  /** Parses a well-known type with {@link JsonFormat}, which knows its special representation. */
+  private void mergeWithJsonFormat(JsonParser parser, Message.Builder builder) throws IOException {
+    StringWriter json = new StringWriter();
+    try (JsonGenerator generator = jsonFactory.createGenerator(json)) {
+      generator.copyCurrentStructure(parser);
+    }
+    jsonParser.merge(json.toString(), builder);
+  }
+
+  private void mergeField(JsonParser parser, FieldDescriptor field, Message.Builder builder)
+      throws IOException {
+    if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+      if (isValueType(field) && !field.isRepeated()) {
+        builder.setField(field, parseSingleValue(parser, field, builder));
+      } else if (isNullValueType(field) && !field.isRepeated()) {
+        builder.setField(field, field.getEnumType().findValueByNumber(0));
+      }
+      // Any other null leaves the field at its default.
+      return;
+    }
+
+    if (field.isMapField()) {
+      mergeMapField(parser, field, builder);
+    } else if (field.isRepeated()) {
+      if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+        throw new InvalidProtocolBufferException(
+            "Expect an array but found: " + parser.getText());
+      }
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NULL && !isValueType(field)) {
+          throw new InvalidProtocolBufferException(
+              "Repeated field elements cannot be null in field: " + field.getFullName());
+        }
+        builder.addRepeatedField(field, parseSingleValue(parser, field, builder));
+      }
+    } else {
+      builder.setField(field, parseSingleValue(parser, field, builder));
+    }
+  }
+
+  private void mergeMapField(JsonParser parser, FieldDescriptor field, Message.Builder builder)
+      throws IOException {
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      throw new InvalidProtocolBufferException("Expect a map object but found: " + parser.getText());
+    }
+    Descriptor entryType = field.getMessageType();
+    FieldDescriptor keyField = entryType.findFieldByName("key");
+    FieldDescriptor valueField = entryType.findFieldByName("value");
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      Message.Builder entry = builder.newBuilderForField(field);
+      Object key = parseScalar(parser.getCurrentName(), keyField);
+      parser.nextToken();
+      if (parser.getCurrentToken() == JsonToken.VALUE_NULL && !isValueType(valueField)) {
+        throw new InvalidProtocolBufferException("Map value cannot be null.");
+      }
+      Object value = parseSingleValue(parser, valueField, entry);
+      entry.setField(keyField, key);
+      entry.setField(valueField, value);
+      builder.addRepeatedField(field, entry.build());
+    }
+  }
+
+  /** Parses the value the parser is positioned on, which must not be an array. */
+  private Object parseSingleValue(JsonParser parser, FieldDescriptor field, Message.Builder builder)
+      throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
+      Message.Builder subBuilder = builder.newBuilderForField(field);
+      mergeMessage(parser, subBuilder);
+      return subBuilder.build();
+    }
+    if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+      throw new InvalidProtocolBufferException(
+          "Expected a value for field " + field.getFullName() + " but got: " + token);
+    }
+    if (field.getJavaType() == FieldDescriptor.JavaType.ENUM) {
+      return parseEnum(parser.getText(), field.getEnumType());
+    }
+    return parseScalar(parser.getText(), field);
+  }
+
+  /** Parses a value, given as text, of a field which is neither a message nor an enum. */
+  private static Object parseScalar(String text, FieldDescriptor field)
+      throws InvalidProtocolBufferException {
+    switch (field.getType()) {
+      case INT32:
+      case SINT32:
+      case SFIXED32:
+        return parseInt32(text);
+      case INT64:
+      case SINT64:
+      case SFIXED64:
+        return parseInt64(text);
+      case UINT32:
+      case FIXED32:
+        return parseUint32(text);
+      case UINT64:
+      case FIXED64:
+        return parseUint64(text);
+      case BOOL:
+        return parseBool(text);
+      case FLOAT:
+        return parseFloat(text);
+      case DOUBLE:
+        return parseDouble(text);
+      case STRING:
+        return text;
+      case BYTES:
+        return parseBytes(text);
+      default:
+        throw new InvalidProtocolBufferException(
+            "Invalid value " + text + " for field " + field.getFullName());
+    }
+  }
+
+  private static int parseInt32(String text) throws InvalidProtocolBufferException {
+    try {
+      return Integer.parseInt(text);
+    } catch (NumberFormatException e) {
+      // Fall through to also accept values such as "1.0" or "1e2".
+    }
+    try {
+      return new BigDecimal(text).intValueExact();
+    } catch (ArithmeticException | NumberFormatException e) {
+      throw new InvalidProtocolBufferException("Not an int32 value: " + text);
+    }
+  }
+
+  private static long parseInt64(String text) throws InvalidProtocolBufferException {
+    try {
+      return Long.parseLong(text);
+    } catch (NumberFormatException e) {
+      // Fall through to also accept values such as "1.0" or "1e2".
+    }
+    try {
+      return new BigDecimal(text).longValueExact();
+    } catch (ArithmeticException | NumberFormatException e) {
+      throw new InvalidProtocolBufferException("Not an int64 value: " + text);
+    }
+  }
+
+  private static int parseUint32(String text) throws InvalidProtocolBufferException {
+    BigInteger value = parseUnsigned(text, "uint32");
+    if (value.compareTo(MAX_UINT32) > 0) {
+      throw new InvalidProtocolBufferException("Out of range uint32 value: " + text);
+    }
+    return value.intValue();
+  }
+
+  private static long parseUint64(String text) throws InvalidProtocolBufferException {
+    BigInteger value = parseUnsigned(text, "uint64");
+    if (value.compareTo(MAX_UINT64) > 0) {
+      throw new InvalidProtocolBufferException("Out of range uint64 value: " + text);
+    }
+    return value.longValue();
+  }
+
+  private static BigInteger parseUnsigned(String text, String typeName)
+      throws InvalidProtocolBufferException {
+    BigInteger value;
+    try {
+      value = new BigDecimal(text).toBigIntegerExact();
+    } catch (ArithmeticException | NumberFormatException e) {
+      throw new InvalidProtocolBufferException("Not an " + typeName + " value: " + text);
+    }
+    if (value.signum() < 0) {
+      throw new InvalidProtocolBufferException("Out of range " + typeName + " value: " + text);
+    }
+    return value;
+  }
+
+  private static boolean parseBool(String text) throws InvalidProtocolBufferException {
+    if (text.equals("true")) {
+      return true;
+    }
+    if (text.equals("false")) {
+      return false;
+    }
+    throw new InvalidProtocolBufferException("Invalid bool value: " + text);
+  }
+
+  private static float parseFloat(String text) throws InvalidProtocolBufferException {
+    switch (text) {
+      case "NaN":
+        return Float.NaN;
+      case "Infinity":
+        return Float.POSITIVE_INFINITY;
+      case "-Infinity":
+        return Float.NEGATIVE_INFINITY;
+      default:
+        double value;
+        try {
+          value = Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+          throw new InvalidProtocolBufferException("Not a float value: " + text);
+        }
+        if (Math.abs(value) > Float.MAX_VALUE * (1.0 + FLOAT_RANGE_TOLERANCE)) {
+          throw new InvalidProtocolBufferException("Out of range float value: " + text);
+        }
+        return (float) value;
+    }
+  }
+
+  private static double parseDouble(String text) throws InvalidProtocolBufferException {
+    switch (text) {
+      case "NaN":
+        return Double.NaN;
+      case "Infinity":
+        return Double.POSITIVE_INFINITY;
+      case "-Infinity":
+        return Double.NEGATIVE_INFINITY;
+      default:
+        double value;
+        try {
+          value = Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+          throw new InvalidProtocolBufferException("Not a double value: " + text);
+        }
+        if (Double.isInfinite(value)) {
+          throw new InvalidProtocolBufferException("Out of range double value: " + text);
+        }
+        return value;
+    }
+  }
+
+  private static ByteString parseBytes(String text) throws InvalidProtocolBufferException {
+    try {
+      return ByteString.copyFrom(Base64.getDecoder().decode(text));
+    } catch (IllegalArgumentException e) {
+      // Also accept the url-safe alphabet.
+    }
+    try {
+      return ByteString.copyFrom(Base64.getUrlDecoder().decode(text));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidProtocolBufferException("Not a bytes value: " + text);
+    }
+  }
+
+  private static EnumValueDescriptor parseEnum(String text, EnumDescriptor enumType)
+      throws InvalidProtocolBufferException {
+    EnumValueDescriptor result = enumType.findValueByName(text);
+    if (result == null) {
+      try {
+        int number = parseInt32(text);
+        result = enumType.getFile().getSyntax() == Syntax.PROTO3
+            ? enumType.findValueByNumberCreatingIfUnknown(number)
+            : enumType.findValueByNumber(number);
+      } catch (InvalidProtocolBufferException e) {
+        // Not a number either, reported below.
+      }
+    }
+    if (result == null) {
+      throw new InvalidProtocolBufferException(
+          "Invalid enum value: " + text + " for enum type: " + enumType.getFullName());
+    }
+    return result;
+  }
+
+  /** Returns the fields of the supplied type, by json name and by the name in the proto file. */
+  private Map<String, FieldDescriptor> fieldsByName(Descriptor descriptor) {
+    return fieldsByName.computeIfAbsent(descriptor, type -> {
+      Map<String, FieldDescriptor> result = new HashMap<>();
+      for (FieldDescriptor field : type.getFields()) {
+        result.put(field.getName(), field);
+        result.put(field.getJsonName(), field);
+      }
+      return result;
+    });
+  }
+
+  private static boolean isValueType(FieldDescriptor field) {
+    return field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+        && field.getMessageType().getFullName().equals(VALUE_TYPE);
+  }
+
+  private static boolean isNullValueType(FieldDescriptor field) {
+    return field.getJavaType() == FieldDescriptor.JavaType.ENUM
+        && field.getEnumType().getFullName().equals(NULL_VALUE_TYPE);
+  }
+
+  /**
+   * Prints a single message with the same layout as {@link JsonFormat.Printer}: two spaces of
+   * indentation per level, one field per line, and repeated fields on a single line.
+   */
+  private class Printer {
+    private static final String INDENT = "  ";
+
+    private final Appendable output;
+    private int indentLevel;
+    private boolean atStartOfLine;
+
+    private Printer(Appendable output) {
+      this.output = output;
+      this.atStartOfLine = true;
+    }
+
+    private void printMessage(MessageOrBuilder message) throws IOException {
+      if (WELL_KNOWN_TYPES.contains(message.getDescriptorForType().getFullName())) {
+        // Printed through this printer, so that nested lines get our indentation.
+        print(jsonPrinter.print(message));
+        return;
+      }
+
+      print("{\n");
+      ++indentLevel;
+      boolean printedField = false;
+      for (Map.Entry<FieldDescriptor, Object> field : message.getAllFields().entrySet()) {
+        if (printedField) {
+          print(",\n");
+        } else {
+          printedField = true;
+        }
+        printField(field.getKey(), field.getValue());
+      }
+      if (printedField) {
+        print("\n");
+      }
+      --indentLevel;
+      print("}");
+    }
+
+    private void printField(FieldDescriptor field, Object value) throws IOException {
+      print("\"");
+      print(field.getJsonName());
+      print("\": ");
+      if (field.isMapField()) {
+        printMap(field, (List<?>) value);
+      } else if (field.isRepeated()) {
+        print("[");
+        boolean printedElement = false;
+        for (Object element : (List<?>) value) {
+          if (printedElement) {
+            print(", ");
+          } else {
+            printedElement = true;
+          }
+          printSingleValue(field, element, false /* alwaysWithQuotes */);
+        }
+        print("]");
+      } else {
+        printSingleValue(field, value, false /* alwaysWithQuotes */);
+      }
+    }
+
+    private void printMap(FieldDescriptor field, List<?> entries) throws IOException {
+      FieldDescriptor keyField = field.getMessageType().findFieldByName("key");
+      FieldDescriptor valueField = field.getMessageType().findFieldByName("value");
+      print("{\n");
+      ++indentLevel;
+      boolean printedEntry = false;
+      for (Object element : entries) {
+        Message entry = (Message) element;
+        if (printedEntry) {
+          print(",\n");
+        } else {
+          printedEntry = true;
+        }
+        printSingleValue(keyField, entry.getField(keyField), true /* alwaysWithQuotes */);
+        print(": ");
+        printSingleValue(valueField, entry.getField(valueField), false /* alwaysWithQuotes */);
+      }
+      if (printedEntry) {
+        print("\n");
+      }
+      --indentLevel;
+      print("}");
+    }
+
+    /**
+     * Prints a value which is not a list. Map keys are always printed with quotes, because json
+     * object keys must be strings.
+     */
+    private void printSingleValue(FieldDescriptor field, Object value, boolean alwaysWithQuotes)
+        throws IOException {
+      switch (field.getType()) {
+        case INT32:
+        case SINT32:
+        case SFIXED32:
+          printMaybeQuoted(Integer.toString((Integer) value), alwaysWithQuotes);
+          break;
+        case INT64:
+        case SINT64:
+        case SFIXED64:
+          printMaybeQuoted(Long.toString((Long) value), true);
+          break;
+        case UINT32:
+        case FIXED32:
+          printMaybeQuoted(Integer.toUnsignedString((Integer) value), alwaysWithQuotes);
+          break;
+        case UINT64:
+        case FIXED64:
+          printMaybeQuoted(Long.toUnsignedString((Long) value), true);
+          break;
+        case BOOL:
+          printMaybeQuoted(Boolean.toString((Boolean) value), alwaysWithQuotes);
+          break;
+        case FLOAT:
+          printFloatingPoint((Float) value, Float.toString((Float) value), alwaysWithQuotes);
+          break;
+        case DOUBLE:
+          printFloatingPoint((Double) value, Double.toString((Double) value), alwaysWithQuotes);
+          break;
+        case STRING:
+          printString((String) value);
+          break;
+        case BYTES:
+          printMaybeQuoted(
+              Base64.getEncoder().encodeToString(((ByteString) value).toByteArray()), true);
+          break;
+        case ENUM:
+          printEnum((EnumValueDescriptor) value, alwaysWithQuotes);
+          break;
+        case MESSAGE:
+        case GROUP:
+          printMessage((Message) value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported field type " + field.getType());
+      }
+    }
+
+    private void printFloatingPoint(double value, String text, boolean alwaysWithQuotes)
+        throws IOException {
+      if (Double.isNaN(value)) {
+        print("\"NaN\"");
+      } else if (Double.isInfinite(value)) {
+        print(value > 0 ? "\"Infinity\"" : "\"-Infinity\"");
+      } else {
+        printMaybeQuoted(text, alwaysWithQuotes);
+      }
+    }
+
+    private void printEnum(EnumValueDescriptor value, boolean alwaysWithQuotes)
+        throws IOException {
+      if (value.getType().getFullName().equals(NULL_VALUE_TYPE)) {
+        printMaybeQuoted("null", alwaysWithQuotes);
+      } else if (value.getIndex() == -1) {
+        // A value which is not part of the enum definition.
+        printMaybeQuoted(Integer.toString(value.getNumber()), alwaysWithQuotes);
+      } else {
+        printMaybeQuoted(value.getName(), true);
+      }
+    }
+
+    private void printMaybeQuoted(String text, boolean quoted) throws IOException {
+      if (quoted) {
+        print("\"");
+        print(text);
+        print("\"");
+      } else {
+        print(text);
+      }
+    }
+
+    /** Prints a quoted string, escaped the way Gson does it for {@link JsonFormat}. */
+    private void printString(String value) throws IOException {
+      print("\"");
+      int unescapedStart = 0;
+      for (int i = 0; i < value.length(); ++i) {
+        char c = value.charAt(i);
+        String escape;
+        if (c < ASCII_ESCAPES.length) {
+          escape = ASCII_ESCAPES[c];
+        } else if (c == '\u2028') {
+          escape = "\\u2028";
+        } else if (c == '\u2029') {
+          escape = "\\u2029";
+        } else {
+          escape = null;
+        }
+        if (escape != null) {
+          output.append(value, unescapedStart, i);
+          output.append(escape);
+          unescapedStart = i + 1;
+        }
+      }
+      output.append(value, unescapedStart, value.length());
+      print("\"");
+    }
+
+    /** Prints text, indenting every line which it starts. */
+    private void print(String text) throws IOException {
+      int lineStart = 0;
+      for (int i = 0; i < text.length(); ++i) {
+        if (text.charAt(i) == '\n') {
+          appendIndented(text, lineStart, i + 1);
+          atStartOfLine = true;
+          lineStart = i + 1;
+        }
+      }
+      appendIndented(text, lineStart, text.length());
+    }
+
+    private void appendIndented(String text, int start, int end) throws IOException {
+      if (start == end) {
+        return;
+      }
+      if (atStartOfLine) {
+        for (int i = 0; i < indentLevel; ++i) {
+          output.append(INDENT);
+        }
+        atStartOfLine = false;
+      }
+      output.append(text, start, end);
+    }
+  }
+
+  private static String[] createAsciiEscapes() {
+    String[] result = new String[128];
+    for (int c = 0; c < 0x20; ++c) {
+      result[c] = String.format("\\u%04x", c);
+    }
+    result['"'] = "\\\"";
+    result['\\'] = "\\\\";
+    result['\t'] = "\\t";
+    result['\b'] = "\\b";
+    result['\n'] = "\\n";
+    result['\r'] = "\\r";
+    result['\f'] = "\\f";
+
+    // Gson escapes these by default, so that json can be embedded in html.
+    result['<'] = "\\u003c";
+    result['>'] = "\\u003e";
+    result['&'] = "\\u0026";
+    result['='] = "\\u003d";
+    result['\''] = "\\u0027";
+    return result;
+  }
+
+  /**
+   * Ends the input at the first two consecutive empty lines, which is how a stream of messages is
+   * terminated on an interactive standard input.
+   */
+  private static class EndMarkerReader extends Reader {
+    private final Reader delegate;
+    private boolean atStartOfLine;
+    private int emptyLines;
+    private boolean ended;
+
+    private EndMarkerReader(Reader delegate) {
+      this.delegate = delegate;
+      this.atStartOfLine = true;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+      if (ended) {
+        return -1;
+      }
+      int read = delegate.read(buffer, offset, length);
+      if (read <= 0) {
+        return read;
+      }
+      for (int i = offset; i < offset + read; ++i) {
+        char c = buffer[i];
+        if (c == '\r') {
+          continue;
+        }
+        if (c != '\n') {
+          atStartOfLine = false;
+          emptyLines = 0;
+        } else if (!atStartOfLine) {
+          atStartOfLine = true;
+        } else if (++emptyLines == 2) {
+          ended = true;
+          return i + 1 - offset;
+        }
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A persistent on-disk cache for the {@link FileDescriptorSet}s produced by protoc. Entries are
+ * addressed by a key which the caller derives from the content of all inputs to protoc.
+ *
+ * <p>Files which protoc pulled in through imports but which are not part of the key can be
+ * recorded as dependencies of an entry. A lookup only succeeds if all dependencies still have the
+ * content they had when the entry was stored.
+ *
+ * <p>The cache is best-effort: any problem reading or writing entries is logged and treated as a
+ * cache miss.
+ */
+public class DescriptorSetCache {
+  private static final Logger logger = LoggerFactory.getLogger(DescriptorSetCache.class);
+
+  private static final String DEFAULT_LOCATION = ".polyglot";
+  private static final String CACHE_DIRECTORY = "cache";
+  private static final String DESCRIPTOR_SUFFIX = ".pb.bin";
+  private static final String DEPENDENCIES_SUFFIX = ".deps";
+
+  private final Path cacheDirectory;
+
+  /** Returns a cache which lives in the current user's home directory. */
+  public static DescriptorSetCache forUserHome() {
+    String homeDirectory = System.getProperty("user.home");
+    return forDirectory(Paths.get(homeDirectory, DEFAULT_LOCATION, CACHE_DIRECTORY));
+  }
+
+  /** Returns a cache which stores its entries in the supplied directory. */
+  public static DescriptorSetCache forDirectory(Path cacheDirectory) {
+    return new DescriptorSetCache(cacheDirectory);
+  }
+
+  private DescriptorSetCache(Path cacheDirectory) {
+    this.cacheDirectory = cacheDirectory;
+  }
+
+  /** Returns the content hash used to track dependencies. */
+  static HashCode hashFile(Path path) throws IOException {
+    return Hashing.sha256().hashBytes(Files.readAllBytes(path));
+  }
+
+  /**
+   * Returns the entry stored for the supplied key, or an empty optional if there is no such entry
+   * or if any of its dependencies have changed.
+   */
+  public Optional<FileDescriptorSet> get(String key) {
+    Path descriptorPath = descriptorPath(key);
+    if (!Files.exists(descriptorPath)) {
+      return Optional.empty();
+    }
+
+    try {
+      for (Map.Entry<Path, HashCode> dependency : readDependencies(key).entrySet()) {
+        Path path = dependency.getKey();
+        if (!Files.exists(path) || !hashFile(path).equals(dependency.getValue())) {
+          logger.info("Ignoring cached descriptors because a dependency changed: " + path);
+          return Optional.empty();
+        }
+      }
+      return Optional.of(FileDescriptorSet.parseFrom(Files.readAllBytes(descriptorPath)));
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Unable to read cached descriptors from: " + descriptorPath, e);
+      return Optional.empty();
+    }
+  }
+
+  /** Stores the supplied descriptors under the key, replacing any existing entry. */
+  public void put(
+      String key, FileDescriptorSet descriptors, ImmutableMap<Path, HashCode> dependencies) {
+    StringBuilder dependencyLines = new StringBuilder();
+    for (Map.Entry<Path, HashCode> dependency : dependencies.entrySet()) {
+      dependencyLines.append(dependency.getValue()).append(' ')
+          .append(dependency.getKey().toAbsolutePath()).append('\n');
+    }
+
+    try {
+      Files.createDirectories(cacheDirectory);
+
+      // The descriptors go last, since their presence is what marks an entry as complete.
+      writeAtomically(
+          dependenciesPath(key), dependencyLines.toString().getBytes(StandardCharsets.UTF_8));
+      writeAtomically(descriptorPath(key), descriptors.toByteArray());
+    } catch (IOException e) {
+      logger.warn("Unable to cache descriptors in: " + cacheDirectory, e);
+    }
+  }
+
+  private ImmutableMap<Path, HashCode> readDependencies(String key) throws IOException {
+    Path dependenciesPath = dependenciesPath(key);
+    if (!Files.exists(dependenciesPath)) {
+      return ImmutableMap.of();
+    }
+
+    ImmutableMap.Builder<Path, HashCode> result = ImmutableMap.builder();
+    for (String line : Files.readAllLines(dependenciesPath, StandardCharsets.UTF_8)) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      List<String> parts = Splitter.on(' ').limit(2).splitToList(line);
+      if (parts.size() != 2) {
+        throw new IOException("Malformed dependency line: " + line);
+      }
+      result.put(Paths.get(parts.get(1)), HashCode.fromString(parts.get(0)));
+    }
+    return result.build();
+  }
+
+  /** Writes to a temporary file first so that concurrent readers never see partial content. */
+  private void writeAtomically(Path target, byte[] content) throws IOException {
+    Path tempFile = Files.createTempFile(cacheDirectory, "entry", ".tmp");
+    try {
+      Files.write(tempFile, content);
+      Files.move(tempFile, target,
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private Path descriptorPath(String key) {
+    return cacheDirectory.resolve(key + DESCRIPTOR_SUFFIX);
+  }
+
+  private Path dependenciesPath(String key) {
+    return cacheDirectory.resolve(key + DEPENDENCIES_SUFFIX);
+  }
+}
@@ -0,0 +1,97 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+
+/**
+ * An {@link InputStream} over the serialized form of a {@link DynamicMessage} which only
+ * serializes the message once somebody asks for the bytes. Transports which support
+ * {@link Drainable} have the message written straight into their buffers, and reads which are
+ * large enough to hold the whole message are served without an intermediate copy.
+ */
+class DynamicMessageInputStream extends InputStream implements Drainable, KnownLength {
+  // At most one of these is non-null at any time. Both are null once the stream is exhausted.
+  private DynamicMessage message;
+  private ByteArrayInputStream partial;
+
+  DynamicMessageInputStream(DynamicMessage message) {
+    this.message = message;
+  }
+
+  /** Returns the message if none of its bytes have been consumed yet. */
+  DynamicMessage unconsumedMessage() {
+    return message;
+  }
+
+  @Override
+  public int drainTo(OutputStream target) throws IOException {
+    int written;
+    if (message != null) {
+      written = message.getSerializedSize();
+      message.writeTo(target);
+      message = null;
+    } else if (partial != null) {
+      written = (int) ByteStreams.copy(partial, target);
+      partial = null;
+    } else {
+      written = 0;
+    }
+    return written;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (message != null) {
+      partial = new ByteArrayInputStream(message.toByteArray());
+      message = null;
+    }
+    if (partial != null) {
+      return partial.read();
+    }
+    return -1;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (message != null) {
+      int size = message.getSerializedSize();
+      if (size == 0) {
+        message = null;
+        return -1;
+      }
+      if (length >= size) {
+        // The whole message fits, serialize it right into the caller's buffer.
+        CodedOutputStream output = CodedOutputStream.newInstance(buffer, offset, size);
+        message.writeTo(output);
+        output.flush();
+        output.checkNoSpaceLeft();
+        message = null;
+        return size;
+      }
+      partial = new ByteArrayInputStream(message.toByteArray());
+      message = null;
+    }
+    if (partial != null) {
+      return partial.read(buffer, offset, length);
+    }
+    return -1;
+  }
+
+  @Override
+  public int available() {
+    if (message != null) {
+      return message.getSerializedSize();
+    } else if (partial != null) {
+      return partial.available();
+    }
+    return 0;
+  }
+}
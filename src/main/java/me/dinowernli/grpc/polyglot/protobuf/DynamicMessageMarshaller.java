@@ -3,14 +3,20 @@ package me.dinowernli.grpc.polyglot.protobuf;
 import java.io.IOException;
 import java.io.InputStream;
 
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.ExtensionRegistryLite;
 
-import com.google.protobuf.util.JsonFormat.TypeRegistry;
+import io.grpc.KnownLength;
 import io.grpc.MethodDescriptor.Marshaller;
 
-/** A {@link Marshaller} for dynamic messages. */
+/**
+ * A {@link Marshaller} for dynamic messages. Messages are serialized lazily straight into the
+ * transport, and incoming messages of known length are parsed from a single buffer whose bytes
+ * fields are aliased rather than copied.
+ */
 public class DynamicMessageMarshaller implements Marshaller<DynamicMessage> {
   private final Descriptor messageDescriptor;
 
@@ -20,10 +26,22 @@ public class DynamicMessageMarshaller implements Marshaller<DynamicMessage> {
 
   @Override
   public DynamicMessage parse(InputStream inputStream) {
+    // Streams produced by this marshaller (e.g., by in-process transports) can skip the bytes.
+    if (inputStream instanceof DynamicMessageInputStream) {
+      DynamicMessage message = ((DynamicMessageInputStream) inputStream).unconsumedMessage();
+      if (message != null && message.getDescriptorForType() == messageDescriptor) {
+        return message;
+      }
+    }
+
     try {
-      return DynamicMessage.newBuilder(messageDescriptor)
-          .mergeFrom(inputStream, ExtensionRegistryLite.getEmptyRegistry())
+      CodedInputStream codedInput = newCodedInput(inputStream);
+      codedInput.setSizeLimit(Integer.MAX_VALUE);
+      DynamicMessage result = DynamicMessage.newBuilder(messageDescriptor)
+          .mergeFrom(codedInput, ExtensionRegistryLite.getEmptyRegistry())
           .build();
+      codedInput.checkLastTagWas(0);
+      return result;
     } catch (IOException e) {
       throw new RuntimeException("Unable to merge from the supplied input stream", e);
     }
@@ -31,6 +49,20 @@ public class DynamicMessageMarshaller implements Marshaller<DynamicMessage> {
 
   @Override
   public InputStream stream(DynamicMessage abstractMessage) {
-    return abstractMessage.toByteString().newInput();
+    return new DynamicMessageInputStream(abstractMessage);
+  }
+
+  private static CodedInputStream newCodedInput(InputStream inputStream) throws IOException {
+    if (inputStream instanceof KnownLength) {
+      int size = inputStream.available();
+      byte[] buffer = new byte[size];
+      ByteStreams.readFully(inputStream, buffer);
+
+      // The buffer is private to the parsed message, so bytes fields can safely point into it.
+      CodedInputStream result = CodedInputStream.newInstance(buffer);
+      result.enableAliasing(true);
+      return result;
+    }
+    return CodedInputStream.newInstance(inputStream);
   }
-}
\ No newline at end of file
+}
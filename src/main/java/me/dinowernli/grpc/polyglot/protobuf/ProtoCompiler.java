@@ -0,0 +1,181 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.Descriptors.FileDescriptor;
+
+/**
+ * Compiles .proto files into descriptors in-process, producing the same {@link FileDescriptorSet}
+ * as running "protoc --include_imports --descriptor_set_out" on the same files, without spawning
+ * protoc or going through temporary files.
+ *
+ * <p>Files are named relative to the include paths, and imports are resolved against the include
+ * paths in order, and then against the well-known types bundled with polyglot. Each compilation
+ * keeps its own state, so a compiler can be used from several threads at once.
+ */
+public class ProtoCompiler {
+  /**
+   * Identifies the output of the compiler in cache keys. Bump this whenever a change to the
+   * compiler, {@link ProtoParser} or {@link ProtoLinker} changes the descriptors they produce.
+   */
+  static final String VERSION = "1";
+
+  private static final String WELL_KNOWN_TYPES_DIRECTORY = "google/protobuf/";
+
+  private final ImmutableList<Path> includePaths;
+
+  /** Creates a compiler which resolves files against the supplied include paths. */
+  public static ProtoCompiler forIncludePaths(ImmutableList<Path> includePaths) {
+    ImmutableList.Builder<Path> normalized = ImmutableList.builder();
+    for (Path includePath : includePaths) {
+      normalized.add(includePath.toAbsolutePath().normalize());
+    }
+    return new ProtoCompiler(normalized.build());
+  }
+
+  private ProtoCompiler(ImmutableList<Path> includePaths) {
+    this.includePaths = includePaths;
+  }
+
+  /**
+   * Compiles the supplied files, which must reside within one of the include paths. The result
+   * holds the compiled files along with everything they import, each file listed after its
+   * dependencies.
+   */
+  public FileDescriptorSet compile(ImmutableList<Path> protoFiles)
+      throws ProtoCompilationException {
+    Compilation compilation = new Compilation();
+    for (Path protoFile : protoFiles) {
+      compilation.load(nameOf(protoFile), Optional.empty());
+    }
+    return FileDescriptorSet.newBuilder().addAllFile(compilation.files).build();
+  }
+
+  /** Returns whether the file with the supplied name is one of the bundled well-known types. */
+  static boolean isBundled(String fileName) {
+    return fileName.startsWith(WELL_KNOWN_TYPES_DIRECTORY)
+        && WellKnownTypes.fileNames().contains(
+            fileName.substring(WELL_KNOWN_TYPES_DIRECTORY.length()));
+  }
+
+  /** Returns the name of the supplied file relative to the first include path containing it. */
+  private String nameOf(Path protoFile) throws ProtoCompilationException {
+    Path absolute = protoFile.toAbsolutePath().normalize();
+    for (Path includePath : includePaths) {
+      if (!absolute.startsWith(includePath)) {
+        continue;
+      }
+      String name = Joiner.on('/').join(includePath.relativize(absolute));
+      Optional<Path> resolved = locate(name);
+      if (resolved.isPresent() && !resolved.get().equals(absolute)) {
+        throw new ProtoCompilationException(String.format(
+            "%s: Input is shadowed in the include paths by \"%s\".", absolute, resolved.get()));
+      }
+      return name;
+    }
+    throw new ProtoCompilationException(
+        absolute + ": File does not reside within any include path.");
+  }
+
+  private Optional<Path> locate(String name) {
+    for (Path includePath : includePaths) {
+      Path candidate = includePath.resolve(name);
+      if (Files.isRegularFile(candidate)) {
+        return Optional.of(candidate);
+      }
+    }
+    return Optional.empty();
+  }
+
+  private Optional<String> read(String name) throws ProtoCompilationException {
+    Optional<Path> path = locate(name);
+    if (path.isPresent()) {
+      try {
+        return Optional.of(new String(Files.readAllBytes(path.get()), StandardCharsets.UTF_8));
+      } catch (IOException e) {
+        throw new ProtoCompilationException("Unable to read proto file: " + path.get(), e);
+      }
+    }
+
+    if (isBundled(name)) {
+      try (InputStream stream = ProtoCompiler.class.getResourceAsStream("/" + name)) {
+        if (stream != null) {
+          return Optional.of(new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8));
+        }
+      } catch (IOException e) {
+        throw new ProtoCompilationException("Unable to read bundled proto file: " + name, e);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /** Holds the files compiled so far in a single call to {@link #compile}. */
+  private class Compilation {
+    private final Map<String, FileDescriptor> descriptors = new HashMap<>();
+    private final List<FileDescriptorProto> files = new ArrayList<>();
+    private final LinkedHashSet<String> inProgress = new LinkedHashSet<>();
+
+    /** Compiles the file with the supplied name, after compiling everything it imports. */
+    private FileDescriptor load(String name, Optional<String> importer)
+        throws ProtoCompilationException {
+      FileDescriptor compiled = descriptors.get(name);
+      if (compiled != null) {
+        return compiled;
+      }
+      if (inProgress.contains(name)) {
+        List<String> cycle = new ArrayList<>(inProgress);
+        String path = Joiner.on(" -> ").join(cycle.subList(cycle.indexOf(name), cycle.size()));
+        throw new ProtoCompilationException(
+            String.format("File recursively imports itself: %s -> %s", path, name));
+      }
+
+      Optional<String> content = read(name);
+      if (!content.isPresent()) {
+        throw new ProtoCompilationException(importer.isPresent()
+            ? String.format("%s: Import \"%s\" was not found.", importer.get(), name)
+            : name + ": File not found.");
+      }
+
+      inProgress.add(name);
+      FileDescriptorProto parsed = ProtoParser.parse(name, content.get());
+      ImmutableList.Builder<FileDescriptor> dependencies = ImmutableList.builder();
+      for (String dependency : parsed.getDependencyList()) {
+        dependencies.add(load(dependency, Optional.of(name)));
+      }
+      ProtoLinker.LinkedFile linked = ProtoLinker.link(parsed, dependencies.build());
+      inProgress.remove(name);
+
+      descriptors.put(name, linked.getDescriptor());
+      files.add(linked.getProto());
+      return linked.getDescriptor();
+    }
+  }
+
+  /** An error indicating that the proto files could not be compiled. */
+  public static class ProtoCompilationException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    ProtoCompilationException(String message) {
+      super(message);
+    }
+
+    ProtoCompilationException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+}
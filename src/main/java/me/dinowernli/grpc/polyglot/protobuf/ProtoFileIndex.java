@@ -0,0 +1,271 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Maps the fully qualified names of services to the .proto files which define them, so that a
+ * call only needs to compile the file defining its service along with that file's imports.
+ *
+ * <p>Files are indexed by a lexical scan for their package and top-level services, which is much
+ * cheaper than compiling them. The results are kept per discovery root, in memory and optionally
+ * on disk, and a file is only scanned again once its modification time or size changes.
+ */
+public class ProtoFileIndex {
+  private static final Logger logger = LoggerFactory.getLogger(ProtoFileIndex.class);
+
+  private static final String DEFAULT_LOCATION = ".polyglot";
+  private static final String CACHE_DIRECTORY = "cache";
+  private static final String INDEX_DIRECTORY = "index";
+  private static final String INDEX_SUFFIX = ".index";
+
+  /** Bump this whenever the on-disk format or the scanning logic changes. */
+  private static final String INDEX_VERSION = "1";
+
+  private final Optional<Path> indexDirectory;
+  private final Map<Path, Map<String, Entry>> roots;
+
+  /** Returns an index which is persisted in the current user's home directory. */
+  public static ProtoFileIndex forUserHome() {
+    String homeDirectory = System.getProperty("user.home");
+    return new ProtoFileIndex(Optional.of(
+        Paths.get(homeDirectory, DEFAULT_LOCATION, CACHE_DIRECTORY, INDEX_DIRECTORY)));
+  }
+
+  /** Returns an index which only lives as long as this instance. */
+  public static ProtoFileIndex inMemory() {
+    return new ProtoFileIndex(Optional.empty());
+  }
+
+  @VisibleForTesting
+  ProtoFileIndex(Optional<Path> indexDirectory) {
+    this.indexDirectory = indexDirectory;
+    this.roots = new HashMap<>();
+  }
+
+  /**
+   * Returns those of the supplied files under the discovery root which define the supplied
+   * service, as absolute paths. Returns an empty set if none of them appears to.
+   */
+  public synchronized ImmutableSet<String> findServiceFiles(
+      Path discoveryRoot, ImmutableSet<String> protoFiles, String fullServiceName) {
+    Path root = discoveryRoot.toAbsolutePath().normalize();
+    Map<String, Entry> entries = roots.computeIfAbsent(root, this::load);
+
+    boolean changed = entries.keySet().retainAll(protoFiles);
+    ImmutableSet.Builder<String> result = ImmutableSet.builder();
+    for (String protoFile : ImmutableSortedSet.copyOf(protoFiles)) {
+      Optional<Entry> entry = refresh(protoFile, entries.get(protoFile));
+      if (!entry.isPresent()) {
+        changed |= entries.remove(protoFile) != null;
+        continue;
+      }
+      if (entry.get() != entries.get(protoFile)) {
+        entries.put(protoFile, entry.get());
+        changed = true;
+      }
+      if (entry.get().services.contains(fullServiceName)) {
+        result.add(protoFile);
+      }
+    }
+
+    if (changed) {
+      store(root, entries);
+    }
+    return result.build();
+  }
+
+  /**
+   * Returns the supplied entry if the file is unchanged, or a freshly scanned one otherwise.
+   * Returns an empty optional if the file can't be read.
+   */
+  private static Optional<Entry> refresh(String protoFile, Entry existing) {
+    Path path = Paths.get(protoFile);
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      long modifiedMillis = attributes.lastModifiedTime().toMillis();
+      long size = attributes.size();
+      if (existing != null && existing.modifiedMillis == modifiedMillis && existing.size == size) {
+        return Optional.of(existing);
+      }
+      String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+      return Optional.of(new Entry(modifiedMillis, size, scanServices(content)));
+    } catch (IOException e) {
+      logger.debug("Unable to index proto file: " + protoFile, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Returns the fully qualified names of the services defined in the supplied .proto content.
+   * Only looks at the tokens, skipping comments and string literals, so this is fooled neither by
+   * commented-out services nor by fields named "service".
+   */
+  @VisibleForTesting
+  static ImmutableSet<String> scanServices(String content) {
+    ImmutableList<String> tokens = tokenize(content);
+    String packageName = "";
+    ImmutableList.Builder<String> serviceNames = ImmutableList.builder();
+    int depth = 0;
+    for (int i = 0; i < tokens.size(); ++i) {
+      String token = tokens.get(i);
+      if (token.equals("{")) {
+        ++depth;
+      } else if (token.equals("}")) {
+        depth = Math.max(0, depth - 1);
+      } else if (depth == 0 && i + 2 < tokens.size()) {
+        String name = tokens.get(i + 1);
+        String next = tokens.get(i + 2);
+        if (token.equals("package") && isIdentifier(name) && next.equals(";")) {
+          packageName = name;
+        } else if (token.equals("service") && isIdentifier(name) && next.equals("{")) {
+          serviceNames.add(name);
+        }
+      }
+    }
+
+    ImmutableSet.Builder<String> result = ImmutableSet.builder();
+    for (String serviceName : serviceNames.build()) {
+      result.add(packageName.isEmpty() ? serviceName : packageName + "." + serviceName);
+    }
+    return result.build();
+  }
+
+  /** Splits the content into dotted identifiers and single symbols, dropping everything else. */
+  private static ImmutableList<String> tokenize(String content) {
+    ImmutableList.Builder<String> tokens = ImmutableList.builder();
+    int i = 0;
+    while (i < content.length()) {
+      char c = content.charAt(i);
+      if (content.startsWith("//", i)) {
+        int end = content.indexOf('\n', i);
+        i = end < 0 ? content.length() : end + 1;
+      } else if (content.startsWith("/*", i)) {
+        int end = content.indexOf("*/", i + 2);
+        i = end < 0 ? content.length() : end + 2;
+      } else if (c == '"' || c == '\'') {
+        ++i;
+        while (i < content.length() && content.charAt(i) != c && content.charAt(i) != '\n') {
+          i += content.charAt(i) == '\\' ? 2 : 1;
+        }
+        ++i;
+      } else if (Character.isLetter(c) || c == '_') {
+        int start = i;
+        while (i < content.length() && (Character.isLetterOrDigit(content.charAt(i))
+            || content.charAt(i) == '_' || content.charAt(i) == '.')) {
+          ++i;
+        }
+        tokens.add(content.substring(start, i));
+      } else if (Character.isWhitespace(c) || Character.isDigit(c)) {
+        ++i;
+      } else {
+        tokens.add(String.valueOf(c));
+        ++i;
+      }
+    }
+    return tokens.build();
+  }
+
+  private static boolean isIdentifier(String token) {
+    return Character.isLetter(token.charAt(0)) || token.charAt(0) == '_';
+  }
+
+  /** Reads the persisted entries for the supplied root, or returns no entries if there are none. */
+  private Map<String, Entry> load(Path root) {
+    Map<String, Entry> entries = new HashMap<>();
+    if (!indexDirectory.isPresent()) {
+      return entries;
+    }
+
+    Path path = indexPath(root);
+    if (!Files.exists(path)) {
+      return entries;
+    }
+    try {
+      List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+      if (lines.isEmpty() || !lines.get(0).equals(INDEX_VERSION)) {
+        return entries;
+      }
+      for (String line : lines.subList(1, lines.size())) {
+        List<String> parts = Splitter.on('\t').splitToList(line);
+        if (parts.size() != 4) {
+          throw new IOException("Malformed index line: " + line);
+        }
+        ImmutableSet<String> services = ImmutableSet.copyOf(
+            Splitter.on(' ').omitEmptyStrings().split(parts.get(3)));
+        entries.put(parts.get(2), new Entry(
+            Long.parseLong(parts.get(0)), Long.parseLong(parts.get(1)), services));
+      }
+      return entries;
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Unable to read proto file index from: " + path, e);
+      return new HashMap<>();
+    }
+  }
+
+  /** Persists the entries for the supplied root. Failures are logged and otherwise ignored. */
+  private void store(Path root, Map<String, Entry> entries) {
+    if (!indexDirectory.isPresent()) {
+      return;
+    }
+
+    StringBuilder content = new StringBuilder(INDEX_VERSION).append('\n');
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      content.append(entry.getValue().modifiedMillis).append('\t')
+          .append(entry.getValue().size).append('\t')
+          .append(entry.getKey()).append('\t')
+          .append(Joiner.on(' ').join(entry.getValue().services)).append('\n');
+    }
+
+    try {
+      Files.createDirectories(indexDirectory.get());
+      Path tempFile = Files.createTempFile(indexDirectory.get(), "index", ".tmp");
+      try {
+        Files.write(tempFile, content.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile, indexPath(root),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tempFile);
+      }
+    } catch (IOException e) {
+      logger.warn("Unable to store proto file index in: " + indexDirectory.get(), e);
+    }
+  }
+
+  private Path indexPath(Path root) {
+    String key = Hashing.sha256().hashString(root.toString(), StandardCharsets.UTF_8).toString();
+    return indexDirectory.get().resolve(key + INDEX_SUFFIX);
+  }
+
+  /** The services defined in a file, along with the attributes the file had when scanned. */
+  private static class Entry {
+    private final long modifiedMillis;
+    private final long size;
+    private final ImmutableSet<String> services;
+
+    private Entry(long modifiedMillis, long size, ImmutableSet<String> services) {
+      this.modifiedMillis = modifiedMillis;
+      this.size = size;
+      this.services = services;
+    }
+  }
+}
@@ -0,0 +1,552 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumOptions;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumValueOptions;
+import com.google.protobuf.DescriptorProtos.ExtensionRangeOptions;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldOptions;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileOptions;
+import com.google.protobuf.DescriptorProtos.MessageOptions;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MethodOptions;
+import com.google.protobuf.DescriptorProtos.OneofDescriptorProto;
+import com.google.protobuf.DescriptorProtos.OneofOptions;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceOptions;
+import com.google.protobuf.DescriptorProtos.UninterpretedOption;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Descriptors.ServiceDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.TextFormat;
+import me.dinowernli.grpc.polyglot.protobuf.ProtoCompiler.ProtoCompilationException;
+
+/**
+ * Turns the output of {@link ProtoParser} into the descriptor protoc would produce for the same
+ * file: type names are resolved to fully qualified names, field types and json names are filled
+ * in, and options are interpreted.
+ *
+ * <p>Resolving names and validating the file is left to {@link FileDescriptor#buildFrom}, which
+ * follows the same scoping rules as protoc. Options are interpreted the way protoc does it, by
+ * encoding each option on its own and merging the encoded options into the options message, so
+ * that custom options end up as unknown fields.
+ */
+class ProtoLinker {
+  /** Stands in for packages in the symbol table used to look up custom options. */
+  private static final Object PACKAGE = new Object();
+
+  private final FileDescriptor descriptor;
+  private Map<String, Object> symbols;
+
+  /**
+   * Links the supplied parsed file against the supplied descriptors of its dependencies, which
+   * must be listed in the order in which the file imports them.
+   */
+  static LinkedFile link(FileDescriptorProto parsed, ImmutableList<FileDescriptor> dependencies)
+      throws ProtoCompilationException {
+    FileDescriptor descriptor;
+    try {
+      descriptor = FileDescriptor.buildFrom(parsed, dependencies.toArray(new FileDescriptor[0]));
+    } catch (DescriptorValidationException e) {
+      throw new ProtoCompilationException(parsed.getName() + ": " + e.getMessage(), e);
+    }
+
+    FileDescriptorProto.Builder file = parsed.toBuilder();
+    new ProtoLinker(descriptor).linkFile(file);
+    return new LinkedFile(file.build(), descriptor);
+  }
+
+  private ProtoLinker(FileDescriptor descriptor) {
+    this.descriptor = descriptor;
+  }
+
+  /** Holds a linked file along with a descriptor which dependent files can be linked against. */
+  static class LinkedFile {
+    private final FileDescriptorProto proto;
+    private final FileDescriptor descriptor;
+
+    private LinkedFile(FileDescriptorProto proto, FileDescriptor descriptor) {
+      this.proto = proto;
+      this.descriptor = descriptor;
+    }
+
+    FileDescriptorProto getProto() {
+      return proto;
+    }
+
+    FileDescriptor getDescriptor() {
+      return descriptor;
+    }
+  }
+
+  private void linkFile(FileDescriptorProto.Builder file) throws ProtoCompilationException {
+    for (int i = 0; i < file.getMessageTypeCount(); ++i) {
+      linkMessage(file.getMessageTypeBuilder(i), descriptor.getMessageTypes().get(i));
+    }
+    for (int i = 0; i < file.getEnumTypeCount(); ++i) {
+      linkEnum(file.getEnumTypeBuilder(i), descriptor.getEnumTypes().get(i));
+    }
+    for (int i = 0; i < file.getServiceCount(); ++i) {
+      linkService(file.getServiceBuilder(i), descriptor.getServices().get(i));
+    }
+    for (int i = 0; i < file.getExtensionCount(); ++i) {
+      linkField(file.getExtensionBuilder(i), descriptor.getExtensions().get(i));
+    }
+
+    if (file.hasOptions()) {
+      // Protoc looks up the custom options of a file relative to a name within its package.
+      String scope = file.getPackage().isEmpty() ? "dummy" : file.getPackage() + ".dummy";
+      FileOptions.Builder options = file.getOptionsBuilder();
+      ByteString interpreted = interpretOptions(
+          options.getUninterpretedOptionList(), FileOptions.getDescriptor(), scope);
+      merge(options.clearUninterpretedOption(), interpreted);
+    }
+  }
+
+  private void linkMessage(DescriptorProto.Builder message, Descriptor type)
+      throws ProtoCompilationException {
+    for (int i = 0; i < message.getFieldCount(); ++i) {
+      linkField(message.getFieldBuilder(i), type.getFields().get(i));
+    }
+    for (int i = 0; i < message.getExtensionCount(); ++i) {
+      linkField(message.getExtensionBuilder(i), type.getExtensions().get(i));
+    }
+    for (int i = 0; i < message.getNestedTypeCount(); ++i) {
+      linkMessage(message.getNestedTypeBuilder(i), type.getNestedTypes().get(i));
+    }
+    for (int i = 0; i < message.getEnumTypeCount(); ++i) {
+      linkEnum(message.getEnumTypeBuilder(i), type.getEnumTypes().get(i));
+    }
+
+    for (int i = 0; i < message.getOneofDeclCount(); ++i) {
+      OneofDescriptorProto.Builder oneof = message.getOneofDeclBuilder(i);
+      if (oneof.hasOptions()) {
+        OneofOptions.Builder options = oneof.getOptionsBuilder();
+        ByteString interpreted = interpretOptions(options.getUninterpretedOptionList(),
+            OneofOptions.getDescriptor(), type.getOneofs().get(i).getFullName());
+        merge(options.clearUninterpretedOption(), interpreted);
+      }
+    }
+    for (DescriptorProto.ExtensionRange.Builder range : message.getExtensionRangeBuilderList()) {
+      if (range.hasOptions()) {
+        ExtensionRangeOptions.Builder options = range.getOptionsBuilder();
+        ByteString interpreted = interpretOptions(options.getUninterpretedOptionList(),
+            ExtensionRangeOptions.getDescriptor(), type.getFullName());
+        merge(options.clearUninterpretedOption(), interpreted);
+      }
+    }
+    if (message.hasOptions()) {
+      MessageOptions.Builder options = message.getOptionsBuilder();
+      ByteString interpreted = interpretOptions(
+          options.getUninterpretedOptionList(), MessageOptions.getDescriptor(), type.getFullName());
+      merge(options.clearUninterpretedOption(), interpreted);
+    }
+  }
+
+  private void linkField(FieldDescriptorProto.Builder field, FieldDescriptor resolved)
+      throws ProtoCompilationException {
+    if (field.hasTypeName()) {
+      String typeName = resolved.getJavaType() == FieldDescriptor.JavaType.ENUM
+          ? resolved.getEnumType().getFullName()
+          : resolved.getMessageType().getFullName();
+      field.setTypeName("." + typeName).setType(resolved.getType().toProto());
+    }
+    if (field.hasExtendee()) {
+      field.setExtendee("." + resolved.getContainingType().getFullName());
+    }
+    field.setJsonName(resolved.getJsonName());
+
+    if (field.hasOptions()) {
+      FieldOptions.Builder options = field.getOptionsBuilder();
+      ByteString interpreted = interpretOptions(
+          options.getUninterpretedOptionList(),
+          FieldOptions.getDescriptor(),
+          resolved.getFullName());
+      merge(options.clearUninterpretedOption(), interpreted);
+    }
+  }
+
+  private void linkEnum(EnumDescriptorProto.Builder enumType, EnumDescriptor resolved)
+      throws ProtoCompilationException {
+    for (int i = 0; i < enumType.getValueCount(); ++i) {
+      EnumValueDescriptorProto.Builder value = enumType.getValueBuilder(i);
+      if (value.hasOptions()) {
+        EnumValueOptions.Builder options = value.getOptionsBuilder();
+        ByteString interpreted = interpretOptions(options.getUninterpretedOptionList(),
+            EnumValueOptions.getDescriptor(), resolved.getValues().get(i).getFullName());
+        merge(options.clearUninterpretedOption(), interpreted);
+      }
+    }
+    if (enumType.hasOptions()) {
+      EnumOptions.Builder options = enumType.getOptionsBuilder();
+      ByteString interpreted = interpretOptions(
+          options.getUninterpretedOptionList(),
+          EnumOptions.getDescriptor(),
+          resolved.getFullName());
+      merge(options.clearUninterpretedOption(), interpreted);
+    }
+  }
+
+  private void linkService(ServiceDescriptorProto.Builder service, ServiceDescriptor resolved)
+      throws ProtoCompilationException {
+    for (int i = 0; i < service.getMethodCount(); ++i) {
+      MethodDescriptorProto.Builder method = service.getMethodBuilder(i);
+      MethodDescriptor resolvedMethod = resolved.getMethods().get(i);
+      method.setInputType("." + resolvedMethod.getInputType().getFullName());
+      method.setOutputType("." + resolvedMethod.getOutputType().getFullName());
+      if (method.hasOptions()) {
+        MethodOptions.Builder options = method.getOptionsBuilder();
+        ByteString interpreted = interpretOptions(options.getUninterpretedOptionList(),
+            MethodOptions.getDescriptor(), resolvedMethod.getFullName());
+        merge(options.clearUninterpretedOption(), interpreted);
+      }
+    }
+    if (service.hasOptions()) {
+      ServiceOptions.Builder options = service.getOptionsBuilder();
+      ByteString interpreted = interpretOptions(
+          options.getUninterpretedOptionList(),
+          ServiceOptions.getDescriptor(),
+          resolved.getFullName());
+      merge(options.clearUninterpretedOption(), interpreted);
+    }
+  }
+
+  /**
+   * Returns the encoding of the supplied options, each encoded as a message of the supplied
+   * options type holding only that option.
+   *
+   * @param scope the full name of the element the options belong to, relative to which the names
+   *     of custom options are looked up
+   */
+  private ByteString interpretOptions(
+      List<UninterpretedOption> options, Descriptor optionsType, String scope)
+      throws ProtoCompilationException {
+    ByteString result = ByteString.EMPTY;
+    Set<String> assigned = new HashSet<>();
+    for (UninterpretedOption option : options) {
+      result = result.concat(interpretOption(option, optionsType, scope, assigned).toByteString());
+    }
+    return result;
+  }
+
+  private Message interpretOption(
+      UninterpretedOption option, Descriptor optionsType, String scope, Set<String> assigned)
+      throws ProtoCompilationException {
+    String name = optionName(option);
+    ImmutableList.Builder<FieldDescriptor> pathBuilder = ImmutableList.builder();
+    Descriptor type = optionsType;
+    FieldDescriptor field = null;
+    for (UninterpretedOption.NamePart part : option.getNameList()) {
+      if (field != null) {
+        if (field.getJavaType() != FieldDescriptor.JavaType.MESSAGE) {
+          throw error(scope, "Option \"" + name + "\" is an atomic type, not a message.");
+        }
+        if (field.isRepeated()) {
+          throw error(scope, "Option field \"" + name + "\" is a repeated message. Repeated "
+              + "message options must be initialized using an aggregate value.");
+        }
+        type = field.getMessageType();
+      }
+
+      field = part.getIsExtension()
+          ? findExtension(part.getNamePart(), scope)
+          : type.findFieldByName(part.getNamePart());
+      if (field == null) {
+        throw error(scope, "Option \"" + name + "\" unknown."
+            + (part.getIsExtension() ? " Ensure that your proto definition file imports the proto "
+                + "which defines the option." : ""));
+      }
+      if (!field.getContainingType().getFullName().equals(type.getFullName())) {
+        throw error(scope, "Option \"" + name + "\": \"" + field.getFullName()
+            + "\" is not a field or extension of message \"" + type.getName() + "\".");
+      }
+      pathBuilder.add(field);
+    }
+    ImmutableList<FieldDescriptor> path = pathBuilder.build();
+
+    StringBuilder key = new StringBuilder();
+    for (FieldDescriptor element : path) {
+      key.append(element.getFullName()).append('/');
+    }
+    if (!field.isRepeated() && !assigned.add(key.toString())) {
+      throw error(scope, "Option \"" + name + "\" was already set.");
+    }
+
+    // Build the option's value from the inside out, each level holding only the next one.
+    Object value = optionValue(field, option, name, scope);
+    for (FieldDescriptor element : path.reverse()) {
+      DynamicMessage.Builder message = DynamicMessage.newBuilder(element.getContainingType());
+      if (element.isRepeated()) {
+        message.addRepeatedField(element, value);
+      } else {
+        message.setField(element, value);
+      }
+      value = message.build();
+    }
+    return (Message) value;
+  }
+
+  /** Converts the value of the supplied option to the type of the supplied field. */
+  private Object optionValue(
+      FieldDescriptor field, UninterpretedOption option, String name, String scope)
+      throws ProtoCompilationException {
+    String typeName = field.getType().name().toLowerCase();
+    switch (field.getType()) {
+      case INT32:
+      case SINT32:
+      case SFIXED32:
+        if (option.hasPositiveIntValue()
+            && Long.compareUnsigned(option.getPositiveIntValue(), Integer.MAX_VALUE) <= 0) {
+          return (int) option.getPositiveIntValue();
+        } else if (option.hasNegativeIntValue()
+            && option.getNegativeIntValue() >= Integer.MIN_VALUE) {
+          return (int) option.getNegativeIntValue();
+        }
+        break;
+      case INT64:
+      case SINT64:
+      case SFIXED64:
+        if (option.hasPositiveIntValue() && option.getPositiveIntValue() >= 0) {
+          return option.getPositiveIntValue();
+        } else if (option.hasNegativeIntValue()) {
+          return option.getNegativeIntValue();
+        }
+        break;
+      case UINT32:
+      case FIXED32:
+        if (option.hasPositiveIntValue()
+            && Long.compareUnsigned(option.getPositiveIntValue(), 0xFFFFFFFFL) <= 0) {
+          return (int) option.getPositiveIntValue();
+        }
+        break;
+      case UINT64:
+      case FIXED64:
+        if (option.hasPositiveIntValue()) {
+          return option.getPositiveIntValue();
+        }
+        break;
+      case FLOAT:
+      case DOUBLE:
+        Double number = null;
+        if (option.hasDoubleValue()) {
+          number = option.getDoubleValue();
+        } else if (option.hasPositiveIntValue()) {
+          number = unsignedToDouble(option.getPositiveIntValue());
+        } else if (option.hasNegativeIntValue()) {
+          number = (double) option.getNegativeIntValue();
+        } else if (option.getIdentifierValue().equals("inf")) {
+          number = Double.POSITIVE_INFINITY;
+        } else if (option.getIdentifierValue().equals("nan")) {
+          number = Double.NaN;
+        }
+        if (number != null) {
+          return field.getType() == FieldDescriptor.Type.FLOAT
+              ? (Object) number.floatValue()
+              : number;
+        }
+        break;
+      case BOOL:
+        if (option.getIdentifierValue().equals("true")) {
+          return true;
+        } else if (option.getIdentifierValue().equals("false")) {
+          return false;
+        }
+        throw error(scope, "Value must be \"true\" or \"false\" for boolean option \"" + name
+            + "\".");
+      case ENUM:
+        if (option.hasIdentifierValue()) {
+          EnumValueDescriptor value =
+              field.getEnumType().findValueByName(option.getIdentifierValue());
+          if (value == null) {
+            throw error(scope, "Enum type \"" + field.getEnumType().getFullName()
+                + "\" has no value named \"" + option.getIdentifierValue() + "\" for option \""
+                + name + "\".");
+          }
+          return value;
+        }
+        throw error(scope, "Value must be identifier for enum-valued option \"" + name + "\".");
+      case STRING:
+        if (option.hasStringValue()) {
+          return option.getStringValue().toStringUtf8();
+        }
+        break;
+      case BYTES:
+        if (option.hasStringValue()) {
+          return option.getStringValue();
+        }
+        break;
+      case MESSAGE:
+      case GROUP:
+        if (!option.hasAggregateValue()) {
+          throw error(scope, "Option \"" + name + "\" is a message. To set the entire message, "
+              + "use syntax like \"" + name + " = { <proto text format> }\". To set fields "
+              + "within it, use syntax like \"" + name + ".foo = value\".");
+        }
+        DynamicMessage.Builder message = DynamicMessage.newBuilder(field.getMessageType());
+        try {
+          TextFormat.getParser().merge(option.getAggregateValue(), message);
+        } catch (TextFormat.ParseException e) {
+          throw error(scope, "Error while parsing option value for \"" + name + "\": "
+              + e.getMessage());
+        }
+        return message.build();
+    }
+    throw error(scope, "Value out of range or of the wrong kind for " + typeName + " option \""
+        + name + "\".");
+  }
+
+  private static double unsignedToDouble(long value) {
+    double result = (double) (value >>> 1) * 2.0;
+    return result + (value & 1);
+  }
+
+  /** Looks up the extension with the supplied name relative to the supplied scope. */
+  private FieldDescriptor findExtension(String name, String scope) {
+    Object symbol = lookupSymbol(name, scope);
+    if (symbol instanceof FieldDescriptor && ((FieldDescriptor) symbol).isExtension()) {
+      return (FieldDescriptor) symbol;
+    }
+    return null;
+  }
+
+  /**
+   * Looks up a symbol the way protoc does: starting in the scope enclosing the supplied one and
+   * moving outwards, until the first component of the name is found. Compound names are then
+   * resolved within the symbol found that way.
+   */
+  private Object lookupSymbol(String name, String scope) {
+    if (name.startsWith(".")) {
+      return symbols().get(name.substring(1));
+    }
+
+    int firstDot = name.indexOf('.');
+    String firstPart = firstDot < 0 ? name : name.substring(0, firstDot);
+    String scopeToTry = scope;
+    while (true) {
+      int dot = scopeToTry.lastIndexOf('.');
+      if (dot < 0) {
+        return symbols().get(name);
+      }
+      scopeToTry = scopeToTry.substring(0, dot);
+      Object symbol = symbols().get(scopeToTry + "." + firstPart);
+      if (symbol != null) {
+        if (firstDot < 0) {
+          return symbol;
+        }
+        if (isAggregate(symbol)) {
+          return symbols().get(scopeToTry + "." + name);
+        }
+        // Not something which can contain the rest of the name, so keep looking further out.
+      }
+    }
+  }
+
+  private static boolean isAggregate(Object symbol) {
+    return symbol == PACKAGE
+        || symbol instanceof Descriptor
+        || symbol instanceof EnumDescriptor
+        || symbol instanceof ServiceDescriptor;
+  }
+
+  /** Returns the symbols visible from the file being linked, indexed by their full name. */
+  private Map<String, Object> symbols() {
+    if (symbols != null) {
+      return symbols;
+    }
+
+    Set<FileDescriptor> visibleFiles = new LinkedHashSet<>();
+    visibleFiles.add(descriptor);
+    for (FileDescriptor dependency : descriptor.getDependencies()) {
+      addWithPublicDependencies(dependency, visibleFiles);
+    }
+
+    symbols = new HashMap<>();
+    for (FileDescriptor file : visibleFiles) {
+      String packageName = file.getPackage();
+      while (!packageName.isEmpty()) {
+        symbols.putIfAbsent(packageName, PACKAGE);
+        int dot = packageName.lastIndexOf('.');
+        packageName = dot < 0 ? "" : packageName.substring(0, dot);
+      }
+      for (Descriptor message : file.getMessageTypes()) {
+        addMessageSymbols(message);
+      }
+      for (EnumDescriptor enumType : file.getEnumTypes()) {
+        symbols.put(enumType.getFullName(), enumType);
+      }
+      for (ServiceDescriptor service : file.getServices()) {
+        symbols.put(service.getFullName(), service);
+      }
+      for (FieldDescriptor extension : file.getExtensions()) {
+        symbols.put(extension.getFullName(), extension);
+      }
+    }
+    return symbols;
+  }
+
+  private void addMessageSymbols(Descriptor message) {
+    symbols.put(message.getFullName(), message);
+    for (Descriptor nested : message.getNestedTypes()) {
+      addMessageSymbols(nested);
+    }
+    for (EnumDescriptor enumType : message.getEnumTypes()) {
+      symbols.put(enumType.getFullName(), enumType);
+    }
+    for (FieldDescriptor extension : message.getExtensions()) {
+      symbols.put(extension.getFullName(), extension);
+    }
+  }
+
+  private static void addWithPublicDependencies(FileDescriptor file, Set<FileDescriptor> result) {
+    if (result.add(file)) {
+      for (FileDescriptor dependency : file.getPublicDependencies()) {
+        addWithPublicDependencies(dependency, result);
+      }
+    }
+  }
+
+  /** Formats the name of an option the way it was written. */
+  private static String optionName(UninterpretedOption option) {
+    StringBuilder result = new StringBuilder();
+    for (UninterpretedOption.NamePart part : option.getNameList()) {
+      if (result.length() > 0) {
+        result.append('.');
+      }
+      result.append(part.getIsExtension() ? "(" + part.getNamePart() + ")" : part.getNamePart());
+    }
+    return result.toString();
+  }
+
+  private static void merge(Message.Builder options, ByteString interpreted) {
+    try {
+      options.mergeFrom(interpreted);
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException("Unable to merge interpreted options", e);
+    }
+  }
+
+  private ProtoCompilationException error(String scope, String message) {
+    return new ProtoCompilationException(
+        String.format("%s: %s: %s", descriptor.getName(), scope, message));
+  }
+}
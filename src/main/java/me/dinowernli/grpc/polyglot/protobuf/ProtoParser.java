@@ -0,0 +1,1283 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.DescriptorProto.ExtensionRange;
+import com.google.protobuf.DescriptorProtos.DescriptorProto.ReservedRange;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Label;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import com.google.protobuf.DescriptorProtos.UninterpretedOption;
+import me.dinowernli.grpc.polyglot.protobuf.ProtoCompiler.ProtoCompilationException;
+
+/**
+ * Parses the content of a single .proto file into a {@link FileDescriptorProto}, following the
+ * grammar and conventions of protoc's parser. The result is not linked yet: type names are kept as
+ * written, fields referring to messages or enums have no type, and all options except the ones
+ * protoc handles while parsing are stored as uninterpreted options. See {@link ProtoLinker}.
+ */
+class ProtoParser {
+  private static final ImmutableMap<String, Type> SCALAR_TYPES =
+      ImmutableMap.<String, Type>builder()
+          .put("double", Type.TYPE_DOUBLE)
+          .put("float", Type.TYPE_FLOAT)
+          .put("int64", Type.TYPE_INT64)
+          .put("uint64", Type.TYPE_UINT64)
+          .put("int32", Type.TYPE_INT32)
+          .put("fixed64", Type.TYPE_FIXED64)
+          .put("fixed32", Type.TYPE_FIXED32)
+          .put("bool", Type.TYPE_BOOL)
+          .put("string", Type.TYPE_STRING)
+          .put("bytes", Type.TYPE_BYTES)
+          .put("uint32", Type.TYPE_UINT32)
+          .put("sfixed32", Type.TYPE_SFIXED32)
+          .put("sfixed64", Type.TYPE_SFIXED64)
+          .put("sint32", Type.TYPE_SINT32)
+          .put("sint64", Type.TYPE_SINT64)
+          .build();
+
+  private static final ImmutableSet<Type> INVALID_MAP_KEY_TYPES =
+      ImmutableSet.of(Type.TYPE_FLOAT, Type.TYPE_DOUBLE, Type.TYPE_BYTES);
+
+  private static final BigInteger INT32_MAX = BigInteger.valueOf(Integer.MAX_VALUE);
+  private static final BigInteger UINT32_MAX = BigInteger.valueOf(0xFFFFFFFFL);
+  private static final BigInteger INT64_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+  private static final BigInteger UINT64_MAX =
+      BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+  private static final int MAX_FIELD_NUMBER = 536870911;
+
+  /** Marks the end of a range declared with "to max" until the actual maximum is known. */
+  private static final int MAX_RANGE_SENTINEL = -1;
+
+  private final String fileName;
+  private final ImmutableList<Token> tokens;
+  private int position;
+  private boolean proto3;
+
+  /** Parses the supplied content of the file with the supplied name. */
+  static FileDescriptorProto parse(String fileName, String content)
+      throws ProtoCompilationException {
+    return new ProtoParser(fileName, tokenize(fileName, content)).parseFile();
+  }
+
+  private ProtoParser(String fileName, ImmutableList<Token> tokens) {
+    this.fileName = fileName;
+    this.tokens = tokens;
+  }
+
+  private FileDescriptorProto parseFile() throws ProtoCompilationException {
+    FileDescriptorProto.Builder file = FileDescriptorProto.newBuilder().setName(fileName);
+    if (lookingAt("syntax")) {
+      next();
+      consume("=");
+      Token syntaxToken = current();
+      String syntax = consumeString("Expected syntax identifier.").toStringUtf8();
+      consume(";");
+      if (syntax.equals("proto3")) {
+        proto3 = true;
+        file.setSyntax(syntax);
+      } else if (!syntax.equals("proto2")) {
+        throw errorAt(syntaxToken, "Unrecognized syntax identifier \"" + syntax + "\".  This "
+            + "parser only recognizes \"proto2\" and \"proto3\".");
+      }
+    }
+
+    while (!atEnd()) {
+      parseTopLevelStatement(file);
+    }
+    return file.build();
+  }
+
+  private void parseTopLevelStatement(FileDescriptorProto.Builder file)
+      throws ProtoCompilationException {
+    if (tryConsume(";")) {
+      // Empty statement.
+    } else if (tryConsume("message")) {
+      parseMessage(file.addMessageTypeBuilder());
+    } else if (tryConsume("enum")) {
+      parseEnum(file.addEnumTypeBuilder());
+    } else if (tryConsume("service")) {
+      parseService(file.addServiceBuilder());
+    } else if (tryConsume("extend")) {
+      parseExtend(file::addExtensionBuilder, file::addMessageTypeBuilder);
+    } else if (tryConsume("import")) {
+      if (tryConsume("public")) {
+        file.addPublicDependency(file.getDependencyCount());
+      } else if (tryConsume("weak")) {
+        file.addWeakDependency(file.getDependencyCount());
+      }
+      file.addDependency(
+          consumeString("Expected a string naming the file to import.").toStringUtf8());
+      consume(";");
+    } else if (lookingAt("package")) {
+      if (file.hasPackage()) {
+        throw error("Multiple package definitions.");
+      }
+      next();
+      file.setPackage(consumeQualifiedName());
+      consume(";");
+    } else if (tryConsume("option")) {
+      file.getOptionsBuilder().addUninterpretedOption(parseOptionAssignment());
+      consume(";");
+    } else {
+      throw error("Expected top-level statement (e.g. \"message\").");
+    }
+  }
+
+  private void parseMessage(DescriptorProto.Builder message) throws ProtoCompilationException {
+    message.setName(consumeIdentifier("Expected message name."));
+    parseMessageBlock(message);
+  }
+
+  private void parseMessageBlock(DescriptorProto.Builder message)
+      throws ProtoCompilationException {
+    consume("{");
+    while (!tryConsume("}")) {
+      if (atEnd()) {
+        throw error("Reached end of input in message definition (missing '}').");
+      }
+      parseMessageStatement(message);
+    }
+
+    adjustMaxRanges(message);
+    if (proto3) {
+      addSyntheticOneofs(message);
+    }
+  }
+
+  private void parseMessageStatement(DescriptorProto.Builder message)
+      throws ProtoCompilationException {
+    if (tryConsume(";")) {
+      // Empty statement.
+    } else if (tryConsume("message")) {
+      parseMessage(message.addNestedTypeBuilder());
+    } else if (tryConsume("enum")) {
+      parseEnum(message.addEnumTypeBuilder());
+    } else if (tryConsume("extensions")) {
+      parseExtensions(message);
+    } else if (tryConsume("reserved")) {
+      parseReserved(message);
+    } else if (tryConsume("extend")) {
+      parseExtend(message::addExtensionBuilder, message::addNestedTypeBuilder);
+    } else if (tryConsume("option")) {
+      message.getOptionsBuilder().addUninterpretedOption(parseOptionAssignment());
+      consume(";");
+    } else if (tryConsume("oneof")) {
+      parseOneof(message);
+    } else {
+      parseField(message.addFieldBuilder(), message::addNestedTypeBuilder, FieldContext.MESSAGE);
+    }
+  }
+
+  /** Where a field is declared, which determines the labels it may have. */
+  private enum FieldContext {
+    MESSAGE,
+    ONEOF,
+    EXTEND,
+  }
+
+  /**
+   * Parses a field declaration into the supplied builder. Messages generated for groups and map
+   * entries are added through the supplied supplier.
+   */
+  private void parseField(
+      FieldDescriptorProto.Builder field,
+      Supplier<DescriptorProto.Builder> nestedTypes,
+      FieldContext context) throws ProtoCompilationException {
+    Token labelToken = current();
+    boolean hasLabel = true;
+    if (tryConsume("optional")) {
+      field.setLabel(Label.LABEL_OPTIONAL);
+      if (proto3) {
+        field.setProto3Optional(true);
+      }
+    } else if (lookingAt("required")) {
+      if (proto3) {
+        throw error("Required fields are not allowed in proto3.");
+      }
+      next();
+      field.setLabel(Label.LABEL_REQUIRED);
+    } else if (tryConsume("repeated")) {
+      field.setLabel(Label.LABEL_REPEATED);
+    } else {
+      hasLabel = false;
+      field.setLabel(Label.LABEL_OPTIONAL);
+    }
+
+    if (hasLabel && context == FieldContext.ONEOF) {
+      throw errorAt(labelToken,
+          "Fields in oneofs must not have labels (required / optional / repeated).");
+    }
+
+    if (lookingAt("map") && peek(1).text.equals("<")) {
+      if (hasLabel) {
+        throw errorAt(labelToken,
+            "Field labels (required/optional/repeated) are not allowed on map fields.");
+      }
+      if (context != FieldContext.MESSAGE) {
+        throw error("Map fields are not allowed in oneofs or extensions.");
+      }
+      parseMapField(field, nestedTypes);
+      return;
+    }
+
+    if (!hasLabel && !proto3 && context != FieldContext.ONEOF) {
+      throw error("Expected \"required\", \"optional\", or \"repeated\".");
+    }
+
+    if (lookingAt("group")) {
+      if (proto3) {
+        throw error("Group syntax is no longer supported in proto3. Use a nested message "
+            + "instead.");
+      }
+      next();
+      parseGroup(field, nestedTypes, context);
+      return;
+    }
+
+    parseType(field);
+    field.setName(consumeIdentifier("Expected field name."));
+    consume("=");
+    field.setNumber(consumeFieldNumber());
+    parseFieldOptions(field, context == FieldContext.EXTEND);
+    consume(";");
+  }
+
+  private void parseGroup(
+      FieldDescriptorProto.Builder field,
+      Supplier<DescriptorProto.Builder> nestedTypes,
+      FieldContext context) throws ProtoCompilationException {
+    Token nameToken = current();
+    String groupName = consumeIdentifier("Expected group name.");
+    if (!Character.isUpperCase(groupName.charAt(0))) {
+      throw errorAt(nameToken, "Group names must start with a capital letter.");
+    }
+    field.setType(Type.TYPE_GROUP)
+        .setTypeName(groupName)
+        .setName(toLowerAscii(groupName));
+    consume("=");
+    field.setNumber(consumeFieldNumber());
+    parseFieldOptions(field, context == FieldContext.EXTEND);
+    parseMessageBlock(nestedTypes.get().setName(groupName));
+  }
+
+  /** Parses a map field, and generates the message type of its entries the way protoc does. */
+  private void parseMapField(
+      FieldDescriptorProto.Builder field, Supplier<DescriptorProto.Builder> nestedTypes)
+      throws ProtoCompilationException {
+    consume("map");
+    consume("<");
+    Token keyToken = current();
+    FieldDescriptorProto.Builder key = FieldDescriptorProto.newBuilder()
+        .setName("key")
+        .setNumber(1)
+        .setLabel(Label.LABEL_OPTIONAL);
+    parseType(key);
+    if (!key.hasType()) {
+      throw errorAt(keyToken, "Key in map fields cannot be enum or message types.");
+    }
+    if (INVALID_MAP_KEY_TYPES.contains(key.getType())) {
+      throw errorAt(keyToken, "Key in map fields cannot be float/double, bytes or message types.");
+    }
+    consume(",");
+    FieldDescriptorProto.Builder value = FieldDescriptorProto.newBuilder()
+        .setName("value")
+        .setNumber(2)
+        .setLabel(Label.LABEL_OPTIONAL);
+    parseType(value);
+    consume(">");
+
+    field.setName(consumeIdentifier("Expected field name."));
+    consume("=");
+    field.setNumber(consumeFieldNumber());
+    parseFieldOptions(field, false /* isExtension */);
+    consume(";");
+
+    String entryName = mapEntryName(field.getName());
+    field.setLabel(Label.LABEL_REPEATED).setTypeName(entryName);
+    DescriptorProto.Builder entry = nestedTypes.get()
+        .setName(entryName)
+        .addField(key)
+        .addField(value);
+    entry.getOptionsBuilder().setMapEntry(true);
+  }
+
+  /** Sets either the scalar type or the (unresolved) type name of the supplied field. */
+  private void parseType(FieldDescriptorProto.Builder field) throws ProtoCompilationException {
+    Type scalarType = current().type == TokenType.IDENTIFIER
+        ? SCALAR_TYPES.get(current().text)
+        : null;
+    if (scalarType != null) {
+      next();
+      field.setType(scalarType);
+    } else {
+      field.setTypeName(consumeTypeName());
+    }
+  }
+
+  private void parseFieldOptions(FieldDescriptorProto.Builder field, boolean isExtension)
+      throws ProtoCompilationException {
+    if (!tryConsume("[")) {
+      return;
+    }
+    do {
+      if (lookingAt("default")) {
+        parseDefaultAssignment(field);
+      } else if (lookingAt("json_name")) {
+        if (isExtension) {
+          throw error("option json_name is not allowed on extension fields.");
+        }
+        if (field.hasJsonName()) {
+          throw error("Already set option \"json_name\".");
+        }
+        next();
+        consume("=");
+        field.setJsonName(consumeString("Expected string for JSON name.").toStringUtf8());
+      } else {
+        field.getOptionsBuilder().addUninterpretedOption(parseOptionAssignment());
+      }
+    } while (tryConsume(","));
+    consume("]");
+  }
+
+  /**
+   * Parses the default value of a field, and stores it in the normalized text form protoc uses
+   * in descriptors.
+   */
+  private void parseDefaultAssignment(FieldDescriptorProto.Builder field)
+      throws ProtoCompilationException {
+    if (field.hasDefaultValue()) {
+      throw error("Already set option \"default\".");
+    }
+    if (proto3) {
+      throw error("Explicit default values are not allowed in proto3.");
+    }
+    next();
+    consume("=");
+
+    if (!field.hasType()) {
+      // The type is only known once linked. If it turns out not to be an enum, linking fails.
+      field.setDefaultValue(current().text);
+      next();
+      return;
+    }
+
+    switch (field.getType()) {
+      case TYPE_INT32:
+      case TYPE_SINT32:
+      case TYPE_SFIXED32:
+        field.setDefaultValue(consumeSignedDefault(INT32_MAX));
+        break;
+      case TYPE_INT64:
+      case TYPE_SINT64:
+      case TYPE_SFIXED64:
+        field.setDefaultValue(consumeSignedDefault(INT64_MAX));
+        break;
+      case TYPE_UINT32:
+      case TYPE_FIXED32:
+        field.setDefaultValue(consumeUnsignedDefault(UINT32_MAX));
+        break;
+      case TYPE_UINT64:
+      case TYPE_FIXED64:
+        field.setDefaultValue(consumeUnsignedDefault(UINT64_MAX));
+        break;
+      case TYPE_FLOAT:
+      case TYPE_DOUBLE:
+        String sign = tryConsume("-") ? "-" : "";
+        field.setDefaultValue(sign + simpleDtoa(consumeNumber("Expected number.")));
+        break;
+      case TYPE_BOOL:
+        if (tryConsume("true")) {
+          field.setDefaultValue("true");
+        } else if (tryConsume("false")) {
+          field.setDefaultValue("false");
+        } else {
+          throw error("Expected \"true\" or \"false\".");
+        }
+        break;
+      case TYPE_STRING:
+        field.setDefaultValue(consumeString("Expected string.").toStringUtf8());
+        break;
+      case TYPE_BYTES:
+        field.setDefaultValue(cEscape(consumeString("Expected string.")));
+        break;
+      default:
+        throw error("Messages can't have default values.");
+    }
+  }
+
+  private String consumeSignedDefault(BigInteger maxValue) throws ProtoCompilationException {
+    if (tryConsume("-")) {
+      // Two's complement always has one more negative value than positive.
+      return "-" + consumeInteger(
+          maxValue.add(BigInteger.ONE), "Expected integer for field default value.");
+    }
+    return consumeInteger(maxValue, "Expected integer for field default value.").toString();
+  }
+
+  private String consumeUnsignedDefault(BigInteger maxValue) throws ProtoCompilationException {
+    if (lookingAt("-")) {
+      throw error("Unsigned field can't have negative default value.");
+    }
+    return consumeInteger(maxValue, "Expected integer for field default value.").toString();
+  }
+
+  private void parseOneof(DescriptorProto.Builder message) throws ProtoCompilationException {
+    int oneofIndex = message.getOneofDeclCount();
+    message.addOneofDeclBuilder().setName(consumeIdentifier("Expected oneof name."));
+    consume("{");
+    while (!tryConsume("}")) {
+      if (atEnd()) {
+        throw error("Reached end of input in oneof definition (missing '}').");
+      }
+      if (tryConsume("option")) {
+        message.getOneofDeclBuilder(oneofIndex).getOptionsBuilder()
+            .addUninterpretedOption(parseOptionAssignment());
+        consume(";");
+      } else {
+        parseField(message.addFieldBuilder().setOneofIndex(oneofIndex),
+            message::addNestedTypeBuilder, FieldContext.ONEOF);
+      }
+    }
+  }
+
+  private void parseExtend(
+      Supplier<FieldDescriptorProto.Builder> extensions,
+      Supplier<DescriptorProto.Builder> nestedTypes) throws ProtoCompilationException {
+    String extendee = consumeTypeName();
+    consume("{");
+    while (!tryConsume("}")) {
+      if (atEnd()) {
+        throw error("Reached end of input in extend definition (missing '}').");
+      }
+      parseField(extensions.get().setExtendee(extendee), nestedTypes, FieldContext.EXTEND);
+    }
+  }
+
+  private void parseExtensions(DescriptorProto.Builder message)
+      throws ProtoCompilationException {
+    int firstRange = message.getExtensionRangeCount();
+    do {
+      int start = consumeInteger(INT32_MAX, "Expected field number range.").intValue();
+      int end = start + 1;
+      if (tryConsume("to")) {
+        end = tryConsume("max")
+            ? MAX_RANGE_SENTINEL
+            : consumeInteger(INT32_MAX, "Expected integer.").intValue() + 1;
+      }
+      message.addExtensionRange(ExtensionRange.newBuilder().setStart(start).setEnd(end));
+    } while (tryConsume(","));
+
+    if (tryConsume("[")) {
+      ImmutableList.Builder<UninterpretedOption> options = ImmutableList.builder();
+      do {
+        options.add(parseOptionAssignment());
+      } while (tryConsume(","));
+      consume("]");
+      for (int i = firstRange; i < message.getExtensionRangeCount(); ++i) {
+        message.getExtensionRangeBuilder(i).getOptionsBuilder()
+            .addAllUninterpretedOption(options.build());
+      }
+    }
+    consume(";");
+  }
+
+  private void parseReserved(DescriptorProto.Builder message) throws ProtoCompilationException {
+    if (current().type == TokenType.STRING) {
+      do {
+        message.addReservedName(consumeString("Expected field name.").toStringUtf8());
+      } while (tryConsume(","));
+    } else {
+      do {
+        int start = consumeInteger(INT32_MAX, "Expected field name or number range.").intValue();
+        int end = start + 1;
+        if (tryConsume("to")) {
+          end = tryConsume("max")
+              ? MAX_RANGE_SENTINEL
+              : consumeInteger(INT32_MAX, "Expected integer.").intValue() + 1;
+        }
+        message.addReservedRange(ReservedRange.newBuilder().setStart(start).setEnd(end));
+      } while (tryConsume(","));
+    }
+    consume(";");
+  }
+
+  private void parseEnum(EnumDescriptorProto.Builder enumType) throws ProtoCompilationException {
+    enumType.setName(consumeIdentifier("Expected enum name."));
+    consume("{");
+    while (!tryConsume("}")) {
+      if (atEnd()) {
+        throw error("Reached end of input in enum definition (missing '}').");
+      }
+      if (tryConsume(";")) {
+        // Empty statement.
+      } else if (tryConsume("option")) {
+        enumType.getOptionsBuilder().addUninterpretedOption(parseOptionAssignment());
+        consume(";");
+      } else if (tryConsume("reserved")) {
+        parseEnumReserved(enumType);
+      } else {
+        parseEnumValue(enumType.addValueBuilder());
+      }
+    }
+  }
+
+  private void parseEnumValue(EnumValueDescriptorProto.Builder value)
+      throws ProtoCompilationException {
+    value.setName(consumeIdentifier("Expected enum constant name."));
+    consume("=");
+    value.setNumber(consumeSignedInt32("Expected integer."));
+    if (tryConsume("[")) {
+      do {
+        value.getOptionsBuilder().addUninterpretedOption(parseOptionAssignment());
+      } while (tryConsume(","));
+      consume("]");
+    }
+    consume(";");
+  }
+
+  private void parseEnumReserved(EnumDescriptorProto.Builder enumType)
+      throws ProtoCompilationException {
+    if (current().type == TokenType.STRING) {
+      do {
+        enumType.addReservedName(consumeString("Expected enum value.").toStringUtf8());
+      } while (tryConsume(","));
+    } else {
+      do {
+        // Unlike for messages, the end of an enum range is inclusive.
+        int start = consumeSignedInt32("Expected enum value or number range.");
+        int end = start;
+        if (tryConsume("to")) {
+          end = tryConsume("max") ? Integer.MAX_VALUE : consumeSignedInt32("Expected integer.");
+        }
+        enumType.addReservedRange(EnumDescriptorProto.EnumReservedRange.newBuilder()
+            .setStart(start)
+            .setEnd(end));
+      } while (tryConsume(","));
+    }
+    consume(";");
+  }
+
+  private void parseService(ServiceDescriptorProto.Builder service)
+      throws ProtoCompilationException {
+    service.setName(consumeIdentifier("Expected service name."));
+    consume("{");
+    while (!tryConsume("}")) {
+      if (atEnd()) {
+        throw error("Reached end of input in service definition (missing '}').");
+      }
+      if (tryConsume(";")) {
+        // Empty statement.
+      } else if (tryConsume("option")) {
+        service.getOptionsBuilder().addUninterpretedOption(parseOptionAssignment());
+        consume(";");
+      } else {
+        consume("rpc");
+        parseMethod(service.addMethodBuilder());
+      }
+    }
+  }
+
+  private void parseMethod(MethodDescriptorProto.Builder method)
+      throws ProtoCompilationException {
+    method.setName(consumeIdentifier("Expected method name."));
+    consume("(");
+    if (tryConsume("stream")) {
+      method.setClientStreaming(true);
+    }
+    method.setInputType(consumeTypeName());
+    consume(")");
+    consume("returns");
+    consume("(");
+    if (tryConsume("stream")) {
+      method.setServerStreaming(true);
+    }
+    method.setOutputType(consumeTypeName());
+    consume(")");
+
+    if (tryConsume("{")) {
+      // Like protoc, a body marks the options as present even if it holds no option.
+      method.getOptionsBuilder();
+      while (!tryConsume("}")) {
+        if (atEnd()) {
+          throw error("Reached end of input in method options (missing '}').");
+        }
+        if (!tryConsume(";")) {
+          consume("option");
+          method.getOptionsBuilder().addUninterpretedOption(parseOptionAssignment());
+          consume(";");
+        }
+      }
+    } else {
+      consume(";");
+    }
+  }
+
+  /**
+   * Parses an option of the form "name = value", where the name can refer to extensions in
+   * parentheses and to fields within message options, and the value can be an aggregate in text
+   * format.
+   */
+  private UninterpretedOption parseOptionAssignment() throws ProtoCompilationException {
+    UninterpretedOption.Builder option = UninterpretedOption.newBuilder();
+    do {
+      UninterpretedOption.NamePart.Builder part = option.addNameBuilder();
+      if (tryConsume("(")) {
+        StringBuilder name = new StringBuilder();
+        if (tryConsume(".")) {
+          name.append('.');
+        }
+        name.append(consumeIdentifier("Expected identifier."));
+        while (tryConsume(".")) {
+          name.append('.').append(consumeIdentifier("Expected identifier."));
+        }
+        consume(")");
+        part.setNamePart(name.toString()).setIsExtension(true);
+      } else {
+        part.setNamePart(consumeIdentifier("Expected identifier.")).setIsExtension(false);
+      }
+    } while (tryConsume("."));
+    consume("=");
+
+    boolean negative = tryConsume("-");
+    Token token = current();
+    switch (token.type) {
+      case IDENTIFIER:
+        next();
+        if (!negative) {
+          option.setIdentifierValue(token.text);
+        } else if (token.text.equals("inf")) {
+          option.setDoubleValue(Double.NEGATIVE_INFINITY);
+        } else if (token.text.equals("nan")) {
+          option.setDoubleValue(Double.NaN);
+        } else {
+          throw errorAt(token, "Identifier after '-' symbol must be inf or nan.");
+        }
+        break;
+      case INTEGER:
+        if (negative) {
+          option.setNegativeIntValue(
+              consumeInteger(INT64_MAX.add(BigInteger.ONE), "Expected integer.")
+                  .negate()
+                  .longValue());
+        } else {
+          option.setPositiveIntValue(consumeInteger(UINT64_MAX, "Expected integer.").longValue());
+        }
+        break;
+      case FLOAT:
+        double value = consumeNumber("Expected number.");
+        option.setDoubleValue(negative ? -value : value);
+        break;
+      case STRING:
+        if (negative) {
+          throw error("Invalid '-' symbol before string.");
+        }
+        option.setStringValue(consumeString("Expected string."));
+        break;
+      default:
+        if (!lookingAt("{")) {
+          throw error("Expected option value.");
+        }
+        if (negative) {
+          throw error("Invalid '-' symbol before aggregate value.");
+        }
+        option.setAggregateValue(parseAggregateValue());
+    }
+    return option.build();
+  }
+
+  /**
+   * Collects the tokens of an aggregate option value, which is interpreted as text format once the
+   * option's type is known.
+   */
+  private String parseAggregateValue() throws ProtoCompilationException {
+    consume("{");
+    StringBuilder value = new StringBuilder();
+    int depth = 1;
+    while (!atEnd()) {
+      if (lookingAt("{")) {
+        ++depth;
+      } else if (lookingAt("}")) {
+        if (--depth == 0) {
+          next();
+          return value.toString();
+        }
+      }
+      if (value.length() > 0) {
+        value.append(' ');
+      }
+      value.append(current().text);
+      next();
+    }
+    throw error("Unexpected end of stream while parsing aggregate value.");
+  }
+
+  /** Replaces the ends of ranges declared with "to max" with the maximum field number. */
+  private static void adjustMaxRanges(DescriptorProto.Builder message) {
+    int maxEnd = isMessageSet(message) ? Integer.MAX_VALUE : MAX_FIELD_NUMBER + 1;
+    for (ExtensionRange.Builder range : message.getExtensionRangeBuilderList()) {
+      if (range.getEnd() == MAX_RANGE_SENTINEL) {
+        range.setEnd(maxEnd);
+      }
+    }
+    for (ReservedRange.Builder range : message.getReservedRangeBuilderList()) {
+      if (range.getEnd() == MAX_RANGE_SENTINEL) {
+        range.setEnd(maxEnd);
+      }
+    }
+  }
+
+  private static boolean isMessageSet(DescriptorProto.Builder message) {
+    for (UninterpretedOption option : message.getOptions().getUninterpretedOptionList()) {
+      if (option.getNameCount() == 1
+          && option.getName(0).getNamePart().equals("message_set_wire_format")
+          && option.getIdentifierValue().equals("true")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Adds the oneofs which protoc generates to track the presence of proto3 optional fields. */
+  private static void addSyntheticOneofs(DescriptorProto.Builder message) {
+    Set<String> names = new HashSet<>();
+    for (FieldDescriptorProto field : message.getFieldList()) {
+      names.add(field.getName());
+    }
+    for (int i = 0; i < message.getOneofDeclCount(); ++i) {
+      names.add(message.getOneofDecl(i).getName());
+    }
+
+    for (FieldDescriptorProto.Builder field : message.getFieldBuilderList()) {
+      if (!field.getProto3Optional()) {
+        continue;
+      }
+      String name = field.getName().startsWith("_") ? field.getName() : "_" + field.getName();
+      while (!names.add(name)) {
+        name = "X" + name;
+      }
+      field.setOneofIndex(message.getOneofDeclCount());
+      message.addOneofDeclBuilder().setName(name);
+    }
+  }
+
+  private static String mapEntryName(String fieldName) {
+    StringBuilder result = new StringBuilder();
+    boolean capitalizeNext = true;
+    for (char c : fieldName.toCharArray()) {
+      if (c == '_') {
+        capitalizeNext = true;
+      } else if (capitalizeNext) {
+        result.append(Character.toUpperCase(c));
+        capitalizeNext = false;
+      } else {
+        result.append(c);
+      }
+    }
+    return result.append("Entry").toString();
+  }
+
+  private static String toLowerAscii(String text) {
+    StringBuilder result = new StringBuilder(text.length());
+    for (char c : text.toCharArray()) {
+      result.append(c >= 'A' && c <= 'Z' ? (char) (c - 'A' + 'a') : c);
+    }
+    return result.toString();
+  }
+
+  /** Escapes bytes the way protoc does for the default values of bytes fields. */
+  private static String cEscape(ByteString bytes) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < bytes.size(); ++i) {
+      int b = bytes.byteAt(i) & 0xFF;
+      switch (b) {
+        case '\n':
+          result.append("\\n");
+          break;
+        case '\r':
+          result.append("\\r");
+          break;
+        case '\t':
+          result.append("\\t");
+          break;
+        case '\"':
+          result.append("\\\"");
+          break;
+        case '\'':
+          result.append("\\'");
+          break;
+        case '\\':
+          result.append("\\\\");
+          break;
+        default:
+          if (b < 0x20 || b >= 0x7F) {
+            result.append(String.format("\\%03o", b));
+          } else {
+            result.append((char) b);
+          }
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * Formats the supplied value the way protoc does for the default values of floating point
+   * fields: with 15 significant digits if that is enough to read the value back, else 17.
+   */
+  private static String simpleDtoa(double value) {
+    if (Double.isNaN(value)) {
+      return "nan";
+    } else if (Double.isInfinite(value)) {
+      return value > 0 ? "inf" : "-inf";
+    }
+    String result = formatGeneral(value, 15);
+    return Double.parseDouble(result) == value ? result : formatGeneral(value, 17);
+  }
+
+  /** Formats the supplied finite value like C's "%.<precision>g". */
+  private static String formatGeneral(double value, int precision) {
+    if (value == 0) {
+      return 1 / value < 0 ? "-0" : "0";
+    }
+    BigDecimal rounded =
+        new BigDecimal(value).round(new MathContext(precision, RoundingMode.HALF_EVEN));
+    int exponent = rounded.precision() - rounded.scale() - 1;
+    BigDecimal stripped = rounded.stripTrailingZeros();
+    if (exponent >= -4 && exponent < precision) {
+      return stripped.toPlainString();
+    }
+
+    String digits = stripped.unscaledValue().abs().toString();
+    StringBuilder result = new StringBuilder();
+    if (value < 0) {
+      result.append('-');
+    }
+    result.append(digits.charAt(0));
+    if (digits.length() > 1) {
+      result.append('.').append(digits, 1, digits.length());
+    }
+    result.append('e').append(exponent < 0 ? '-' : '+');
+    if (Math.abs(exponent) < 10) {
+      result.append('0');
+    }
+    return result.append(Math.abs(exponent)).toString();
+  }
+
+  private String consumeQualifiedName() throws ProtoCompilationException {
+    StringBuilder name = new StringBuilder(consumeIdentifier("Expected identifier."));
+    while (tryConsume(".")) {
+      name.append('.').append(consumeIdentifier("Expected identifier."));
+    }
+    return name.toString();
+  }
+
+  /** Consumes a reference to a type, which is fully qualified if it starts with a dot. */
+  private String consumeTypeName() throws ProtoCompilationException {
+    StringBuilder name = new StringBuilder();
+    if (tryConsume(".")) {
+      name.append('.');
+    }
+    name.append(consumeIdentifier("Expected type name."));
+    while (tryConsume(".")) {
+      name.append('.').append(consumeIdentifier("Expected identifier."));
+    }
+    return name.toString();
+  }
+
+  private int consumeFieldNumber() throws ProtoCompilationException {
+    Token token = current();
+    int number = consumeInteger(INT32_MAX, "Expected field number.").intValue();
+    if (number <= 0) {
+      throw errorAt(token, "Field numbers must be positive integers.");
+    }
+    if (number > MAX_FIELD_NUMBER) {
+      throw errorAt(token, "Field numbers cannot be greater than " + MAX_FIELD_NUMBER + ".");
+    }
+    return number;
+  }
+
+  private int consumeSignedInt32(String message) throws ProtoCompilationException {
+    if (tryConsume("-")) {
+      return consumeInteger(INT32_MAX.add(BigInteger.ONE), message).negate().intValue();
+    }
+    return consumeInteger(INT32_MAX, message).intValue();
+  }
+
+  /** Consumes a decimal, hex or octal integer which must not exceed the supplied value. */
+  private BigInteger consumeInteger(BigInteger maxValue, String message)
+      throws ProtoCompilationException {
+    Token token = current();
+    if (token.type != TokenType.INTEGER) {
+      throw error(message);
+    }
+    BigInteger value = parseInteger(token.text);
+    if (value.compareTo(maxValue) > 0) {
+      throw error("Integer out of range.");
+    }
+    next();
+    return value;
+  }
+
+  /** Consumes a number, which can also be an integer or one of the identifiers inf and nan. */
+  private double consumeNumber(String message) throws ProtoCompilationException {
+    Token token = current();
+    double value;
+    if (token.type == TokenType.FLOAT) {
+      value = Double.parseDouble(token.text);
+    } else if (token.type == TokenType.INTEGER) {
+      BigInteger integer = parseInteger(token.text);
+      if (integer.compareTo(UINT64_MAX) > 0) {
+        throw error("Integer out of range.");
+      }
+      value = integer.doubleValue();
+    } else if (lookingAt("inf")) {
+      value = Double.POSITIVE_INFINITY;
+    } else if (lookingAt("nan")) {
+      value = Double.NaN;
+    } else {
+      throw error(message);
+    }
+    next();
+    return value;
+  }
+
+  private static BigInteger parseInteger(String text) {
+    if (text.startsWith("0x") || text.startsWith("0X")) {
+      return new BigInteger(text.substring(2), 16);
+    } else if (text.length() > 1 && text.startsWith("0")) {
+      return new BigInteger(text.substring(1), 8);
+    }
+    return new BigInteger(text);
+  }
+
+  /** Consumes one or more adjacent string literals, which are concatenated like in C. */
+  private ByteString consumeString(String message) throws ProtoCompilationException {
+    if (current().type != TokenType.STRING) {
+      throw error(message);
+    }
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    while (current().type == TokenType.STRING) {
+      appendUnescaped(current().text, result);
+      next();
+    }
+    return ByteString.copyFrom(result.toByteArray());
+  }
+
+  /** Appends the bytes denoted by the supplied quoted string literal to the supplied output. */
+  private void appendUnescaped(String literal, ByteArrayOutputStream output)
+      throws ProtoCompilationException {
+    StringBuilder plain = new StringBuilder();
+    int end = literal.length() - 1;
+    for (int i = 1; i < end; ++i) {
+      char c = literal.charAt(i);
+      if (c != '\\') {
+        plain.append(c);
+        continue;
+      }
+
+      writeUtf8(plain, output);
+      c = literal.charAt(++i);
+      if (isOctalDigit(c)) {
+        int code = c - '0';
+        for (int digits = 1; digits < 3 && i + 1 < end && isOctalDigit(literal.charAt(i + 1));
+            ++digits) {
+          code = code * 8 + (literal.charAt(++i) - '0');
+        }
+        output.write(code);
+      } else if (c == 'x' || c == 'X') {
+        int digits = countHexDigits(literal, i + 1, end, 2);
+        if (digits == 0) {
+          throw error("Expected hex digits for escape sequence.");
+        }
+        output.write(Integer.parseInt(literal.substring(i + 1, i + 1 + digits), 16));
+        i += digits;
+      } else if (c == 'u' || c == 'U') {
+        int length = c == 'u' ? 4 : 8;
+        if (countHexDigits(literal, i + 1, end, length) != length) {
+          throw error("Expected " + length + " hex digits for escape sequence.");
+        }
+        int codePoint = Integer.parseInt(literal.substring(i + 1, i + 1 + length), 16);
+        if (!Character.isValidCodePoint(codePoint)) {
+          throw error("Invalid code point in escape sequence.");
+        }
+        plain.appendCodePoint(codePoint);
+        i += length;
+      } else {
+        int escaped = unescapeSimple(c);
+        if (escaped < 0) {
+          throw error("Invalid escape sequence in string literal.");
+        }
+        output.write(escaped);
+      }
+    }
+    writeUtf8(plain, output);
+  }
+
+  private static int unescapeSimple(char c) {
+    switch (c) {
+      case 'a':
+        return 0x07;
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'v':
+        return 0x0B;
+      case '\\':
+      case '?':
+      case '\'':
+      case '\"':
+        return c;
+      default:
+        return -1;
+    }
+  }
+
+  private static void writeUtf8(StringBuilder text, ByteArrayOutputStream output) {
+    byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+    output.write(bytes, 0, bytes.length);
+    text.setLength(0);
+  }
+
+  private static int countHexDigits(String text, int start, int end, int maxDigits) {
+    int digits = 0;
+    while (digits < maxDigits && start + digits < end
+        && Character.digit(text.charAt(start + digits), 16) >= 0) {
+      ++digits;
+    }
+    return digits;
+  }
+
+  private static boolean isOctalDigit(char c) {
+    return c >= '0' && c <= '7';
+  }
+
+  private String consumeIdentifier(String message) throws ProtoCompilationException {
+    Token token = current();
+    if (token.type != TokenType.IDENTIFIER) {
+      throw error(message);
+    }
+    next();
+    return token.text;
+  }
+
+  private void consume(String text) throws ProtoCompilationException {
+    if (!tryConsume(text)) {
+      throw error("Expected \"" + text + "\".");
+    }
+  }
+
+  private boolean tryConsume(String text) {
+    if (lookingAt(text)) {
+      next();
+      return true;
+    }
+    return false;
+  }
+
+  private boolean lookingAt(String text) {
+    Token token = current();
+    return token.type != TokenType.STRING && token.text.equals(text);
+  }
+
+  private boolean atEnd() {
+    return current().type == TokenType.END;
+  }
+
+  private Token current() {
+    return tokens.get(position);
+  }
+
+  private Token peek(int offset) {
+    return tokens.get(Math.min(position + offset, tokens.size() - 1));
+  }
+
+  private void next() {
+    if (!atEnd()) {
+      ++position;
+    }
+  }
+
+  private ProtoCompilationException error(String message) {
+    return errorAt(current(), message);
+  }
+
+  private ProtoCompilationException errorAt(Token token, String message) {
+    return errorAt(fileName, token.line, token.column, message);
+  }
+
+  private static ProtoCompilationException errorAt(
+      String fileName, int line, int column, String message) {
+    return new ProtoCompilationException(
+        String.format("%s:%d:%d: %s", fileName, line, column, message));
+  }
+
+  private enum TokenType {
+    IDENTIFIER,
+    INTEGER,
+    FLOAT,
+    STRING,
+    SYMBOL,
+    END,
+  }
+
+  /** A token of a .proto file. The text of string tokens includes the quotes. */
+  private static class Token {
+    private final TokenType type;
+    private final String text;
+    private final int line;
+    private final int column;
+
+    private Token(TokenType type, String text, int line, int column) {
+      this.type = type;
+      this.text = text;
+      this.line = line;
+      this.column = column;
+    }
+  }
+
+  /** Splits the supplied content into tokens, dropping whitespace and comments. */
+  private static ImmutableList<Token> tokenize(String fileName, String content)
+      throws ProtoCompilationException {
+    ImmutableList.Builder<Token> tokens = ImmutableList.builder();
+    int line = 1;
+    int lineStart = 0;
+    int i = 0;
+    while (i < content.length()) {
+      char c = content.charAt(i);
+      int column = i - lineStart + 1;
+      if (c == '\n') {
+        ++line;
+        lineStart = ++i;
+      } else if (c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B) {
+        ++i;
+      } else if (content.startsWith("//", i)) {
+        while (i < content.length() && content.charAt(i) != '\n') {
+          ++i;
+        }
+      } else if (content.startsWith("/*", i)) {
+        int end = content.indexOf("*/", i + 2);
+        if (end < 0) {
+          throw errorAt(fileName, line, column, "End-of-file inside block comment.");
+        }
+        for (; i < end + 2; ++i) {
+          if (content.charAt(i) == '\n') {
+            ++line;
+            lineStart = i + 1;
+          }
+        }
+      } else if (isLetter(c)) {
+        int start = i;
+        while (i < content.length()
+            && (isLetter(content.charAt(i)) || isDigit(content.charAt(i)))) {
+          ++i;
+        }
+        tokens.add(new Token(TokenType.IDENTIFIER, content.substring(start, i), line, column));
+      } else if (isDigit(c)
+          || (c == '.' && i + 1 < content.length() && isDigit(content.charAt(i + 1)))) {
+        int start = i;
+        boolean isFloat = false;
+        if (c == '0' && i + 1 < content.length()
+            && (content.charAt(i + 1) == 'x' || content.charAt(i + 1) == 'X')) {
+          i += 2;
+          if (i >= content.length() || Character.digit(content.charAt(i), 16) < 0) {
+            throw errorAt(fileName, line, column, "\"0x\" must be followed by hex digits.");
+          }
+          while (i < content.length() && Character.digit(content.charAt(i), 16) >= 0) {
+            ++i;
+          }
+        } else {
+          i = skipDigits(content, i);
+          if (i < content.length() && content.charAt(i) == '.') {
+            isFloat = true;
+            i = skipDigits(content, i + 1);
+          }
+          if (i < content.length() && (content.charAt(i) == 'e' || content.charAt(i) == 'E')) {
+            isFloat = true;
+            ++i;
+            if (i < content.length() && (content.charAt(i) == '+' || content.charAt(i) == '-')) {
+              ++i;
+            }
+            if (i >= content.length() || !isDigit(content.charAt(i))) {
+              throw errorAt(fileName, line, column, "\"e\" must be followed by exponent.");
+            }
+            i = skipDigits(content, i);
+          }
+        }
+        if (i < content.length() && isLetter(content.charAt(i))) {
+          throw errorAt(fileName, line, column, "Need space between number and identifier.");
+        }
+        String text = content.substring(start, i);
+        if (!isFloat && text.length() > 1 && text.charAt(0) == '0' && isDigit(text.charAt(1))
+            && !text.chars().allMatch(digit -> digit >= '0' && digit <= '7')) {
+          throw errorAt(fileName, line, column,
+              "Numbers starting with leading zero must be in octal.");
+        }
+        tokens.add(new Token(isFloat ? TokenType.FLOAT : TokenType.INTEGER, text, line, column));
+      } else if (c == '"' || c == '\'') {
+        int start = i++;
+        while (true) {
+          if (i >= content.length() || content.charAt(i) == '\n') {
+            throw errorAt(fileName, line, column, "String literals cannot cross line boundaries.");
+          }
+          char next = content.charAt(i);
+          if (next == '\\' && i + 1 < content.length() && content.charAt(i + 1) != '\n') {
+            i += 2;
+          } else {
+            ++i;
+            if (next == c) {
+              break;
+            }
+          }
+        }
+        tokens.add(new Token(TokenType.STRING, content.substring(start, i), line, column));
+      } else {
+        tokens.add(new Token(TokenType.SYMBOL, String.valueOf(c), line, column));
+        ++i;
+      }
+    }
+    tokens.add(new Token(TokenType.END, "", line, i - lineStart + 1));
+    return tokens.build();
+  }
+
+  private static int skipDigits(String content, int start) {
+    int i = start;
+    while (i < content.length() && isDigit(content.charAt(i))) {
+      ++i;
+    }
+    return i;
+  }
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+}
@@ -1,10 +1,19 @@
 package me.dinowernli.grpc.polyglot.protobuf;
 
 import com.github.os72.protocjar.Protoc;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.Any;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
 import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import me.dinowernli.grpc.polyglot.protobuf.ProtoCompiler.ProtoCompilationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import polyglot.ConfigProto.ProtoConfiguration;
@@ -12,28 +21,64 @@ import polyglot.ConfigProto.ProtoConfiguration;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * A utility class which facilitates invoking the protoc compiler on all proto files in a
- * directory tree.
+ * A utility class which facilitates compiling the proto files in a directory tree, either all of
+ * them or just those needed for a single service. By default, the files are compiled in-process by
+ * {@link ProtoCompiler}, else by invoking the protoc binary.
  */
 public class ProtocInvoker {
   private static final Logger logger = LoggerFactory.getLogger(ProtocInvoker.class);
   private static final PathMatcher PROTO_MATCHER =
       FileSystems.getDefault().getPathMatcher("glob:**/*.proto");
 
+  /** Bump this whenever the way cache keys are computed changes. */
+  private static final String CACHE_KEY_VERSION = "3";
+
   private final ImmutableList<Path> protocIncludePaths;
   private final Path discoveryRoot;
+  private final Optional<DescriptorSetCache> cache;
+  private final ProtoFileIndex index;
+  private final boolean useProtocBinary;
+
+  /** Earlier results of this invoker, keyed by the files which were compiled. */
+  private final ConcurrentMap<ImmutableSet<String>, CompiledFiles> compiledFiles;
 
-  /** Creates a new {@link ProtocInvoker} with the supplied configuration. */
+  /**
+   * Creates a new {@link ProtocInvoker} with the supplied configuration. Unless disabled in the
+   * configuration, results and the index of services are cached in the user's home directory.
+   */
   public static ProtocInvoker forConfig(ProtoConfiguration protoConfig) {
+    if (protoConfig.getDisableDescriptorCache()) {
+      return forConfig(protoConfig, Optional.empty(), ProtoFileIndex.inMemory());
+    }
+    return forConfig(
+        protoConfig, Optional.of(DescriptorSetCache.forUserHome()), ProtoFileIndex.forUserHome());
+  }
+
+  @VisibleForTesting
+  static ProtocInvoker forConfig(
+      ProtoConfiguration protoConfig, Optional<DescriptorSetCache> cache) {
+    return forConfig(protoConfig, cache, ProtoFileIndex.inMemory());
+  }
+
+  private static ProtocInvoker forConfig(
+      ProtoConfiguration protoConfig,
+      Optional<DescriptorSetCache> cache,
+      ProtoFileIndex index) {
     Preconditions.checkArgument(!protoConfig.getProtoDiscoveryRoot().isEmpty(),
         "A proto discovery root is required for proto analysis");
     Path discoveryRootPath = Paths.get(protoConfig.getProtoDiscoveryRoot());
@@ -47,30 +92,149 @@ public class ProtocInvoker {
       includePaths.add(path.toAbsolutePath());
     }
 
-    return new ProtocInvoker(discoveryRootPath, includePaths.build());
+    return new ProtocInvoker(
+        discoveryRootPath, includePaths.build(), cache, index, protoConfig.getUseProtocBinary());
   }
 
   /**
    * Takes an optional path to pass to protoc as --proto_path. Uses the invocation-time proto root
    * if none is passed.
    */
-  private ProtocInvoker(Path discoveryRoot, ImmutableList<Path> protocIncludePaths) {
+  private ProtocInvoker(
+      Path discoveryRoot,
+      ImmutableList<Path> protocIncludePaths,
+      Optional<DescriptorSetCache> cache,
+      ProtoFileIndex index,
+      boolean useProtocBinary) {
     this.protocIncludePaths = protocIncludePaths;
     this.discoveryRoot = discoveryRoot;
+    this.cache = cache;
+    this.index = index;
+    this.useProtocBinary = useProtocBinary;
+    this.compiledFiles = new ConcurrentHashMap<>();
   }
 
   /**
-   * Executes protoc on all .proto files in the subtree rooted at the supplied path and returns a
+   * Compiles all .proto files in the subtree rooted at the supplied path and returns a
    * {@link FileDescriptorSet} which describes all the protos.
    */
   public FileDescriptorSet invoke() throws ProtocInvocationException {
-    Path wellKnownTypesInclude;
+    return compileCached(scanProtoFiles(discoveryRoot));
+  }
+
+  /**
+   * Returns a {@link FileDescriptorSet} which describes the supplied service, compiling only the
+   * files which define it along with their transitive imports. Falls back to compiling all files
+   * if no file appears to define the service, or if the files import "Any", in which case
+   * resolving the contents of a message may need any type in the tree.
+   */
+  public FileDescriptorSet invokeForService(String fullServiceName)
+      throws ProtocInvocationException {
+    ImmutableSet<String> protoFiles = scanProtoFiles(discoveryRoot);
+    ImmutableSet<String> serviceFiles =
+        index.findServiceFiles(discoveryRoot, protoFiles, fullServiceName);
+    if (serviceFiles.isEmpty()) {
+      logger.info("No proto file defines " + fullServiceName + ", compiling all files");
+      return compileCached(protoFiles);
+    }
+
+    FileDescriptorSet result = compileCached(serviceFiles);
+    String anyFile = Any.getDescriptor().getFile().getName();
+    if (result.getFileList().stream().anyMatch(file -> file.getName().equals(anyFile))) {
+      logger.info("Compiling all proto files, since " + fullServiceName + " may use Any");
+      return compileCached(protoFiles);
+    }
+    logger.info(String.format("Compiled %d of %d proto files for %s",
+        result.getFileCount(), protoFiles.size(), fullServiceName));
+    return result;
+  }
+
+  /**
+   * Compiles the supplied files and their imports, using the cache if there is one. Returns the
+   * same instance as an earlier invocation on these files if none of the files involved have been
+   * modified since, without reading them.
+   */
+  private FileDescriptorSet compileCached(ImmutableSet<String> protoFiles)
+      throws ProtocInvocationException {
+    CompiledFiles previous = compiledFiles.get(protoFiles);
+    if (previous != null && previous.isCurrent()) {
+      return previous.descriptors;
+    }
+
+    Optional<String> cacheKey = Optional.empty();
+    if (cache.isPresent()) {
+      cacheKey = Optional.of(computeCacheKey(protoFiles));
+      Optional<FileDescriptorSet> cached = cache.get().get(cacheKey.get());
+      if (cached.isPresent()) {
+        logger.info("Using cached proto descriptors for: " + discoveryRoot);
+        remember(protoFiles, cached.get(), Optional.empty());
+        return cached.get();
+      }
+    }
+
+    FileDescriptorSet result;
+    Optional<Path> wellKnownTypesInclude = Optional.empty();
+    if (useProtocBinary) {
+      try {
+        wellKnownTypesInclude = Optional.of(setupWellKnownTypes());
+      } catch (IOException e) {
+        throw new ProtocInvocationException("Unable to extract well known types", e);
+      }
+      result = runProtoc(protoFiles, wellKnownTypesInclude.get());
+    } else {
+      result = compile(protoFiles);
+    }
+
+    if (cacheKey.isPresent()) {
+      Optional<ImmutableMap<Path, HashCode>> dependencies =
+          findImportedDependencies(result, protoFiles, wellKnownTypesInclude);
+      if (dependencies.isPresent()) {
+        cache.get().put(cacheKey.get(), result, dependencies.get());
+      }
+    }
+    remember(protoFiles, result, wellKnownTypesInclude);
+    return result;
+  }
+
+  /** Keeps the supplied result around for as long as the files it came from are unmodified. */
+  private void remember(
+      ImmutableSet<String> protoFiles,
+      FileDescriptorSet descriptors,
+      Optional<Path> wellKnownTypesInclude) {
+    Optional<ImmutableList<Path>> sources = locateSources(descriptors, wellKnownTypesInclude);
+    if (!sources.isPresent()) {
+      return;
+    }
+    ImmutableMap.Builder<Path, String> stamps = ImmutableMap.builder();
+    for (Path source : sources.get()) {
+      Optional<String> stamp = stamp(source);
+      if (!stamp.isPresent()) {
+        return;
+      }
+      stamps.put(source, stamp.get());
+    }
+    compiledFiles.put(protoFiles, new CompiledFiles(descriptors, stamps.build()));
+  }
+
+  /** Compiles the supplied files in-process, resolving imports in the same order as protoc. */
+  private FileDescriptorSet compile(ImmutableSet<String> protoFiles)
+      throws ProtocInvocationException {
+    ImmutableList<Path> includePaths = ImmutableList.<Path>builder()
+        .addAll(protocIncludePaths)
+        .add(discoveryRoot.toAbsolutePath())
+        .build();
+    ImmutableList<Path> inputs = ImmutableSortedSet.copyOf(protoFiles).stream()
+        .map(Paths::get)
+        .collect(ImmutableList.toImmutableList());
     try {
-      wellKnownTypesInclude = setupWellKnownTypes();
-    } catch (IOException e) {
-      throw new ProtocInvocationException("Unable to extract well known types", e);
+      return ProtoCompiler.forIncludePaths(includePaths).compile(inputs);
+    } catch (ProtoCompilationException e) {
+      throw new ProtocInvocationException("Unable to compile protos: " + e.getMessage(), e);
     }
+  }
 
+  private FileDescriptorSet runProtoc(ImmutableSet<String> protoFiles, Path wellKnownTypesInclude)
+      throws ProtocInvocationException {
     Path descriptorPath;
     try {
       descriptorPath = Files.createTempFile("descriptor", ".pb.bin");
@@ -79,7 +243,7 @@ public class ProtocInvoker {
     }
 
     ImmutableList<String> protocArgs = ImmutableList.<String>builder()
-        .addAll(scanProtoFiles(discoveryRoot))
+        .addAll(protoFiles)
         .addAll(includePathArgs(wellKnownTypesInclude))
         .add("--descriptor_set_out=" + descriptorPath.toAbsolutePath().toString())
         .add("--include_imports")
@@ -94,6 +258,135 @@ public class ProtocInvoker {
     }
   }
 
+  /**
+   * Computes a key which captures the inputs of a compilation of the supplied files, apart
+   * from files which are only pulled in through imports. Those are tracked as dependencies of the
+   * cache entry instead, which avoids having to hash entire include trees up front.
+   */
+  private String computeCacheKey(ImmutableSet<String> protoFiles)
+      throws ProtocInvocationException {
+    Hasher hasher = Hashing.sha256().newHasher()
+        .putString(CACHE_KEY_VERSION, StandardCharsets.UTF_8)
+        .putString(compilerVersion(), StandardCharsets.UTF_8)
+        .putString(discoveryRoot.toAbsolutePath().toString(), StandardCharsets.UTF_8);
+    for (Path includePath : protocIncludePaths) {
+      hasher.putString(includePath.toString(), StandardCharsets.UTF_8);
+    }
+    try {
+      for (String protoFile : ImmutableSortedSet.copyOf(protoFiles)) {
+        hasher.putString(protoFile, StandardCharsets.UTF_8);
+        hasher.putBytes(Files.readAllBytes(Paths.get(protoFile)));
+      }
+    } catch (IOException e) {
+      throw new ProtocInvocationException("Unable to read proto files", e);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns the files outside the scanned set which were used to build the supplied descriptors,
+   * along with their content hashes. Returns an empty optional if a file can't be located, in
+   * which case the result must not be cached.
+   *
+   * @param wellKnownTypesInclude the directory the well-known types were extracted to for protoc,
+   *     or empty if the bundled well-known types were compiled in-process
+   */
+  private Optional<ImmutableMap<Path, HashCode>> findImportedDependencies(
+      FileDescriptorSet descriptors,
+      ImmutableSet<String> protoFiles,
+      Optional<Path> wellKnownTypesInclude) {
+    Optional<ImmutableList<Path>> sources = locateSources(descriptors, wellKnownTypesInclude);
+    if (!sources.isPresent()) {
+      return Optional.empty();
+    }
+
+    ImmutableMap.Builder<Path, HashCode> result = ImmutableMap.builder();
+    for (Path path : sources.get()) {
+      if (protoFiles.contains(path.toString())) {
+        // Already captured by the cache key.
+        continue;
+      }
+      try {
+        result.put(path, DescriptorSetCache.hashFile(path));
+      } catch (IOException e) {
+        logger.debug("Not caching descriptors, unable to read: " + path, e);
+        return Optional.empty();
+      }
+    }
+    return Optional.of(result.build());
+  }
+
+  /**
+   * Returns the absolute paths of the files the supplied descriptors were compiled from, leaving
+   * out the well-known types, which are determined by the compiler version. Returns an empty
+   * optional if a file can't be located.
+   */
+  private Optional<ImmutableList<Path>> locateSources(
+      FileDescriptorSet descriptors, Optional<Path> wellKnownTypesInclude) {
+    // Imports are resolved against the include paths in the order in which they are passed.
+    ImmutableList.Builder<Path> searchPathBuilder = ImmutableList.<Path>builder()
+        .addAll(protocIncludePaths);
+    wellKnownTypesInclude.ifPresent(searchPathBuilder::add);
+    ImmutableList<Path> searchPath = searchPathBuilder
+        .add(discoveryRoot.toAbsolutePath())
+        .build();
+
+    ImmutableList.Builder<Path> result = ImmutableList.builder();
+    for (FileDescriptorProto file : descriptors.getFileList()) {
+      Optional<Path> location = searchPath.stream()
+          .map(includePath -> includePath.resolve(file.getName()))
+          .filter(Files::exists)
+          .findFirst();
+      if (!location.isPresent() && ProtoCompiler.isBundled(file.getName())) {
+        // Compiled from the bundled copy, which is captured by the cache key.
+        continue;
+      }
+      if (!location.isPresent()) {
+        logger.debug("Not caching descriptors, unable to locate: " + file.getName());
+        return Optional.empty();
+      }
+
+      Path path = location.get().toAbsolutePath().normalize();
+      if (!wellKnownTypesInclude.isPresent() || !path.startsWith(wellKnownTypesInclude.get())) {
+        result.add(path);
+      }
+    }
+    return Optional.of(result.build());
+  }
+
+  /** Returns a token which changes whenever the supplied file is modified. */
+  private static Optional<String> stamp(Path path) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      return Optional.of(attributes.lastModifiedTime().toMillis() + ":" + attributes.size());
+    } catch (IOException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Identifies the compiler in use, along with the release which determines the well known types:
+   * protoc's for the binary, the protobuf runtime's for the in-process compiler. The in-process
+   * compiler is identified by its explicit version, which unlike the location of its jar changes
+   * whenever its output does.
+   */
+  private String compilerVersion() {
+    if (useProtocBinary) {
+      return "protoc-" + implementationVersion(Protoc.class);
+    }
+    return "builtin-" + ProtoCompiler.VERSION
+        + "-" + implementationVersion(FileDescriptorSet.class);
+  }
+
+  private static String implementationVersion(Class<?> clazz) {
+    String version = clazz.getPackage().getImplementationVersion();
+    if (version != null) {
+      return version;
+    }
+    CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+    return codeSource == null ? "unknown" : codeSource.getLocation().toString();
+  }
+
   private ImmutableList<String> includePathArgs(Path wellKnownTypesInclude) {
     ImmutableList.Builder<String> resultBuilder = ImmutableList.builder();
     for (Path path : protocIncludePaths) {
@@ -170,6 +463,22 @@ public class ProtocInvoker {
     return tmpdir;
   }
 
+  /** The result of a compilation, along with the state of the files it was compiled from. */
+  private static class CompiledFiles {
+    private final FileDescriptorSet descriptors;
+    private final ImmutableMap<Path, String> stamps;
+
+    private CompiledFiles(FileDescriptorSet descriptors, ImmutableMap<Path, String> stamps) {
+      this.descriptors = descriptors;
+      this.stamps = stamps;
+    }
+
+    private boolean isCurrent() {
+      return stamps.entrySet().stream()
+          .allMatch(entry -> stamp(entry.getKey()).equals(Optional.of(entry.getValue())));
+    }
+  }
+
   /** An error indicating that something went wrong while invoking protoc. */
   public class ProtocInvocationException extends Exception {
     private static final long serialVersionUID = 1L;
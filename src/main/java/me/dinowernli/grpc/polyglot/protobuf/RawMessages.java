@@ -0,0 +1,101 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor.Marshaller;
+
+/**
+ * Carries serialized messages, exactly as they went over the wire, inside dynamic messages of a
+ * synthetic type with a single bytes field. This lets unparsed messages flow through the code
+ * which handles dynamic messages, e.g., to write responses out without decoding them.
+ */
+public class RawMessages {
+  private static final Descriptor DESCRIPTOR = createDescriptor();
+  private static final FieldDescriptor WIRE_BYTES_FIELD = DESCRIPTOR.findFieldByNumber(1);
+
+  /** Returns a message holding the supplied serialized bytes. */
+  public static DynamicMessage wrap(ByteString wireBytes) {
+    return DynamicMessage.newBuilder(DESCRIPTOR).setField(WIRE_BYTES_FIELD, wireBytes).build();
+  }
+
+  /** Returns whether the supplied message was produced by {@link #wrap}. */
+  public static boolean isRaw(Message message) {
+    return message.getDescriptorForType() == DESCRIPTOR;
+  }
+
+  /** Returns the serialized bytes held by a message produced by {@link #wrap}. */
+  public static ByteString unwrap(Message message) {
+    Preconditions.checkArgument(
+        isRaw(message), "Not a raw message: " + message.getDescriptorForType().getFullName());
+    return (ByteString) message.getField(WIRE_BYTES_FIELD);
+  }
+
+  /**
+   * Returns a {@link Marshaller} which wraps incoming messages without parsing them, and which
+   * sends the bytes of wrapped messages as they are.
+   */
+  public static Marshaller<DynamicMessage> marshaller() {
+    return new RawMarshaller();
+  }
+
+  private RawMessages() {
+  }
+
+  private static Descriptor createDescriptor() {
+    FileDescriptorProto file = FileDescriptorProto.newBuilder()
+        .setName("polyglot/raw_message.proto")
+        .setPackage("polyglot.internal")
+        .setSyntax("proto3")
+        .addMessageType(DescriptorProto.newBuilder()
+            .setName("RawMessage")
+            .addField(FieldDescriptorProto.newBuilder()
+                .setName("wire_bytes")
+                .setNumber(1)
+                .setType(FieldDescriptorProto.Type.TYPE_BYTES)
+                .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL)))
+        .build();
+    try {
+      return FileDescriptor.buildFrom(file, new FileDescriptor[0]).getMessageTypes().get(0);
+    } catch (DescriptorValidationException e) {
+      throw new IllegalStateException("Unable to build raw message descriptor", e);
+    }
+  }
+
+  private static class RawMarshaller implements Marshaller<DynamicMessage> {
+    @Override
+    public DynamicMessage parse(InputStream inputStream) {
+      try {
+        if (inputStream instanceof KnownLength) {
+          byte[] buffer = new byte[inputStream.available()];
+          ByteStreams.readFully(inputStream, buffer);
+
+          // Nothing else holds on to the buffer, so it can back the result without a copy.
+          return wrap(UnsafeByteOperations.unsafeWrap(buffer));
+        }
+        return wrap(ByteString.readFrom(inputStream));
+      } catch (IOException e) {
+        throw new RuntimeException("Unable to read raw message from the supplied input stream", e);
+      }
+    }
+
+    @Override
+    public InputStream stream(DynamicMessage message) {
+      return unwrap(message).newInput();
+    }
+  }
+}
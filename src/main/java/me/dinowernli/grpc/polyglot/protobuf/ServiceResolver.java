@@ -3,8 +3,11 @@ package me.dinowernli.grpc.polyglot.protobuf;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
 import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
 import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
 import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.DescriptorValidationException;
 import com.google.protobuf.Descriptors.FileDescriptor;
@@ -16,50 +19,92 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 
-/** A locator used to read proto file descriptors and extract method definitions. */
+/**
+ * A locator used to read proto file descriptors and extract method definitions.
+ *
+ * <p>Services, methods and message types are indexed by their fully qualified names straight from
+ * the {@link FileDescriptorProto}s. Files are only linked into {@link FileDescriptor}s once
+ * something inside them is requested, and then only together with their transitive imports, so
+ * resolving a single method stays cheap even for very large descriptor sets.
+ */
 public class ServiceResolver {
   private static final Logger logger = LoggerFactory.getLogger(ServiceResolver.class);
-  private final ImmutableList<FileDescriptor> fileDescriptors;
+
+  private final ImmutableMap<String, FileDescriptorProto> descriptorProtoIndex;
+  private final ImmutableMap<String, String> serviceIndex;
+  private final ImmutableSet<String> methodIndex;
+  private final ImmutableMap<String, String> messageTypeIndex;
+
+  // Files which have been linked so far, keyed by file name.
+  private final Map<String, FileDescriptor> descriptorCache;
 
   /** Creates a resolver which searches the supplied {@link FileDescriptorSet}. */
   public static ServiceResolver fromFileDescriptorSet(FileDescriptorSet descriptorSet) {
-    ImmutableMap<String, FileDescriptorProto> descriptorProtoIndex =
-        computeDescriptorProtoIndex(descriptorSet);
-    Map<String, FileDescriptor> descriptorCache = new HashMap<>();
-
-    ImmutableList.Builder<FileDescriptor> result = ImmutableList.builder();
+    // If a name is defined more than once, the first definition wins.
+    Map<String, String> serviceIndex = new HashMap<>();
+    ImmutableSet.Builder<String> methodIndex = ImmutableSet.builder();
+    Map<String, String> messageTypeIndex = new HashMap<>();
     for (FileDescriptorProto descriptorProto : descriptorSet.getFileList()) {
-      try {
-        result.add(descriptorFromProto(descriptorProto, descriptorProtoIndex, descriptorCache));
-      } catch (DescriptorValidationException e) {
-        logger.warn("Skipped descriptor " + descriptorProto.getName() + " due to error", e);
-        continue;
+      String fileName = descriptorProto.getName();
+      String packageName = descriptorProto.getPackage();
+      for (ServiceDescriptorProto serviceProto : descriptorProto.getServiceList()) {
+        String fullServiceName = qualify(packageName, serviceProto.getName());
+        serviceIndex.putIfAbsent(fullServiceName, fileName);
+        for (MethodDescriptorProto methodProto : serviceProto.getMethodList()) {
+          methodIndex.add(qualify(fullServiceName, methodProto.getName()));
+        }
+      }
+      for (DescriptorProto messageProto : descriptorProto.getMessageTypeList()) {
+        indexMessageType(qualify(packageName, messageProto.getName()), messageProto, fileName,
+            messageTypeIndex);
       }
     }
-    return new ServiceResolver(result.build());
+
+    return new ServiceResolver(
+        computeDescriptorProtoIndex(descriptorSet),
+        ImmutableMap.copyOf(serviceIndex),
+        methodIndex.build(),
+        ImmutableMap.copyOf(messageTypeIndex));
+  }
+
+  private ServiceResolver(
+      ImmutableMap<String, FileDescriptorProto> descriptorProtoIndex,
+      ImmutableMap<String, String> serviceIndex,
+      ImmutableSet<String> methodIndex,
+      ImmutableMap<String, String> messageTypeIndex) {
+    this.descriptorProtoIndex = descriptorProtoIndex;
+    this.serviceIndex = serviceIndex;
+    this.methodIndex = methodIndex;
+    this.messageTypeIndex = messageTypeIndex;
+    this.descriptorCache = new HashMap<>();
   }
-  
-  /** Lists all of the services found in the file descriptors */
+
+  /**
+   * Lists all of the services found in the file descriptors, in the order of the files in the
+   * descriptor set. Only links the files which define services.
+   */
   public Iterable<ServiceDescriptor> listServices() {
-    ArrayList<ServiceDescriptor> serviceDescriptors = new ArrayList<ServiceDescriptor>(); 
-    for (FileDescriptor fileDescriptor: fileDescriptors) {
-      serviceDescriptors.addAll(fileDescriptor.getServices());
+    ArrayList<ServiceDescriptor> serviceDescriptors = new ArrayList<ServiceDescriptor>();
+    for (FileDescriptorProto descriptorProto : descriptorProtoIndex.values()) {
+      if (descriptorProto.getServiceCount() > 0) {
+        tryLinkFile(descriptorProto.getName())
+            .ifPresent(file -> serviceDescriptors.addAll(file.getServices()));
+      }
     }
     return serviceDescriptors;
   }
 
-  /** Lists all the known message types. */
+  /** Lists all the known message types. Note that this links every file in the set. */
   public ImmutableSet<Descriptor> listMessageTypes() {
     ImmutableSet.Builder<Descriptor> resultBuilder = ImmutableSet.builder();
-    fileDescriptors.forEach(d -> resultBuilder.addAll(d.getMessageTypes()));
+    for (String fileName : descriptorProtoIndex.keySet()) {
+      tryLinkFile(fileName).ifPresent(file -> resultBuilder.addAll(file.getMessageTypes()));
+    }
     return resultBuilder.build();
   }
 
-  private ServiceResolver(Iterable<FileDescriptor> fileDescriptors) {
-    this.fileDescriptors = ImmutableList.copyOf(fileDescriptors);
-  }
-
   /**
    * Returns the descriptor of a protobuf method with the supplied grpc method name. If the method
    * cannot be found, this throws {@link IllegalArgumentException}.
@@ -71,58 +116,90 @@ public class ServiceResolver {
         method.getPackageName());
   }
 
+  /**
+   * Returns the descriptor of the message type with the supplied fully qualified name, e.g.,
+   * "foo.bar.Outer.Inner". If there is no such type, this throws {@link IllegalArgumentException}.
+   */
+  public Descriptor resolveMessageType(String fullMessageName) {
+    String fileName = messageTypeIndex.get(fullMessageName);
+    if (fileName == null) {
+      throw new IllegalArgumentException("Unable to find message type: " + fullMessageName);
+    }
+    return findMessageType(linkFile(fileName), fullMessageName);
+  }
+
   private MethodDescriptor resolveServiceMethod(
       String serviceName, String methodName, String packageName) {
-    ServiceDescriptor service = findService(serviceName, packageName);
-    MethodDescriptor method = service.findMethodByName(methodName);
-    if (method == null) {
+    String fullServiceName = qualify(packageName, serviceName);
+    String fileName = serviceIndex.get(fullServiceName);
+    if (fileName == null) {
+      throw new IllegalArgumentException("Unable to find service with name: " + serviceName);
+    }
+    if (!methodIndex.contains(qualify(fullServiceName, methodName))) {
       throw new IllegalArgumentException(
           "Unable to find method " + methodName + " in service " + serviceName);
     }
-    return method;
+
+    ServiceDescriptor service = linkFile(fileName).findServiceByName(serviceName);
+    return service.findMethodByName(methodName);
   }
 
-  private ServiceDescriptor findService(String serviceName, String packageName) {
-    // TODO(dino): Consider creating an index.
-    for (FileDescriptor fileDescriptor : fileDescriptors) {
-      if (!fileDescriptor.getPackage().equals(packageName)) {
-        // Package does not match this file, ignore.
-        continue;
+  private static Descriptor findMessageType(FileDescriptor file, String fullMessageName) {
+    for (Descriptor messageType : file.getMessageTypes()) {
+      Optional<Descriptor> result = findMessageType(messageType, fullMessageName);
+      if (result.isPresent()) {
+        return result.get();
       }
+    }
+    throw new IllegalStateException("Indexed message type missing from file: " + fullMessageName);
+  }
 
-      ServiceDescriptor serviceDescriptor = fileDescriptor.findServiceByName(serviceName);
-      if (serviceDescriptor != null) {
-        return serviceDescriptor;
+  private static Optional<Descriptor> findMessageType(
+      Descriptor candidate, String fullMessageName) {
+    if (candidate.getFullName().equals(fullMessageName)) {
+      return Optional.of(candidate);
+    }
+    if (!fullMessageName.startsWith(candidate.getFullName() + ".")) {
+      return Optional.empty();
+    }
+    for (Descriptor nested : candidate.getNestedTypes()) {
+      Optional<Descriptor> result = findMessageType(nested, fullMessageName);
+      if (result.isPresent()) {
+        return result;
       }
     }
-    throw new IllegalArgumentException("Unable to find service with name: " + serviceName);
+    return Optional.empty();
   }
 
-  /**
-   * Returns a map from descriptor proto name as found inside the descriptors to protos.
-   */
-  private static ImmutableMap<String, FileDescriptorProto> computeDescriptorProtoIndex(
-      FileDescriptorSet fileDescriptorSet) {
-    ImmutableMap.Builder<String, FileDescriptorProto> resultBuilder = ImmutableMap.builder();
-    for (FileDescriptorProto descriptorProto : fileDescriptorSet.getFileList()) {
-      resultBuilder.put(descriptorProto.getName(), descriptorProto);
+  /** Links the supplied file, throwing {@link IllegalArgumentException} if that isn't possible. */
+  private FileDescriptor linkFile(String fileName) {
+    try {
+      return descriptorFromProto(descriptorProtoIndex.get(fileName));
+    } catch (DescriptorValidationException e) {
+      throw new IllegalArgumentException("Unable to link descriptor " + fileName, e);
+    }
+  }
+
+  /** Links the supplied file, logging and skipping it if that isn't possible. */
+  private Optional<FileDescriptor> tryLinkFile(String fileName) {
+    try {
+      return Optional.of(linkFile(fileName));
+    } catch (IllegalArgumentException e) {
+      logger.warn("Skipped descriptor " + fileName + " due to error", e);
+      return Optional.empty();
     }
-    return resultBuilder.build();
   }
 
   /**
    * Recursively constructs file descriptors for all dependencies of the supplied proto and returns
-   * a {@link FileDescriptor} for the supplied proto itself. For maximal efficiency, reuse the
-   * descriptorCache argument across calls.
+   * a {@link FileDescriptor} for the supplied proto itself. Every file is linked at most once.
    */
-  private static FileDescriptor descriptorFromProto(
-      FileDescriptorProto descriptorProto,
-      ImmutableMap<String, FileDescriptorProto> descriptorProtoIndex,
-      Map<String, FileDescriptor> descriptorCache) throws DescriptorValidationException {
+  private synchronized FileDescriptor descriptorFromProto(FileDescriptorProto descriptorProto)
+      throws DescriptorValidationException {
     // First, check the cache.
-    String descritorName = descriptorProto.getName();
-    if (descriptorCache.containsKey(descritorName)) {
-      return descriptorCache.get(descritorName);
+    String descriptorName = descriptorProto.getName();
+    if (descriptorCache.containsKey(descriptorName)) {
+      return descriptorCache.get(descriptorName);
     }
 
     // Then, fetch all the required dependencies recursively.
@@ -132,11 +209,42 @@ public class ServiceResolver {
         throw new IllegalArgumentException("Could not find dependency: " + dependencyName);
       }
       FileDescriptorProto dependencyProto = descriptorProtoIndex.get(dependencyName);
-      dependencies.add(descriptorFromProto(dependencyProto, descriptorProtoIndex, descriptorCache));
+      dependencies.add(descriptorFromProto(dependencyProto));
     }
 
     // Finally, construct the actual descriptor.
     FileDescriptor[] empty = new FileDescriptor[0];
-    return FileDescriptor.buildFrom(descriptorProto, dependencies.build().toArray(empty));
+    FileDescriptor result =
+        FileDescriptor.buildFrom(descriptorProto, dependencies.build().toArray(empty));
+    descriptorCache.put(descriptorName, result);
+    return result;
+  }
+
+  /**
+   * Returns a map from descriptor proto name as found inside the descriptors to protos.
+   */
+  private static ImmutableMap<String, FileDescriptorProto> computeDescriptorProtoIndex(
+      FileDescriptorSet fileDescriptorSet) {
+    ImmutableMap.Builder<String, FileDescriptorProto> resultBuilder = ImmutableMap.builder();
+    for (FileDescriptorProto descriptorProto : fileDescriptorSet.getFileList()) {
+      resultBuilder.put(descriptorProto.getName(), descriptorProto);
+    }
+    return resultBuilder.build();
+  }
+
+  private static void indexMessageType(
+      String fullName,
+      DescriptorProto messageProto,
+      String fileName,
+      Map<String, String> messageTypeIndex) {
+    messageTypeIndex.putIfAbsent(fullName, fileName);
+    for (DescriptorProto nestedProto : messageProto.getNestedTypeList()) {
+      indexMessageType(
+          qualify(fullName, nestedProto.getName()), nestedProto, fileName, messageTypeIndex);
+    }
+  }
+
+  private static String qualify(String scope, String name) {
+    return scope.isEmpty() ? name : scope + "." + name;
   }
 }
@@ -0,0 +1,72 @@
+package me.dinowernli.grpc.polyglot.recording;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.AbstractIterator;
+import polyglot.RecordingProto.RecordedMessage;
+import polyglot.RecordingProto.RecordingHeader;
+
+/**
+ * Reads a recording produced by {@link RecordingWriter}. The messages are read lazily, so
+ * recordings of any size can be replayed in constant memory.
+ */
+public class RecordingReader implements Closeable {
+  private final InputStream input;
+  private final RecordingHeader header;
+
+  /** Opens the supplied recording and reads its header. */
+  public static RecordingReader open(Path file) throws IOException {
+    return new RecordingReader(new BufferedInputStream(Files.newInputStream(file)));
+  }
+
+  @VisibleForTesting
+  RecordingReader(InputStream input) throws IOException {
+    this.input = input;
+    RecordingHeader parsedHeader = RecordingHeader.parseDelimitedFrom(input);
+    if (parsedHeader == null) {
+      throw new IOException("Recording is empty");
+    }
+    this.header = parsedHeader;
+  }
+
+  /** Returns the method and descriptors of the recorded call. */
+  public RecordingHeader getHeader() {
+    return header;
+  }
+
+  /**
+   * Returns the recorded requests, in the order in which they were sent. Responses are skipped.
+   * The returned iterator throws {@link UncheckedIOException} if the recording cannot be read.
+   */
+  public Iterator<RecordedMessage> readRequests() {
+    return new AbstractIterator<RecordedMessage>() {
+      @Override
+      protected RecordedMessage computeNext() {
+        try {
+          RecordedMessage message;
+          while ((message = RecordedMessage.parseDelimitedFrom(input)) != null) {
+            if (message.getDirection() == RecordedMessage.Direction.REQUEST) {
+              return message;
+            }
+          }
+          return endOfData();
+        } catch (IOException e) {
+          throw new UncheckedIOException("Unable to read recorded message", e);
+        }
+      }
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+}
@@ -0,0 +1,148 @@
+package me.dinowernli.grpc.polyglot.recording;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Iterators;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.stub.StreamObserver;
+import me.dinowernli.grpc.polyglot.protobuf.RawMessages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import polyglot.RecordingProto.RecordedMessage;
+import polyglot.RecordingProto.RecordingHeader;
+
+/**
+ * Records the requests and responses of a call to a file, as the bytes which went over the wire
+ * along with the time at which each message was sent or received. The file starts with the
+ * descriptors of the called method, so it can be replayed by {@link Replayer} without access to the
+ * original protos.
+ *
+ * <p>If writing to the file fails, recording stops but the call carries on, and the failure is
+ * rethrown by {@link #close()}.
+ */
+public class RecordingWriter implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(RecordingWriter.class);
+
+  private final OutputStream output;
+  private final Ticker ticker;
+  private final long startNanos;
+  private IOException failure;
+
+  /** Creates a writer which records the traffic of calls to the supplied method to a file. */
+  public static RecordingWriter create(Path file, String fullMethod, MethodDescriptor method)
+      throws IOException {
+    Instant now = Instant.now();
+    RecordingHeader header = RecordingHeader.newBuilder()
+        .setFullMethod(fullMethod)
+        .setFileDescriptorSet(descriptorSetFor(method.getFile()))
+        .setStartTimeUnixNanos(TimeUnit.SECONDS.toNanos(now.getEpochSecond()) + now.getNano())
+        .build();
+    return new RecordingWriter(
+        new BufferedOutputStream(Files.newOutputStream(file)), header, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  RecordingWriter(OutputStream output, RecordingHeader header, Ticker ticker) throws IOException {
+    this.output = output;
+    this.ticker = ticker;
+    this.startNanos = ticker.read();
+    header.writeDelimitedTo(output);
+  }
+
+  /** Returns an iterator which records each request as it is pulled from the supplied one. */
+  public Iterator<DynamicMessage> recordRequests(Iterator<DynamicMessage> requests) {
+    return Iterators.transform(requests, request -> {
+      record(RecordedMessage.Direction.REQUEST, request);
+      return request;
+    });
+  }
+
+  /** Returns an observer which records each response it receives. */
+  public StreamObserver<DynamicMessage> recordResponses() {
+    return new StreamObserver<DynamicMessage>() {
+      @Override
+      public void onNext(DynamicMessage response) {
+        record(RecordedMessage.Direction.RESPONSE, response);
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        // Do nothing, only messages are recorded.
+      }
+
+      @Override
+      public void onCompleted() {
+        // Do nothing, only messages are recorded.
+      }
+    };
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      output.close();
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private synchronized void record(RecordedMessage.Direction direction, DynamicMessage message) {
+    if (failure != null) {
+      return;
+    }
+    ByteString wireBytes =
+        RawMessages.isRaw(message) ? RawMessages.unwrap(message) : message.toByteString();
+    try {
+      RecordedMessage.newBuilder()
+          .setDirection(direction)
+          .setOffsetNanos(ticker.read() - startNanos)
+          .setWireBytes(wireBytes)
+          .build()
+          .writeDelimitedTo(output);
+    } catch (IOException e) {
+      logger.error("Unable to write to recording, no longer recording", e);
+      failure = e;
+    }
+  }
+
+  /** Returns the supplied file along with all the files it transitively depends on. */
+  @VisibleForTesting
+  static FileDescriptorSet descriptorSetFor(FileDescriptor file) {
+    FileDescriptorSet.Builder result = FileDescriptorSet.newBuilder();
+    addWithDependencies(file, new HashSet<>(), result);
+    return result.build();
+  }
+
+  /** Adds dependencies before the files depending on them. */
+  private static void addWithDependencies(
+      FileDescriptor file, Set<String> added, FileDescriptorSet.Builder result) {
+    if (!added.add(file.getName())) {
+      return;
+    }
+    for (FileDescriptor dependency : file.getDependencies()) {
+      addWithDependencies(dependency, added, result);
+    }
+    result.addFile(file.toProto());
+  }
+}
@@ -0,0 +1,289 @@
+package me.dinowernli.grpc.polyglot.recording;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.CallOptions;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import me.dinowernli.grpc.polyglot.bench.LatencyHistogram;
+import me.dinowernli.grpc.polyglot.grpc.DynamicGrpcClient;
+import me.dinowernli.grpc.polyglot.protobuf.RawMessages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import polyglot.RecordingProto.RecordedMessage;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+/**
+ * Sends recorded requests again, with the timing they were recorded with, optionally sped up, or
+ * as fast as possible. Requests are sent as the bytes which were recorded, without parsing them.
+ *
+ * <p>For methods taking a single request, each recorded request is sent as its own call, started
+ * when the request is due regardless of how many calls are still in flight. For client streaming
+ * and bidi methods, all recorded requests are streamed on a single call.
+ */
+public class Replayer {
+  private static final Logger logger = LoggerFactory.getLogger(Replayer.class);
+
+  private final DynamicGrpcClient client;
+  private final boolean clientStreaming;
+  private final double speed;
+  private final Ticker ticker;
+  private final Sleeper sleeper;
+
+  /**
+   * Creates a replayer which sends requests through the supplied client, which should have been
+   * created with {@link DynamicGrpcClient#createRaw}.
+   *
+   * @param speed how much faster than recorded the requests are sent, or infinity to send them as
+   *     fast as possible
+   */
+  public static Replayer create(DynamicGrpcClient client, MethodDescriptor method, double speed) {
+    return new Replayer(client, method.toProto().getClientStreaming(), speed,
+        Ticker.systemTicker(), TimeUnit.NANOSECONDS::sleep);
+  }
+
+  @VisibleForTesting
+  Replayer(
+      DynamicGrpcClient client,
+      boolean clientStreaming,
+      double speed,
+      Ticker ticker,
+      Sleeper sleeper) {
+    Preconditions.checkArgument(speed > 0, "Speed must be positive: " + speed);
+    this.client = client;
+    this.clientStreaming = clientStreaming;
+    this.speed = speed;
+    this.ticker = ticker;
+    this.sleeper = sleeper;
+  }
+
+  /** Sends the supplied requests, and blocks until all the calls have completed. */
+  public Result replay(Iterator<RecordedMessage> requests, Supplier<CallOptions> callOptions)
+      throws InterruptedException {
+    return new Run(callOptions).run(requests);
+  }
+
+  /** Blocks the sending thread until the next request is due. */
+  @VisibleForTesting
+  interface Sleeper {
+    void sleepNanos(long nanos) throws InterruptedException;
+  }
+
+  /** Holds the outcome of a replay. */
+  public static class Result {
+    private final long numCalls;
+    private final long numRequests;
+    private final long numResponses;
+    private final ImmutableMultiset<Status.Code> errors;
+    private final long elapsedNanos;
+    private final LatencyHistogram scheduleLag;
+
+    private Result(
+        long numCalls,
+        long numRequests,
+        long numResponses,
+        ImmutableMultiset<Status.Code> errors,
+        long elapsedNanos,
+        LatencyHistogram scheduleLag) {
+      this.numCalls = numCalls;
+      this.numRequests = numRequests;
+      this.numResponses = numResponses;
+      this.errors = errors;
+      this.elapsedNanos = elapsedNanos;
+      this.scheduleLag = scheduleLag;
+    }
+
+    /** Returns the number of calls made. */
+    public long getNumCalls() {
+      return numCalls;
+    }
+
+    /** Returns the number of requests sent. */
+    public long getNumRequests() {
+      return numRequests;
+    }
+
+    /** Returns the number of responses received across all calls. */
+    public long getNumResponses() {
+      return numResponses;
+    }
+
+    /** Returns the status codes of all the calls which failed. */
+    public ImmutableMultiset<Status.Code> getErrors() {
+      return errors;
+    }
+
+    /** Returns the wall time elapsed between sending the first request and completing all calls. */
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /** Returns by how much each request was sent later than it was due. */
+    public LatencyHistogram getScheduleLag() {
+      return scheduleLag;
+    }
+  }
+
+  /** Tracks the calls of a single replay. */
+  private class Run {
+    private final Supplier<CallOptions> callOptions;
+    private final LatencyHistogram scheduleLag;
+    private final ConcurrentHashMultiset<Status.Code> errors;
+    private final AtomicLong numResponses;
+    private final StreamObserver<DynamicMessage> responseCounter;
+    private long numCalls;
+    private long numRequests;
+    private long startNanos;
+
+    /** Counts the calls in flight, plus one while requests are still being sent. */
+    private final AtomicLong pending;
+    private final CountDownLatch allDone;
+
+    private Run(Supplier<CallOptions> callOptions) {
+      this.callOptions = callOptions;
+      this.scheduleLag = new LatencyHistogram();
+      this.errors = ConcurrentHashMultiset.create();
+      this.numResponses = new AtomicLong();
+      this.responseCounter = new CountingObserver(numResponses);
+      this.pending = new AtomicLong(1);
+      this.allDone = new CountDownLatch(1);
+    }
+
+    Result run(Iterator<RecordedMessage> requests) throws InterruptedException {
+      startNanos = ticker.read();
+      if (clientStreaming) {
+        Iterator<DynamicMessage> scheduled = new ScheduledRequests(requests);
+        if (scheduled.hasNext()) {
+          send(scheduled);
+        }
+      } else {
+        while (requests.hasNext()) {
+          RecordedMessage request = requests.next();
+          awaitDue(request);
+          send(Iterators.singletonIterator(RawMessages.wrap(request.getWireBytes())));
+        }
+      }
+
+      onCallDone();
+      allDone.await();
+      return new Result(numCalls, numRequests, numResponses.get(),
+          ImmutableMultiset.copyOf(errors), ticker.read() - startNanos, scheduleLag);
+    }
+
+    /** Blocks until the supplied request is due, and records how late it is being sent. */
+    private void awaitDue(RecordedMessage request) throws InterruptedException {
+      ++numRequests;
+      if (Double.isInfinite(speed)) {
+        return;
+      }
+      long dueNanos = startNanos + (long) (request.getOffsetNanos() / speed);
+      long nowNanos = ticker.read();
+      if (dueNanos > nowNanos) {
+        sleeper.sleepNanos(dueNanos - nowNanos);
+        nowNanos = ticker.read();
+      }
+      scheduleLag.record(nowNanos - dueNanos);
+    }
+
+    private void send(Iterator<DynamicMessage> callRequests) {
+      ++numCalls;
+      pending.incrementAndGet();
+      ListenableFuture<Void> future;
+      try {
+        future = client.call(callRequests, responseCounter, callOptions.get());
+      } catch (Throwable t) {
+        future = Futures.immediateFailedFuture(t);
+      }
+      ListenableFuture<Void> finalFuture = future;
+      future.addListener(() -> {
+        recordCompletion(finalFuture);
+        onCallDone();
+      }, directExecutor());
+    }
+
+    private void recordCompletion(ListenableFuture<Void> future) {
+      try {
+        Futures.getDone(future);
+      } catch (ExecutionException e) {
+        logger.debug("Replayed call failed", e.getCause());
+        errors.add(Status.fromThrowable(e.getCause()).getCode());
+      } catch (RuntimeException e) {
+        errors.add(Status.fromThrowable(e).getCode());
+      }
+    }
+
+    private void onCallDone() {
+      if (pending.decrementAndGet() == 0) {
+        allDone.countDown();
+      }
+    }
+
+    /**
+     * Hands out the requests of a streaming call once they are due. Requests are pulled by the
+     * thread sending them on the call, so blocking here delays the call's next request only.
+     */
+    private class ScheduledRequests extends AbstractIterator<DynamicMessage> {
+      private final Iterator<RecordedMessage> requests;
+
+      private ScheduledRequests(Iterator<RecordedMessage> requests) {
+        this.requests = requests;
+      }
+
+      @Override
+      protected DynamicMessage computeNext() {
+        if (!requests.hasNext()) {
+          return endOfData();
+        }
+        RecordedMessage request = requests.next();
+        try {
+          awaitDue(request);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting to send request", e);
+        }
+        return RawMessages.wrap(request.getWireBytes());
+      }
+    }
+  }
+
+  /** Counts the responses of all calls, without holding on to them. */
+  private static class CountingObserver implements StreamObserver<DynamicMessage> {
+    private final AtomicLong count;
+
+    private CountingObserver(AtomicLong count) {
+      this.count = count;
+    }
+
+    @Override
+    public void onNext(DynamicMessage message) {
+      count.incrementAndGet();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      // Do nothing, failures are recorded from the call's future.
+    }
+
+    @Override
+    public void onCompleted() {
+      // Do nothing.
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package me.dinowernli.grpc.polyglot.testing;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -13,11 +14,13 @@ import me.dinowernli.grpc.polyglot.io.Output;
 /** An implementation of {@link Output} which just records all the contents. */
 public class RecordingOutput implements Output {
   private final List<String> contents;
+  private final ByteArrayOutputStream binaryContents;
   private boolean closed;
 
   public RecordingOutput() {
     this.closed = false;
     this.contents = new ArrayList<>();
+    this.binaryContents = new ByteArrayOutputStream();
   }
 
   @Override
@@ -41,6 +44,11 @@ public class RecordingOutput implements Output {
     write(line + "\n");
   }
 
+  @Override
+  public void writeBytes(byte[] content) {
+    binaryContents.write(content, 0, content.length);
+  }
+
   public ImmutableList<String> getContents() {
     Preconditions.checkState(closed, "Output not yet closed, can't get contents");
     return ImmutableList.copyOf(contents);
@@ -49,4 +57,10 @@ public class RecordingOutput implements Output {
   public String getContentsAsString() {
     return Joiner.on("").join(getContents());
   }
+
+  /** Returns everything written using {@link #writeBytes}, concatenated. */
+  public byte[] getBinaryContents() {
+    Preconditions.checkState(closed, "Output not yet closed, can't get contents");
+    return binaryContents.toByteArray();
+  }
 }
@@ -0,0 +1,151 @@
+package me.dinowernli.grpc.polyglot.bench;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Status;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link ClosedLoopBenchmark}. */
+@TestClass
+public class ClosedLoopBenchmarkTest {
+  private FakeTicker ticker;
+
+  @Before
+  public void setUp() {
+    ticker = new FakeTicker();
+  }
+
+  @Test
+  public void stopsAfterRequestBudget() throws Throwable {
+    AtomicInteger numCalls = new AtomicInteger();
+    ClosedLoopBenchmark benchmark =
+        new ClosedLoopBenchmark(4, 10, Duration.ZERO, Duration.ZERO, ticker);
+
+    BenchmarkResult result = benchmark.run(() -> {
+      numCalls.incrementAndGet();
+      ticker.advance(1_000_000L);
+      return Futures.immediateFuture(null);
+    });
+
+    assertThat(numCalls.get()).isEqualTo(10);
+    assertThat(result.getNumRequests()).isEqualTo(10L);
+    assertThat(result.getLatencies().getMaxNanos()).isEqualTo(1_000_000L);
+    assertThat(result.getElapsedNanos()).isEqualTo(10_000_000L);
+    assertThat(result.getThroughput()).isWithin(1e-6).of(1000.0);
+  }
+
+  @Test
+  public void stopsAfterDuration() throws Throwable {
+    ClosedLoopBenchmark benchmark =
+        new ClosedLoopBenchmark(1, 0, Duration.ofMillis(50), Duration.ZERO, ticker);
+
+    BenchmarkResult result = benchmark.run(() -> {
+      ticker.advance(10_000_000L);
+      return Futures.immediateFuture(null);
+    });
+
+    assertThat(result.getNumRequests()).isEqualTo(5L);
+  }
+
+  @Test
+  public void discardsWarmup() throws Throwable {
+    AtomicInteger numCalls = new AtomicInteger();
+    ClosedLoopBenchmark benchmark =
+        new ClosedLoopBenchmark(1, 3, Duration.ZERO, Duration.ofMillis(20), ticker);
+
+    BenchmarkResult result = benchmark.run(() -> {
+      numCalls.incrementAndGet();
+      ticker.advance(10_000_000L);
+      return Futures.immediateFuture(null);
+    });
+
+    assertThat(numCalls.get()).isEqualTo(5);
+    assertThat(result.getNumRequests()).isEqualTo(3L);
+  }
+
+  @Test
+  public void recordsErrors() throws Throwable {
+    AtomicInteger numCalls = new AtomicInteger();
+    ClosedLoopBenchmark benchmark =
+        new ClosedLoopBenchmark(1, 4, Duration.ZERO, Duration.ZERO, ticker);
+
+    BenchmarkResult result = benchmark.run(() -> {
+      if (numCalls.incrementAndGet() % 2 == 0) {
+        return Futures.immediateFailedFuture(Status.UNAVAILABLE.asRuntimeException());
+      }
+      if (numCalls.get() == 3) {
+        throw new IllegalStateException("failed to start rpc");
+      }
+      return Futures.immediateFuture(null);
+    });
+
+    assertThat(result.getNumRequests()).isEqualTo(4L);
+    assertThat(result.getLatencies().getCount()).isEqualTo(1L);
+    assertThat(result.getErrors().count(Status.Code.UNAVAILABLE)).isEqualTo(2);
+    assertThat(result.getErrors().count(Status.Code.UNKNOWN)).isEqualTo(1);
+  }
+
+  @Test
+  public void keepsConcurrentRpcsInFlight() throws Throwable {
+    List<SettableFuture<Void>> inFlight = new ArrayList<>();
+    AtomicInteger maxOutstanding = new AtomicInteger();
+    ClosedLoopBenchmark benchmark =
+        new ClosedLoopBenchmark(3, 6, Duration.ZERO, Duration.ZERO, ticker);
+
+    Thread completer = new Thread(() -> {
+      int completed = 0;
+      while (completed < 6) {
+        SettableFuture<Void> next = null;
+        synchronized (inFlight) {
+          if (completed < inFlight.size()) {
+            maxOutstanding.accumulateAndGet(inFlight.size() - completed, Math::max);
+            next = inFlight.get(completed);
+          }
+        }
+        if (next != null) {
+          next.set(null);
+          ++completed;
+        } else {
+          Thread.yield();
+        }
+      }
+    });
+    completer.start();
+
+    BenchmarkResult result = benchmark.run(() -> {
+      SettableFuture<Void> future = SettableFuture.create();
+      synchronized (inFlight) {
+        inFlight.add(future);
+      }
+      return future;
+    });
+    completer.join();
+
+    assertThat(result.getNumRequests()).isEqualTo(6L);
+    assertThat(maxOutstanding.get()).isEqualTo(3);
+  }
+
+  /** A {@link Ticker} which only advances when told to. */
+  private static class FakeTicker extends Ticker {
+    private long nanos = 0;
+
+    @Override
+    public synchronized long read() {
+      return nanos;
+    }
+
+    synchronized void advance(long deltaNanos) {
+      nanos += deltaNanos;
+    }
+  }
+}
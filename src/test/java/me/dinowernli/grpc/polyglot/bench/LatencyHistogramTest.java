@@ -0,0 +1,84 @@
+package me.dinowernli.grpc.polyglot.bench;
+
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link LatencyHistogram}. */
+@TestClass
+public class LatencyHistogramTest {
+  private LatencyHistogram histogram;
+
+  @Before
+  public void setUp() {
+    histogram = new LatencyHistogram();
+  }
+
+  @Test
+  public void handlesEmptyHistogram() {
+    assertThat(histogram.getCount()).isEqualTo(0L);
+    assertThat(histogram.getMinNanos()).isEqualTo(0L);
+    assertThat(histogram.getMaxNanos()).isEqualTo(0L);
+    assertThat(histogram.getValueAtPercentile(99)).isEqualTo(0L);
+  }
+
+  @Test
+  public void recordsSmallValuesExactly() {
+    for (long i = 1; i <= 100; ++i) {
+      histogram.record(i);
+    }
+    assertThat(histogram.getCount()).isEqualTo(100L);
+    assertThat(histogram.getMinNanos()).isEqualTo(1L);
+    assertThat(histogram.getMaxNanos()).isEqualTo(100L);
+    assertThat(histogram.getMeanNanos()).isWithin(1e-9).of(50.5);
+    assertThat(histogram.getValueAtPercentile(50)).isEqualTo(50L);
+    assertThat(histogram.getValueAtPercentile(90)).isEqualTo(90L);
+    assertThat(histogram.getValueAtPercentile(100)).isEqualTo(100L);
+  }
+
+  @Test
+  public void reportsLargeValuesWithinOnePercent() {
+    // Record 1ms, 2ms, ..., 1000ms.
+    for (long i = 1; i <= 1000; ++i) {
+      histogram.record(i * 1_000_000L);
+    }
+    assertWithinOnePercent(histogram.getValueAtPercentile(50), 500_000_000L);
+    assertWithinOnePercent(histogram.getValueAtPercentile(99), 990_000_000L);
+    assertWithinOnePercent(histogram.getValueAtPercentile(99.9), 999_000_000L);
+    assertThat(histogram.getValueAtPercentile(100)).isEqualTo(1_000_000_000L);
+  }
+
+  @Test
+  public void tailIsDominatedByOutlier() {
+    for (int i = 0; i < 999; ++i) {
+      histogram.record(1_000L);
+    }
+    histogram.record(5_000_000_000L);
+    assertWithinOnePercent(histogram.getValueAtPercentile(99.9), 1_000L);
+    assertThat(histogram.getValueAtPercentile(99.95)).isEqualTo(5_000_000_000L);
+  }
+
+  @Test
+  public void clampsNegativeValues() {
+    histogram.record(-5);
+    assertThat(histogram.getCount()).isEqualTo(1L);
+    assertThat(histogram.getMaxNanos()).isEqualTo(0L);
+  }
+
+  @Test
+  public void handlesHugeValues() {
+    histogram.record(Long.MAX_VALUE);
+    assertThat(histogram.getValueAtPercentile(50)).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidPercentile() {
+    histogram.getValueAtPercentile(101);
+  }
+
+  private static void assertWithinOnePercent(long actual, long expected) {
+    assertThat((double) actual).isWithin(expected * 0.01).of((double) expected);
+  }
+}
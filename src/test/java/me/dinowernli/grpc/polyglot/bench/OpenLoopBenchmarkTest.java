@@ -0,0 +1,159 @@
+package me.dinowernli.grpc.polyglot.bench;
+
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Status;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link OpenLoopBenchmark}. */
+@TestClass
+public class OpenLoopBenchmarkTest {
+  private static final long MILLIS = 1_000_000L;
+
+  private FakeTicker ticker;
+
+  @Before
+  public void setUp() {
+    ticker = new FakeTicker();
+  }
+
+  @Test
+  public void sendsOnSchedule() throws Throwable {
+    AtomicInteger numCalls = new AtomicInteger();
+    OpenLoopBenchmark benchmark = createBenchmark(100 /* qps */, 5, Duration.ZERO, Duration.ZERO);
+
+    BenchmarkResult result = benchmark.run(() -> {
+      numCalls.incrementAndGet();
+      ticker.advance(MILLIS);
+      return Futures.immediateFuture(null);
+    });
+
+    assertThat(numCalls.get()).isEqualTo(5);
+    assertThat(result.getNumRequests()).isEqualTo(5L);
+    assertThat(result.getLatencies().getMaxNanos()).isEqualTo(MILLIS);
+    assertThat(result.getScheduleLag().get().getMaxNanos()).isEqualTo(0L);
+
+    // The last rpc is scheduled at 40ms and takes 1ms.
+    assertThat(result.getElapsedNanos()).isEqualTo(41 * MILLIS);
+  }
+
+  @Test
+  public void stopsAfterDuration() throws Throwable {
+    OpenLoopBenchmark benchmark =
+        createBenchmark(100 /* qps */, 0, Duration.ofSeconds(1), Duration.ZERO);
+
+    BenchmarkResult result = benchmark.run(() -> Futures.immediateFuture(null));
+
+    assertThat(result.getNumRequests()).isEqualTo(100L);
+  }
+
+  @Test
+  public void discardsWarmup() throws Throwable {
+    AtomicInteger numCalls = new AtomicInteger();
+    OpenLoopBenchmark benchmark =
+        createBenchmark(100 /* qps */, 3, Duration.ZERO, Duration.ofMillis(50));
+
+    BenchmarkResult result = benchmark.run(() -> {
+      numCalls.incrementAndGet();
+      return Futures.immediateFuture(null);
+    });
+
+    assertThat(numCalls.get()).isEqualTo(8);
+    assertThat(result.getNumRequests()).isEqualTo(3L);
+  }
+
+  @Test
+  public void measuresFromScheduledSendTime() throws Throwable {
+    AtomicInteger numCalls = new AtomicInteger();
+    OpenLoopBenchmark benchmark = createBenchmark(100 /* qps */, 5, Duration.ZERO, Duration.ZERO);
+
+    // The first rpc blocks the sender for 50ms, so the remaining rpcs all go out late.
+    BenchmarkResult result = benchmark.run(() -> {
+      if (numCalls.incrementAndGet() == 1) {
+        ticker.advance(50 * MILLIS);
+      }
+      return Futures.immediateFuture(null);
+    });
+
+    // Rpcs were scheduled at 0, 10, 20, 30 and 40ms, but all completed at 50ms.
+    LatencyHistogram latencies = result.getLatencies();
+    assertThat(latencies.getCount()).isEqualTo(5L);
+    assertThat(latencies.getMinNanos()).isEqualTo(10 * MILLIS);
+    assertThat(latencies.getMaxNanos()).isEqualTo(50 * MILLIS);
+
+    LatencyHistogram lag = result.getScheduleLag().get();
+    assertThat(lag.getMinNanos()).isEqualTo(0L);
+    assertThat(lag.getMaxNanos()).isEqualTo(40 * MILLIS);
+  }
+
+  @Test
+  public void doesNotWaitForRpcsInFlight() throws Throwable {
+    AtomicInteger numCalls = new AtomicInteger();
+    SettableFuture<Void> stuck = SettableFuture.create();
+    OpenLoopBenchmark benchmark = createBenchmark(100 /* qps */, 4, Duration.ZERO, Duration.ZERO);
+
+    BenchmarkResult result = benchmark.run(() -> {
+      if (numCalls.incrementAndGet() == 1) {
+        return stuck;
+      }
+      if (numCalls.get() == 4) {
+        // Only release the first rpc once all the others have been sent.
+        ticker.advance(5 * MILLIS);
+        stuck.setException(Status.DEADLINE_EXCEEDED.asRuntimeException());
+      }
+      return Futures.immediateFuture(null);
+    });
+
+    assertThat(numCalls.get()).isEqualTo(4);
+    assertThat(result.getLatencies().getCount()).isEqualTo(3L);
+    assertThat(result.getErrors().count(Status.Code.DEADLINE_EXCEEDED)).isEqualTo(1);
+  }
+
+  @Test
+  public void poissonIntervalsHaveRequestedMean() {
+    LongSupplier intervals = OpenLoopBenchmark.poissonIntervals(1000 /* qps */, new Random(1234));
+    int numSamples = 100_000;
+    long sum = 0;
+    for (int i = 0; i < numSamples; ++i) {
+      long interval = intervals.getAsLong();
+      assertThat(interval).isAtLeast(0L);
+      sum += interval;
+    }
+    assertThat((double) sum / numSamples).isWithin(0.02 * MILLIS).of((double) MILLIS);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveRate() {
+    OpenLoopBenchmark.constantIntervals(0);
+  }
+
+  private OpenLoopBenchmark createBenchmark(
+      double rateQps, long maxRequests, Duration duration, Duration warmup) {
+    return new OpenLoopBenchmark(OpenLoopBenchmark.constantIntervals(rateQps), maxRequests,
+        duration, warmup, ticker, ticker::advance);
+  }
+
+  /** A {@link Ticker} which only advances when told to. */
+  private static class FakeTicker extends Ticker {
+    private long nanos = 0;
+
+    @Override
+    public synchronized long read() {
+      return nanos;
+    }
+
+    synchronized void advance(long deltaNanos) {
+      nanos += deltaNanos;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package me.dinowernli.grpc.polyglot.command;
+
+import com.google.common.net.HostAndPort;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import me.dinowernli.grpc.polyglot.testing.TestUtils;
+import me.dinowernli.junit.TestClass;
+import org.junit.Test;
+import polyglot.ConfigProto.CallConfiguration;
+import polyglot.ConfigProto.ProtoConfiguration;
+import polyglot.test.TestProto;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link CallEnvironment}. */
+@TestClass
+public class CallEnvironmentTest {
+  private static final HostAndPort ENDPOINT = HostAndPort.fromParts("localhost", 12345);
+  private static final CallConfiguration CALL_CONFIG = CallConfiguration.newBuilder()
+      .setDeadlineMs(1000)
+      .build();
+  private static final FileDescriptorSet DESCRIPTORS = FileDescriptorSet.newBuilder()
+      .addFile(TestProto.getDescriptor().toProto())
+      .build();
+  private static final String SERVICE = "polyglot.test.TestService";
+  private static final ProtoConfiguration PROTO_CONFIG = ProtoConfiguration.newBuilder()
+      .setProtoDiscoveryRoot(TestUtils.TESTING_PROTO_ROOT.toString())
+      .build();
+
+  @Test
+  public void warmEnvironmentSharesChannels() {
+    CallEnvironment environment = CallEnvironment.createWarm();
+    assertThat(environment.getChannel(ENDPOINT, CALL_CONFIG))
+        .isSameAs(environment.getChannel(ENDPOINT, CALL_CONFIG.toBuilder()
+            .setDeadlineMs(5000)
+            .setBatchConcurrency(4)
+            .build()));
+  }
+
+  @Test
+  public void warmEnvironmentSeparatesChannelSettings() {
+    CallEnvironment environment = CallEnvironment.createWarm();
+    assertThat(environment.getChannel(ENDPOINT, CALL_CONFIG)).isNotSameAs(
+        environment.getChannel(ENDPOINT, CALL_CONFIG.toBuilder().setUseTls(true).build()));
+    assertThat(environment.getChannel(ENDPOINT, CALL_CONFIG)).isNotSameAs(
+        environment.getChannel(HostAndPort.fromParts("localhost", 54321), CALL_CONFIG));
+  }
+
+  @Test
+  public void regularEnvironmentSharesNothing() {
+    CallEnvironment environment = CallEnvironment.create();
+    assertThat(environment.getChannel(ENDPOINT, CALL_CONFIG))
+        .isNotSameAs(environment.getChannel(ENDPOINT, CALL_CONFIG));
+    assertThat(environment.getServiceResolver(PROTO_CONFIG, SERVICE, DESCRIPTORS))
+        .isNotSameAs(environment.getServiceResolver(PROTO_CONFIG, SERVICE, DESCRIPTORS));
+    assertThat(environment.getProtocInvoker(PROTO_CONFIG))
+        .isNotSameAs(environment.getProtocInvoker(PROTO_CONFIG));
+  }
+
+  @Test
+  public void warmEnvironmentSharesResolvers() {
+    CallEnvironment environment = CallEnvironment.createWarm();
+    assertThat(environment.getServiceResolver(PROTO_CONFIG, SERVICE, DESCRIPTORS))
+        .isSameAs(environment.getServiceResolver(PROTO_CONFIG, SERVICE, DESCRIPTORS));
+  }
+
+  @Test
+  public void warmEnvironmentRebuildsResolverForNewDescriptors() {
+    CallEnvironment environment = CallEnvironment.createWarm();
+    FileDescriptorSet copy = DESCRIPTORS.toBuilder().build();
+    assertThat(environment.getServiceResolver(PROTO_CONFIG, SERVICE, DESCRIPTORS))
+        .isNotSameAs(environment.getServiceResolver(PROTO_CONFIG, SERVICE, copy));
+  }
+
+  @Test
+  public void warmEnvironmentSharesProtocInvokers() {
+    CallEnvironment environment = CallEnvironment.createWarm();
+    assertThat(environment.getProtocInvoker(PROTO_CONFIG))
+        .isSameAs(environment.getProtocInvoker(PROTO_CONFIG.toBuilder().build()));
+    assertThat(environment.getProtocInvoker(PROTO_CONFIG)).isNotSameAs(
+        environment.getProtocInvoker(PROTO_CONFIG.toBuilder().setUseProtocBinary(true).build()));
+  }
+
+  @Test
+  public void respectsDisabledReflectionCache() {
+    CallEnvironment environment = CallEnvironment.createWarm();
+    ProtoConfiguration disabled = ProtoConfiguration.newBuilder()
+        .setDisableDescriptorCache(true)
+        .build();
+    assertThat(environment.getReflectionCache(disabled).isPresent()).isFalse();
+    assertThat(environment.getReflectionCache(ProtoConfiguration.getDefaultInstance()).get())
+        .isSameAs(environment.getReflectionCache(ProtoConfiguration.getDefaultInstance()).get());
+  }
+}
@@ -0,0 +1,84 @@
+package me.dinowernli.grpc.polyglot.command;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.DynamicMessage;
+import me.dinowernli.grpc.polyglot.io.MessageReader;
+import me.dinowernli.grpc.polyglot.protobuf.WellKnownTypes;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import polyglot.test.TestProto;
+import polyglot.test.TestProto.TestRequest;
+import polyglot.test.foo.FooProto;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link MessageConversion}. */
+@TestClass
+public class MessageConversionTest {
+  private static final FileDescriptorSet PROTO_FILE_DESCRIPTORS = FileDescriptorSet.newBuilder()
+      .addFile(TestProto.getDescriptor().toProto())
+      .addFile(FooProto.getDescriptor().toProto())
+      .addAllFile(WellKnownTypes.descriptors())
+      .build();
+  private static final String MESSAGE_TYPE = "polyglot.test.TestRequest";
+  private static final String JSON_REQUESTS =
+      "{ \"message\": \"first\", \"number\": 1 }\n\n{ \"message\": \"second\" }\n\n";
+
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Path inputPath;
+  private Path outputPath;
+
+  @Before
+  public void setUp() throws Throwable {
+    inputPath = tempFolder.newFile("requests.json").toPath();
+    outputPath = tempFolder.getRoot().toPath().resolve("requests.bin");
+  }
+
+  @Test
+  public void convertsJsonToDelimitedBinary() throws Throwable {
+    Files.write(inputPath, JSON_REQUESTS.getBytes("UTF-8"));
+
+    MessageConversion.convertToBinary(
+        PROTO_FILE_DESCRIPTORS,
+        Optional.of(MESSAGE_TYPE),
+        Optional.of(inputPath),
+        Optional.of(outputPath));
+
+    ImmutableList<DynamicMessage> converted =
+        MessageReader.forDelimitedFile(outputPath, TestRequest.getDescriptor()).read();
+    assertThat(converted).containsExactly(
+        DynamicMessage.newBuilder(
+            TestRequest.newBuilder().setMessage("first").setNumber(1).build()).build(),
+        DynamicMessage.newBuilder(TestRequest.newBuilder().setMessage("second").build()).build())
+        .inOrder();
+  }
+
+  @Test
+  public void convertsEmptyFile() throws Throwable {
+    MessageConversion.convertToBinary(
+        PROTO_FILE_DESCRIPTORS,
+        Optional.of(MESSAGE_TYPE),
+        Optional.of(inputPath),
+        Optional.of(outputPath));
+
+    assertThat(Files.size(outputPath)).isEqualTo(0L);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownMessageType() {
+    MessageConversion.convertToBinary(
+        PROTO_FILE_DESCRIPTORS,
+        Optional.of("polyglot.test.DoesNotExist"),
+        Optional.of(inputPath),
+        Optional.of(outputPath));
+  }
+}
@@ -5,8 +5,12 @@ import java.util.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.protobuf.Any;
 import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import me.dinowernli.grpc.polyglot.grpc.ServerReflectionClient;
 import me.dinowernli.grpc.polyglot.protobuf.WellKnownTypes;
 import me.dinowernli.grpc.polyglot.testing.RecordingOutput;
+import me.dinowernli.grpc.polyglot.testing.TestServer;
 import me.dinowernli.junit.TestClass;
 import org.junit.Before;
 import org.junit.Test;
@@ -94,6 +98,30 @@ public class ServiceListTest {
     validateMessageOutput(recordingOutput.getContentsAsString());
   }
 
+  @Test
+  public void testRemoteServiceListOutput() throws Throwable {
+    TestServer testServer = TestServer.createAndStart(Optional.empty() /* sslContext */);
+    String endpoint = "localhost:" + testServer.getGrpcServerPort();
+    ManagedChannel channel = ManagedChannelBuilder.forTarget(endpoint).usePlaintext().build();
+    try {
+      ServiceList.listRemoteServices(
+          recordingOutput,
+          ServerReflectionClient.create(channel),
+          endpoint,
+          Optional.of("TestService"),
+          Optional.empty(),
+          Optional.empty());
+      recordingOutput.close();
+    } finally {
+      channel.shutdownNow();
+      testServer.blockingShutdown();
+    }
+
+    String output = recordingOutput.getContentsAsString();
+    validateOutput(output, EXPECTED_SERVICE, EXPECTED_METHOD_NAMES);
+    assertThat(output).contains(endpoint);
+  }
+
   /** Compares the actual output with the expected output format */
   private void validateOutput(
       String output, String serviceName, ImmutableList<String> methodNames) {
@@ -19,6 +19,11 @@ import org.junit.Test;
 
 import com.google.common.collect.ImmutableList;
 import org.junit.rules.TemporaryFolder;
+import polyglot.ConfigProto.BenchConfiguration;
+import polyglot.ConfigProto.CallConfiguration;
+import polyglot.ConfigProto.InputConfiguration;
+import polyglot.ConfigProto.JsonCodec;
+import polyglot.ConfigProto.OutputConfiguration;
 
 /** Unit tests for {@link CommandLineArgs}. */
 @TestClass
@@ -143,6 +148,175 @@ public class CommandLineArgsTest {
     CommandLineArgs.parse(new String[]{makeArg("endpoint", "somehost:1234")});
   }
 
+  @Test
+  public void parseBatchFlags() {
+    CommandLineArgs params = CommandLineArgs.parse(new String[]{
+        "call",
+        makeArg("endpoint", "somehost:1234"),
+        makeArg("full_method", "some.package/Method"),
+        makeArg("batch_concurrency", "64"),
+        makeArg("batch_output_order", "completion")});
+
+    assertThat(params.batchConcurrency()).isEqualTo(Optional.of(64));
+    assertThat(params.batchOutputOrder())
+        .isEqualTo(Optional.of(CallConfiguration.BatchOutputOrder.COMPLETION));
+  }
+
+  @Test
+  public void parseChannelPoolFlags() {
+    CommandLineArgs params = CommandLineArgs.parse(new String[]{
+        "call",
+        makeArg("endpoint", "somehost:1234"),
+        makeArg("full_method", "some.package/Method"),
+        makeArg("channel_pool_size", "4"),
+        makeArg("channel_pool_max_size", "8"),
+        makeArg("channel_pool_policy", "round_robin")});
+
+    assertThat(params.channelPoolSize()).isEqualTo(Optional.of(4));
+    assertThat(params.channelPoolMaxSize()).isEqualTo(Optional.of(8));
+    assertThat(params.channelPoolPolicy())
+        .isEqualTo(Optional.of(CallConfiguration.ChannelPoolPolicy.ROUND_ROBIN));
+  }
+
+  @Test
+  public void parseTransportFlags() {
+    CommandLineArgs params = CommandLineArgs.parse(new String[]{
+        "call",
+        makeArg("endpoint", "somehost:1234"),
+        makeArg("full_method", "some.package/Method"),
+        makeArg("use_epoll", "true"),
+        makeArg("event_loop_threads", "4"),
+        makeArg("flow_control_window", "1048576"),
+        makeArg("disable_flow_control_auto_tuning", "true"),
+        makeArg("max_inbound_message_size", "67108864"),
+        makeArg("keepalive_time_sec", "30"),
+        makeArg("keepalive_timeout_sec", "5")});
+
+    assertThat(params.useEpoll()).isEqualTo(Optional.of(true));
+    assertThat(params.eventLoopThreads()).isEqualTo(Optional.of(4));
+    assertThat(params.flowControlWindow()).isEqualTo(Optional.of(1048576));
+    assertThat(params.disableFlowControlAutoTuning()).isEqualTo(Optional.of(true));
+    assertThat(params.maxInboundMessageSize()).isEqualTo(Optional.of(67108864));
+    assertThat(params.keepaliveTimeSec()).isEqualTo(Optional.of(30));
+    assertThat(params.keepaliveTimeoutSec()).isEqualTo(Optional.of(5));
+  }
+
+  @Test
+  public void parseInputOutputFlags() {
+    CommandLineArgs params = CommandLineArgs.parse(new String[]{
+        makeArg("async_output", "true"),
+        "call",
+        makeArg("endpoint", "somehost:1234"),
+        makeArg("full_method", "some.package/Method"),
+        makeArg("input_format", "binary_delimited"),
+        makeArg("input_file_path", tempFile1.toString()),
+        makeArg("input_parse_threads", "8"),
+        makeArg("output_format", "raw_delimited"),
+        makeArg("output_format_threads", "6"),
+        makeArg("json_codec", "streaming"),
+        makeArg("stats_file", "stats.json"),
+        makeArg("record", "call.recording")});
+
+    assertThat(params.outputFormat())
+        .isEqualTo(Optional.of(OutputConfiguration.Format.RAW_DELIMITED));
+    assertThat(params.asyncOutput()).isEqualTo(Optional.of(true));
+    assertThat(params.outputFormatThreads()).isEqualTo(Optional.of(6));
+    assertThat(params.inputFormat())
+        .isEqualTo(Optional.of(InputConfiguration.Format.BINARY_DELIMITED));
+    assertThat(params.inputFilePath()).isEqualTo(Optional.of(tempFile1));
+    assertThat(params.inputParseThreads()).isEqualTo(Optional.of(8));
+    assertThat(params.jsonCodec()).isEqualTo(Optional.of(JsonCodec.STREAMING));
+    assertThat(params.statsFile()).isEqualTo(Optional.of(Paths.get("stats.json")));
+    assertThat(params.recordFilePath()).isEqualTo(Optional.of(Paths.get("call.recording")));
+  }
+
+  @Test
+  public void parseReplayCommand() {
+    CommandLineArgs params = CommandLineArgs.parse(new String[]{
+        "replay",
+        makeArg("endpoint", "somehost:1234"),
+        makeArg("recording", tempFile1.toString()),
+        makeArg("speed", "2.5"),
+        makeArg("max_speed", "true")});
+
+    assertThat(params.command()).isEqualTo(Optional.of(CommandLineArgs.REPLAY_COMMAND));
+    assertThat(params.replayEndpoint()).isEqualTo(Optional.of("somehost:1234"));
+    assertThat(params.replayRecordingPath()).isEqualTo(Optional.of(tempFile1));
+    assertThat(params.replaySpeed()).isEqualTo(Optional.of(2.5));
+    assertThat(params.replayMaxSpeed()).isEqualTo(Optional.of(true));
+    assertThat(params.endpoint()).isEqualTo(Optional.empty());
+  }
+
+  @Test
+  public void parseListServicesWithEndpoint() {
+    CommandLineArgs params = CommandLineArgs.parse(new String[]{
+        "list_services",
+        makeArg("endpoint", "somehost:1234"),
+        makeArg("service_filter", "Foo")});
+
+    assertThat(params.command()).isEqualTo(Optional.of(CommandLineArgs.LIST_SERVICES_COMMAND));
+    assertThat(params.listServicesEndpoint()).isEqualTo(Optional.of("somehost:1234"));
+    assertThat(params.serviceFilter()).isEqualTo(Optional.of("Foo"));
+    assertThat(params.endpoint()).isEqualTo(Optional.empty());
+  }
+
+  @Test
+  public void parseConvertCommand() {
+    Path outputPath = Paths.get(tempFolder.getRoot().getAbsolutePath(), "requests.bin");
+    CommandLineArgs params = CommandLineArgs.parse(new String[]{
+        "convert",
+        makeArg("message_type", "some.package.Request"),
+        makeArg("input_file_path", tempFile1.toString()),
+        makeArg("binary_output_path", outputPath.toString())});
+
+    assertThat(params.command()).isEqualTo(Optional.of(CommandLineArgs.CONVERT_COMMAND));
+    assertThat(params.conversionMessageType()).isEqualTo(Optional.of("some.package.Request"));
+    assertThat(params.conversionInputPath()).isEqualTo(Optional.of(tempFile1));
+    assertThat(params.conversionOutputPath()).isEqualTo(Optional.of(outputPath));
+  }
+
+  @Test
+  public void parseBenchCommand() {
+    CommandLineArgs params = CommandLineArgs.parse(new String[]{
+        "bench",
+        makeArg("endpoint", "somehost:1234"),
+        makeArg("full_method", "some.package/Method"),
+        makeArg("deadline_ms", "500"),
+        makeArg("concurrency", "16"),
+        makeArg("duration_sec", "30")});
+
+    assertThat(params.command()).isEqualTo(Optional.of(CommandLineArgs.BENCH_COMMAND));
+    assertThat(params.endpoint()).isEqualTo(Optional.of("somehost:1234"));
+    assertThat(params.fullMethod()).isEqualTo(Optional.of("some.package/Method"));
+    assertThat(params.getRpcDeadlineMs()).isEqualTo(Optional.of(500));
+    assertThat(params.benchConcurrency()).isEqualTo(Optional.of(16));
+    assertThat(params.benchDurationSec()).isEqualTo(Optional.of(30));
+    assertThat(params.benchNumRequests()).isEqualTo(Optional.empty());
+  }
+
+  @Test
+  public void parseBenchRate() {
+    CommandLineArgs params = CommandLineArgs.parse(new String[]{
+        "bench",
+        makeArg("endpoint", "somehost:1234"),
+        makeArg("full_method", "some.package/Method"),
+        makeArg("rate_qps", "1500.5"),
+        makeArg("arrival", "poisson")});
+
+    assertThat(params.benchRateQps()).isEqualTo(Optional.of(1500.5));
+    assertThat(params.benchArrival()).isEqualTo(Optional.of(BenchConfiguration.Arrival.POISSON));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseBenchRateWithUnknownArrival() {
+    CommandLineArgs params = CommandLineArgs.parse(new String[]{
+        "bench",
+        makeArg("endpoint", "somehost:1234"),
+        makeArg("full_method", "some.package/Method"),
+        makeArg("arrival", "bursty")});
+    params.benchArrival();
+  }
+
   @Test
   public void usage() {
     assertThat(CommandLineArgs.getUsage()).startsWith("Usage: java -jar polyglot.jar [options] [command] [command options]");
@@ -153,6 +327,30 @@ public class CommandLineArgsTest {
     assertThat(CommandLineArgs.parse(new String[]{"--help"}).isHelp()).isTrue();
   }
 
+  @Test
+  public void makesPathsAbsolute() {
+    Path workingDirectory = Paths.get("/home/user/work");
+    ImmutableList<String> args = ImmutableList.of(
+        "--proto_discovery_root=protos",
+        "--add_protoc_includes=include,/abs/include",
+        "call",
+        "--endpoint=somehost:1234",
+        "--input_file_path",
+        "requests.json",
+        "--record=/tmp/call.recording",
+        "--full_method=some.package/Method");
+
+    assertThat(CommandLineArgs.withAbsolutePaths(args, workingDirectory)).containsExactly(
+        "--proto_discovery_root=/home/user/work/protos",
+        "--add_protoc_includes=/home/user/work/include,/abs/include",
+        "call",
+        "--endpoint=somehost:1234",
+        "--input_file_path",
+        "/home/user/work/requests.json",
+        "--record=/tmp/call.recording",
+        "--full_method=some.package/Method").inOrder();
+  }
+
   private static CommandLineArgs parseArgs(List<String> args, List<String> callArgs) {
     return parseArgs(args, callArgs, '=');
   }
@@ -14,10 +14,15 @@ import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
+import polyglot.ConfigProto.BenchConfiguration;
 import polyglot.ConfigProto.CallConfiguration;
 import polyglot.ConfigProto.Configuration;
 import polyglot.ConfigProto.ConfigurationSet;
+import polyglot.ConfigProto.InputConfiguration;
+import polyglot.ConfigProto.JsonCodec;
+import polyglot.ConfigProto.OutputConfiguration;
 import polyglot.ConfigProto.OutputConfiguration.Destination;
+import polyglot.ConfigProto.ReplayConfiguration;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.when;
@@ -85,6 +90,41 @@ public class ConfigurationLoaderTest {
     when(mockOverrides.tlsClientOverrideAuthority()).thenReturn(Optional.of("override_authority"));
     ImmutableMultimap<String, String> metadata = ImmutableMultimap.of("key1", "value1", "key2", "value2");
     when(mockOverrides.metadata()).thenReturn(Optional.of(metadata));
+    when(mockOverrides.batchConcurrency()).thenReturn(Optional.of(32));
+    when(mockOverrides.batchOutputOrder())
+        .thenReturn(Optional.of(CallConfiguration.BatchOutputOrder.COMPLETION));
+    when(mockOverrides.channelPoolSize()).thenReturn(Optional.of(4));
+    when(mockOverrides.channelPoolMaxSize()).thenReturn(Optional.of(16));
+    when(mockOverrides.channelPoolPolicy())
+        .thenReturn(Optional.of(CallConfiguration.ChannelPoolPolicy.ROUND_ROBIN));
+    when(mockOverrides.useEpoll()).thenReturn(Optional.of(true));
+    when(mockOverrides.eventLoopThreads()).thenReturn(Optional.of(2));
+    when(mockOverrides.flowControlWindow()).thenReturn(Optional.of(8 << 20));
+    when(mockOverrides.disableFlowControlAutoTuning()).thenReturn(Optional.of(true));
+    when(mockOverrides.maxInboundMessageSize()).thenReturn(Optional.of(64 << 20));
+    when(mockOverrides.keepaliveTimeSec()).thenReturn(Optional.of(30));
+    when(mockOverrides.keepaliveTimeoutSec()).thenReturn(Optional.of(10));
+    when(mockOverrides.inputFormat())
+        .thenReturn(Optional.of(InputConfiguration.Format.BINARY_DELIMITED));
+    when(mockOverrides.inputFilePath()).thenReturn(Optional.of(Paths.get("requests.bin")));
+    when(mockOverrides.inputParseThreads()).thenReturn(Optional.of(8));
+    when(mockOverrides.outputFormat())
+        .thenReturn(Optional.of(OutputConfiguration.Format.RAW_DELIMITED));
+    when(mockOverrides.asyncOutput()).thenReturn(Optional.of(true));
+    when(mockOverrides.outputFormatThreads()).thenReturn(Optional.of(6));
+    when(mockOverrides.jsonCodec()).thenReturn(Optional.of(JsonCodec.STREAMING));
+    when(mockOverrides.statsFile()).thenReturn(Optional.of(Paths.get("stats.json")));
+    when(mockOverrides.recordFilePath()).thenReturn(Optional.of(Paths.get("call.recording")));
+    when(mockOverrides.replayRecordingPath())
+        .thenReturn(Optional.of(Paths.get("old.recording")));
+    when(mockOverrides.replaySpeed()).thenReturn(Optional.of(2.0));
+    when(mockOverrides.replayMaxSpeed()).thenReturn(Optional.of(true));
+    when(mockOverrides.benchNumRequests()).thenReturn(Optional.of(100));
+    when(mockOverrides.benchConcurrency()).thenReturn(Optional.of(8));
+    when(mockOverrides.benchDurationSec()).thenReturn(Optional.of(30));
+    when(mockOverrides.benchWarmupSec()).thenReturn(Optional.of(5));
+    when(mockOverrides.benchRateQps()).thenReturn(Optional.of(250.0));
+    when(mockOverrides.benchArrival()).thenReturn(Optional.of(BenchConfiguration.Arrival.POISSON));
 
     Configuration config = ConfigurationLoader
         .forDefaultConfigSet()
@@ -92,6 +132,13 @@ public class ConfigurationLoaderTest {
         .getDefaultConfiguration();
 
     assertThat(config.getOutputConfig().getDestination()).isEqualTo(Destination.FILE);
+    assertThat(config.getOutputConfig().getFormat())
+        .isEqualTo(OutputConfiguration.Format.RAW_DELIMITED);
+    assertThat(config.getOutputConfig().getAsyncWrite()).isTrue();
+    assertThat(config.getOutputConfig().getFormatThreads()).isEqualTo(6);
+    assertThat(config.getOutputConfig().getJsonCodec()).isEqualTo(JsonCodec.STREAMING);
+    assertThat(config.getInputConfig().getJsonCodec()).isEqualTo(JsonCodec.STREAMING);
+    assertThat(config.getOutputConfig().getStatsFilePath()).isEqualTo("stats.json");
 
     CallConfiguration callConfig = config.getCallConfig();
     assertThat(callConfig.getUseTls()).isTrue();
@@ -101,6 +148,39 @@ public class ConfigurationLoaderTest {
     assertThat(callConfig.getTlsClientKeyPath()).isEqualTo("client_key");
     assertThat(callConfig.getTlsClientOverrideAuthority()).isEqualTo("override_authority");
     assertThat(callConfig.getMetadataCount()).isEqualTo(2);
+    assertThat(callConfig.getBatchConcurrency()).isEqualTo(32);
+    assertThat(callConfig.getBatchOutputOrder())
+        .isEqualTo(CallConfiguration.BatchOutputOrder.COMPLETION);
+    assertThat(callConfig.getChannelPoolSize()).isEqualTo(4);
+    assertThat(callConfig.getChannelPoolMaxSize()).isEqualTo(16);
+    assertThat(callConfig.getChannelPoolPolicy())
+        .isEqualTo(CallConfiguration.ChannelPoolPolicy.ROUND_ROBIN);
+    assertThat(callConfig.getUseEpoll()).isTrue();
+    assertThat(callConfig.getEventLoopThreads()).isEqualTo(2);
+    assertThat(callConfig.getFlowControlWindowBytes()).isEqualTo(8 << 20);
+    assertThat(callConfig.getDisableFlowControlAutoTuning()).isTrue();
+    assertThat(callConfig.getMaxInboundMessageSizeBytes()).isEqualTo(64 << 20);
+    assertThat(callConfig.getKeepaliveTimeSec()).isEqualTo(30);
+    assertThat(callConfig.getKeepaliveTimeoutSec()).isEqualTo(10);
+    assertThat(callConfig.getRecordFilePath()).isEqualTo("call.recording");
+
+    InputConfiguration inputConfig = config.getInputConfig();
+    assertThat(inputConfig.getFormat()).isEqualTo(InputConfiguration.Format.BINARY_DELIMITED);
+    assertThat(inputConfig.getFilePath()).isEqualTo("requests.bin");
+    assertThat(inputConfig.getParseThreads()).isEqualTo(8);
+
+    BenchConfiguration benchConfig = config.getBenchConfig();
+    assertThat(benchConfig.getNumRequests()).isEqualTo(100);
+    assertThat(benchConfig.getConcurrency()).isEqualTo(8);
+    assertThat(benchConfig.getDurationSec()).isEqualTo(30);
+    assertThat(benchConfig.getWarmupSec()).isEqualTo(5);
+    assertThat(benchConfig.getRateQps()).isWithin(0.0).of(250.0);
+    assertThat(benchConfig.getArrival()).isEqualTo(BenchConfiguration.Arrival.POISSON);
+
+    ReplayConfiguration replayConfig = config.getReplayConfig();
+    assertThat(replayConfig.getRecordingFilePath()).isEqualTo("old.recording");
+    assertThat(replayConfig.getSpeed()).isWithin(0.0).of(2.0);
+    assertThat(replayConfig.getMaxSpeed()).isTrue();
   }
 
   private static Configuration namedConfig(String name) {
@@ -0,0 +1,180 @@
+package me.dinowernli.grpc.polyglot.daemon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import me.dinowernli.junit.TestClass;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+/** Unit tests for {@link DaemonServer} and {@link DaemonClient}. */
+@TestClass
+public class DaemonServerTest {
+  // Larger than a single frame may be.
+  private static final byte[] LARGE_OUTPUT = new byte[DaemonProtocol.MAX_FRAME_BYTES + 1234];
+  static {
+    for (int i = 0; i < LARGE_OUTPUT.length; ++i) {
+      LARGE_OUTPUT[i] = (byte) (i % 251);
+    }
+  }
+
+  @Rule public TemporaryFolder tempDirectory = new TemporaryFolder();
+
+  private Path tokenDirectory;
+  private DaemonServer server;
+  private DaemonClient client;
+
+  @Before
+  public void setUp() throws Throwable {
+    tokenDirectory = tempDirectory.getRoot().toPath().resolve("daemon");
+
+    // Echoes the arguments followed by stdin, and fails if asked to.
+    server = DaemonServer.create(0 /* port */, tokenDirectory, (arguments, stdin, stdout) -> {
+      if (arguments.contains("--fail")) {
+        throw new IllegalArgumentException("failing as requested");
+      }
+      if (arguments.contains("--large")) {
+        stdout.write(LARGE_OUTPUT);
+        return;
+      }
+      if (arguments.contains("--interactive")) {
+        // Answers each line as soon as it arrives.
+        int next;
+        while ((next = stdin.read()) != -1) {
+          stdout.write(next);
+          if (next == '\n') {
+            stdout.flush();
+          }
+        }
+        return;
+      }
+      stdout.write(String.join(" ", arguments).getBytes(StandardCharsets.UTF_8));
+      stdout.write('\n');
+      ByteStreams.copy(stdin, stdout);
+    });
+    server.start();
+    client = new DaemonClient(server.getPort(), tokenDirectory);
+  }
+
+  @After
+  public void tearDown() {
+    server.shutdown();
+  }
+
+  @Test
+  public void relaysArgumentsAndStreams() throws Throwable {
+    String output = run(ImmutableList.of("call", "--endpoint=localhost:1234"), "some requests");
+    assertThat(output).isEqualTo("call --endpoint=localhost:1234\nsome requests");
+  }
+
+  @Test
+  public void relaysLargeStdin() throws Throwable {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 100_000; ++i) {
+      input.append("request number ").append(i).append('\n');
+    }
+    assertThat(run(ImmutableList.of("call"), input.toString()))
+        .isEqualTo("call\n" + input.toString());
+  }
+
+  @Test
+  public void relaysOutputLargerThanAFrame() throws Throwable {
+    ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    client.run(ImmutableList.of("call", "--large"), new ByteArrayInputStream(new byte[0]), stdout);
+    assertThat(Arrays.equals(stdout.toByteArray(), LARGE_OUTPUT)).isTrue();
+  }
+
+  @Test
+  public void sendsInteractiveStdinWithoutWaitingForMore() throws Throwable {
+    PipedOutputStream stdinWriter = new PipedOutputStream();
+    PipedInputStream stdin = new PipedInputStream(stdinWriter);
+    ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    Thread clientThread = new Thread(() -> {
+      try {
+        client.run(ImmutableList.of("call", "--interactive"), stdin, stdout);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    clientThread.start();
+
+    // The answer to the first line arrives while stdin is still open.
+    stdinWriter.write("first\n".getBytes(StandardCharsets.UTF_8));
+    stdinWriter.flush();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!stdoutContent(stdout).equals("first\n")) {
+      assertThat(System.currentTimeMillis()).isLessThan(deadline);
+      Thread.sleep(10);
+    }
+
+    stdinWriter.write("second\n".getBytes(StandardCharsets.UTF_8));
+    stdinWriter.close();
+    clientThread.join(5000);
+    assertThat(stdoutContent(stdout)).isEqualTo("first\nsecond\n");
+  }
+
+  @Test
+  public void servesSeveralClients() throws Throwable {
+    for (int i = 0; i < 5; ++i) {
+      assertThat(run(ImmutableList.of("call" + i), "")).isEqualTo("call" + i + "\n");
+    }
+  }
+
+  @Test
+  public void reportsFailures() throws Throwable {
+    try {
+      run(ImmutableList.of("call", "--fail"), "");
+      fail();
+    } catch (RuntimeException e) {
+      assertThat(e.getMessage()).contains("failing as requested");
+    }
+
+    // The daemon survives failed commands.
+    assertThat(run(ImmutableList.of("call"), "")).isEqualTo("call\n");
+  }
+
+  @Test
+  public void rejectsInvalidToken() throws Throwable {
+    Files.write(DaemonProtocol.tokenFile(tokenDirectory, server.getPort()),
+        "not the token".getBytes(StandardCharsets.UTF_8));
+    try {
+      run(ImmutableList.of("call"), "");
+      fail();
+    } catch (RuntimeException e) {
+      assertThat(e.getMessage()).contains("Invalid daemon token");
+    }
+  }
+
+  @Test
+  public void removesTokenOnShutdown() throws Throwable {
+    Path tokenFile = DaemonProtocol.tokenFile(tokenDirectory, server.getPort());
+    assertThat(Files.exists(tokenFile)).isTrue();
+    server.shutdown();
+    assertThat(Files.exists(tokenFile)).isFalse();
+  }
+
+  private static String stdoutContent(ByteArrayOutputStream stdout) {
+    return new String(stdout.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private String run(ImmutableList<String> arguments, String stdin) throws Throwable {
+    ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    client.run(
+        arguments, new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8)), stdout);
+    return new String(stdout.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,132 @@
+package me.dinowernli.grpc.polyglot.grpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** Unit tests for {@link ChannelPool}. */
+@TestClass
+public class ChannelPoolTest {
+  private static final MethodDescriptor<String, String> METHOD = null;
+
+  private List<Channel> subchannels;
+  private List<ClientCall<?, ?>> calls;
+  private Supplier<Channel> subchannelFactory;
+
+  @Before
+  public void setUp() {
+    subchannels = new ArrayList<>();
+    calls = new ArrayList<>();
+    subchannelFactory = () -> {
+      Channel channel = mock(Channel.class);
+      when(channel.newCall(any(), any())).thenAnswer(invocation -> {
+        ClientCall<?, ?> call = mock(ClientCall.class);
+        calls.add(call);
+        return call;
+      });
+      when(channel.authority()).thenReturn("localhost:12345");
+      subchannels.add(channel);
+      return channel;
+    };
+  }
+
+  @Test
+  public void opensInitialSubchannels() {
+    ChannelPool pool = ChannelPool.leastLoaded(subchannelFactory, 3, 3, 10);
+    assertThat(pool.size()).isEqualTo(3);
+    assertThat(subchannels).hasSize(3);
+    assertThat(pool.authority()).isEqualTo("localhost:12345");
+  }
+
+  @Test
+  public void roundRobinUsesSubchannelsInTurn() {
+    ChannelPool pool = ChannelPool.roundRobin(subchannelFactory, 3, 3, 10);
+    for (int i = 0; i < 6; ++i) {
+      startCall(pool);
+    }
+    for (int i = 0; i < 3; ++i) {
+      assertThat(pool.activeCalls(i)).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void leastLoadedPicksIdleSubchannel() {
+    ChannelPool pool = ChannelPool.leastLoaded(subchannelFactory, 2, 2, 10);
+    ClientCall.Listener<String> first = startCall(pool);
+    startCall(pool);
+    assertThat(pool.activeCalls(0)).isEqualTo(1);
+    assertThat(pool.activeCalls(1)).isEqualTo(1);
+
+    first.onClose(Status.OK, new Metadata());
+    startCall(pool);
+    assertThat(pool.activeCalls(0) + pool.activeCalls(1)).isEqualTo(2);
+    assertThat(pool.activeCalls(0)).isEqualTo(1);
+  }
+
+  @Test
+  public void growsWhenSaturated() {
+    ChannelPool pool = ChannelPool.leastLoaded(subchannelFactory, 1, 3, 2);
+    for (int i = 0; i < 4; ++i) {
+      startCall(pool);
+    }
+    assertThat(pool.size()).isEqualTo(2);
+
+    for (int i = 0; i < 10; ++i) {
+      startCall(pool);
+    }
+    assertThat(pool.size()).isEqualTo(3);
+    assertThat(subchannels).hasSize(3);
+  }
+
+  @Test
+  public void roundRobinOnlyGrowsOnceAllSubchannelsAreSaturated() {
+    ChannelPool pool = ChannelPool.roundRobin(subchannelFactory, 2, 4, 1);
+    startCall(pool);
+    startCall(pool);
+    assertThat(pool.size()).isEqualTo(2);
+
+    startCall(pool);
+    assertThat(pool.size()).isEqualTo(3);
+  }
+
+  @Test
+  public void releasesCallsOnlyOnce() {
+    ChannelPool pool = ChannelPool.leastLoaded(subchannelFactory, 1, 1, 10);
+    ClientCall.Listener<String> listener = startCall(pool);
+    startCall(pool);
+    assertThat(pool.activeCalls(0)).isEqualTo(2);
+
+    listener.onClose(Status.CANCELLED, new Metadata());
+    listener.onClose(Status.CANCELLED, new Metadata());
+    assertThat(pool.activeCalls(0)).isEqualTo(1);
+  }
+
+  /** Starts a call on the pool and returns the listener the pool passed to the subchannel. */
+  @SuppressWarnings("unchecked")
+  private ClientCall.Listener<String> startCall(Channel pool) {
+    ClientCall<String, String> call = pool.newCall(METHOD, CallOptions.DEFAULT);
+    call.start(mock(ClientCall.Listener.class), new Metadata());
+
+    ArgumentCaptor<ClientCall.Listener> captor = ArgumentCaptor.forClass(ClientCall.Listener.class);
+    ClientCall<String, String> delegate = (ClientCall<String, String>) calls.get(calls.size() - 1);
+    verify(delegate).start(captor.capture(), any(Metadata.class));
+    return captor.getValue();
+  }
+}
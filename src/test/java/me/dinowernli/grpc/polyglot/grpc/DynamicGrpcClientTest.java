@@ -1,12 +1,18 @@
 package me.dinowernli.grpc.polyglot.grpc;
 
+import java.io.InputStream;
+
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Descriptors.MethodDescriptor;
 import com.google.protobuf.DynamicMessage;
 import io.grpc.CallOptions;
 import io.grpc.Channel;
 import io.grpc.ClientCall;
+import io.grpc.Metadata;
 import io.grpc.stub.StreamObserver;
+import me.dinowernli.grpc.polyglot.protobuf.RawMessages;
 import me.dinowernli.junit.TestClass;
 import org.junit.Before;
 import org.junit.Rule;
@@ -20,9 +26,16 @@ import org.mockito.junit.MockitoRule;
 import polyglot.test.TestProto;
 import polyglot.test.TestProto.TestRequest;
 
+import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -42,6 +55,11 @@ public class DynamicGrpcClientTest {
       .findServiceByName("TestService")
       .findMethodByName("TestMethodStream");
 
+  private static final MethodDescriptor CLIENT_STREAMING_METHOD = TestProto
+      .getDescriptor()
+      .findServiceByName("TestService")
+      .findMethodByName("TestMethodClientStream");
+
   private static final MethodDescriptor BIDI_STREAMING_METHOD = TestProto
       .getDescriptor()
       .findServiceByName("TestService")
@@ -58,6 +76,10 @@ public class DynamicGrpcClientTest {
   @Mock private StreamObserver<DynamicMessage> mockStreamObserver;
   @Mock private ClientCall<DynamicMessage, DynamicMessage> mockClientCall;
   @Captor private ArgumentCaptor<CallOptions> callOptionsCaptor;
+  @Captor private ArgumentCaptor<ClientCall.Listener<DynamicMessage>> listenerCaptor;
+  @Captor
+  private ArgumentCaptor<io.grpc.MethodDescriptor<DynamicMessage, DynamicMessage>>
+      methodDescriptorCaptor;
 
   private DynamicGrpcClient client;
 
@@ -87,5 +109,137 @@ public class DynamicGrpcClientTest {
     assertThat(callOptionsCaptor.getValue()).isEqualTo(CALL_OPTIONS);
   }
 
-  // TODO(dino): Add some more tests for the streaming and bidi cases.
+  @Test
+  public void reusesMethodDescriptorAcrossCalls() {
+    client = new DynamicGrpcClient(UNARY_METHOD, mockChannel);
+    client.call(ImmutableList.of(REQUEST), mockStreamObserver, CALL_OPTIONS);
+    client.call(ImmutableList.of(REQUEST), mockStreamObserver, CALL_OPTIONS);
+
+    verify(mockChannel, times(2)).newCall(methodDescriptorCaptor.capture(), Matchers.any());
+    assertThat(methodDescriptorCaptor.getAllValues().get(0))
+        .isSameAs(methodDescriptorCaptor.getAllValues().get(1));
+  }
+
+  @Test
+  public void rawResponsesAreNotParsed() {
+    client = DynamicGrpcClient.createWithRawResponses(UNARY_METHOD, mockChannel);
+    client.call(ImmutableList.of(REQUEST), mockStreamObserver, CALL_OPTIONS);
+
+    verify(mockChannel).newCall(methodDescriptorCaptor.capture(), Matchers.any());
+    ByteString wireBytes = ByteString.copyFrom(new byte[] { 0x0a, 0x03, 'f', 'o', 'o' });
+    DynamicMessage response =
+        methodDescriptorCaptor.getValue().parseResponse(wireBytes.newInput());
+    assertThat(RawMessages.isRaw(response)).isTrue();
+    assertThat(RawMessages.unwrap(response)).isEqualTo(wireBytes);
+  }
+
+  @Test
+  public void rawClientSendsRequestBytesAsTheyAre() throws Throwable {
+    ByteString wireBytes = ByteString.copyFrom(new byte[] { 0x0a, 0x03, 'b', 'a', 'r' });
+    DynamicMessage request = RawMessages.wrap(wireBytes);
+    client = DynamicGrpcClient.createRaw(UNARY_METHOD, mockChannel);
+    client.call(ImmutableList.of(request), mockStreamObserver, CALL_OPTIONS);
+
+    verify(mockChannel).newCall(methodDescriptorCaptor.capture(), Matchers.any());
+    InputStream sent = methodDescriptorCaptor.getValue().streamRequest(request);
+    assertThat(ByteString.readFrom(sent)).isEqualTo(wireBytes);
+    verify(mockClientCall).sendMessage(request);
+  }
+
+  @Test
+  public void batchMakesOneCallPerRequest() {
+    client = new DynamicGrpcClient(UNARY_METHOD, mockChannel);
+    client.callUnaryBatch(ImmutableList.of(REQUEST, REQUEST, REQUEST).iterator(),
+        mockStreamObserver, () -> CALL_OPTIONS, 4 /* maxInFlight */, true /* preserveInputOrder */);
+
+    verify(mockChannel, times(3)).newCall(
+        Matchers.<io.grpc.MethodDescriptor<DynamicMessage, DynamicMessage>>any(),
+        Matchers.eq(CALL_OPTIONS));
+    verify(mockClientCall, times(3)).sendMessage(REQUEST);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void batchRejectsStreamingMethod() {
+    client = new DynamicGrpcClient(BIDI_STREAMING_METHOD, mockChannel);
+    client.callUnaryBatch(ImmutableList.of(REQUEST).iterator(),
+        mockStreamObserver, () -> CALL_OPTIONS, 4 /* maxInFlight */, true /* preserveInputOrder */);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMultipleRequestsForUnaryCall() {
+    client = new DynamicGrpcClient(UNARY_METHOD, mockChannel);
+    client.call(ImmutableList.of(REQUEST, REQUEST).iterator(), mockStreamObserver, CALL_OPTIONS);
+  }
+
+  @Test
+  public void bidiCallWaitsUntilReady() {
+    when(mockClientCall.isReady()).thenReturn(false);
+    client = new DynamicGrpcClient(BIDI_STREAMING_METHOD, mockChannel);
+    client.call(ImmutableList.of(REQUEST, REQUEST), mockStreamObserver, CALL_OPTIONS);
+
+    verify(mockClientCall).start(listenerCaptor.capture(), Matchers.any(Metadata.class));
+    verify(mockClientCall, after(100).never()).sendMessage(Matchers.any());
+
+    when(mockClientCall.isReady()).thenReturn(true);
+    listenerCaptor.getValue().onReady();
+    verify(mockClientCall, timeout(1000).times(2)).sendMessage(REQUEST);
+    verify(mockClientCall, timeout(1000)).halfClose();
+  }
+
+  @Test
+  public void clientStreamingCallPullsRequestsLazily() {
+    AtomicInteger numPulled = new AtomicInteger();
+    Iterator<DynamicMessage> requests = new AbstractIterator<DynamicMessage>() {
+      @Override
+      protected DynamicMessage computeNext() {
+        return numPulled.incrementAndGet() <= 3 ? REQUEST : endOfData();
+      }
+    };
+    AtomicBoolean ready = new AtomicBoolean(true);
+    when(mockClientCall.isReady()).then(invocation -> ready.get());
+    // Only the first request fits into the transport until it signals readiness again.
+    AtomicInteger numSent = new AtomicInteger();
+    doAnswer(invocation -> {
+      if (numSent.incrementAndGet() == 1) {
+        ready.set(false);
+      }
+      return null;
+    }).when(mockClientCall).sendMessage(Matchers.any());
+
+    client = new DynamicGrpcClient(CLIENT_STREAMING_METHOD, mockChannel);
+    client.call(requests, mockStreamObserver, CALL_OPTIONS);
+
+    verify(mockClientCall).start(listenerCaptor.capture(), Matchers.any(Metadata.class));
+    verify(mockClientCall, timeout(1000)).sendMessage(REQUEST);
+    verify(mockClientCall, after(100).never()).halfClose();
+    assertThat(numPulled.get()).isEqualTo(2);
+
+    ready.set(true);
+    listenerCaptor.getValue().onReady();
+    verify(mockClientCall, timeout(1000)).halfClose();
+    assertThat(numSent.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void cancelsCallIfRequestsAreMalformed() {
+    Iterator<DynamicMessage> requests = new AbstractIterator<DynamicMessage>() {
+      private boolean first = true;
+
+      @Override
+      protected DynamicMessage computeNext() {
+        if (first) {
+          first = false;
+          return REQUEST;
+        }
+        throw new IllegalArgumentException("Unable to read messages");
+      }
+    };
+    when(mockClientCall.isReady()).thenReturn(true);
+
+    client = new DynamicGrpcClient(BIDI_STREAMING_METHOD, mockChannel);
+    client.call(requests, mockStreamObserver, CALL_OPTIONS);
+
+    verify(mockClientCall, timeout(1000)).cancel(
+        Matchers.anyString(), Matchers.isA(IllegalArgumentException.class));
+  }
 }
@@ -0,0 +1,154 @@
+package me.dinowernli.grpc.polyglot.grpc;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import io.grpc.Status;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** Unit tests for {@link ReflectionCache}. */
+@TestClass
+public class ReflectionCacheTest {
+  private static final String ENDPOINT = "localhost:12345";
+  private static final String SERVICE = "polyglot.test.TestService";
+  private static final Duration TTL = Duration.ofMinutes(5);
+  private static final FileDescriptorProto SERVICE_FILE = FileDescriptorProto.newBuilder()
+      .setName("foo.proto")
+      .setPackage("polyglot.test")
+      .build();
+  private static final FileDescriptorProto DEPENDENCY_FILE = FileDescriptorProto.newBuilder()
+      .setName("bar.proto")
+      .build();
+  private static final FileDescriptorSet DESCRIPTORS = FileDescriptorSet.newBuilder()
+      .addFile(DEPENDENCY_FILE)
+      .addFile(SERVICE_FILE)
+      .build();
+
+  @Rule public TemporaryFolder tempDirectory = new TemporaryFolder();
+
+  private Path cacheDirectory;
+  private FakeClock clock;
+  private ServerReflectionClient reflectionClient;
+  private ReflectionCache cache;
+
+  @Before
+  public void setUp() {
+    cacheDirectory = tempDirectory.getRoot().toPath().resolve("reflection");
+    clock = new FakeClock(Instant.parse("2020-01-01T00:00:00Z"));
+    reflectionClient = mock(ServerReflectionClient.class);
+    cache = new ReflectionCache(cacheDirectory, TTL, clock);
+  }
+
+  @Test
+  public void missesUnknownService() {
+    assertThat(cache.get(ENDPOINT, SERVICE, reflectionClient).isPresent()).isFalse();
+  }
+
+  @Test
+  public void freshEntryNeedsNoRpc() {
+    cache.put(ENDPOINT, SERVICE, DESCRIPTORS);
+    clock.advance(TTL.minusSeconds(1));
+
+    assertThat(cache.get(ENDPOINT, SERVICE, reflectionClient).get()).isEqualTo(DESCRIPTORS);
+    verify(reflectionClient, never()).lookupFileContainingSymbol(SERVICE);
+  }
+
+  @Test
+  public void entriesAreKeyedByEndpoint() {
+    cache.put(ENDPOINT, SERVICE, DESCRIPTORS);
+    assertThat(cache.get("otherhost:12345", SERVICE, reflectionClient).isPresent()).isFalse();
+  }
+
+  @Test
+  public void survivesRestart() {
+    cache.put(ENDPOINT, SERVICE, DESCRIPTORS);
+
+    ReflectionCache restarted = new ReflectionCache(cacheDirectory, TTL, clock);
+    assertThat(restarted.get(ENDPOINT, SERVICE, reflectionClient).get()).isEqualTo(DESCRIPTORS);
+    verify(reflectionClient, never()).lookupFileContainingSymbol(SERVICE);
+  }
+
+  @Test
+  public void revalidatesStaleEntry() {
+    cache.put(ENDPOINT, SERVICE, DESCRIPTORS);
+    clock.advance(TTL.plusSeconds(1));
+    when(reflectionClient.lookupFileContainingSymbol(SERVICE))
+        .thenReturn(Futures.immediateFuture(ImmutableList.of(SERVICE_FILE)));
+
+    assertThat(cache.get(ENDPOINT, SERVICE, reflectionClient).get()).isEqualTo(DESCRIPTORS);
+
+    // The successful revalidation restarts the TTL, also for later processes.
+    assertThat(cache.get(ENDPOINT, SERVICE, reflectionClient).get()).isEqualTo(DESCRIPTORS);
+    ReflectionCache restarted = new ReflectionCache(cacheDirectory, TTL, clock);
+    assertThat(restarted.get(ENDPOINT, SERVICE, reflectionClient).get()).isEqualTo(DESCRIPTORS);
+    verify(reflectionClient, times(1)).lookupFileContainingSymbol(SERVICE);
+  }
+
+  @Test
+  public void dropsEntryIfServerChanged() {
+    cache.put(ENDPOINT, SERVICE, DESCRIPTORS);
+    clock.advance(TTL.plusSeconds(1));
+    FileDescriptorProto changedFile = SERVICE_FILE.toBuilder().setPackage("polyglot.other").build();
+    when(reflectionClient.lookupFileContainingSymbol(SERVICE))
+        .thenReturn(Futures.immediateFuture(ImmutableList.of(changedFile)));
+
+    assertThat(cache.get(ENDPOINT, SERVICE, reflectionClient).isPresent()).isFalse();
+  }
+
+  @Test
+  public void dropsEntryIfRevalidationFails() {
+    cache.put(ENDPOINT, SERVICE, DESCRIPTORS);
+    clock.advance(TTL.plusSeconds(1));
+    when(reflectionClient.lookupFileContainingSymbol(SERVICE))
+        .thenReturn(Futures.immediateFailedFuture(Status.NOT_FOUND.asRuntimeException()));
+
+    assertThat(cache.get(ENDPOINT, SERVICE, reflectionClient).isPresent()).isFalse();
+  }
+
+  /** A {@link Clock} which only moves when told to. */
+  private static class FakeClock extends Clock {
+    private Instant now;
+
+    FakeClock(Instant now) {
+      this.now = now;
+    }
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
@@ -0,0 +1,318 @@
+package me.dinowernli.grpc.polyglot.grpc;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.reflection.v1alpha.ErrorResponse;
+import io.grpc.reflection.v1alpha.FileDescriptorResponse;
+import io.grpc.reflection.v1alpha.ListServiceResponse;
+import io.grpc.reflection.v1alpha.ServerReflectionGrpc;
+import io.grpc.reflection.v1alpha.ServerReflectionRequest;
+import io.grpc.reflection.v1alpha.ServerReflectionResponse;
+import io.grpc.stub.StreamObserver;
+import me.dinowernli.junit.TestClass;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+/** Unit tests for {@link ServerReflectionClient}. */
+@TestClass
+public class ServerReflectionClientTest {
+  private static final String SERVICE = "polyglot.test.TestService";
+  private static final FileDescriptorProto COMMON_FILE = FileDescriptorProto.newBuilder()
+      .setName("common.proto")
+      .build();
+  private static final String OTHER_SERVICE = "polyglot.test.OtherService";
+  private static final FileDescriptorProto TYPES_FILE = FileDescriptorProto.newBuilder()
+      .setName("types.proto")
+      .setPackage("polyglot.test")
+      .addDependency("common.proto")
+      .addService(ServiceDescriptorProto.newBuilder().setName("OtherService"))
+      .build();
+  private static final FileDescriptorProto SERVICE_FILE = FileDescriptorProto.newBuilder()
+      .setName("service.proto")
+      .setPackage("polyglot.test")
+      .addDependency("types.proto")
+      .addDependency("common.proto")
+      .addService(ServiceDescriptorProto.newBuilder().setName("TestService"))
+      .build();
+  private static final ImmutableMap<String, FileDescriptorProto> FILES = ImmutableMap.of(
+      "service.proto", SERVICE_FILE,
+      "types.proto", TYPES_FILE,
+      "common.proto", COMMON_FILE);
+  private static final ImmutableMap<String, String> SYMBOLS = ImmutableMap.of(
+      SERVICE, "service.proto",
+      OTHER_SERVICE, "types.proto");
+
+  private static final long FIRST_RESPONSE_WAIT_MS = 500;
+
+  private FakeReflectionService reflectionService;
+  private Server server;
+  private ManagedChannel channel;
+  private ServerReflectionClient client;
+
+  @Before
+  public void setUp() throws Throwable {
+    reflectionService = new FakeReflectionService();
+    server = NettyServerBuilder.forAddress(new InetSocketAddress("localhost", 0))
+        .addService(reflectionService)
+        .build()
+        .start();
+    channel = NettyChannelBuilder.forAddress("localhost", server.getPort())
+        .usePlaintext()
+        .build();
+    client = ServerReflectionClient.create(channel);
+  }
+
+  @After
+  public void tearDown() throws Throwable {
+    channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void resolvesServiceAndDependenciesOnOneStream() throws Throwable {
+    FileDescriptorSet result = client.lookupService(SERVICE).get();
+
+    assertThat(result.getFileList()).containsExactly(SERVICE_FILE, TYPES_FILE, COMMON_FILE);
+    assertThat(reflectionService.numStreams.get()).isEqualTo(1);
+
+    // Each dependency is asked for once, even though two files reference common.proto.
+    assertThat(reflectionService.requests).containsExactly(
+        ServerReflectionRequest.newBuilder().setFileContainingSymbol(SERVICE).build(),
+        ServerReflectionRequest.newBuilder().setFileByFilename("types.proto").build(),
+        ServerReflectionRequest.newBuilder().setFileByFilename("common.proto").build());
+  }
+
+  @Test
+  public void acceptsResponsesCarryingSeveralFiles() throws Throwable {
+    reflectionService.includeDependencies = true;
+
+    FileDescriptorSet result = client.lookupService(SERVICE).get();
+
+    assertThat(result.getFileList()).containsExactly(SERVICE_FILE, TYPES_FILE, COMMON_FILE);
+    assertThat(reflectionService.requests).hasSize(1);
+  }
+
+  @Test
+  public void resolvesSeveralServicesRequestingSharedFilesOnce() throws Throwable {
+    FileDescriptorSet result =
+        client.lookupServices(ImmutableList.of(SERVICE, OTHER_SERVICE)).get();
+
+    assertThat(result.getFileList()).containsExactly(SERVICE_FILE, TYPES_FILE, COMMON_FILE);
+    assertThat(reflectionService.numStreams.get()).isEqualTo(1);
+
+    // Both services are asked for before any response arrives.
+    assertThat(reflectionService.requests.subList(0, 2)).containsExactly(
+        ServerReflectionRequest.newBuilder().setFileContainingSymbol(SERVICE).build(),
+        ServerReflectionRequest.newBuilder().setFileContainingSymbol(OTHER_SERVICE).build());
+    assertThat(reflectionService.requests).containsNoDuplicates();
+  }
+
+  @Test
+  public void waitsForAllServicesWhenResponsesArriveDuringRequests() throws Throwable {
+    ImmutableList.Builder<String> serviceNames = ImmutableList.builder();
+    ImmutableList.Builder<FileDescriptorProto> expectedFiles = ImmutableList.builder();
+    expectedFiles.add(COMMON_FILE);
+    for (int i = 0; i < 50; ++i) {
+      FileDescriptorProto file = FileDescriptorProto.newBuilder()
+          .setName("service" + i + ".proto")
+          .setPackage("polyglot.test")
+          .addDependency("common.proto")
+          .addService(ServiceDescriptorProto.newBuilder().setName("Service" + i))
+          .build();
+      reflectionService.files.put(file.getName(), file);
+      reflectionService.symbols.put("polyglot.test.Service" + i, file.getName());
+      serviceNames.add("polyglot.test.Service" + i);
+      expectedFiles.add(file);
+    }
+
+    // Holds back the remaining requests until the first response has been handled, which is what
+    // happens when a fast server answers while the client is still sending.
+    ServerReflectionClient awaitingClient = ServerReflectionClient.create(
+        ClientInterceptors.intercept(channel, new AwaitFirstResponseInterceptor()));
+    FileDescriptorSet result = awaitingClient.lookupServices(serviceNames.build()).get();
+
+    assertThat(result.getFileList()).containsExactlyElementsIn(expectedFiles.build());
+  }
+
+  @Test
+  public void failsOnUnexpectedResponseType() throws Throwable {
+    reflectionService.answerWithServiceList = true;
+    try {
+      // Well within the deadline of the rpc, so that waiting for the deadline fails the test.
+      client.lookupService(SERVICE).get(5, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause().getMessage()).contains("Unexpected reflection response type");
+    }
+  }
+
+  @Test
+  public void lookupOfNoServicesMakesNoRpc() throws Throwable {
+    assertThat(client.lookupServices(ImmutableList.of()).get().getFileCount()).isEqualTo(0);
+    assertThat(reflectionService.numStreams.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void failsWithNotFoundForMissingService() throws Throwable {
+    try {
+      client.lookupService("polyglot.test.MissingService").get();
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(StatusRuntimeException.class);
+      assertThat(((StatusRuntimeException) e.getCause()).getStatus().getCode())
+          .isEqualTo(Status.Code.NOT_FOUND);
+    }
+  }
+
+  @Test
+  public void missingDependencyIsNotReportedAsMissingService() throws Throwable {
+    reflectionService.missingFile = "common.proto";
+    try {
+      client.lookupService(SERVICE).get();
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isNotInstanceOf(StatusRuntimeException.class);
+      assertThat(e.getCause().getMessage()).contains(SERVICE);
+    }
+  }
+
+  /**
+   * Makes the first message of each call wait until the response to it has been handled. Gives up
+   * after a while, since a handler which serializes its callbacks only handles it afterwards.
+   */
+  private static class AwaitFirstResponseInterceptor implements ClientInterceptor {
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+        MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+      CountDownLatch firstResponseHandled = new CountDownLatch(1);
+      return new SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, callOptions)) {
+        private boolean sentFirstMessage;
+
+        @Override
+        public void start(Listener<RespT> listener, Metadata headers) {
+          super.start(new SimpleForwardingClientCallListener<RespT>(listener) {
+            @Override
+            public void onMessage(RespT message) {
+              super.onMessage(message);
+              firstResponseHandled.countDown();
+            }
+          }, headers);
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+          super.sendMessage(message);
+          if (!sentFirstMessage) {
+            sentFirstMessage = true;
+            Uninterruptibles.awaitUninterruptibly(
+                firstResponseHandled, FIRST_RESPONSE_WAIT_MS, TimeUnit.MILLISECONDS);
+          }
+        }
+      };
+    }
+  }
+
+  /** Serves the files above and any added by tests, answering requests in order like servers do. */
+  private static class FakeReflectionService extends ServerReflectionGrpc.ServerReflectionImplBase {
+    private final AtomicInteger numStreams = new AtomicInteger();
+    private final List<ServerReflectionRequest> requests = new CopyOnWriteArrayList<>();
+    private final Map<String, FileDescriptorProto> files = new ConcurrentHashMap<>(FILES);
+    private final Map<String, String> symbols = new ConcurrentHashMap<>(SYMBOLS);
+    private volatile boolean includeDependencies;
+    private volatile boolean answerWithServiceList;
+    private volatile String missingFile = "";
+
+    @Override
+    public StreamObserver<ServerReflectionRequest> serverReflectionInfo(
+        StreamObserver<ServerReflectionResponse> responseObserver) {
+      numStreams.incrementAndGet();
+      return new StreamObserver<ServerReflectionRequest>() {
+        @Override
+        public void onNext(ServerReflectionRequest request) {
+          requests.add(request);
+          responseObserver.onNext(respond(request));
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          // Do nothing.
+        }
+
+        @Override
+        public void onCompleted() {
+          responseObserver.onCompleted();
+        }
+      };
+    }
+
+    private ServerReflectionResponse respond(ServerReflectionRequest request) {
+      String fileName;
+      switch (request.getMessageRequestCase()) {
+        case FILE_CONTAINING_SYMBOL:
+          fileName = symbols.getOrDefault(request.getFileContainingSymbol(), "");
+          break;
+        case FILE_BY_FILENAME:
+          fileName = request.getFileByFilename();
+          break;
+        default:
+          fileName = "";
+      }
+
+      ServerReflectionResponse.Builder response =
+          ServerReflectionResponse.newBuilder().setOriginalRequest(request);
+      if (answerWithServiceList) {
+        return response.setListServicesResponse(ListServiceResponse.getDefaultInstance()).build();
+      }
+      if (!files.containsKey(fileName) || fileName.equals(missingFile)) {
+        return response.setErrorResponse(ErrorResponse.newBuilder()
+            .setErrorCode(Status.Code.NOT_FOUND.value())
+            .setErrorMessage("Not found: " + fileName))
+            .build();
+      }
+
+      FileDescriptorResponse.Builder fileResponse = FileDescriptorResponse.newBuilder()
+          .addFileDescriptorProto(files.get(fileName).toByteString());
+      if (includeDependencies) {
+        for (Map.Entry<String, FileDescriptorProto> file : FILES.entrySet()) {
+          if (!file.getKey().equals(fileName)) {
+            fileResponse.addFileDescriptorProto(file.getValue().toByteString());
+          }
+        }
+      }
+      return response.setFileDescriptorResponse(fileResponse).build();
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package me.dinowernli.grpc.polyglot.grpc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link UnaryBatch}. */
+@TestClass
+public class UnaryBatchTest {
+  private RecordingObserver observer;
+  private List<SettableFuture<String>> calls;
+
+  @Before
+  public void setUp() {
+    observer = new RecordingObserver();
+    calls = new ArrayList<>();
+  }
+
+  @Test
+  public void emitsInInputOrder() throws Throwable {
+    UnaryBatch<String, String> batch = new UnaryBatch<>(observer, 3, true /* preserveInputOrder */);
+    ListenableFuture<Void> done = batch.run(ImmutableList.of("a", "b", "c").iterator(), this::call);
+
+    calls.get(2).set("C");
+    calls.get(1).set("B");
+    assertThat(observer.responses).isEmpty();
+
+    calls.get(0).set("A");
+    assertThat(observer.responses).containsExactly("A", "B", "C").inOrder();
+    done.get(1, TimeUnit.SECONDS);
+    assertThat(observer.completed).isTrue();
+  }
+
+  @Test
+  public void emitsInCompletionOrder() throws Throwable {
+    UnaryBatch<String, String> batch =
+        new UnaryBatch<>(observer, 3, false /* preserveInputOrder */);
+    ListenableFuture<Void> done = batch.run(ImmutableList.of("a", "b", "c").iterator(), this::call);
+
+    calls.get(2).set("C");
+    calls.get(0).set("A");
+    calls.get(1).set("B");
+    assertThat(observer.responses).containsExactly("C", "A", "B").inOrder();
+    done.get(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void boundsCallsInFlight() throws Throwable {
+    UnaryBatch<String, String> batch = new UnaryBatch<>(observer, 2, true /* preserveInputOrder */);
+    Thread runner = new Thread(
+        () -> batch.run(ImmutableList.of("a", "b", "c", "d").iterator(), this::call));
+    runner.start();
+
+    awaitNumCalls(2);
+    Thread.sleep(50);
+    assertThat(numCalls()).isEqualTo(2);
+
+    // Completing a later call doesn't free up the window while the first one is outstanding.
+    callAt(1).set("B");
+    Thread.sleep(50);
+    assertThat(numCalls()).isEqualTo(2);
+
+    callAt(0).set("A");
+    awaitNumCalls(4);
+    callAt(2).set("C");
+    callAt(3).set("D");
+    runner.join();
+    assertThat(observer.responses).containsExactly("A", "B", "C", "D").inOrder();
+  }
+
+  @Test
+  public void keepsGoingAfterFailure() throws Throwable {
+    UnaryBatch<String, String> batch = new UnaryBatch<>(observer, 1, true /* preserveInputOrder */);
+    ListenableFuture<Void> done = batch.run(
+        ImmutableList.of("a", "b").iterator(),
+        request -> request.equals("a")
+            ? Futures.immediateFailedFuture(Status.UNAVAILABLE.asRuntimeException())
+            : Futures.immediateFuture("B"));
+
+    assertThat(observer.responses).containsExactly("B");
+    assertThat(observer.error).isNotNull();
+    try {
+      done.get(1, TimeUnit.SECONDS);
+      throw new AssertionError("Expected batch to fail");
+    } catch (ExecutionException e) {
+      assertThat(Status.fromThrowable(e.getCause()).getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+    }
+  }
+
+  @Test
+  public void reportsFirstCallFailure() throws Throwable {
+    UnaryBatch<String, String> batch = new UnaryBatch<>(observer, 1, true /* preserveInputOrder */);
+    Iterator<String> requests = new Iterator<String>() {
+      private boolean returned;
+
+      @Override
+      public boolean hasNext() {
+        return true;
+      }
+
+      @Override
+      public String next() {
+        if (returned) {
+          throw new IllegalStateException("Unreadable request");
+        }
+        returned = true;
+        return "a";
+      }
+    };
+    ListenableFuture<Void> done = batch.run(
+        requests,
+        request -> Futures.immediateFailedFuture(Status.UNAVAILABLE.asRuntimeException()));
+
+    try {
+      done.get(1, TimeUnit.SECONDS);
+      throw new AssertionError("Expected batch to fail");
+    } catch (ExecutionException e) {
+      assertThat(Status.fromThrowable(e.getCause()).getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+    }
+  }
+
+  @Test
+  public void reportsWriterFailureSeparatelyFromCalls() throws Throwable {
+    RuntimeException writeFailure = new IllegalStateException("Broken pipe");
+    RecordingObserver failingObserver = new RecordingObserver() {
+      @Override
+      public void onNext(String response) {
+        if (response.equals("A")) {
+          throw writeFailure;
+        }
+        super.onNext(response);
+      }
+    };
+    UnaryBatch<String, String> batch =
+        new UnaryBatch<>(failingObserver, 1, true /* preserveInputOrder */);
+    ListenableFuture<Void> done = batch.run(
+        ImmutableList.of("a", "b").iterator(),
+        request -> Futures.immediateFuture(request.toUpperCase()));
+
+    assertThat(failingObserver.responses).containsExactly("B");
+    assertThat(failingObserver.error).isSameAs(writeFailure);
+    try {
+      done.get(1, TimeUnit.SECONDS);
+      throw new AssertionError("Expected batch to fail");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isSameAs(writeFailure);
+    }
+  }
+
+  private synchronized ListenableFuture<String> call(String request) {
+    SettableFuture<String> result = SettableFuture.create();
+    calls.add(result);
+    notifyAll();
+    return result;
+  }
+
+  private synchronized int numCalls() {
+    return calls.size();
+  }
+
+  private synchronized SettableFuture<String> callAt(int index) {
+    return calls.get(index);
+  }
+
+  private synchronized void awaitNumCalls(int numCalls) throws InterruptedException {
+    while (calls.size() < numCalls) {
+      wait();
+    }
+  }
+
+  /** A {@link StreamObserver} which remembers everything it sees. */
+  private static class RecordingObserver implements StreamObserver<String> {
+    private final List<String> responses = new ArrayList<>();
+    private Throwable error;
+    private boolean completed;
+
+    @Override
+    public void onNext(String response) {
+      responses.add(response);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      error = t;
+    }
+
+    @Override
+    public void onCompleted() {
+      completed = true;
+    }
+  }
+}
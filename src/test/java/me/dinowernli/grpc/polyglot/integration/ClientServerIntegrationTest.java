@@ -167,6 +167,59 @@ public class ClientServerIntegrationTest {
         TestServer.BIDI_SERVER_RESPONSE);
   }
 
+  @Test
+  public void makesBatchOfUnaryCalls() throws Throwable {
+    int serverPort = testServer.getGrpcServerPort();
+    ImmutableList<String> args = ImmutableList.<String>builder()
+        .add(makeArgument("output_file_path", responseFilePath.toString()))
+        .add(makeArgument("use_reflection", "false"))
+        .addAll(makeArgs(serverPort, TEST_UNARY_METHOD))
+        .add(makeArgument("batch_concurrency", "2"))
+        .build();
+    setStdinContents(MessageWriter.writeJsonStream(ImmutableList.of(REQUEST, REQUEST, REQUEST)));
+
+    // Run the full client.
+    me.dinowernli.grpc.polyglot.Main.main(args.toArray(new String[0]));
+
+    ImmutableList<TestResponse> responses = TestUtils.readResponseFile(responseFilePath);
+    assertThat(responses).containsExactly(
+        TestServer.UNARY_SERVER_RESPONSE,
+        TestServer.UNARY_SERVER_RESPONSE,
+        TestServer.UNARY_SERVER_RESPONSE);
+    assertThat(testServer.getServiceImpl().numRequests()).isEqualTo(3);
+  }
+
+  @Test
+  public void recordsAndReplaysCalls() throws Throwable {
+    int serverPort = testServer.getGrpcServerPort();
+    Path recordingPath = tempDirectory.getRoot().toPath().resolve("call.recording");
+    ImmutableList<String> args = ImmutableList.<String>builder()
+        .add(makeArgument("output_file_path", responseFilePath.toString()))
+        .add(makeArgument("use_reflection", "false"))
+        .addAll(makeArgs(serverPort, TEST_UNARY_METHOD))
+        .add(makeArgument("batch_concurrency", "2"))
+        .add(makeArgument("record", recordingPath.toString()))
+        .build();
+    setStdinContents(MessageWriter.writeJsonStream(ImmutableList.of(REQUEST, REQUEST)));
+    me.dinowernli.grpc.polyglot.Main.main(args.toArray(new String[0]));
+
+    // The replay needs neither protos nor reflection, the recording carries the descriptors.
+    Path reportPath = tempDirectory.getRoot().toPath().resolve("replay.txt");
+    me.dinowernli.grpc.polyglot.Main.main(new String[] {
+        makeArgument("output_file_path", reportPath.toString()),
+        makeArgument("use_reflection", "false"),
+        "replay",
+        makeArgument("endpoint", Joiner.on(':').join("localhost", serverPort)),
+        makeArgument("recording", recordingPath.toString()),
+        makeArgument("max_speed", "true")});
+
+    RecordingTestService recordingTestService = testServer.getServiceImpl();
+    assertThat(recordingTestService.numRequests()).isEqualTo(4);
+    assertThat(recordingTestService.getRequest(3)).isEqualTo(REQUEST);
+    String report = new String(Files.readAllBytes(reportPath), Charsets.UTF_8);
+    assertThat(report).contains("Calls:       2 (2 ok, 0 failed)");
+  }
+
   @Test(expected = RuntimeException.class)
   public void rejectsBadInput() {
     ImmutableList<String> args = makeArgs(testServer.getGrpcServerPort(), TEST_UNARY_METHOD);
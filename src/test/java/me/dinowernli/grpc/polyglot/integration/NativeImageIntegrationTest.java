@@ -0,0 +1,119 @@
+package me.dinowernli.grpc.polyglot.integration;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import me.dinowernli.grpc.polyglot.io.MessageWriter;
+import me.dinowernli.grpc.polyglot.testing.TestServer;
+import me.dinowernli.grpc.polyglot.testing.TestUtils;
+import me.dinowernli.junit.TestClass;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import polyglot.test.TestProto.TestRequest;
+import polyglot.test.TestProto.TestResponse;
+
+import static com.google.common.truth.Truth.assertThat;
+import static me.dinowernli.grpc.polyglot.testing.TestUtils.makeArgument;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the natively compiled Polyglot binary against a test server, making sure that the
+ * configuration of the native image covers the code paths of a call. Skipped if the binary has not
+ * been built.
+ */
+@TestClass
+public class NativeImageIntegrationTest {
+  private static final Path NATIVE_BINARY = Paths.get(TestUtils.getWorkspaceRoot().toString(),
+      "src", "main", "native-image", "polyglot-native");
+  private static final long TIMEOUT_SEC = 60;
+
+  private static final String TEST_UNARY_METHOD = "polyglot.test.TestService/TestMethod";
+  private static final String TEST_STREAM_METHOD = "polyglot.test.TestService/TestMethodStream";
+
+  private static final TestRequest REQUEST = TestRequest.newBuilder()
+      .setMessage("i am totally a message")
+      .build();
+
+  @Rule public TemporaryFolder tempDirectory = new TemporaryFolder();
+
+  private TestServer testServer;
+  private Path responseFilePath;
+
+  @Before
+  public void setUp() throws Throwable {
+    assumeTrue("Native binary not built", Files.isExecutable(NATIVE_BINARY));
+    responseFilePath = tempDirectory.getRoot().toPath().resolve("response.pb.ascii");
+    testServer = TestServer.createAndStart(Optional.empty() /* sslContext */);
+  }
+
+  @After
+  public void tearDown() throws Throwable {
+    if (testServer != null) {
+      testServer.blockingShutdown();
+    }
+  }
+
+  @Test
+  public void makesRoundTripUnary_WithReflection() throws Throwable {
+    runNativeBinary(ImmutableList.<String>builder()
+        .add(makeArgument("use_reflection", "true"))
+        .add(makeArgument("output_file_path", responseFilePath.toString()))
+        .add("call")
+        .add(makeArgument("endpoint", endpoint()))
+        .add(makeArgument("full_method", TEST_UNARY_METHOD))
+        .build());
+
+    ImmutableList<TestResponse> responses = TestUtils.readResponseFile(responseFilePath);
+    assertThat(responses).containsExactly(TestServer.UNARY_SERVER_RESPONSE);
+  }
+
+  @Test
+  public void makesRoundTripServerStream_WithProtoc() throws Throwable {
+    // Compiles the protos in-process, which exercises the parser and the well-known-type protos
+    // bundled into the image as resources.
+    runNativeBinary(ImmutableList.<String>builder()
+        .add(makeArgument("output_file_path", responseFilePath.toString()))
+        .add(makeArgument("use_reflection", "false"))
+        .addAll(TestUtils.makePolyglotCallArgs(endpoint(), TEST_STREAM_METHOD))
+        .build());
+
+    ImmutableList<TestResponse> responses = TestUtils.readResponseFile(responseFilePath);
+    assertThat(responses).containsExactly(TestServer.STREAMING_SERVER_RESPONSE);
+  }
+
+  private String endpoint() {
+    return Joiner.on(':').join("localhost", testServer.getGrpcServerPort());
+  }
+
+  /**
+   * Runs the binary with the test request on stdin and waits for it to exit successfully. The
+   * binary gets its own home directory, so that it doesn't pick up cached descriptors.
+   */
+  private void runNativeBinary(ImmutableList<String> args) throws Throwable {
+    Process process = new ProcessBuilder(ImmutableList.<String>builder()
+        .add(NATIVE_BINARY.toString())
+        .add("-Duser.home=" + tempDirectory.newFolder("home").getAbsolutePath())
+        .addAll(args)
+        .build())
+        .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    String requests = MessageWriter.writeJsonStream(ImmutableList.of(REQUEST));
+    try (OutputStream stdin = process.getOutputStream()) {
+      stdin.write(requests.getBytes(Charsets.UTF_8));
+    }
+
+    assertThat(process.waitFor(TIMEOUT_SEC, TimeUnit.SECONDS)).isTrue();
+    assertThat(process.exitValue()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,144 @@
+package me.dinowernli.grpc.polyglot.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+/** Unit tests for {@link AsyncOutput}. */
+@TestClass
+public class AsyncOutputTest {
+  private ByteArrayOutputStream stream;
+
+  @Before
+  public void setUp() {
+    stream = new ByteArrayOutputStream();
+  }
+
+  @Test
+  public void writesContentInOrder() {
+    // A tiny buffer, so that content spans several flushes.
+    AsyncOutput output = AsyncOutput.create(
+        Channels.newChannel(stream), true /* closeChannel */, 4 /* bufferBytes */, 1024);
+    output.write("héllo");
+    output.newLine();
+    output.writeLine("wörld");
+    output.writeBytes("0123456789".getBytes(StandardCharsets.UTF_8));
+    output.writeBytes("ab".getBytes(StandardCharsets.UTF_8));
+    output.close();
+
+    assertThat(new String(stream.toByteArray(), StandardCharsets.UTF_8))
+        .isEqualTo("héllo\nwörld\n0123456789ab");
+  }
+
+  @Test
+  public void blocksOnceTooMuchContentIsPending() throws Throwable {
+    CountDownLatch unblockChannel = new CountDownLatch(1);
+    WritableByteChannel slowChannel = new ForwardingChannel(Channels.newChannel(stream)) {
+      @Override
+      public int write(ByteBuffer source) throws IOException {
+        try {
+          unblockChannel.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return super.write(source);
+      }
+    };
+    AsyncOutput output = AsyncOutput.create(
+        slowChannel, true /* closeChannel */, 1 /* bufferBytes */, 4 /* maxPendingBytes */);
+
+    AtomicInteger completedWrites = new AtomicInteger();
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i < 5; ++i) {
+        output.write("ab");
+        completedWrites.incrementAndGet();
+      }
+    });
+    producer.start();
+
+    // The writer holds on to the first write, and the second one fills up the pending budget.
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (producer.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(producer.getState()).isEqualTo(Thread.State.WAITING);
+    assertThat(completedWrites.get()).isEqualTo(2);
+
+    unblockChannel.countDown();
+    producer.join(TimeUnit.SECONDS.toMillis(10));
+    output.close();
+
+    assertThat(completedWrites.get()).isEqualTo(5);
+    assertThat(new String(stream.toByteArray(), StandardCharsets.UTF_8)).isEqualTo("ababababab");
+  }
+
+  @Test
+  public void closeReportsWriteFailures() {
+    WritableByteChannel brokenChannel = new ForwardingChannel(Channels.newChannel(stream)) {
+      @Override
+      public int write(ByteBuffer source) throws IOException {
+        throw new IOException("Broken pipe");
+      }
+    };
+    AsyncOutput output = AsyncOutput.create(
+        brokenChannel, true /* closeChannel */, 16 /* bufferBytes */, 1024);
+    // A single piece of content, so that the failure can't surface before the call to close.
+    output.write("some content\n");
+
+    try {
+      output.close();
+      fail();
+    } catch (UncheckedIOException e) {
+      assertThat(e.getCause().getMessage()).isEqualTo("Broken pipe");
+    }
+  }
+
+  @Test
+  public void leavesChannelOpenIfNotOwned() {
+    WritableByteChannel channel = Channels.newChannel(stream);
+    AsyncOutput output = AsyncOutput.create(
+        channel, false /* closeChannel */, 16 /* bufferBytes */, 1024);
+    output.write("foo");
+    output.close();
+
+    assertThat(channel.isOpen()).isTrue();
+    assertThat(new String(stream.toByteArray(), StandardCharsets.UTF_8)).isEqualTo("foo");
+  }
+
+  private static class ForwardingChannel implements WritableByteChannel {
+    private final WritableByteChannel delegate;
+
+    private ForwardingChannel(WritableByteChannel delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+      return delegate.write(source);
+    }
+
+    @Override
+    public boolean isOpen() {
+      return delegate.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+  }
+}
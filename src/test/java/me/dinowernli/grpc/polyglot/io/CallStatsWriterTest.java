@@ -0,0 +1,112 @@
+package me.dinowernli.grpc.polyglot.io;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.Status;
+import me.dinowernli.grpc.polyglot.io.testing.TestData;
+import me.dinowernli.grpc.polyglot.protobuf.RawMessages;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link CallStatsWriter}. */
+@TestClass
+public class CallStatsWriterTest {
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private ManualTicker ticker;
+  private CallStatsWriter writer;
+
+  @Before
+  public void setUp() {
+    ticker = new ManualTicker();
+    writer = new CallStatsWriter(ticker, Optional.empty());
+  }
+
+  @Test
+  public void summarizesStream() {
+    ticker.advanceMillis(250);
+    writer.onNext(message(100));
+    ticker.advanceMillis(10);
+    writer.onNext(message(200));
+    ticker.advanceMillis(10);
+    writer.onNext(message(300));
+    writer.onCompleted();
+
+    String summary = writer.formatSummary();
+    assertThat(summary).contains("status OK: 3 response(s)");
+    assertThat(summary).contains("First response: 250.000 ms");
+    assertThat(summary).contains("100.0 msg/s");
+    assertThat(summary).contains("max 10.000 ms");
+  }
+
+  @Test
+  public void writesJson() throws Throwable {
+    ticker.advanceMillis(100);
+    writer.onNext(message(10));
+    ticker.advanceMillis(500);
+    writer.onNext(message(20));
+    writer.onError(Status.DEADLINE_EXCEEDED.asRuntimeException());
+
+    StringWriter json = new StringWriter();
+    writer.writeJson(json);
+    String result = json.toString().replaceAll("\\s", "");
+    assertThat(result).contains("\"status\":\"DEADLINE_EXCEEDED\"");
+    assertThat(result).contains("\"responses\":2");
+    assertThat(result).contains("\"time_to_first_response_ms\":100.0");
+    assertThat(result).contains("\"messages_per_sec\":2.0");
+    assertThat(result).contains("\"inter_arrival_ms\":{\"min\":500.0");
+  }
+
+  @Test
+  public void writesJsonFileOnCompletion() throws Throwable {
+    Path statsFile = tempFolder.getRoot().toPath().resolve("stats.json");
+    writer = new CallStatsWriter(ticker, Optional.of(statsFile));
+    writer.onCompleted();
+
+    String result = new String(Files.readAllBytes(statsFile), StandardCharsets.UTF_8);
+    assertThat(result.replaceAll("\\s", "")).contains("\"responses\":0");
+    assertThat(result).doesNotContain("time_to_first_response_ms");
+  }
+
+  @Test
+  public void countsBytesOfMessages() {
+    DynamicMessage raw = RawMessages.wrap(ByteString.copyFrom(new byte[42]));
+    writer.onNext(TestData.REQUEST);
+    writer.onNext(raw);
+    writer.onCompleted();
+
+    long expectedBytes = TestData.REQUEST.getSerializedSize() + 42;
+    assertThat(writer.formatSummary()).contains(expectedBytes + " bytes in");
+  }
+
+  private static DynamicMessage message(int bytes) {
+    return RawMessages.wrap(ByteString.copyFrom(new byte[bytes]));
+  }
+
+  /** A ticker which only advances when told to. */
+  private static class ManualTicker extends Ticker {
+    private long nanos;
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+}
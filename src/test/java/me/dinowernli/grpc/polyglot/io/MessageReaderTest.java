@@ -1,33 +1,49 @@
 package me.dinowernli.grpc.polyglot.io;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.util.JsonFormat;
 import com.google.protobuf.util.JsonFormat.TypeRegistry;
 import me.dinowernli.junit.TestClass;
 import me.dinowernli.grpc.polyglot.io.testing.TestData;
 import me.dinowernli.grpc.polyglot.testing.TestUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import polyglot.test.TestProto.TestRequest;
 import polyglot.test.TestProto.TestResponse;
 import polyglot.test.TestProto.TunnelMessage;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 /** Unit tests for {@link MessageReader}. */
 @TestClass
 public class MessageReaderTest {
   private static final String SOURCE = "TEST_SOURCE";
   private static final Descriptor DESCRIPTOR = TestRequest.getDescriptor();
+  private static final FieldDescriptor MESSAGE_FIELD = DESCRIPTOR.findFieldByName("message");
   private static String TESTDATA_ROOT = Paths.get(TestUtils.getWorkspaceRoot().toString(),
       "src", "test", "java", "me", "dinowernli", "grpc", "polyglot", "io", "testdata").toString();
 
+  @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
   private MessageReader reader;
 
   @Test
@@ -113,6 +129,170 @@ public class MessageReaderTest {
     assertThat(result).isEmpty();
   }
 
+  @Test
+  public void readsIncrementally() {
+    String first = "{ 'message': 'first' }\n\n";
+    PendingReader input = new PendingReader(first + "{ 'message': 'second' }\n\n");
+    reader = new MessageReader(
+        JsonFormat.parser(), TestRequest.getDescriptor(), new BufferedReader(input, 1), SOURCE);
+
+    Iterator<DynamicMessage> messages = reader.readIncrementally();
+    assertThat(messages.next().getField(MESSAGE_FIELD)).isEqualTo("first");
+    assertThat(input.charsRead).isAtMost(first.length());
+
+    assertThat(messages.next().getField(MESSAGE_FIELD)).isEqualTo("second");
+    assertThat(messages.hasNext()).isFalse();
+  }
+
+  @Test
+  public void parsesInParallelInInputOrder() throws Throwable {
+    ImmutableList<DynamicMessage> messages = createMessages(1000);
+    StringBuilder json = new StringBuilder();
+    for (DynamicMessage message : messages) {
+      json.append(JsonFormat.printer().print(message)).append("\n\n");
+    }
+
+    reader = MessageReader.forStream(
+        new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)),
+        DESCRIPTOR,
+        TypeRegistry.getEmptyTypeRegistry(),
+        SOURCE,
+        4 /* parseThreads */);
+    assertThat(reader.read()).containsExactlyElementsIn(messages).inOrder();
+  }
+
+  @Test
+  public void parsesFileInParallel() {
+    reader = MessageReader.forFile(dataFilePath("requests_multi_interrupted.pb.ascii"), DESCRIPTOR,
+        TypeRegistry.getEmptyTypeRegistry(), 4 /* parseThreads */);
+    assertThat(reader.read()).containsExactlyElementsIn(TestData.REQUESTS_MULTI).inOrder();
+  }
+
+  @Test
+  public void rejectsBadProtoWhenParsingInParallel() {
+    String input = "{ 'message': 'first' }\n\n{ 'message': 'as \n\n{ 'message': 'third' }\n\n";
+    reader = MessageReader.forStream(
+        new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+        DESCRIPTOR,
+        TypeRegistry.getEmptyTypeRegistry(),
+        SOURCE,
+        4 /* parseThreads */);
+
+    Iterator<DynamicMessage> messages = reader.readIncrementally();
+    assertThat(messages.next().getField(MESSAGE_FIELD)).isEqualTo("first");
+    try {
+      messages.next();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).contains(SOURCE);
+    }
+  }
+
+  @Test
+  public void readsFileWithStreamingCodec() {
+    reader = MessageReader.forFile(dataFilePath("requests_multi_interrupted.pb.ascii"), DESCRIPTOR,
+        MessageCodec.streaming(TypeRegistry.getEmptyTypeRegistry()), 1 /* parseThreads */);
+    assertThat(reader.read()).containsExactlyElementsIn(TestData.REQUESTS_MULTI).inOrder();
+  }
+
+  @Test
+  public void parsesInParallelWithStreamingCodec() throws Throwable {
+    ImmutableList<DynamicMessage> messages = createMessages(200);
+    StringBuilder json = new StringBuilder();
+    for (DynamicMessage message : messages) {
+      json.append(JsonFormat.printer().print(message)).append("\n\n");
+    }
+
+    reader = MessageReader.forStream(
+        new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)),
+        DESCRIPTOR,
+        MessageCodec.streaming(TypeRegistry.getEmptyTypeRegistry()),
+        SOURCE,
+        4 /* parseThreads */);
+    assertThat(reader.read()).containsExactlyElementsIn(messages).inOrder();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsBadProtoWithStreamingCodec() {
+    String input = "{ 'message': 'first' }\n\n{ 'message': 'as \n\n";
+    reader = MessageReader.forStream(
+        new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+        DESCRIPTOR,
+        MessageCodec.streaming(TypeRegistry.getEmptyTypeRegistry()),
+        SOURCE,
+        1 /* parseThreads */);
+    reader.read();
+  }
+
+  @Test
+  public void readsDelimitedStream() throws Throwable {
+    reader = MessageReader.forDelimitedStream(
+        new ByteArrayInputStream(delimited(TestData.REQUESTS_MULTI)), DESCRIPTOR, SOURCE);
+    assertThat(reader.read()).containsExactlyElementsIn(TestData.REQUESTS_MULTI).inOrder();
+  }
+
+  @Test
+  public void readsEmptyDelimitedStream() {
+    reader = MessageReader.forDelimitedStream(
+        new ByteArrayInputStream(new byte[0]), DESCRIPTOR, SOURCE);
+    assertThat(reader.read()).isEmpty();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTruncatedDelimitedStream() throws Throwable {
+    byte[] bytes = delimited(TestData.REQUESTS_MULTI);
+    reader = MessageReader.forDelimitedStream(
+        new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)), DESCRIPTOR, SOURCE);
+    reader.read();
+  }
+
+  @Test
+  public void readsDelimitedFile() throws Throwable {
+    Path file = tempFolder.newFile().toPath();
+    Files.write(file, delimited(TestData.REQUESTS_MULTI));
+
+    reader = MessageReader.forDelimitedFile(file, DESCRIPTOR);
+    assertThat(reader.read()).containsExactlyElementsIn(TestData.REQUESTS_MULTI).inOrder();
+  }
+
+  @Test
+  public void readsDelimitedFileAcrossWindows() throws Throwable {
+    ImmutableList<DynamicMessage> messages = createMessages(100);
+    Path file = tempFolder.newFile().toPath();
+    Files.write(file, delimited(messages));
+
+    // Windows much smaller than the messages make every read straddle a window boundary.
+    reader = MessageReader.forDelimitedFile(file, DESCRIPTOR, 7 /* windowBytes */);
+    assertThat(reader.read()).containsExactlyElementsIn(messages).inOrder();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTruncatedDelimitedFile() throws Throwable {
+    byte[] bytes = delimited(TestData.REQUESTS_MULTI);
+    Path file = tempFolder.newFile().toPath();
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+
+    MessageReader.forDelimitedFile(file, DESCRIPTOR).read();
+  }
+
+  /** Returns messages of increasing size, each distinguishable from the others. */
+  private static ImmutableList<DynamicMessage> createMessages(int count) {
+    ImmutableList.Builder<DynamicMessage> messages = ImmutableList.builder();
+    for (int i = 0; i < count; ++i) {
+      messages.add(DynamicMessage.newBuilder(
+          TestRequest.newBuilder().setMessage(Strings.repeat("x", i)).setNumber(i).build()).build());
+    }
+    return messages.build();
+  }
+
+  private static byte[] delimited(ImmutableList<DynamicMessage> messages) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (DynamicMessage message : messages) {
+      message.writeDelimitedTo(output);
+    }
+    return output.toByteArray();
+  }
+
   private static Path dataFilePath(String filename) {
     return Paths.get(TESTDATA_ROOT, filename);
   }
@@ -124,4 +304,28 @@ public class MessageReaderTest {
         new BufferedReader(new StringReader(input)),
         SOURCE);
   }
+
+  /** A {@link Reader} which hands out one char at a time and tracks how much has been read. */
+  private static class PendingReader extends Reader {
+    private final StringReader delegate;
+    private int charsRead;
+
+    PendingReader(String input) {
+      this.delegate = new StringReader(input);
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+      int result = delegate.read(buffer, offset, Math.min(1, length));
+      if (result > 0) {
+        charsRead += result;
+      }
+      return result;
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
 }
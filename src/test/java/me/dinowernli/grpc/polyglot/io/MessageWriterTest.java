@@ -1,11 +1,15 @@
 package me.dinowernli.grpc.polyglot.io;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import com.google.common.collect.ImmutableList;
 import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Duration;
 import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.Message;
@@ -13,10 +17,13 @@ import com.google.protobuf.util.JsonFormat;
 import com.google.protobuf.util.JsonFormat.TypeRegistry;
 import me.dinowernli.junit.TestClass;
 import me.dinowernli.grpc.polyglot.io.testing.TestData;
+import me.dinowernli.grpc.polyglot.protobuf.RawMessages;
 import me.dinowernli.grpc.polyglot.testing.RecordingOutput;
 import me.dinowernli.grpc.polyglot.testing.TestUtils;
 import org.junit.Before;
 import org.junit.Test;
+import polyglot.ConfigProto.OutputConfiguration;
+import polyglot.test.TestProto.TestRequest;
 import polyglot.test.TestProto.TestResponse;
 import polyglot.test.TestProto.TunnelMessage;
 
@@ -80,6 +87,40 @@ public class MessageWriterTest {
         .isEqualTo(loadTestFile("response_any.pb.ascii"));
   }
 
+  @Test
+  public void writesDelimitedBinary() throws Throwable {
+    MessageWriter<Message> binaryWriter = MessageWriter.create(
+        recordingOutput, REGISTRY, OutputConfiguration.Format.BINARY_DELIMITED);
+    TestData.REQUESTS_MULTI.forEach(binaryWriter::onNext);
+    binaryWriter.onCompleted();
+    recordingOutput.close();
+
+    assertThat(recordingOutput.getContentsAsString()).isEmpty();
+    ImmutableList<DynamicMessage> readBack = MessageReader.forDelimitedStream(
+        new ByteArrayInputStream(recordingOutput.getBinaryContents()),
+        TestRequest.getDescriptor(),
+        "TEST").read();
+    assertThat(readBack).containsExactlyElementsIn(TestData.REQUESTS_MULTI).inOrder();
+  }
+
+  @Test
+  public void writesRawBytesUnchanged() throws Throwable {
+    // Not a valid TestRequest, so this would not survive being parsed and written again.
+    ByteString wireBytes = ByteString.copyFrom(new byte[] {(byte) 0xff, 0x00, 0x42});
+    MessageWriter<Message> rawWriter = MessageWriter.create(
+        recordingOutput, REGISTRY, OutputConfiguration.Format.RAW_DELIMITED);
+    rawWriter.onNext(RawMessages.wrap(wireBytes));
+    rawWriter.onNext(TestData.REQUEST);
+    rawWriter.onCompleted();
+    recordingOutput.close();
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(wireBytes.size());
+    wireBytes.writeTo(expected);
+    TestData.REQUEST.writeDelimitedTo(expected);
+    assertThat(recordingOutput.getBinaryContents()).isEqualTo(expected.toByteArray());
+  }
+
   private static String loadTestFile(String filename) {
     Path filePath = Paths.get(TESTDATA_ROOT, filename);
     try {
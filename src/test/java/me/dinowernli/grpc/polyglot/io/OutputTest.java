@@ -34,4 +34,21 @@ public class OutputTest {
     String line = Files.readFirstLine(new File(filePath.toUri()), Charset.defaultCharset());
     assertThat(line).isEqualTo("foo");
   }
+
+  @Test
+  public void writesFileAsynchronously() throws Throwable {
+    Path filePath = Paths.get(tempFolder.getRoot().getAbsolutePath(), "some-file.txt");
+    Output output = Output.forConfiguration(OutputConfiguration.newBuilder()
+        .setDestination(Destination.FILE)
+        .setFilePath(filePath.toString())
+        .setAsyncWrite(true)
+        .build());
+
+    output.writeLine("foo");
+    output.writeLine("bar");
+    output.close();
+
+    assertThat(Files.readLines(new File(filePath.toUri()), Charset.defaultCharset()))
+        .containsExactly("foo", "bar").inOrder();
+  }
 }
@@ -0,0 +1,164 @@
+package me.dinowernli.grpc.polyglot.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat.TypeRegistry;
+import me.dinowernli.grpc.polyglot.io.testing.TestData;
+import me.dinowernli.grpc.polyglot.testing.RecordingOutput;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Test;
+import polyglot.test.TestProto.TestRequest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+/** Unit tests for {@link ParallelMessageWriter}. */
+@TestClass
+public class ParallelMessageWriterTest {
+  private RecordingOutput recordingOutput;
+
+  @Before
+  public void setUp() {
+    recordingOutput = new RecordingOutput();
+  }
+
+  @Test
+  public void writesSameOutputAsMessageWriter() throws Throwable {
+    ImmutableList<DynamicMessage> messages = createMessages(500);
+    ParallelMessageWriter<Message> writer = ParallelMessageWriter.create(
+        recordingOutput, TypeRegistry.getEmptyTypeRegistry(), 4 /* printThreads */);
+    messages.forEach(writer::onNext);
+    writer.onCompleted();
+    recordingOutput.close();
+
+    assertThat(recordingOutput.getContentsAsString())
+        .isEqualTo(MessageWriter.writeJsonStream(messages));
+  }
+
+  @Test
+  public void writesInArrivalOrderWhenPrintedOutOfOrder() throws Throwable {
+    ReversingExecutor executor = new ReversingExecutor();
+    ParallelMessageWriter<Message> writer = new ParallelMessageWriter<>(
+        MessageCodec.jsonFormat(TypeRegistry.getEmptyTypeRegistry()),
+        recordingOutput,
+        executor,
+        10 /* maxMessagesInFlight */);
+    TestData.REQUESTS_MULTI.forEach(writer::onNext);
+
+    executor.runAll();
+    writer.onCompleted();
+    recordingOutput.close();
+
+    assertThat(recordingOutput.getContentsAsString())
+        .isEqualTo(MessageWriter.writeJsonStream(TestData.REQUESTS_MULTI));
+    assertThat(executor.isShutdown()).isTrue();
+  }
+
+  @Test
+  public void writesMessagesReceivedBeforeError() throws Throwable {
+    ParallelMessageWriter<Message> writer = ParallelMessageWriter.create(
+        recordingOutput, TypeRegistry.getEmptyTypeRegistry(), 2 /* printThreads */);
+    TestData.REQUESTS_MULTI.forEach(writer::onNext);
+    writer.onError(new RuntimeException("Call failed"));
+    recordingOutput.close();
+
+    assertThat(recordingOutput.getContentsAsString())
+        .isEqualTo(MessageWriter.writeJsonStream(TestData.REQUESTS_MULTI));
+  }
+
+  @Test
+  public void rethrowsWriteFailuresWithoutBlocking() throws Throwable {
+    RuntimeException failure = new IllegalStateException("Broken pipe");
+    RecordingOutput failingOutput = new RecordingOutput() {
+      @Override
+      public void write(String content) {
+        throw failure;
+      }
+    };
+    ParallelMessageWriter<Message> writer = new ParallelMessageWriter<>(
+        MessageCodec.jsonFormat(TypeRegistry.getEmptyTypeRegistry()),
+        failingOutput,
+        MoreExecutors.newDirectExecutorService(),
+        2 /* maxMessagesInFlight */);
+
+    // The first message is printed and fails to write right away, freeing up its permit.
+    writer.onNext(TestData.REQUESTS_MULTI.get(0));
+    for (int i = 0; i < 5; ++i) {
+      try {
+        writer.onNext(TestData.REQUESTS_MULTI.get(0));
+        fail();
+      } catch (IllegalStateException e) {
+        assertThat(e).isSameAs(failure);
+      }
+    }
+    try {
+      writer.onCompleted();
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).isSameAs(failure);
+    }
+  }
+
+  private static ImmutableList<DynamicMessage> createMessages(int count) {
+    ImmutableList.Builder<DynamicMessage> messages = ImmutableList.builder();
+    for (int i = 0; i < count; ++i) {
+      messages.add(DynamicMessage.newBuilder(
+          TestRequest.newBuilder().setMessage(Strings.repeat("x", i % 50)).setNumber(i).build())
+          .build());
+    }
+    return messages.build();
+  }
+
+  /** An executor which holds on to its tasks and runs them last-in-first-out when asked to. */
+  private static class ReversingExecutor extends AbstractExecutorService {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private boolean shutdown;
+
+    void runAll() {
+      for (int i = tasks.size() - 1; i >= 0; --i) {
+        tasks.get(i).run();
+      }
+      tasks.clear();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    @Override
+    public void shutdown() {
+      shutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      shutdown = true;
+      return ImmutableList.copyOf(tasks);
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return shutdown && tasks.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return isTerminated();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package me.dinowernli.grpc.polyglot.io;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Optional;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.Any;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileOptions;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Duration;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.util.JsonFormat.TypeRegistry;
+import me.dinowernli.grpc.polyglot.io.testing.TestData;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Test;
+import polyglot.test.TestProto.TestRequest;
+import polyglot.test.TestProto.TestResponse;
+import polyglot.test.TestProto.Tree;
+import polyglot.test.TestProto.TunnelMessage;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+/** Unit tests for {@link StreamingJsonCodec}. */
+@TestClass
+public class StreamingJsonCodecTest {
+  private static final TypeRegistry REGISTRY = TypeRegistry.newBuilder()
+      .add(TunnelMessage.getDescriptor())
+      .build();
+
+  private static final ImmutableList<Message> MESSAGES = ImmutableList.of(
+      TestData.REQUEST,
+      TestData.REQUEST_WITH_PRIMITIVE,
+      TestRequest.getDefaultInstance(),
+      TestRequest.newBuilder()
+          .setMessage("quotes \" and \\ and </script> & 'ticks' \n\t\u0001 \u2028 \uD83D\uDE00")
+          .setNumber(-42)
+          .build(),
+      TestResponse.newBuilder()
+          .setMessage("any")
+          .setAny(Any.pack(TunnelMessage.newBuilder().setNumber(7).build()))
+          .setDuration(Duration.newBuilder().setSeconds(3).setNanos(500000000))
+          .build(),
+      Tree.newBuilder()
+          .setLabel("root")
+          .addChildren(Tree.newBuilder().setLabel("left").setNumber(1))
+          .addChildren(Tree.newBuilder()
+              .setLabel("right")
+              .addChildren(Tree.newBuilder().setNumber(Integer.MIN_VALUE)))
+          .build(),
+      FileDescriptorProto.newBuilder()
+          .setName("some.proto")
+          .addDependency("a.proto")
+          .addDependency("b.proto")
+          .addPublicDependency(1)
+          .addMessageType(DescriptorProto.newBuilder()
+              .setName("Message")
+              .addField(FieldDescriptorProto.newBuilder()
+                  .setName("field")
+                  .setNumber(1)
+                  .setType(FieldDescriptorProto.Type.TYPE_BYTES)
+                  .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                  .setDefaultValue("AQID")))
+          .setOptions(FileOptions.newBuilder()
+              .setJavaMultipleFiles(true)
+              .setJavaPackage("some.pkg"))
+          .build());
+
+  private MessageCodec codec;
+
+  @Before
+  public void setUp() {
+    codec = StreamingJsonCodec.create(REGISTRY);
+  }
+
+  @Test
+  public void encodesSameTextAsJsonFormat() throws Throwable {
+    JsonFormat.Printer printer = JsonFormat.printer().usingTypeRegistry(REGISTRY);
+    for (Message message : MESSAGES) {
+      StringBuilder result = new StringBuilder();
+      codec.encode(message, result);
+      assertThat(result.toString()).isEqualTo(printer.print(message));
+    }
+  }
+
+  @Test
+  public void decodesWhatJsonFormatPrints() throws Throwable {
+    JsonFormat.Printer printer = JsonFormat.printer().usingTypeRegistry(REGISTRY);
+    for (Message message : MESSAGES) {
+      DynamicMessage result = codec.decode(printer.print(message), message.getDescriptorForType());
+      assertThat(result.toByteString()).isEqualTo(message.toByteString());
+    }
+  }
+
+  @Test
+  public void decodesLenientInputLikeJsonFormat() throws Throwable {
+    String json = "{ 'message': \"hi\", number: \"12\", /* comment */ foo: null }";
+    DynamicMessage result = codec.decode(json, TestRequest.getDescriptor());
+
+    DynamicMessage.Builder expected = DynamicMessage.newBuilder(TestRequest.getDescriptor());
+    JsonFormat.parser().merge(json, expected);
+    assertThat(result).isEqualTo(expected.build());
+  }
+
+  @Test
+  public void decoderReadsMessagesUntilEndMarker() throws Throwable {
+    String input = "{\n  \"message\": \"message!\"\n}\n\n"
+        + "{ \"message\": \"more message!\" }\n"
+        + "{ \"message\": \"even more message\" }\n\n\n"
+        + "{ \"message\": \"ignored\" }\n";
+    MessageCodec.Decoder decoder =
+        codec.newDecoder(new StringReader(input), TestRequest.getDescriptor());
+
+    ImmutableList.Builder<DynamicMessage> result = ImmutableList.builder();
+    Optional<DynamicMessage> message;
+    while ((message = decoder.readNext()).isPresent()) {
+      result.add(message.get());
+    }
+    assertThat(result.build()).containsExactlyElementsIn(TestData.REQUESTS_MULTI).inOrder();
+  }
+
+  @Test
+  public void rejectsUnknownField() throws Throwable {
+    assertRejected("{ \"message\": \"hi\", \"unknown\": 1 }", TestRequest.getDescriptor());
+  }
+
+  @Test
+  public void rejectsDuplicateField() throws Throwable {
+    assertRejected("{ \"message\": \"hi\", \"message\": \"ho\" }", TestRequest.getDescriptor());
+  }
+
+  @Test
+  public void rejectsOutOfRangeNumber() throws Throwable {
+    assertRejected("{ \"number\": 2147483648 }", TestRequest.getDescriptor());
+  }
+
+  @Test
+  public void rejectsMalformedJson() throws Throwable {
+    assertRejected("{ \"message\": ", TestRequest.getDescriptor());
+  }
+
+  private void assertRejected(String json, Descriptor descriptor) throws IOException {
+    try {
+      codec.decode(json, descriptor);
+      fail("Expected the input to be rejected: " + json);
+    } catch (InvalidProtocolBufferException e) {
+      // Expected.
+    }
+  }
+}
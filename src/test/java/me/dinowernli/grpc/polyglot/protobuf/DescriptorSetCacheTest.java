@@ -0,0 +1,78 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link DescriptorSetCache}. */
+@TestClass
+public class DescriptorSetCacheTest {
+  private static final String KEY = "abcdef0123";
+  private static final FileDescriptorSet DESCRIPTORS = FileDescriptorSet.newBuilder()
+      .addFile(FileDescriptorProto.newBuilder().setName("foo.proto"))
+      .build();
+
+  @Rule public TemporaryFolder tempDirectory = new TemporaryFolder();
+
+  private Path cacheDirectory;
+  private DescriptorSetCache cache;
+
+  @Before
+  public void setUp() throws Throwable {
+    cacheDirectory = tempDirectory.getRoot().toPath().resolve("cache");
+    cache = DescriptorSetCache.forDirectory(cacheDirectory);
+  }
+
+  @Test
+  public void missesUnknownKey() {
+    assertThat(cache.get(KEY).isPresent()).isFalse();
+  }
+
+  @Test
+  public void roundTrips() {
+    cache.put(KEY, DESCRIPTORS, ImmutableMap.of());
+    assertThat(cache.get(KEY).get()).isEqualTo(DESCRIPTORS);
+    assertThat(DescriptorSetCache.forDirectory(cacheDirectory).get(KEY).get())
+        .isEqualTo(DESCRIPTORS);
+  }
+
+  @Test
+  public void missesIfDependencyChanged() throws Throwable {
+    Path dependency = tempDirectory.newFile("dep.proto").toPath();
+    Files.write(dependency, "before".getBytes(StandardCharsets.UTF_8));
+    cache.put(KEY, DESCRIPTORS,
+        ImmutableMap.of(dependency, DescriptorSetCache.hashFile(dependency)));
+    assertThat(cache.get(KEY).isPresent()).isTrue();
+
+    Files.write(dependency, "after".getBytes(StandardCharsets.UTF_8));
+    assertThat(cache.get(KEY).isPresent()).isFalse();
+  }
+
+  @Test
+  public void missesIfDependencyDeleted() throws Throwable {
+    Path dependency = tempDirectory.newFile("dep.proto").toPath();
+    cache.put(KEY, DESCRIPTORS,
+        ImmutableMap.of(dependency, DescriptorSetCache.hashFile(dependency)));
+
+    Files.delete(dependency);
+    assertThat(cache.get(KEY).isPresent()).isFalse();
+  }
+
+  @Test
+  public void missesIfEntryIsCorrupt() throws Throwable {
+    cache.put(KEY, DESCRIPTORS, ImmutableMap.of());
+    Files.write(cacheDirectory.resolve(KEY + ".pb.bin"), new byte[] {(byte) 0xff, 0x01});
+    assertThat(cache.get(KEY).isPresent()).isFalse();
+  }
+}
@@ -0,0 +1,128 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Test;
+import polyglot.test.TestProto.TestRequest;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link DynamicMessageMarshaller}. */
+@TestClass
+public class DynamicMessageMarshallerTest {
+  private static final DynamicMessage MESSAGE = DynamicMessage.newBuilder(
+      TestRequest.newBuilder()
+          .setMessage(Strings.repeat("some payload ", 1000))
+          .setNumber(42)
+          .build())
+      .build();
+  private static final byte[] MESSAGE_BYTES = MESSAGE.toByteArray();
+
+  private DynamicMessageMarshaller marshaller;
+
+  @Before
+  public void setUp() {
+    marshaller = new DynamicMessageMarshaller(TestRequest.getDescriptor());
+  }
+
+  @Test
+  public void streamHasKnownLength() throws Throwable {
+    InputStream stream = marshaller.stream(MESSAGE);
+    assertThat(stream).isInstanceOf(KnownLength.class);
+    assertThat(stream.available()).isEqualTo(MESSAGE_BYTES.length);
+  }
+
+  @Test
+  public void drainsToOutputStream() throws Throwable {
+    InputStream stream = marshaller.stream(MESSAGE);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    int written = ((Drainable) stream).drainTo(output);
+
+    assertThat(written).isEqualTo(MESSAGE_BYTES.length);
+    assertThat(output.toByteArray()).isEqualTo(MESSAGE_BYTES);
+    assertThat(stream.available()).isEqualTo(0);
+    assertThat(stream.read()).isEqualTo(-1);
+  }
+
+  @Test
+  public void readsIntoLargeBuffer() throws Throwable {
+    InputStream stream = marshaller.stream(MESSAGE);
+    byte[] buffer = new byte[MESSAGE_BYTES.length + 10];
+
+    int read = stream.read(buffer, 5, buffer.length - 5);
+
+    assertThat(read).isEqualTo(MESSAGE_BYTES.length);
+    for (int i = 0; i < MESSAGE_BYTES.length; ++i) {
+      assertThat(buffer[i + 5]).isEqualTo(MESSAGE_BYTES[i]);
+    }
+    assertThat(stream.read(buffer, 0, buffer.length)).isEqualTo(-1);
+  }
+
+  @Test
+  public void readsInSmallChunks() throws Throwable {
+    InputStream stream = marshaller.stream(MESSAGE);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    assertThat(stream.read()).isEqualTo(MESSAGE_BYTES[0] & 0xff);
+    output.write(MESSAGE_BYTES[0]);
+
+    byte[] chunk = new byte[7];
+    int read;
+    while ((read = stream.read(chunk, 0, chunk.length)) != -1) {
+      output.write(chunk, 0, read);
+    }
+    assertThat(output.toByteArray()).isEqualTo(MESSAGE_BYTES);
+  }
+
+  @Test
+  public void handlesEmptyMessage() throws Throwable {
+    DynamicMessage empty = DynamicMessage.getDefaultInstance(TestRequest.getDescriptor());
+    InputStream stream = marshaller.stream(empty);
+    assertThat(stream.available()).isEqualTo(0);
+    assertThat(stream.read(new byte[10], 0, 10)).isEqualTo(-1);
+    assertThat(marshaller.parse(new KnownLengthStream(new byte[0]))).isEqualTo(empty);
+  }
+
+  @Test
+  public void parsesKnownLengthStream() {
+    DynamicMessage parsed = marshaller.parse(new KnownLengthStream(MESSAGE_BYTES));
+    assertThat(parsed).isEqualTo(MESSAGE);
+  }
+
+  @Test
+  public void parsesUnknownLengthStream() {
+    DynamicMessage parsed = marshaller.parse(new ByteArrayInputStream(MESSAGE_BYTES) {});
+    assertThat(parsed).isEqualTo(MESSAGE);
+  }
+
+  @Test
+  public void parsesOwnStreamWithoutSerializing() {
+    assertThat(marshaller.parse(marshaller.stream(MESSAGE))).isSameAs(MESSAGE);
+  }
+
+  @Test
+  public void readsRemainderAfterPartialRead() throws Throwable {
+    InputStream stream = marshaller.stream(MESSAGE);
+    byte[] firstByte = new byte[1];
+    ByteStreams.readFully(stream, firstByte);
+
+    byte[] rest = ByteStreams.toByteArray(stream);
+    assertThat(rest.length).isEqualTo(MESSAGE_BYTES.length - 1);
+  }
+
+  /** An {@link InputStream} which, like those handed out by the grpc transports, knows its size. */
+  private static class KnownLengthStream extends ByteArrayInputStream implements KnownLength {
+    KnownLengthStream(byte[] bytes) {
+      super(bytes);
+    }
+  }
+}
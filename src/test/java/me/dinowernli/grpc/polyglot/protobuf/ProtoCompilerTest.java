@@ -0,0 +1,210 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import me.dinowernli.grpc.polyglot.protobuf.ProtoCompiler.ProtoCompilationException;
+import me.dinowernli.grpc.polyglot.testing.TestUtils;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import polyglot.ConfigProto.ProtoConfiguration;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ProtoCompiler}. Most of these check that the output matches what the
+ * protoc binary produces for the same files.
+ */
+@TestClass
+public class ProtoCompilerTest {
+  private static final String FEATURES_PROTO = Joiner.on('\n').join(
+      "syntax = \"proto2\";",
+      "package polyglot.features;",
+      "import \"google/protobuf/descriptor.proto\";",
+      "option java_package = \"polyglot.features\";",
+      "option optimize_for = CODE_SIZE;",
+      "extend google.protobuf.FieldOptions {",
+      "  optional string label = 50001;",
+      "  optional Inner.Sub detail = 50002;",
+      "}",
+      "extend google.protobuf.MessageOptions { repeated int32 tags = 50003; }",
+      "message Inner { message Sub { optional int32 x = 1; optional string y = 2; } }",
+      "message Outer {",
+      "  option (tags) = 1;",
+      "  option (tags) = 2;",
+      "  optional int32 hex = 1 [default = 0x10, (label) = \"hex\", (detail).x = 3];",
+      "  repeated group Grp = 2 { required string s = 1 [default = \"a\\\"b\\n\"]; }",
+      "  optional bytes raw = 3 [default = \"\\001\\xff\"];",
+      "  optional double d = 4 [default = -inf];",
+      "  optional Kind kind = 5 [default = SECOND];",
+      "  map<string, Inner> entries = 6;",
+      "  oneof choice { string text = 7; int64 number = 8 [json_name = \"num\"]; }",
+      "  optional float f = 9 [default = 1.5e3];",
+      "  optional Inner.Sub sub = 11 [(detail) = { x: 1 y: \"agg\" }];",
+      "  extensions 100 to max;",
+      "  reserved 10, 12 to 14;",
+      "  reserved \"old\";",
+      "  enum Kind {",
+      "    option allow_alias = true;",
+      "    FIRST = 0;",
+      "    SECOND = 1;",
+      "    ALIAS = 1 [deprecated = true];",
+      "  }",
+      "}",
+      "extend Outer { optional int32 extra = 100; }",
+      "service Features {",
+      "  rpc Unary (Outer) returns (Inner);",
+      "  rpc Stream (stream Outer) returns (stream Inner) { option deprecated = true; }",
+      "}",
+      "");
+
+  @Rule public TemporaryFolder tempDirectory = new TemporaryFolder();
+
+  private Path protoRoot;
+
+  @Before
+  public void setUp() throws Throwable {
+    protoRoot = tempDirectory.newFolder("protos").toPath();
+  }
+
+  @Test
+  public void matchesProtocForTestingProtos() throws Throwable {
+    ProtoConfiguration config = ProtoConfiguration.newBuilder()
+        .setProtoDiscoveryRoot(TestUtils.TESTING_PROTO_ROOT.toString())
+        .addIncludePaths(TestUtils.getWorkspaceRoot().toString())
+        .build();
+    assertMatchesProtoc(config);
+  }
+
+  @Test
+  public void matchesProtocForWellKnownTypes() throws Throwable {
+    StringBuilder content = new StringBuilder("syntax = \"proto3\";\n");
+    for (String fileName : WellKnownTypes.fileNames()) {
+      content.append("import \"google/protobuf/").append(fileName).append("\";\n");
+    }
+    content.append("message Holder { google.protobuf.Any any = 1; }\n");
+    writeProto("holder.proto", content.toString());
+
+    assertMatchesProtoc(discoveryConfig());
+  }
+
+  @Test
+  public void matchesProtocForLanguageFeatures() throws Throwable {
+    writeProto("features.proto", FEATURES_PROTO);
+    assertMatchesProtoc(discoveryConfig());
+  }
+
+  @Test
+  public void listsDependenciesFirst() throws Throwable {
+    writeProto("a.proto", "syntax = \"proto3\"; import \"b.proto\"; message A { B b = 1; }");
+    writeProto("b.proto", "syntax = \"proto3\"; import \"c.proto\"; message B { C c = 1; }");
+    writeProto("c.proto", "syntax = \"proto3\"; message C {}");
+
+    FileDescriptorSet result = compile("a.proto");
+
+    Set<String> seen = new HashSet<>();
+    for (FileDescriptorProto file : result.getFileList()) {
+      assertThat(seen).containsAllIn(file.getDependencyList());
+      seen.add(file.getName());
+    }
+    assertThat(seen).containsExactly("a.proto", "b.proto", "c.proto");
+  }
+
+  @Test
+  public void resolvesProto3OptionalToSyntheticOneof() throws Throwable {
+    writeProto("opt.proto", "syntax = \"proto3\"; message M { optional int32 value = 1; }");
+
+    FileDescriptorProto file = compile("opt.proto").getFile(0);
+
+    FieldDescriptorProto field = file.getMessageType(0).getField(0);
+    assertThat(field.getProto3Optional()).isTrue();
+    assertThat(field.getOneofIndex()).isEqualTo(0);
+    assertThat(file.getMessageType(0).getOneofDecl(0).getName()).isEqualTo("_value");
+  }
+
+  @Test
+  public void reportsMissingImport() throws Throwable {
+    writeProto("a.proto", "syntax = \"proto3\"; import \"missing.proto\";");
+    assertCompilationFails("a.proto", "a.proto: Import \"missing.proto\" was not found.");
+  }
+
+  @Test
+  public void reportsImportCycle() throws Throwable {
+    writeProto("a.proto", "syntax = \"proto3\"; import \"b.proto\";");
+    writeProto("b.proto", "syntax = \"proto3\"; import \"a.proto\";");
+    assertCompilationFails("a.proto", "a.proto -> b.proto -> a.proto");
+  }
+
+  @Test
+  public void reportsSyntaxErrorLocation() throws Throwable {
+    writeProto("a.proto", "syntax = \"proto3\";\nmessage M {\n  int32 = 1;\n}\n");
+    assertCompilationFails("a.proto", "a.proto:3:");
+  }
+
+  @Test
+  public void reportsUndefinedType() throws Throwable {
+    writeProto("a.proto", "syntax = \"proto3\"; message M { Unknown field = 1; }");
+    assertCompilationFails("a.proto", "Unknown");
+  }
+
+  @Test
+  public void reportsUnknownOption() throws Throwable {
+    writeProto("a.proto", "syntax = \"proto3\"; message M { int32 f = 1 [(nope) = 1]; }");
+    assertCompilationFails("a.proto", "nope");
+  }
+
+  private ProtoConfiguration discoveryConfig() {
+    return ProtoConfiguration.newBuilder()
+        .setProtoDiscoveryRoot(protoRoot.toString())
+        .build();
+  }
+
+  private static void assertMatchesProtoc(ProtoConfiguration config) throws Throwable {
+    FileDescriptorSet builtin = ProtocInvoker.forConfig(config, Optional.empty()).invoke();
+    FileDescriptorSet protoc = ProtocInvoker.forConfig(
+        config.toBuilder().setUseProtocBinary(true).build(), Optional.empty()).invoke();
+
+    // Protoc lists the files in a different order, but both list dependencies first.
+    assertThat(byName(builtin)).isEqualTo(byName(protoc));
+  }
+
+  private static ImmutableMap<String, FileDescriptorProto> byName(FileDescriptorSet descriptors) {
+    ImmutableMap.Builder<String, FileDescriptorProto> result = ImmutableMap.builder();
+    for (FileDescriptorProto file : descriptors.getFileList()) {
+      result.put(file.getName(), file);
+    }
+    return result.build();
+  }
+
+  private FileDescriptorSet compile(String fileName) throws ProtoCompilationException {
+    return ProtoCompiler.forIncludePaths(ImmutableList.of(protoRoot))
+        .compile(ImmutableList.of(protoRoot.resolve(fileName)));
+  }
+
+  private void assertCompilationFails(String fileName, String expectedMessage) throws Throwable {
+    try {
+      compile(fileName);
+      fail();
+    } catch (ProtoCompilationException e) {
+      assertThat(e.getMessage()).contains(expectedMessage);
+    }
+  }
+
+  private void writeProto(String fileName, String content) throws Throwable {
+    Files.write(protoRoot.resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+  }
+}
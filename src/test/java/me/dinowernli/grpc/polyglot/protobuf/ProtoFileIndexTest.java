@@ -0,0 +1,120 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+
+import com.google.common.collect.ImmutableSet;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link ProtoFileIndex}. */
+@TestClass
+public class ProtoFileIndexTest {
+  private static final String SERVICE = "polyglot.test.FooService";
+
+  @Rule public TemporaryFolder tempDirectory = new TemporaryFolder();
+
+  private Path protoRoot;
+  private Path indexDirectory;
+
+  @Before
+  public void setUp() throws Throwable {
+    protoRoot = tempDirectory.newFolder("protos").toPath();
+    indexDirectory = tempDirectory.newFolder("index").toPath();
+  }
+
+  @Test
+  public void scansPackageAndServices() {
+    assertThat(ProtoFileIndex.scanServices(
+        "syntax = \"proto3\";\n"
+            + "package polyglot.test;\n"
+            + "service FooService { rpc Call (A) returns (B) {} }\n"
+            + "message A { string service = 1; }\n"
+            + "service BarService {}\n"))
+        .containsExactly("polyglot.test.FooService", "polyglot.test.BarService");
+  }
+
+  @Test
+  public void scansServicesWithoutPackage() {
+    assertThat(ProtoFileIndex.scanServices("service FooService {}")).containsExactly("FooService");
+  }
+
+  @Test
+  public void ignoresCommentsAndStrings() {
+    assertThat(ProtoFileIndex.scanServices(
+        "package p;\n"
+            + "// service Commented {}\n"
+            + "/* service Block {} */\n"
+            + "option java_package = \"service Quoted {\";\n"
+            + "message M { message service {} }\n"))
+        .isEmpty();
+  }
+
+  @Test
+  public void findsFilesDefiningService() throws Throwable {
+    String fooFile = writeProto("foo.proto", "package polyglot.test; service FooService {}");
+    String barFile = writeProto("bar.proto", "package polyglot.test; service BarService {}");
+    ProtoFileIndex index = new ProtoFileIndex(Optional.of(indexDirectory));
+
+    ImmutableSet<String> files = ImmutableSet.of(fooFile, barFile);
+    assertThat(index.findServiceFiles(protoRoot, files, SERVICE)).containsExactly(fooFile);
+    assertThat(index.findServiceFiles(protoRoot, files, "polyglot.test.Missing")).isEmpty();
+  }
+
+  @Test
+  public void reusesEntriesOfUnchangedFiles() throws Throwable {
+    String file = writeProto("foo.proto", "package polyglot.test; service FooService {}");
+    ProtoFileIndex index = new ProtoFileIndex(Optional.of(indexDirectory));
+    assertThat(index.findServiceFiles(protoRoot, ImmutableSet.of(file), SERVICE)).hasSize(1);
+
+    // Same size and modification time, so the file is not scanned again.
+    FileTime modified = Files.getLastModifiedTime(protoRoot.resolve("foo.proto"));
+    writeProto("foo.proto", "package polyglot.test; service BarService {}");
+    Files.setLastModifiedTime(protoRoot.resolve("foo.proto"), modified);
+    assertThat(index.findServiceFiles(protoRoot, ImmutableSet.of(file), SERVICE)).hasSize(1);
+
+    Files.setLastModifiedTime(
+        protoRoot.resolve("foo.proto"), FileTime.fromMillis(modified.toMillis() + 1000));
+    assertThat(index.findServiceFiles(protoRoot, ImmutableSet.of(file), SERVICE)).isEmpty();
+  }
+
+  @Test
+  public void persistsEntriesAcrossInstances() throws Throwable {
+    String file = writeProto("foo.proto", "package polyglot.test; service FooService {}");
+    new ProtoFileIndex(Optional.of(indexDirectory))
+        .findServiceFiles(protoRoot, ImmutableSet.of(file), SERVICE);
+
+    // Make the file look unchanged, so that only the persisted entry knows about the service.
+    FileTime modified = Files.getLastModifiedTime(protoRoot.resolve("foo.proto"));
+    writeProto("foo.proto", "package polyglot.test; service BarService {}");
+    Files.setLastModifiedTime(protoRoot.resolve("foo.proto"), modified);
+
+    ProtoFileIndex reloaded = new ProtoFileIndex(Optional.of(indexDirectory));
+    assertThat(reloaded.findServiceFiles(protoRoot, ImmutableSet.of(file), SERVICE))
+        .containsExactly(file);
+  }
+
+  @Test
+  public void dropsRemovedFiles() throws Throwable {
+    String file = writeProto("foo.proto", "package polyglot.test; service FooService {}");
+    ProtoFileIndex index = ProtoFileIndex.inMemory();
+    assertThat(index.findServiceFiles(protoRoot, ImmutableSet.of(file), SERVICE)).hasSize(1);
+
+    Files.delete(protoRoot.resolve("foo.proto"));
+    assertThat(index.findServiceFiles(protoRoot, ImmutableSet.of(), SERVICE)).isEmpty();
+  }
+
+  private String writeProto(String fileName, String content) throws Throwable {
+    Path path = protoRoot.resolve(fileName);
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path.toAbsolutePath().toString();
+  }
+}
@@ -1,26 +1,155 @@
 package me.dinowernli.grpc.polyglot.protobuf;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 
 import me.dinowernli.junit.TestClass;
 import me.dinowernli.grpc.polyglot.testing.TestUtils;
+import org.junit.rules.TemporaryFolder;
 import polyglot.ConfigProto.ProtoConfiguration;
 
+import static com.google.common.truth.Truth.assertThat;
+
 /** Unit tests for {@link ProtocInvoker}. */
 @TestClass
 public class ProtocInvokerTest {
   private static final Path TEST_PROTO_FILES =
       Paths.get(TestUtils.TESTING_PROTO_ROOT.toString(), "protobuf");
 
+  @Rule public TemporaryFolder tempDirectory = new TemporaryFolder();
+
+  private Path protoRoot;
+  private Path cacheDirectory;
+
+  @Before
+  public void setUp() throws Throwable {
+    protoRoot = tempDirectory.newFolder("protos").toPath();
+    cacheDirectory = tempDirectory.newFolder("cache").toPath();
+    writeProto("message Foo {}");
+  }
+
   @Test
   public void handlesStandaloneProtoFileWithoutImports() throws Throwable {
     ProtocInvoker invoker = ProtocInvoker.forConfig(ProtoConfiguration.newBuilder()
         .setProtoDiscoveryRoot(TEST_PROTO_FILES.toString())
-        .build());
+        .build(), Optional.empty() /* cache */);
     invoker.invoke();
     // No crash.
   }
+
+  @Test
+  public void reusesCachedDescriptors() throws Throwable {
+    FileDescriptorSet first = createInvoker().invoke();
+    assertThat(first.getFileList()).isNotEmpty();
+
+    // Swap out the cached entry to prove that the second invocation doesn't run protoc.
+    FileDescriptorSet marker = FileDescriptorSet.newBuilder()
+        .addFile(FileDescriptorProto.newBuilder().setName("marker.proto"))
+        .build();
+    try (Stream<Path> entries = Files.list(cacheDirectory)) {
+      Path entry = entries
+          .filter(path -> path.toString().endsWith(".pb.bin"))
+          .findFirst()
+          .get();
+      Files.write(entry, marker.toByteArray());
+    }
+
+    assertThat(createInvoker().invoke()).isEqualTo(marker);
+  }
+
+  @Test
+  public void invalidatesCacheWhenProtoChanges() throws Throwable {
+    FileDescriptorSet first = createInvoker().invoke();
+    writeProto("message Bar {}");
+    FileDescriptorSet second = createInvoker().invoke();
+
+    assertThat(second).isNotEqualTo(first);
+    assertThat(findFile(second, "test.proto").getMessageType(0).getName()).isEqualTo("Bar");
+  }
+
+  @Test
+  public void compilesOnlyFilesNeededForService() throws Throwable {
+    writeFile("types.proto", "syntax = \"proto3\"; package p; message Req {}");
+    writeFile("service.proto", "syntax = \"proto3\"; package p; import \"types.proto\";\n"
+        + "service Svc { rpc Call (Req) returns (Req); }");
+    writeFile("unrelated.proto", "syntax = \"proto3\"; package p; service Other {}");
+
+    FileDescriptorSet result = createInvoker().invokeForService("p.Svc");
+
+    assertThat(result.getFileList().stream().map(FileDescriptorProto::getName).toArray())
+        .asList()
+        .containsExactly("types.proto", "service.proto");
+  }
+
+  @Test
+  public void compilesAllFilesForUnknownService() throws Throwable {
+    writeFile("other.proto", "syntax = \"proto3\"; package p; service Other {}");
+
+    FileDescriptorSet result = createInvoker().invokeForService("p.Missing");
+
+    assertThat(result.getFileCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void compilesAllFilesIfServiceUsesAny() throws Throwable {
+    writeFile("service.proto", "syntax = \"proto3\"; package p;\n"
+        + "import \"google/protobuf/any.proto\";\n"
+        + "service Svc { rpc Call (google.protobuf.Any) returns (google.protobuf.Any); }");
+
+    FileDescriptorSet result = createInvoker().invokeForService("p.Svc");
+
+    // The message in test.proto could be packed into an Any, so it must be known.
+    assertThat(findFile(result, "test.proto").getMessageType(0).getName()).isEqualTo("Foo");
+  }
+
+  @Test
+  public void returnsSameDescriptorsWhileFilesAreUnmodified() throws Throwable {
+    ProtocInvoker invoker = createInvoker();
+    FileDescriptorSet first = invoker.invoke();
+    assertThat(invoker.invoke()).isSameAs(first);
+
+    Path file = protoRoot.resolve("test.proto");
+    FileTime modified = Files.getLastModifiedTime(file);
+    writeProto("message Bar {}");
+    Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 1000));
+
+    FileDescriptorSet second = invoker.invoke();
+    assertThat(second).isNotSameAs(first);
+    assertThat(findFile(second, "test.proto").getMessageType(0).getName()).isEqualTo("Bar");
+  }
+
+  private ProtocInvoker createInvoker() {
+    return ProtocInvoker.forConfig(
+        ProtoConfiguration.newBuilder()
+            .setProtoDiscoveryRoot(protoRoot.toString())
+            .build(),
+        Optional.of(DescriptorSetCache.forDirectory(cacheDirectory)));
+  }
+
+  private void writeProto(String content) throws Throwable {
+    Files.write(protoRoot.resolve("test.proto"),
+        ("syntax = \"proto3\";\n" + content + "\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void writeFile(String fileName, String content) throws Throwable {
+    Files.write(protoRoot.resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static FileDescriptorProto findFile(FileDescriptorSet descriptors, String name) {
+    return descriptors.getFileList().stream()
+        .filter(file -> file.getName().equals(name))
+        .findFirst()
+        .get();
+  }
 }
@@ -0,0 +1,66 @@
+package me.dinowernli.grpc.polyglot.protobuf;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor.Marshaller;
+import me.dinowernli.junit.TestClass;
+import org.junit.Test;
+import polyglot.test.TestProto.TestRequest;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/** Unit tests for {@link RawMessages}. */
+@TestClass
+public class RawMessagesTest {
+  private static final byte[] WIRE_BYTES =
+      TestRequest.newBuilder().setMessage("some message").setNumber(42).build().toByteArray();
+
+  @Test
+  public void wrapsAndUnwraps() {
+    DynamicMessage raw = RawMessages.wrap(ByteString.copyFrom(WIRE_BYTES));
+    assertThat(RawMessages.isRaw(raw)).isTrue();
+    assertThat(RawMessages.unwrap(raw).toByteArray()).isEqualTo(WIRE_BYTES);
+  }
+
+  @Test
+  public void recognizesOtherMessages() {
+    assertThat(RawMessages.isRaw(TestRequest.getDefaultInstance())).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnwrappingOtherMessages() {
+    RawMessages.unwrap(TestRequest.getDefaultInstance());
+  }
+
+  @Test
+  public void marshallerKeepsKnownLengthBytes() {
+    DynamicMessage parsed = RawMessages.marshaller().parse(new KnownLengthStream(WIRE_BYTES));
+    assertThat(RawMessages.unwrap(parsed).toByteArray()).isEqualTo(WIRE_BYTES);
+  }
+
+  @Test
+  public void marshallerKeepsUnknownLengthBytes() {
+    DynamicMessage parsed =
+        RawMessages.marshaller().parse(new ByteArrayInputStream(WIRE_BYTES) {});
+    assertThat(RawMessages.unwrap(parsed).toByteArray()).isEqualTo(WIRE_BYTES);
+  }
+
+  @Test
+  public void marshallerStreamsWrappedBytes() throws Throwable {
+    Marshaller<DynamicMessage> marshaller = RawMessages.marshaller();
+    InputStream stream = marshaller.stream(RawMessages.wrap(ByteString.copyFrom(WIRE_BYTES)));
+    assertThat(ByteStreams.toByteArray(stream)).isEqualTo(WIRE_BYTES);
+  }
+
+  /** An {@link InputStream} which, like those handed out by the grpc transports, knows its size. */
+  private static class KnownLengthStream extends ByteArrayInputStream implements KnownLength {
+    KnownLengthStream(byte[] bytes) {
+      super(bytes);
+    }
+  }
+}
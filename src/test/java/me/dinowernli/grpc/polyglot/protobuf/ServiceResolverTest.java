@@ -1,16 +1,39 @@
 package me.dinowernli.grpc.polyglot.protobuf;
 
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
 import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Descriptors.ServiceDescriptor;
 import me.dinowernli.junit.TestClass;
 import org.junit.Before;
 import org.junit.Test;
 import polyglot.test.TestProto;
 import polyglot.test.foo.FooProto;
 
+import static com.google.common.truth.Truth.assertThat;
 
 /** Unit tests for {@link ServiceResolver}. */
 @TestClass
 public class ServiceResolverTest {
+  // A file which cannot be linked because it refers to a type which doesn't exist.
+  private static final FileDescriptorProto BROKEN_FILE = FileDescriptorProto.newBuilder()
+      .setName("broken.proto")
+      .setPackage("polyglot.broken")
+      .addMessageType(DescriptorProto.newBuilder()
+          .setName("Broken")
+          .addNestedType(DescriptorProto.newBuilder().setName("Inner"))
+          .addField(FieldDescriptorProto.newBuilder()
+              .setName("field")
+              .setNumber(1)
+              .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+              .setTypeName(".polyglot.broken.DoesNotExist")))
+      .build();
+
   private static FileDescriptorSet PROTO_FILE_DESCRIPTORS = FileDescriptorSet.newBuilder()
       .addFile(TestProto.getDescriptor().toProto())
       .addFile(FooProto.getDescriptor().toProto())
@@ -41,4 +64,90 @@ public class ServiceResolverTest {
     serviceResolver.resolveServiceMethod(
         ProtoMethodName.parseFullGrpcMethodName("polyglot.test.TestService/TestMethod"));
   }
+
+  @Test
+  public void resolvesMethodWithoutLinkingUnrelatedFiles() {
+    ServiceResolver resolver = ServiceResolver.fromFileDescriptorSet(
+        PROTO_FILE_DESCRIPTORS.toBuilder().addFile(BROKEN_FILE).build());
+    MethodDescriptor method = resolver.resolveServiceMethod(
+        ProtoMethodName.parseFullGrpcMethodName("polyglot.test.TestService/TestMethod"));
+    assertThat(method.getInputType().getFullName()).isEqualTo("polyglot.test.TestRequest");
+  }
+
+  @Test
+  public void resolvesSameDescriptorTwice() {
+    ProtoMethodName method =
+        ProtoMethodName.parseFullGrpcMethodName("polyglot.test.TestService/TestMethod");
+    assertThat(serviceResolver.resolveServiceMethod(method))
+        .isSameAs(serviceResolver.resolveServiceMethod(method));
+  }
+
+  @Test
+  public void resolvesMessageTypes() {
+    Descriptor tunnel = serviceResolver.resolveMessageType("polyglot.test.TunnelMessage");
+    assertThat(tunnel.getFullName()).isEqualTo("polyglot.test.TunnelMessage");
+    assertThat(serviceResolver.resolveMessageType("polyglot.test.foo.Foo").getFullName())
+        .isEqualTo("polyglot.test.foo.Foo");
+  }
+
+  @Test
+  public void resolvesNestedMessageTypes() {
+    ServiceResolver resolver = ServiceResolver.fromFileDescriptorSet(
+        FileDescriptorSet.newBuilder()
+            .addFile(BROKEN_FILE.toBuilder()
+                .setMessageType(0, BROKEN_FILE.getMessageType(0).toBuilder().clearField()))
+            .build());
+    assertThat(resolver.resolveMessageType("polyglot.broken.Broken.Inner").getFullName())
+        .isEqualTo("polyglot.broken.Broken.Inner");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void resolveMissingMessageType() {
+    serviceResolver.resolveMessageType("polyglot.test.DoesNotExist");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void resolveUnlinkableMessageType() {
+    ServiceResolver resolver = ServiceResolver.fromFileDescriptorSet(
+        FileDescriptorSet.newBuilder().addFile(BROKEN_FILE).build());
+    resolver.resolveMessageType("polyglot.broken.Broken");
+  }
+
+  @Test
+  public void listsServices() {
+    ImmutableList<ServiceDescriptor> services =
+        ImmutableList.copyOf(serviceResolver.listServices());
+    assertThat(services).hasSize(1);
+    assertThat(services.get(0).getFullName()).isEqualTo("polyglot.test.TestService");
+  }
+
+  @Test
+  public void listsServicesInDescriptorSetOrder() {
+    FileDescriptorSet.Builder descriptorSet = FileDescriptorSet.newBuilder();
+    ImmutableList.Builder<String> expectedNames = ImmutableList.builder();
+    for (int i = 0; i < 20; ++i) {
+      descriptorSet.addFile(FileDescriptorProto.newBuilder()
+          .setName("service" + i + ".proto")
+          .setPackage("polyglot.order")
+          .addService(ServiceDescriptorProto.newBuilder().setName("Service" + i)));
+      expectedNames.add("polyglot.order.Service" + i);
+    }
+
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    ServiceResolver.fromFileDescriptorSet(descriptorSet.build())
+        .listServices()
+        .forEach(service -> names.add(service.getFullName()));
+    assertThat(names.build()).containsExactlyElementsIn(expectedNames.build()).inOrder();
+  }
+
+  @Test
+  public void listsMessageTypesSkippingUnlinkableFiles() {
+    ServiceResolver resolver = ServiceResolver.fromFileDescriptorSet(
+        PROTO_FILE_DESCRIPTORS.toBuilder().addFile(BROKEN_FILE).build());
+    ImmutableList<String> names = resolver.listMessageTypes().stream()
+        .map(Descriptor::getFullName)
+        .collect(ImmutableList.toImmutableList());
+    assertThat(names).contains("polyglot.test.TunnelMessage");
+    assertThat(names).doesNotContain("polyglot.broken.Broken");
+  }
 }
@@ -0,0 +1,164 @@
+package me.dinowernli.grpc.polyglot.recording;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.DynamicMessage;
+import me.dinowernli.grpc.polyglot.protobuf.ProtoMethodName;
+import me.dinowernli.grpc.polyglot.protobuf.RawMessages;
+import me.dinowernli.grpc.polyglot.protobuf.ServiceResolver;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Test;
+import polyglot.RecordingProto.RecordedMessage;
+import polyglot.RecordingProto.RecordingHeader;
+import polyglot.test.TestProto;
+import polyglot.test.TestProto.TestRequest;
+import polyglot.test.TestProto.TestResponse;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+/** Unit tests for {@link RecordingWriter} and {@link RecordingReader}. */
+@TestClass
+public class RecordingWriterTest {
+  private static final String FULL_METHOD = "polyglot.test.TestService/TestMethod";
+  private static final RecordingHeader HEADER = RecordingHeader.newBuilder()
+      .setFullMethod(FULL_METHOD)
+      .setStartTimeUnixNanos(1234L)
+      .build();
+
+  private static final DynamicMessage REQUEST_1 = request("first");
+  private static final DynamicMessage REQUEST_2 = request("second");
+  private static final DynamicMessage RESPONSE = DynamicMessage.newBuilder(
+      TestResponse.newBuilder().setMessage("response").build()).build();
+
+  private ManualTicker ticker;
+  private ByteArrayOutputStream output;
+
+  @Before
+  public void setUp() {
+    ticker = new ManualTicker();
+    output = new ByteArrayOutputStream();
+  }
+
+  @Test
+  public void roundTripsRequestsWithTheirOffsets() throws Throwable {
+    RecordingWriter writer = new RecordingWriter(output, HEADER, ticker);
+    ticker.advanceMillis(5);
+    Iterator<DynamicMessage> requests =
+        writer.recordRequests(ImmutableList.of(REQUEST_1, REQUEST_2).iterator());
+    requests.next();
+    ticker.advanceMillis(10);
+    writer.recordResponses().onNext(RESPONSE);
+    ticker.advanceMillis(20);
+    requests.next();
+    writer.close();
+
+    RecordingReader reader = readBack();
+    assertThat(reader.getHeader()).isEqualTo(HEADER);
+    ImmutableList<RecordedMessage> recorded = ImmutableList.copyOf(reader.readRequests());
+    assertThat(recorded).hasSize(2);
+    assertThat(recorded.get(0).getWireBytes()).isEqualTo(REQUEST_1.toByteString());
+    assertThat(recorded.get(0).getOffsetNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(5));
+    assertThat(recorded.get(1).getWireBytes()).isEqualTo(REQUEST_2.toByteString());
+    assertThat(recorded.get(1).getOffsetNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(35));
+  }
+
+  @Test
+  public void recordsRawMessagesAsTheyAre() throws Throwable {
+    ByteString bytes = ByteString.copyFromUtf8("not parsed");
+    RecordingWriter writer = new RecordingWriter(output, HEADER, ticker);
+    Iterators.size(writer.recordRequests(Iterators.singletonIterator(RawMessages.wrap(bytes))));
+    writer.close();
+
+    RecordedMessage recorded = Iterators.getOnlyElement(readBack().readRequests());
+    assertThat(recorded.getWireBytes()).isEqualTo(bytes);
+  }
+
+  @Test
+  public void keepsCallGoingIfWritingFails() throws Throwable {
+    FailingOutputStream failing = new FailingOutputStream();
+    RecordingWriter writer = new RecordingWriter(failing, HEADER, ticker);
+    failing.failing = true;
+
+    // The requests still make it to the call, but the failure surfaces when closing.
+    assertThat(ImmutableList.copyOf(writer.recordRequests(
+        ImmutableList.of(REQUEST_1, REQUEST_2).iterator())))
+        .containsExactly(REQUEST_1, REQUEST_2);
+    try {
+      writer.close();
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void descriptorSetListsDependenciesFirst() {
+    FileDescriptorSet descriptorSet =
+        RecordingWriter.descriptorSetFor(TestProto.getDescriptor());
+
+    List<String> names = descriptorSet.getFileList().stream()
+        .map(FileDescriptorProto::getName)
+        .collect(Collectors.toList());
+    assertThat(names).containsAllOf(
+        "google/protobuf/any.proto",
+        "google/protobuf/duration.proto",
+        TestProto.getDescriptor().getName());
+    assertThat(names).containsNoDuplicates();
+    assertThat(names.get(names.size() - 1)).isEqualTo(TestProto.getDescriptor().getName());
+
+    // The recording has to be usable without any other descriptors.
+    assertThat(ServiceResolver.fromFileDescriptorSet(descriptorSet)
+        .resolveServiceMethod(ProtoMethodName.parseFullGrpcMethodName(FULL_METHOD))
+        .getFullName())
+        .isEqualTo("polyglot.test.TestService.TestMethod");
+  }
+
+  private RecordingReader readBack() throws IOException {
+    return new RecordingReader(new ByteArrayInputStream(output.toByteArray()));
+  }
+
+  private static DynamicMessage request(String message) {
+    return DynamicMessage.newBuilder(TestRequest.newBuilder().setMessage(message).build()).build();
+  }
+
+  /** An output stream which fails all writes once told to. */
+  private static class FailingOutputStream extends OutputStream {
+    private boolean failing;
+
+    @Override
+    public void write(int b) throws IOException {
+      if (failing) {
+        throw new IOException("Disk full");
+      }
+    }
+  }
+
+  /** A ticker which only advances when told to. */
+  private static class ManualTicker extends Ticker {
+    private long nanos;
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package me.dinowernli.grpc.polyglot.recording;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DynamicMessage;
+import io.grpc.CallOptions;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import me.dinowernli.grpc.polyglot.grpc.DynamicGrpcClient;
+import me.dinowernli.grpc.polyglot.protobuf.RawMessages;
+import me.dinowernli.junit.TestClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import polyglot.RecordingProto.RecordedMessage;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** Unit tests for {@link Replayer}. */
+@TestClass
+public class ReplayerTest {
+  private static final ImmutableList<RecordedMessage> REQUESTS = ImmutableList.of(
+      request("a", 0),
+      request("b", 100),
+      request("c", 300));
+
+  @Rule public MockitoRule mockitoJunitRule = MockitoJUnit.rule();
+  @Mock private DynamicGrpcClient mockClient;
+
+  private FakeClock clock;
+  private List<ByteString> sentRequests;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    sentRequests = new ArrayList<>();
+
+    // Sends all requests right away and answers each of them with a single response.
+    when(mockClient.call(
+        Matchers.<Iterator<DynamicMessage>>any(),
+        Matchers.<StreamObserver<DynamicMessage>>any(),
+        Matchers.<CallOptions>any()))
+        .thenAnswer(invocation -> {
+          Iterator<DynamicMessage> requests = invocation.getArgumentAt(0, Iterator.class);
+          StreamObserver<DynamicMessage> observer =
+              invocation.getArgumentAt(1, StreamObserver.class);
+          while (requests.hasNext()) {
+            sentRequests.add(RawMessages.unwrap(requests.next()));
+            observer.onNext(RawMessages.wrap(ByteString.EMPTY));
+          }
+          observer.onCompleted();
+          return Futures.immediateFuture(null);
+        });
+  }
+
+  @Test
+  public void sendsEachUnaryRequestOnItsOwnCall() throws Throwable {
+    Replayer.Result result = replayer(false /* clientStreaming */, 1.0).replay(
+        REQUESTS.iterator(), () -> CallOptions.DEFAULT);
+
+    verify(mockClient, times(3)).call(
+        Matchers.<Iterator<DynamicMessage>>any(),
+        Matchers.<StreamObserver<DynamicMessage>>any(),
+        Matchers.<CallOptions>any());
+    assertThat(sentRequests).containsExactly(bytes("a"), bytes("b"), bytes("c")).inOrder();
+    assertThat(clock.sleepsMillis).containsExactly(100L, 200L).inOrder();
+    assertThat(result.getNumCalls()).isEqualTo(3);
+    assertThat(result.getNumRequests()).isEqualTo(3);
+    assertThat(result.getNumResponses()).isEqualTo(3);
+    assertThat(result.getErrors()).isEmpty();
+    assertThat(result.getElapsedNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(300));
+  }
+
+  @Test
+  public void streamsAllRequestsOnOneCall() throws Throwable {
+    Replayer.Result result = replayer(true /* clientStreaming */, 1.0).replay(
+        REQUESTS.iterator(), () -> CallOptions.DEFAULT);
+
+    verify(mockClient, times(1)).call(
+        Matchers.<Iterator<DynamicMessage>>any(),
+        Matchers.<StreamObserver<DynamicMessage>>any(),
+        Matchers.<CallOptions>any());
+    assertThat(sentRequests).containsExactly(bytes("a"), bytes("b"), bytes("c")).inOrder();
+    assertThat(clock.sleepsMillis).containsExactly(100L, 200L).inOrder();
+    assertThat(result.getNumCalls()).isEqualTo(1);
+    assertThat(result.getNumRequests()).isEqualTo(3);
+  }
+
+  @Test
+  public void scalesTimingBySpeed() throws Throwable {
+    replayer(false /* clientStreaming */, 4.0).replay(
+        REQUESTS.iterator(), () -> CallOptions.DEFAULT);
+    assertThat(clock.sleepsMillis).containsExactly(25L, 50L).inOrder();
+  }
+
+  @Test
+  public void neverSleepsAtMaxSpeed() throws Throwable {
+    Replayer.Result result = replayer(false /* clientStreaming */, Double.POSITIVE_INFINITY)
+        .replay(REQUESTS.iterator(), () -> CallOptions.DEFAULT);
+    assertThat(clock.sleepsMillis).isEmpty();
+    assertThat(result.getNumCalls()).isEqualTo(3);
+  }
+
+  @Test
+  public void recordsLagWhenFallingBehind() throws Throwable {
+    // Every look at the clock takes 150ms, so the requests can't go out on time.
+    clock.millisPerRead = 150;
+    Replayer.Result result = replayer(false /* clientStreaming */, 1.0).replay(
+        REQUESTS.iterator(), () -> CallOptions.DEFAULT);
+    assertThat(result.getScheduleLag().getCount()).isEqualTo(3);
+    assertThat(result.getScheduleLag().getMaxNanos()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void countsFailedCalls() throws Throwable {
+    doReturn(Futures.immediateFailedFuture(Status.UNAVAILABLE.asRuntimeException()))
+        .when(mockClient).call(
+            Matchers.<Iterator<DynamicMessage>>any(),
+            Matchers.<StreamObserver<DynamicMessage>>any(),
+            Matchers.<CallOptions>any());
+
+    Replayer.Result result = replayer(false /* clientStreaming */, Double.POSITIVE_INFINITY)
+        .replay(REQUESTS.iterator(), () -> CallOptions.DEFAULT);
+    assertThat(result.getErrors().count(Status.Code.UNAVAILABLE)).isEqualTo(3);
+  }
+
+  @Test
+  public void makesNoCallForEmptyRecording() throws Throwable {
+    Replayer.Result result = replayer(true /* clientStreaming */, 1.0).replay(
+        ImmutableList.<RecordedMessage>of().iterator(), () -> CallOptions.DEFAULT);
+    assertThat(result.getNumCalls()).isEqualTo(0);
+  }
+
+  private Replayer replayer(boolean clientStreaming, double speed) {
+    return new Replayer(mockClient, clientStreaming, speed, clock, clock::sleep);
+  }
+
+  private static RecordedMessage request(String content, long offsetMillis) {
+    return RecordedMessage.newBuilder()
+        .setDirection(RecordedMessage.Direction.REQUEST)
+        .setOffsetNanos(TimeUnit.MILLISECONDS.toNanos(offsetMillis))
+        .setWireBytes(bytes(content))
+        .build();
+  }
+
+  private static ByteString bytes(String content) {
+    return ByteString.copyFromUtf8(content);
+  }
+
+  /** A clock whose time only moves when sleeping, or by a fixed amount on every read. */
+  private static class FakeClock extends Ticker {
+    private final List<Long> sleepsMillis = new ArrayList<>();
+    private long millisPerRead;
+    private long nanos;
+
+    void sleep(long sleepNanos) {
+      sleepsMillis.add(TimeUnit.NANOSECONDS.toMillis(sleepNanos));
+      nanos += sleepNanos;
+    }
+
+    @Override
+    public long read() {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millisPerRead);
+      return nanos;
+    }
+  }
+}